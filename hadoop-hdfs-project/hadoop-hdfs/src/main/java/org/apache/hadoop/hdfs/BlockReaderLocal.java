@@ -31,6 +31,8 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.hdfs.MappedBlockCache.MappedBlock;
 import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
 import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
@@ -59,6 +61,14 @@
  * <li>Client uses kerberos authentication to connect to the datanode over RPC,
  * if security is enabled.</li>
  * </ul>
+ * If {@link DFSConfigKeys#DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_ENABLED_KEY} is
+ * set, the files of the blocks the namenode reported complete are memory
+ * mapped instead, provided the replica has the length of the block, and kept
+ * in a
+ * {@link MappedBlockCache} shared by the readers of the client. The data is
+ * then copied straight from the mapping to the buffer of the caller, and the
+ * checksums of the chunks read are verified in bulk from the mapped meta
+ * file.
  */
 class BlockReaderLocal implements BlockReader {
   private static final Log LOG = LogFactory.getLog(DFSClient.class);
@@ -119,6 +129,8 @@ private void removeBlockLocalPathInfo(ExtendedBlock b) {
   // a map keyed by the ipc port of the datanode.
   private static Map<Integer, LocalDatanodeInfo> localDatanodeInfoMap = new HashMap<Integer, LocalDatanodeInfo>();
 
+  private static MappedBlockCache mmapCache = null;
+
   private final FileInputStream dataIn; // reader for the data file
   private final FileInputStream checksumIn;   // reader for the checksum file
 
@@ -150,14 +162,31 @@ private void removeBlockLocalPathInfo(ExtendedBlock b) {
   /** offset in block where reader wants to actually read */
   private long startOffset;
   private final String filename;
+
+  /** the cache of the mapped block, null if the block is not mapped */
+  private final MappedBlockCache blockCache;
+  private MappedBlock mappedBlock;
+  /** offset in block of the next read from the mapped block */
+  private long mappedPosition;
+  /**
+   * The range of the mapped block whose checksums were verified by this
+   * reader, so small sequential reads do not verify a chunk again.
+   */
+  private long verifiedStart = 0;
+  private long verifiedEnd = 0;
   
   /**
    * The only way this object can be instantiated.
+   *
+   * @param complete whether the namenode reported the block complete. The
+   * datanode also gives the paths of the replicas being written, which can
+   * have the length of the block before their checksums are final, so the
+   * other blocks are not mapped.
    */
   static BlockReaderLocal newBlockReader(Configuration conf, String file,
       ExtendedBlock blk, Token<BlockTokenIdentifier> token, DatanodeInfo node,
       int socketTimeout, long startOffset, long length,
-      boolean connectToDnViaHostname) throws IOException {
+      boolean connectToDnViaHostname, boolean complete) throws IOException {
 
     LocalDatanodeInfo localDatanodeInfo = getLocalDatanodeInfo(node
         .getIpcPort());
@@ -179,6 +208,17 @@ static BlockReaderLocal newBlockReader(Configuration conf, String file,
     BlockReaderLocal localBlockReader = null;
     boolean skipChecksumCheck = skipChecksumCheck(conf);
     try {
+      if (complete && isMmapEnabled(conf)) {
+        MappedBlockCache cache = getMmapCache(conf);
+        // only complete blocks are mapped, the others are read from streams
+        MappedBlock mapped = cache.ref(pathinfo, blk.getNumBytes());
+        if (mapped != null) {
+          localBlockReader = new BlockReaderLocal(file, startOffset, cache,
+              mapped, !skipChecksumCheck);
+          return localBlockReader;
+        }
+      }
+
       // get a local file system
       File blkfile = new File(pathinfo.getBlockPath());
       dataIn = new FileInputStream(blkfile);
@@ -265,6 +305,22 @@ private static BlockLocalPathInfo getBlockPathInfo(ExtendedBlock blk,
     return pathinfo;
   }
   
+  private static boolean isMmapEnabled(Configuration conf) {
+    return conf.getBoolean(
+        DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_ENABLED_KEY,
+        DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_ENABLED_DEFAULT);
+  }
+
+  private static synchronized MappedBlockCache getMmapCache(
+      Configuration conf) {
+    if (mmapCache == null) {
+      mmapCache = new MappedBlockCache(conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_CACHE_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_CACHE_SIZE_DEFAULT));
+    }
+    return mmapCache;
+  }
+
   private static boolean skipChecksumCheck(Configuration conf) {
     return conf.getBoolean(
         DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY,
@@ -310,6 +366,7 @@ private BlockReaderLocal(Configuration conf, String hdfsfile,
     this.dataIn = dataIn;
     this.checksumIn = checksumIn;
     this.offsetFromChunkBoundary = (int) (startOffset-firstChunkOffset);
+    this.blockCache = null;
 
     int chunksPerChecksumRead = getSlowReadBufferNumChunks(conf, bytesPerChecksum);
     slowReadBuff = bufferPool.getBuffer(bytesPerChecksum * chunksPerChecksumRead);
@@ -334,6 +391,102 @@ private BlockReaderLocal(Configuration conf, String hdfsfile,
     }
   }
 
+  /**
+   * Reads from a mapped block, no streams or staging buffers are needed.
+   */
+  private BlockReaderLocal(String hdfsfile, long startOffset,
+      MappedBlockCache blockCache, MappedBlock mappedBlock,
+      boolean verifyChecksum) {
+    this.filename = hdfsfile;
+    // the checksum of the mapped block is shared by its readers
+    DataChecksum blockChecksum = mappedBlock.getChecksum();
+    this.checksum = DataChecksum.newDataChecksum(
+        blockChecksum.getChecksumType(), blockChecksum.getBytesPerChecksum());
+    this.verifyChecksum = verifyChecksum;
+    this.startOffset = Math.max(startOffset, 0);
+
+    bytesPerChecksum = this.checksum.getBytesPerChecksum();
+    checksumSize = this.checksum.getChecksumSize();
+
+    this.dataIn = null;
+    this.checksumIn = null;
+    this.blockCache = blockCache;
+    this.mappedBlock = mappedBlock;
+    this.mappedPosition = this.startOffset;
+  }
+
+  /**
+   * Copies the data at the current position of the mapped block to buf,
+   * after verifying the checksums of the chunks it is in.
+   *
+   * @return the number of bytes read, or -1 at the end of the block
+   */
+  private synchronized int readMapped(ByteBuffer buf) throws IOException {
+    if (mappedBlock == null) {
+      throw new IOException("BlockReaderLocal of " + filename + " is closed");
+    }
+    long length = mappedBlock.getLength();
+    if (mappedPosition >= length) {
+      return -1;
+    }
+    int start = (int) mappedPosition;
+    int end = (int) Math.min(length, mappedPosition + buf.remaining());
+    try {
+      if (verifyChecksum) {
+        verifyMapped(start, end);
+      }
+      ByteBuffer data = mappedBlock.getData().duplicate();
+      data.limit(end);
+      data.position(start);
+      buf.put(data);
+    } catch (InternalError e) {
+      // an access to a mapping faults if its file was truncated, the block
+      // was reopened for append
+      blockCache.invalidate(mappedBlock);
+      throw new IOException("Could not read the mapped block of " + filename,
+          e);
+    }
+    mappedPosition = end;
+    return end - start;
+  }
+
+  /**
+   * Verifies the checksums of the chunks of the mapped block which overlap
+   * [start, end), unless this reader already verified them.
+   */
+  private void verifyMapped(int start, int end) throws IOException {
+    if (start >= verifiedStart && end <= verifiedEnd) {
+      return;
+    }
+    int length = (int) mappedBlock.getLength();
+    int from = start - (start % bytesPerChecksum);
+    int to = (int) Math.min(length,
+        ((long) end + bytesPerChecksum - 1) / bytesPerChecksum
+            * bytesPerChecksum);
+    if (from >= verifiedStart && from <= verifiedEnd) {
+      // continues the verified range
+      from = (int) verifiedEnd;
+    } else {
+      verifiedStart = from;
+    }
+    if (from < to) {
+      int checksumOffset = from / bytesPerChecksum * checksumSize;
+      int numChunks = (to - from + bytesPerChecksum - 1) / bytesPerChecksum;
+      ByteBuffer checksums = mappedBlock.getChecksums().duplicate();
+      if (checksumOffset + numChunks * checksumSize > checksums.capacity()) {
+        throw new ChecksumException("The meta file of " + filename
+            + " has no checksums for the chunks at " + from, from);
+      }
+      checksums.limit(checksumOffset + numChunks * checksumSize);
+      checksums.position(checksumOffset);
+      ByteBuffer data = mappedBlock.getData().duplicate();
+      data.limit(to);
+      data.position(from);
+      checksum.verifyChunkedSums(data, checksums, filename, from);
+    }
+    verifiedEnd = to;
+  }
+
   /**
    * Reads bytes into a buffer until EOF or the buffer's limit is reached
    */
@@ -371,6 +524,9 @@ private void writeSlice(ByteBuffer from, ByteBuffer to, int length) {
 
   @Override
   public synchronized int read(ByteBuffer buf) throws IOException {
+    if (blockCache != null) {
+      return readMapped(buf);
+    }
     int nRead = 0;
     if (verifyChecksum) {
       // A 'direct' read actually has three phases. The first drains any
@@ -564,6 +720,9 @@ public synchronized int read(byte[] buf, int off, int len) throws IOException {
     if (LOG.isTraceEnabled()) {
       LOG.trace("read off " + off + " len " + len);
     }
+    if (blockCache != null) {
+      return readMapped(ByteBuffer.wrap(buf, off, len));
+    }
     if (!verifyChecksum) {
       return dataIn.read(buf, off, len);
     }
@@ -588,6 +747,13 @@ public synchronized long skip(long n) throws IOException {
     if (n <= 0) {
       return 0;
     }
+    if (blockCache != null) {
+      // the chunks read next are verified by the read
+      long skipped = Math.max(0,
+          Math.min(n, mappedBlock.getLength() - mappedPosition));
+      mappedPosition += skipped;
+      return skipped;
+    }
     if (!verifyChecksum) {
       return dataIn.skip(n);
     }
@@ -650,9 +816,16 @@ public synchronized long skip(long n) throws IOException {
 
   @Override
   public synchronized void close() throws IOException {
-    dataIn.close();
-    if (checksumIn != null) {
-      checksumIn.close();
+    if (blockCache != null) {
+      if (mappedBlock != null) {
+        blockCache.unref(mappedBlock);
+        mappedBlock = null;
+      }
+    } else {
+      dataIn.close();
+      if (checksumIn != null) {
+        checksumIn.close();
+      }
     }
     if (slowReadBuff != null) {
       bufferPool.returnBuffer(slowReadBuff);
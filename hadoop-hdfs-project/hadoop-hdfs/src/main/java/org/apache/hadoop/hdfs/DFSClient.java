@@ -75,6 +75,10 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.SocketFactory;
 
@@ -151,6 +155,7 @@
 import org.apache.hadoop.security.token.SecretManager.InvalidToken;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.security.token.TokenRenewer;
+import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.DataChecksum.Type;
 import org.apache.hadoop.util.Progressable;
@@ -213,6 +218,13 @@ public class DFSClient implements java.io.Closeable {
   private Random r = new Random();
   private SocketAddress[] localInterfaceAddrs;
   private DataEncryptionKey encryptionKey;
+  /**
+   * The threads of the hedged reads, shared by the clients of the process.
+   * It grows to the largest pool size the clients are configured with.
+   */
+  private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
+  private final DFSHedgedReadMetrics hedgedReadMetrics =
+      new DFSHedgedReadMetrics();
   
 
 
@@ -246,6 +258,8 @@ static class Conf {
     final boolean getHdfsBlocksMetadataEnabled;
     final int getFileBlockStorageLocationsNumThreads;
     final int getFileBlockStorageLocationsTimeout;
+    final int hedgedReadThreadpoolSize;
+    final long hedgedReadThresholdMillis;
     //START_HOP_CODE
     final int dfsClientInitialWaitOnRetry;
     //END_HOP_CODE
@@ -310,6 +324,12 @@ static class Conf {
       getFileBlockStorageLocationsTimeout = conf.getInt(
           DFSConfigKeys.DFS_CLIENT_FILE_BLOCK_STORAGE_LOCATIONS_TIMEOUT,
           DFSConfigKeys.DFS_CLIENT_FILE_BLOCK_STORAGE_LOCATIONS_TIMEOUT_DEFAULT);
+      hedgedReadThreadpoolSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_DEFAULT);
+      hedgedReadThresholdMillis = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY,
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_DEFAULT);
       //START_HOP_CODE
       dfsClientInitialWaitOnRetry = conf.getInt(DFSConfigKeys.DFS_CLIENT_INITIAL_WAIT_ON_RETRY_IN_MS_KEY,
               DFSConfigKeys.DFS_CLIENT_INITIAL_WAIT_ON_RETRY_IN_MS_DEFAULT);
@@ -462,11 +482,46 @@ public DFSClient(URI nameNodeUri, Configuration conf,
     
     this.socketCache = SocketCache.getInstance(dfsClientConf.socketCacheCapacity, dfsClientConf.socketCacheExpiry);
     
+    if (dfsClientConf.hedgedReadThreadpoolSize > 0) {
+      initHedgedReadThreadPool(dfsClientConf.hedgedReadThreadpoolSize);
+    }
+    
     //START_HOP_CODE
     this.MAX_RPC_RETRIES = conf.getInt(DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_KEY, DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_DEFAULT);
     //END_HOP_CODE
   }
 
+  private static synchronized void initHedgedReadThreadPool(int size) {
+    if (HEDGED_READ_THREAD_POOL == null) {
+      HEDGED_READ_THREAD_POOL = new ThreadPoolExecutor(1, size, 60,
+          TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          new Daemon.DaemonFactory());
+      HEDGED_READ_THREAD_POOL.allowCoreThreadTimeOut(true);
+      LOG.debug("Using " + size + " threads for hedged reads");
+    } else if (HEDGED_READ_THREAD_POOL.getMaximumPoolSize() < size) {
+      HEDGED_READ_THREAD_POOL.setMaximumPoolSize(size);
+    }
+  }
+
+  /**
+   * @return whether the positional reads of this client are hedged
+   */
+  boolean isHedgedReadsEnabled() {
+    return dfsClientConf.hedgedReadThreadpoolSize > 0;
+  }
+
+  /**
+   * @return the shared hedged read pool, which rejects the reads when all its
+   * threads are busy
+   */
+  Executor getHedgedReadExecutor() {
+    return HEDGED_READ_THREAD_POOL;
+  }
+
+  public DFSHedgedReadMetrics getHedgedReadMetrics() {
+    return hedgedReadMetrics;
+  }
+
   /**
    * Return the socket addresses to use with each configured
    * local interface. Local interfaces may be specified by IP
@@ -839,15 +894,19 @@ public long renewDelegationToken(Token<DelegationTokenIdentifier> token)
 
   /**
    * Get {@link BlockReader} for short circuited local reads.
+   *
+   * @param complete whether the namenode reported the block complete, only
+   * such a block may be memory mapped
    */
   static BlockReader getLocalBlockReader(Configuration conf,
       String src, ExtendedBlock blk, Token<BlockTokenIdentifier> accessToken,
       DatanodeInfo chosenNode, int socketTimeout, long offsetIntoBlock,
-      boolean connectToDnViaHostname) throws InvalidToken, IOException {
+      boolean connectToDnViaHostname, boolean complete)
+      throws InvalidToken, IOException {
     try {
       return BlockReaderLocal.newBlockReader(conf, src, blk, accessToken,
           chosenNode, socketTimeout, offsetIntoBlock, blk.getNumBytes()
-              - offsetIntoBlock, connectToDnViaHostname);
+              - offsetIntoBlock, connectToDnViaHostname, complete);
     } catch (RemoteException re) {
       throw re.unwrapRemoteException(InvalidToken.class,
           AccessControlException.class);
@@ -1042,7 +1101,7 @@ public Object doAction(ClientProtocol namenode) throws RemoteException, IOExcept
         return callGetBlockLocations(namenode, src, start, length);
       }
     };
-    return (LocatedBlocks) doClientActionWithRetry(handler, "getLocatedBlocks");
+    return (LocatedBlocks) doClientActionWithRetry(handler, "getLocatedBlocks", src);
   }
 
   /**
@@ -1795,7 +1854,7 @@ public Object doAction(ClientProtocol namenode) throws RemoteException, IOExcept
           return namenode.getListing(src, startAfter, needLocation);
         }
       };
-      return (DirectoryListing) doClientActionWithRetry(handler, "listPaths");
+      return (DirectoryListing) doClientActionWithRetry(handler, "listPaths", src);
     } catch(RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
                                      FileNotFoundException.class,
@@ -1820,7 +1879,7 @@ public Object doAction(ClientProtocol namenode) throws RemoteException, IOExcept
           return namenode.getFileInfo(src);
         }
       };
-      return (HdfsFileStatus) doClientActionWithRetry(handler, "getFileInfo");
+      return (HdfsFileStatus) doClientActionWithRetry(handler, "getFileInfo", src);
     } catch (RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
                                      FileNotFoundException.class,
@@ -2556,7 +2615,7 @@ public Object doAction(ClientProtocol namenode) throws RemoteException, IOExcept
           return namenode.getContentSummary(src);
         }
       };
-      return (ContentSummary) doClientActionWithRetry(handler, "getContentSummary");
+      return (ContentSummary) doClientActionWithRetry(handler, "getContentSummary", src);
     } catch(RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
                                      FileNotFoundException.class,
@@ -2671,18 +2730,30 @@ private interface NameNodeFetcher {
     public NamenodeHandle getNextNameNode(List<ActiveNode> blackList) throws IOException;
   }
 
-  private final NameNodeFetcher defaultNameNodeFetcher = new NameNodeFetcher() {
+  private final NameNodeFetcher defaultNameNodeFetcher = new PathNameNodeFetcher(null);
+
+  /**
+   * Fetches the namenode for an operation on a path, the same namenode
+   * serves a prefix of the namespace if sticky selection is configured.
+   */
+  private class PathNameNodeFetcher implements NameNodeFetcher {
+    private final String path;
+
+    PathNameNodeFetcher(String path) {
+      this.path = path;
+    }
+
     public NamenodeHandle getNextNameNode(List<ActiveNode> blackList) throws IOException {
       NamenodeSelector.NamenodeHandle handle = null;
       for (int i = 0; i < 10; i++) {
-        handle = namenodeSelector.getNextNamenode();
+        handle = namenodeSelector.getNextNamenode(path);
         if (!blackList.contains(handle.getNamenode())) {
           return handle;
         }
       }
       return handle;
     }
-  };
+  }
 
   private final NameNodeFetcher leaderNameNodeFetcher = new NameNodeFetcher() {
     public NamenodeHandle getNextNameNode(List<ActiveNode> blackList) throws IOException {
@@ -2704,6 +2775,11 @@ private Object doClientActionWithRetry(ClientActionHandler handler, String calle
     return doClientActionWithRetry(handler, callerID, defaultNameNodeFetcher);
   }
 
+  private Object doClientActionWithRetry(ClientActionHandler handler, String callerID, String src)
+      throws RemoteException, IOException {
+    return doClientActionWithRetry(handler, callerID, new PathNameNodeFetcher(src));
+  }
+
   private static AtomicLong fnID = new AtomicLong(); // for debugging purpose
   private Object doClientActionWithRetry(ClientActionHandler handler, String callerID, NameNodeFetcher nameNodeFetcher)
       throws RemoteException, IOException {
@@ -2726,9 +2802,21 @@ private Object doClientActionWithRetry(ClientActionHandler handler, String calle
         handle = nameNodeFetcher.getNextNameNode(blackListedNamenodes);
 
         LOG.debug(thisFnID + ") " + callerID + " sending RPC to " + handle.getNamenode() + " tries left (" + (MAX_RPC_RETRIES - i) + ")");
-        Object obj = handler.doAction(handle.getRPCHandle());
-        //no exception
-        return obj;
+        long start = System.nanoTime();
+        handle.callStarted();
+        boolean failed = true;
+        try {
+          Object obj = handler.doAction(handle.getRPCHandle());
+          failed = false;
+          //no exception
+          return obj;
+        } catch (IOException e) {
+          // the namenode answered unless it could not be reached
+          failed = ExceptionCheck.isLocalConnectException(e);
+          throw e;
+        } finally {
+          handle.callFinished(System.nanoTime() - start, failed);
+        }
       } catch (IOException e) {
         exception = e;
         if (ExceptionCheck.isLocalConnectException(e)) {
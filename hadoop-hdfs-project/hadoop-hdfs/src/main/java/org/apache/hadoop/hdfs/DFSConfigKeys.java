@@ -59,12 +59,30 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_QUOTA_UPDATE_LIMIT_KEY = "dfs.namenode.quota.update.limit";
   public static final int DFS_NAMENODE_QUOTA_UPDATE_LIMIT_DEFAULT = 100000;
 
+  public static final String DFS_NAMENODE_QUOTA_UPDATE_THREADS_KEY = "dfs.namenode.quota.update.threads";
+  public static final int DFS_NAMENODE_QUOTA_UPDATE_THREADS_DEFAULT = 0; // 0 applies the updates in the monitor thread
+
+  public static final String DFS_NAMENODE_QUOTA_UPDATE_INODES_PER_TX_KEY = "dfs.namenode.quota.update.inodes-per-transaction";
+  public static final int DFS_NAMENODE_QUOTA_UPDATE_INODES_PER_TX_DEFAULT = 20;
+
   public static final String DFS_NAMENODE_QUOTA_UPDATE_ID_BATCH_SIZE = "dfs.namenode.quota.update.id.batchsize";
   public static final int DFS_NAMENODE_QUOTA_UPDATE_ID_BATCH_SIZ_DEFAULT = 100000;
 
   public static final String DFS_NAMENODE_QUOTA_UPDATE_ID_UPDATE_THRESHOLD = "dfs.namenode.quota.update.updateThreshold";
   public static final float DFS_NAMENODE_QUOTA_UPDATE_ID_UPDATE_THRESHOLD_DEFAULT = (float) 0.5;
 
+  public static final String DFS_NAMENODE_ACCESSTIME_FLUSH_INTERVAL_KEY = "dfs.namenode.accesstime.flush.interval";
+  public static final int DFS_NAMENODE_ACCESSTIME_FLUSH_INTERVAL_DEFAULT = 1000;
+
+  public static final String DFS_NAMENODE_ACCESSTIME_FLUSH_LIMIT_KEY = "dfs.namenode.accesstime.flush.limit";
+  public static final int DFS_NAMENODE_ACCESSTIME_FLUSH_LIMIT_DEFAULT = 10000;
+
+  public static final String DFS_NAMENODE_ACCESSTIME_INODES_PER_TX_KEY = "dfs.namenode.accesstime.inodes-per-transaction";
+  public static final int DFS_NAMENODE_ACCESSTIME_INODES_PER_TX_DEFAULT = 100;
+
+  public static final String DFS_NAMENODE_ACCESSTIME_MAX_PENDING_KEY = "dfs.namenode.accesstime.max-pending";
+  public static final int DFS_NAMENODE_ACCESSTIME_MAX_PENDING_DEFAULT = 1000000;
+
   public static final String DFS_NAMENODE_INODEID_BATCH_SIZE = "dfs.namenode.inodeid.batchsize";
   public static final int DFS_NAMENODE_INODEID_BATCH_SIZE_DEFAULT = 1000;
 
@@ -80,8 +98,26 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS = "dfs.namenode.id.updateThreshold";
   public static final int DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS_DEFAULT = 1000;
 
+  public static final String DFS_NAMENODE_ID_THREAD_CHUNK_SIZE = "dfs.namenode.id.thread-chunk-size";
+  public static final int DFS_NAMENODE_ID_THREAD_CHUNK_SIZE_DEFAULT = 8;
+
+  public static final String DFS_NAMENODE_ID_DEPLETION_WAIT_IN_MS = "dfs.namenode.id.depletion-wait.ms";
+  public static final long DFS_NAMENODE_ID_DEPLETION_WAIT_IN_MS_DEFAULT = 500;
+
   public static final String DFS_NAMENODE_PROCESS_REPORT_BATCH_SIZE = "dfs.namenode.processReport.batchsize";
   public static final int DFS_NAMENODE_PROCESS_REPORT_BATCH_SIZE_DEFAULT = 10000;
+
+  public static final String DFS_NAMENODE_PROCESS_REPORT_THREADS = "dfs.namenode.processReport.threads";
+  public static final int DFS_NAMENODE_PROCESS_REPORT_THREADS_DEFAULT = 0; // 0 processes the reports in the handler thread
+
+  public static final String DFS_NAMENODE_PROCESS_REPORT_ACTIONS_BATCH_SIZE = "dfs.namenode.processReport.actions.batchsize";
+  public static final int DFS_NAMENODE_PROCESS_REPORT_ACTIONS_BATCH_SIZE_DEFAULT = 500;
+
+  public static final String DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE = "dfs.namenode.replicationWork.batchsize";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_DEFAULT = 100;
+
+  public static final String DFS_NAMENODE_REPLICATION_WORK_THREADS = "dfs.namenode.replicationWork.threads";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT = 4;
   
   public static final String DFS_NAMENODE_PROCESS_MISREPLICATED_BATCH_SIZE = "dfs.namenode.misreplicated.batchsize";
   public static final int DFS_NAMENODE_PROCESS_MISREPLICATED_BATCH_SIZE_DEFAULT = 500;
@@ -94,7 +130,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODES_RPC_ADDRESS_DEFAULT = "";
   
   public static final String  DFS_NAMENODE_SELECTOR_POLICY_KEY = "dfs.namenode.selector-policy";
-  public static final String  DFS_NAMENODE_SELECTOR_POLICY_DEFAULT = "ROUND_ROBIN";     //RANDOM
+  public static final String  DFS_NAMENODE_SELECTOR_POLICY_DEFAULT = "ROUND_ROBIN";     //RANDOM, LOAD_AWARE
+  public static final String  DFS_NAMENODE_SELECTOR_STICKY_PREFIX_DEPTH_KEY = "dfs.namenode.selector.sticky-prefix-depth";
+  public static final int     DFS_NAMENODE_SELECTOR_STICKY_PREFIX_DEPTH_DEFAULT = 0; // disabled
   
   public static final String  DFS_LEADER_CHECK_INTERVAL_IN_MS_KEY = "dfs.leader.check.interval";
   public static final int     DFS_LEADER_CHECK_INTERVAL_IN_MS_DEFAULT = 1*1000; // 1 second 
@@ -135,6 +173,30 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_MEMCACHE_KEY_EXPIRY_IN_SECONDS = "dfs.memcache.key.expiry";  
   public static final int  DFS_MEMCACHE_KEY_EXPIRY_IN_SECONDS_DEFAULT = 0;
 
+  public static final String DFS_BATCHED_PATH_RESOLUTION_ENABLED_KEY = "dfs.namenode.batched-path-resolution.enable";
+  public static final boolean DFS_BATCHED_PATH_RESOLUTION_ENABLED_DEFAULT = false;
+
+  public static final String DFS_PATH_CACHE_ENABLED_KEY = "dfs.namenode.path-cache.enable";
+  public static final boolean DFS_PATH_CACHE_ENABLED_DEFAULT = false;
+
+  public static final String DFS_PATH_CACHE_SIZE_KEY = "dfs.namenode.path-cache.size";
+  public static final int DFS_PATH_CACHE_SIZE_DEFAULT = 100000;
+
+  public static final String DFS_INODE_CACHE_ENABLED_KEY = "dfs.namenode.inode-cache.enable";
+  public static final boolean DFS_INODE_CACHE_ENABLED_DEFAULT = false;
+
+  public static final String DFS_INODE_CACHE_SIZE_KEY = "dfs.namenode.inode-cache.size";
+  public static final int DFS_INODE_CACHE_SIZE_DEFAULT = 100000;
+
+  public static final String DFS_INODE_CACHE_MAX_AGE_KEY = "dfs.namenode.inode-cache.max-age.ms";
+  public static final long DFS_INODE_CACHE_MAX_AGE_DEFAULT = 1000;
+
+  public static final String DFS_ROW_COUNTERS_ENABLED_KEY = "dfs.namenode.row-counters.enable";
+  public static final boolean DFS_ROW_COUNTERS_ENABLED_DEFAULT = false;
+
+  public static final String DFS_ROW_COUNTERS_RECONCILE_INTERVAL_KEY = "dfs.namenode.row-counters.reconcile.interval.ms";
+  public static final long DFS_ROW_COUNTERS_RECONCILE_INTERVAL_DEFAULT = 60 * 1000;
+
   public static final String DFS_LEGACY_DELETE_ENABLE_KEY = "dfs.namenode.legacy-delete.enable";
   public static final boolean DFS_LEGACY_DELETE_ENABLE_DEFAULT = false;
 
@@ -143,16 +205,40 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
 
   public static final String DFS_LEGACY_CONTENT_SUMMARY_ENABLE_KEY = "dfs.namenode.legacy-content-summary.enable";
   public static final boolean DFS_LEGACY_CONTENT_SUMMARY_ENABLE_DEFAULT = false;
+
+  public static final String DFS_LEGACY_LISTING_ENABLE_KEY = "dfs.namenode.legacy-listing.enable";
+  public static final boolean DFS_LEGACY_LISTING_ENABLE_DEFAULT = false;
   
   public static final String DFS_NDC_ENABLED_KEY = "dfs.ndc.enable";
   public static final boolean DFS_NDC_ENABLED_DEFAULT = true;
 
+  public static final String DFS_TRANSACTION_STATS_ENABLED_KEY = "dfs.transaction-stats.enable";
+  public static final boolean DFS_TRANSACTION_STATS_ENABLED_DEFAULT = false;
+
+  public static final String DFS_TRANSACTION_STATS_SLOW_THRESHOLD_KEY = "dfs.transaction-stats.slow-threshold.ms";
+  public static final long DFS_TRANSACTION_STATS_SLOW_THRESHOLD_DEFAULT = 1000;
+
+  public static final String DFS_TRANSACTION_STATS_SLOW_LOG_SAMPLE_RATIO_KEY = "dfs.transaction-stats.slow-log.sample-ratio";
+  public static final float DFS_TRANSACTION_STATS_SLOW_LOG_SAMPLE_RATIO_DEFAULT = 0.1f;
+
   public static final String DFS_LEGACY_SET_QUOTA_ENABLE_KEY = "dfs.namenode.legacy-set-quota.enable";
   public static final boolean DFS_LEGACY_SET_QUOTA_ENABLE_DEFAULT = false;
 
   public static final String DFS_SUBTREE_EXECUTOR_LIMIT_KEY = "dfs.namenode.subtree-executor-limit";
   public static final int DFS_SUBTREE_EXECUTOR_LIMIT_DEFAULT = 20;
 
+  public static final String DFS_SUBTREE_BATCHED_DELETE_ENABLE_KEY = "dfs.namenode.subtree-batched-delete.enable";
+  public static final boolean DFS_SUBTREE_BATCHED_DELETE_ENABLE_DEFAULT = false;
+
+  public static final String DFS_SUBTREE_DELETE_BATCH_SIZE_KEY = "dfs.namenode.subtree-delete.batch-size";
+  public static final int DFS_SUBTREE_DELETE_BATCH_SIZE_DEFAULT = 100;
+
+  public static final String DFS_SUBTREE_DELETE_BATCH_RETRIES_KEY = "dfs.namenode.subtree-delete.batch-retries";
+  public static final int DFS_SUBTREE_DELETE_BATCH_RETRIES_DEFAULT = 3;
+
+  public static final String DFS_SUBTREE_MAX_INFLIGHT_QUERIES_KEY = "dfs.namenode.subtree.max-inflight-queries";
+  public static final int DFS_SUBTREE_MAX_INFLIGHT_QUERIES_DEFAULT = 8;
+
   public static final String ERASURE_CODING_ENABLED_KEY = "se.sics.hop.erasure_coding.enabled";
   public static final boolean DEFAULT_ERASURE_CODING_ENABLED_KEY = true;
   public static final String PARITY_FOLDER = "se.sics.hop.erasure_coding.parity_folder";
@@ -173,6 +259,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DEFAULT_PARITY_REPAIR_DELAY = 30 * 60 * 1000;
   public static final String DELETION_LIMIT_KEY = "se.sics.hop.erasure_coding.deletion_limit";
   public static final int DEFAULT_DELETION_LIMIT = 100;
+  public static final String LOCAL_CHUNK_SIZE_KEY = "se.sics.hop.erasure_coding.local.chunk_size";
+  public static final int DEFAULT_LOCAL_CHUNK_SIZE = 1024 * 1024;
+  public static final String LOCAL_IO_THREADS_KEY = "se.sics.hop.erasure_coding.local.io_threads";
+  public static final int DEFAULT_LOCAL_IO_THREADS = 16;
+  public static final String LOCAL_BANDWIDTH_KEY = "se.sics.hop.erasure_coding.local.bandwidth_per_sec";
+  public static final long DEFAULT_LOCAL_BANDWIDTH = 16 * 1024 * 1024; // 0 for no limit
 
   //END_HOP_CODE
 
@@ -206,6 +298,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_CLIENT_FILE_BLOCK_STORAGE_LOCATIONS_NUM_THREADS_DEFAULT = 10;
   public static final String  DFS_CLIENT_FILE_BLOCK_STORAGE_LOCATIONS_TIMEOUT = "dfs.client.file-block-storage-locations.timeout";
   public static final int     DFS_CLIENT_FILE_BLOCK_STORAGE_LOCATIONS_TIMEOUT_DEFAULT = 60;
+  public static final String  DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY = "dfs.client.hedged.read.threadpool.size";
+  public static final int     DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_DEFAULT = 0;
+  public static final String  DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY = "dfs.client.hedged.read.threshold.millis";
+  public static final long    DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_DEFAULT = 500;
 
   // HA related configuration
   public static final String  DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX = "dfs.client.failover.proxy.provider";
@@ -419,7 +515,13 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_DIRECTORYSCAN_INTERVAL_KEY = "dfs.datanode.directoryscan.interval";
   public static final int     DFS_DATANODE_DIRECTORYSCAN_INTERVAL_DEFAULT = 21600;
   public static final String  DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY = "dfs.datanode.directoryscan.threads";
-  public static final int     DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT = 1;
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY = "dfs.datanode.directoryscan.incremental";
+  public static final boolean DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT = false;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY = "dfs.datanode.directoryscan.throttle.limit.ms.per.sec";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT = 1000;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY = "dfs.datanode.directoryscan.reconcile.batch.size";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT = 1000;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -433,6 +535,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_XCEIVER_SELECTOR_ENABLED_KEY = "dfs.datanode.xceiver.selector.enabled";
+  public static final boolean DFS_DATANODE_XCEIVER_SELECTOR_ENABLED_DEFAULT = false;
   public static final String  DFS_DATANODE_NUMBLOCKS_KEY = "dfs.datanode.numblocks";
   public static final int     DFS_DATANODE_NUMBLOCKS_DEFAULT = 64;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
@@ -481,6 +585,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_BLOCKREPORT_INTERVAL_MSEC_DEFAULT = 60 * 60 * 1000;
   public static final String  DFS_BLOCKREPORT_INITIAL_DELAY_KEY = "dfs.blockreport.initialDelay";
   public static final int     DFS_BLOCKREPORT_INITIAL_DELAY_DEFAULT = 0;
+  public static final String  DFS_NAMENODE_BLOCKREPORT_MAX_CONCURRENT_KEY = "dfs.namenode.blockreport.max-concurrent-per-namenode";
+  public static final int     DFS_NAMENODE_BLOCKREPORT_MAX_CONCURRENT_DEFAULT = 2; // 0 or less for no limit
+  public static final String  DFS_NAMENODE_BLOCKREPORT_LEASE_KEY = "dfs.namenode.blockreport.lease.ms";
+  public static final long    DFS_NAMENODE_BLOCKREPORT_LEASE_DEFAULT = 60 * 1000;
+  public static final String  DFS_NAMENODE_BLOCKREPORT_QUEUE_TIMEOUT_KEY = "dfs.namenode.blockreport.queue.timeout.ms";
+  public static final long    DFS_NAMENODE_BLOCKREPORT_QUEUE_TIMEOUT_DEFAULT = 60 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
   public static final int     DFS_BLOCK_INVALIDATE_LIMIT_DEFAULT = 1000;
   public static final String  DFS_DEFAULT_MAX_CORRUPT_FILES_RETURNED_KEY = "dfs.corruptfilesreturned.max";
@@ -492,6 +602,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_DEFAULT = false;
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_BUFFER_SIZE_KEY = "dfs.client.read.shortcircuit.buffer.size";
   public static final int DFS_CLIENT_READ_SHORTCIRCUIT_BUFFER_SIZE_DEFAULT = 1024 * 1024;
+  public static final String DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_ENABLED_KEY = "dfs.client.read.shortcircuit.mmap.enabled";
+  public static final boolean DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_ENABLED_DEFAULT = false;
+  public static final String DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_CACHE_SIZE_KEY = "dfs.client.read.shortcircuit.mmap.cache.size";
+  public static final int DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_CACHE_SIZE_DEFAULT = 256;
 
   // property for fsimage compression
   public static final String DFS_IMAGE_COMPRESS_KEY = "dfs.image.compress";
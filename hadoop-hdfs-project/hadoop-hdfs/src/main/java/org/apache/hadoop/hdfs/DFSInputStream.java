@@ -18,11 +18,13 @@
 package org.apache.hadoop.hdfs;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -30,7 +32,14 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.ChecksumException;
@@ -247,6 +256,21 @@ private synchronized boolean blockUnderConstruction() {
     return locatedBlocks.isUnderConstruction();
   }
 
+  /**
+   * @return whether the namenode reported the block complete, its replicas
+   * are then finalized once they have its length
+   */
+  private synchronized boolean isBlockComplete(ExtendedBlock block) {
+    if (locatedBlocks.isUnderConstruction()) {
+      return false;
+    }
+    LocatedBlock last = locatedBlocks.getLastLocatedBlock();
+    if (last != null && last.getBlock().getBlockId() == block.getBlockId()) {
+      return locatedBlocks.isLastBlockComplete();
+    }
+    return true;
+  }
+
   /**
    * Returns the datanode from which the stream is currently reading.
    */
@@ -770,20 +794,41 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
       byte[] buf, int offset,
       Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
       throws IOException {
+    while (true) {
+      // cached block locations may have been updated by chooseDataNode()
+      // or fetchBlockAt(). Always get the latest list of locations at the 
+      // start of the loop.
+      block = getBlockAt(block.getStartOffset(), false);
+      DNAddrPair retval = chooseDataNode(block);
+      if (fetchBlockByteRange(retval, block, start, end, buf, offset,
+          corruptedBlockMap, false)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads a range of a block from one datanode.
+   *
+   * @param cancellable whether the read runs for a hedged read, which is
+   * cancelled by interrupting it
+   * @return false if the read failed, the datanode was then put into the
+   * dead list
+   */
+  private boolean fetchBlockByteRange(DNAddrPair datanode, LocatedBlock block,
+      long start, long end, byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap,
+      boolean cancellable) throws IOException {
     //
-    // Connect to best DataNode for desired Block, with potential offset
+    // Connect to the chosen DataNode for desired Block, with potential offset
     //
+    DatanodeInfo chosenNode = datanode.info;
+    InetSocketAddress targetAddr = datanode.addr;
     int refetchToken = 1; // only need to get a new access token once
     int refetchEncryptionKey = 1; // only need to get a new encryption key once
     
     while (true) {
-      // cached block locations may have been updated by chooseDataNode()
-      // or fetchBlockAt(). Always get the latest list of locations at the 
-      // start of the loop.
       block = getBlockAt(block.getStartOffset(), false);
-      DNAddrPair retval = chooseDataNode(block);
-      DatanodeInfo chosenNode = retval.info;
-      InetSocketAddress targetAddr = retval.addr;
       BlockReader reader = null;
           
       try {
@@ -798,7 +843,7 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
           throw new IOException("truncated return from reader.read(): " +
                                 "excpected " + len + ", got " + nread);
         }
-        return;
+        return true;
       } catch (ChecksumException e) {
         DFSClient.LOG.warn("fetchBlockByteRange(). Got a checksum exception for " +
                  src + " at " + block.getBlock() + ":" + 
@@ -836,8 +881,229 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
           closeBlockReader(reader);
         }
       }
+      if (cancellable && Thread.currentThread().isInterrupted()) {
+        // the hedged read was cancelled, the datanode is not at fault
+        throw new InterruptedIOException("Interrupted while reading "
+            + block.getBlock() + " from " + chosenNode);
+      }
       // Put chosen node into dead list, continue
       addToDeadNodes(chosenNode);
+      return false;
+    }
+  }
+
+  /**
+   * Like {@link #fetchBlockByteRange(LocatedBlock, long, long, byte[], int,
+   * Map)}, but if the datanode does not answer within the hedged read
+   * threshold, the same range is read from another datanode too. The first
+   * read to complete is used and the others are cancelled.
+   * <p>
+   * The first read goes into the given buffer. A hedged read started while
+   * it is pending has a buffer of its own, which is copied only if it wins,
+   * once the first read stopped writing. When the pool has no thread left,
+   * the range is read without hedging.
+   */
+  private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
+      long end, byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    CompletionService<HedgedRead> service =
+        new ExecutorCompletionService<HedgedRead>(
+            dfsClient.getHedgedReadExecutor());
+    Map<Future<HedgedRead>, DatanodeInfo> pending =
+        new HashMap<Future<HedgedRead>, DatanodeInfo>();
+    // the pending read writing into the given buffer
+    HedgedRead direct = null;
+    Future<HedgedRead> directFuture = null;
+    long threshold = dfsClient.getConf().hedgedReadThresholdMillis;
+    try {
+      while (true) {
+        block = getBlockAt(block.getStartOffset(), false);
+        DNAddrPair datanode;
+        if (pending.isEmpty()) {
+          datanode = chooseDataNode(block);
+        } else {
+          datanode = chooseHedgedDataNode(block, pending.values());
+        }
+        if (datanode != null) {
+          boolean hedged = !pending.isEmpty();
+          HedgedRead read;
+          if (direct == null) {
+            read = new HedgedRead(datanode, block, start, end, hedged, buf,
+                offset);
+          } else {
+            read = new HedgedRead(datanode, block, start, end, hedged,
+                new byte[(int) (end - start + 1)], 0);
+          }
+          Future<HedgedRead> future = null;
+          try {
+            future = service.submit(read);
+          } catch (RejectedExecutionException e) {
+            dfsClient.getHedgedReadMetrics().incHedgedReadOpsInCurThread();
+            if (pending.isEmpty()) {
+              fetchBlockByteRange(block, start, end, buf, offset,
+                  corruptedBlockMap);
+              return;
+            }
+            // no thread to hedge with, wait for the pending reads
+            datanode = null;
+          }
+          if (future != null) {
+            if (hedged) {
+              dfsClient.getHedgedReadMetrics().incHedgedReadOps();
+            }
+            pending.put(future, datanode.info);
+            if (direct == null) {
+              direct = read;
+              directFuture = future;
+            }
+          }
+        }
+
+        Future<HedgedRead> done;
+        if (datanode != null && pending.size() == 1) {
+          done = service.poll(threshold, TimeUnit.MILLISECONDS);
+          if (done == null) {
+            // too slow, read from another datanode too
+            continue;
+          }
+        } else {
+          done = service.take();
+        }
+        pending.remove(done);
+        HedgedRead read = getHedgedRead(done);
+        if (read == direct) {
+          direct = null;
+          directFuture = null;
+        }
+        corruptedBlockMap.putAll(read.corruptedBlockMap);
+        if (read.succeeded) {
+          if (read.buf != buf) {
+            if (direct != null) {
+              // the first read may still write into the given buffer
+              pending.remove(directFuture);
+              directFuture.cancel(true);
+              direct.abandon();
+              direct = null;
+            }
+            System.arraycopy(read.buf, 0, buf, offset, read.buf.length);
+          }
+          if (read.hedged) {
+            dfsClient.getHedgedReadMetrics().incHedgedReadWins();
+          }
+          return;
+        }
+        // the datanode is dead now, the loop chooses another one
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while reading "
+          + block.getBlock() + " of " + src);
+    } finally {
+      for (Future<HedgedRead> future : pending.keySet()) {
+        future.cancel(true);
+      }
+      if (direct != null) {
+        // the given buffer is the caller's again once this returns
+        try {
+          direct.abandon();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private static HedgedRead getHedgedRead(Future<HedgedRead> future)
+      throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * @return a datanode which is neither dead nor already read from, null if
+   * there is none
+   */
+  private DNAddrPair chooseHedgedDataNode(LocatedBlock block,
+      Collection<DatanodeInfo> reading) {
+    DatanodeInfo[] nodes = block.getLocations();
+    if (nodes != null) {
+      for (DatanodeInfo node : nodes) {
+        if (!deadNodes.containsKey(node) && !reading.contains(node)) {
+          String dnAddr = node.getXferAddr(dfsClient.connectToDnViaHostname());
+          return new DNAddrPair(node, NetUtils.createSocketAddr(dnAddr));
+        }
+      }
+    }
+    return null;
+  }
+
+  /** A read of a block range from one datanode into a buffer. */
+  private class HedgedRead implements Callable<HedgedRead> {
+    private final DNAddrPair datanode;
+    private final LocatedBlock block;
+    private final long start;
+    private final long end;
+    /** Whether the read was issued while another one was pending. */
+    final boolean hedged;
+    final byte[] buf;
+    private final int offset;
+    final Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap =
+        new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
+    boolean succeeded;
+    private boolean running;
+    private boolean abandoned;
+
+    HedgedRead(DNAddrPair datanode, LocatedBlock block, long start, long end,
+        boolean hedged, byte[] buf, int offset) {
+      this.datanode = datanode;
+      this.block = block;
+      this.start = start;
+      this.end = end;
+      this.hedged = hedged;
+      this.buf = buf;
+      this.offset = offset;
+    }
+
+    @Override
+    public HedgedRead call() throws IOException {
+      synchronized (this) {
+        if (abandoned) {
+          return this;
+        }
+        running = true;
+      }
+      try {
+        succeeded = fetchBlockByteRange(datanode, block, start, end, buf,
+            offset, corruptedBlockMap, true);
+      } finally {
+        synchronized (this) {
+          running = false;
+          notifyAll();
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Waits until the read does not write into its buffer any more, and
+     * keeps it from starting if it has not yet.
+     */
+    synchronized void abandon() throws InterruptedException {
+      abandoned = true;
+      while (running) {
+        wait();
+      }
     }
   }
 
@@ -887,7 +1153,7 @@ protected BlockReader getBlockReader(InetSocketAddress dnAddr,
         !blockUnderConstruction()) {
       return DFSClient.getLocalBlockReader(dfsClient.conf, src, block,
           blockToken, chosenNode, dfsClient.hdfsTimeout, startOffset,
-          dfsClient.connectToDnViaHostname());
+          dfsClient.connectToDnViaHostname(), isBlockComplete(block));
     }
     
     IOException err = null;
@@ -998,8 +1264,13 @@ public int read(long position, byte[] buffer, int offset, int length)
       long targetStart = position - blk.getStartOffset();
       long bytesToRead = Math.min(remaining, blk.getBlockSize() - targetStart);
       try {
-        fetchBlockByteRange(blk, targetStart, 
-            targetStart + bytesToRead - 1, buffer, offset, corruptedBlockMap);
+        if (dfsClient.isHedgedReadsEnabled()) {
+          hedgedFetchBlockByteRange(blk, targetStart,
+              targetStart + bytesToRead - 1, buffer, offset, corruptedBlockMap);
+        } else {
+          fetchBlockByteRange(blk, targetStart,
+              targetStart + bytesToRead - 1, buffer, offset, corruptedBlockMap);
+        }
       } finally {
         // Check and report if any block replicas are corrupted.
         // BlockMissingException may be caught if all block replicas are
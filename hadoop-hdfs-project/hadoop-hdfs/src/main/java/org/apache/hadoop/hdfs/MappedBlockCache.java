@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.DataChecksum;
+
+/**
+ * A bounded cache of the memory mapped block and meta files of the complete
+ * blocks read by {@link BlockReaderLocal}. Every reader holds a reference to
+ * the mapping it reads from, so a mapping is only released once it was
+ * evicted and the last reader of it was closed. The cache keeps the least
+ * recently used mappings which are not referenced, it can hold more than its
+ * capacity while they are all in use.
+ * <p>
+ * The mappings are keyed by the path of the meta file, which includes the
+ * generation stamp of the block, so a block which was appended to is mapped
+ * again.
+ */
+class MappedBlockCache {
+  private static final Log LOG = LogFactory.getLog(MappedBlockCache.class);
+
+  private final int capacity;
+  private final LinkedHashMap<String, MappedBlock> cache =
+      new LinkedHashMap<String, MappedBlock>(16, 0.75f, true);
+
+  MappedBlockCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * The mapped data and checksums of a block.
+   */
+  static class MappedBlock {
+    private final String key;
+    private final FileChannel dataChannel;
+    private final FileChannel metaChannel;
+    private final MappedByteBuffer data;
+    private final MappedByteBuffer meta;
+    private final DataChecksum checksum;
+    private int refCount;
+    private boolean evicted;
+
+    private MappedBlock(String key, FileChannel dataChannel,
+        FileChannel metaChannel, MappedByteBuffer data, MappedByteBuffer meta,
+        DataChecksum checksum) {
+      this.key = key;
+      this.dataChannel = dataChannel;
+      this.metaChannel = metaChannel;
+      this.data = data;
+      this.meta = meta;
+      this.checksum = checksum;
+    }
+
+    /**
+     * @return a read only view of the block file
+     */
+    MappedByteBuffer getData() {
+      return data;
+    }
+
+    /**
+     * @return a read only view of the meta file, without its header
+     */
+    MappedByteBuffer getChecksums() {
+      return meta;
+    }
+
+    /**
+     * @return the checksum type of the block, the readers verify with their
+     *         own DataChecksum as it is not thread safe
+     */
+    DataChecksum getChecksum() {
+      return checksum;
+    }
+
+    long getLength() {
+      return data.capacity();
+    }
+
+    private void close() {
+      IOUtils.cleanup(LOG, dataChannel, metaChannel);
+    }
+  }
+
+  /**
+   * Returns the mapping of the block and takes a reference to it, the block
+   * is mapped if it is not in the cache. The caller releases the reference
+   * with {@link #unref(MappedBlock)}.
+   *
+   * @param length the length of the block, which the namenode reported
+   *        complete. The caller checks it, a replica being written can have
+   *        this length before its checksums are final.
+   * @return null if the block file is not of the given length, or if it is
+   *         too long to be mapped in one buffer
+   */
+  MappedBlock ref(BlockLocalPathInfo pathinfo, long length)
+      throws IOException {
+    String key = pathinfo.getMetaPath();
+    synchronized (this) {
+      MappedBlock block = cache.get(key);
+      if (block != null) {
+        if (block.getLength() == length) {
+          block.refCount++;
+          return block;
+        }
+        cache.remove(key);
+        evict(block);
+      }
+    }
+
+    // maps the files outside of the lock, two readers of a block might
+    // both map it and the second one just replaces the first in the cache
+    MappedBlock block = map(key, pathinfo, length);
+    if (block == null) {
+      return null;
+    }
+    synchronized (this) {
+      block.refCount++;
+      MappedBlock previous = cache.put(key, block);
+      if (previous != null) {
+        evict(previous);
+      }
+      evictUnreferenced();
+    }
+    return block;
+  }
+
+  /**
+   * Releases a reference taken with {@link #ref(BlockLocalPathInfo, long)}.
+   */
+  synchronized void unref(MappedBlock block) {
+    block.refCount--;
+    if (block.evicted) {
+      if (block.refCount == 0) {
+        block.close();
+      }
+    } else {
+      evictUnreferenced();
+    }
+  }
+
+  /**
+   * Evicts the mapping of a block, for example when it could not be read.
+   */
+  synchronized void invalidate(MappedBlock block) {
+    if (!block.evicted) {
+      cache.remove(block.key);
+      evict(block);
+    }
+  }
+
+  synchronized int size() {
+    return cache.size();
+  }
+
+  private void evict(MappedBlock block) {
+    block.evicted = true;
+    if (block.refCount == 0) {
+      block.close();
+    }
+  }
+
+  private void evictUnreferenced() {
+    Iterator<Map.Entry<String, MappedBlock>> it =
+        cache.entrySet().iterator();
+    while (cache.size() > capacity && it.hasNext()) {
+      MappedBlock block = it.next().getValue();
+      if (block.refCount == 0) {
+        it.remove();
+        evict(block);
+      }
+    }
+  }
+
+  private static MappedBlock map(String key, BlockLocalPathInfo pathinfo,
+      long length) throws IOException {
+    FileInputStream dataIn = null;
+    FileInputStream metaIn = null;
+    boolean success = false;
+    try {
+      dataIn = new FileInputStream(pathinfo.getBlockPath());
+      FileChannel dataChannel = dataIn.getChannel();
+      if (length > Integer.MAX_VALUE || dataChannel.size() != length) {
+        return null;
+      }
+      metaIn = new FileInputStream(pathinfo.getMetaPath());
+      BlockMetadataHeader header = BlockMetadataHeader.readHeader(
+          new DataInputStream(metaIn));
+      if (header.getVersion() != BlockMetadataHeader.VERSION) {
+        LOG.warn("Wrong version (" + header.getVersion()
+            + ") for metadata file " + pathinfo.getMetaPath()
+            + " ignoring ...");
+      }
+      FileChannel metaChannel = metaIn.getChannel();
+      int headerSize = BlockMetadataHeader.getHeaderSize();
+      MappedByteBuffer data = dataChannel.map(
+          FileChannel.MapMode.READ_ONLY, 0, length);
+      MappedByteBuffer meta = metaChannel.map(FileChannel.MapMode.READ_ONLY,
+          headerSize, metaChannel.size() - headerSize);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Mapped " + pathinfo.getBlockPath() + " of length "
+            + length);
+      }
+      success = true;
+      return new MappedBlock(key, dataChannel, metaChannel, data, meta,
+          header.getChecksum());
+    } finally {
+      if (!success) {
+        IOUtils.cleanup(LOG, dataIn, metaIn);
+      }
+    }
+  }
+}
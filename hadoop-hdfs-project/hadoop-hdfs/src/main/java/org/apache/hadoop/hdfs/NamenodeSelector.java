@@ -5,10 +5,13 @@
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -35,7 +38,8 @@ public class NamenodeSelector extends Thread {
     enum NNSelectionPolicy {
 
         RANDOM("RANDOM"),
-        ROUND_ROBIN("ROUND_ROBIN");
+        ROUND_ROBIN("ROUND_ROBIN"),
+        LOAD_AWARE("LOAD_AWARE");
         private String description = null;
 
         private NNSelectionPolicy(String arg) {
@@ -50,8 +54,16 @@ public String toString() {
 
     public static class NamenodeHandle {
 
+        /** Weight of the latest call in the moving average of the latency. */
+        private static final double LATENCY_EWMA_ALPHA = 0.2;
+
         final private ClientProtocol namenodeRPCHandle;
         final private ActiveNode namenode;
+        /** Moving average of the call latency in ns, stored as double bits. */
+        final private AtomicLong latencyEwma = new AtomicLong(Double.doubleToLongBits(0));
+        final private AtomicInteger inFlight = new AtomicInteger();
+        final private AtomicLong calls = new AtomicLong();
+        final private AtomicLong failures = new AtomicLong();
 
         NamenodeHandle(ClientProtocol proto, ActiveNode an) {
             this.namenode = an;
@@ -66,6 +78,62 @@ public ActiveNode getNamenode() {
             return this.namenode;
         }
 
+        void callStarted() {
+            inFlight.incrementAndGet();
+        }
+
+        /**
+         * @param latency the latency of the call in ns
+         * @param failed whether the namenode could not be reached
+         */
+        void callFinished(long latency, boolean failed) {
+            inFlight.decrementAndGet();
+            calls.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+                return;
+            }
+            while (true) {
+                long bits = latencyEwma.get();
+                double current = Double.longBitsToDouble(bits);
+                double next = current == 0 ? latency
+                        : current + LATENCY_EWMA_ALPHA * (latency - current);
+                if (latencyEwma.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the moving average of the call latency in ms
+         */
+        public double getLatencyEwmaMillis() {
+            return Double.longBitsToDouble(latencyEwma.get()) / 1000000;
+        }
+
+        /**
+         * @return the number of calls sent but not yet answered
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * The expected time to serve one more call, the average latency
+         * scaled by the calls already waiting for this namenode.
+         */
+        double getLoad() {
+            return Double.longBitsToDouble(latencyEwma.get()) * (inFlight.get() + 1);
+        }
+
         @Override
         public String toString() {
             return "[RPC handle connected to " + namenode.getInetSocketAddress() + "] ";
@@ -94,6 +162,7 @@ public boolean equals(Object obj) {
     private boolean periodicNNListUpdate = true;
     private final Object wiatObjectForUpdate = new Object();
     private final int namenodeListUpdateTimePeriod;
+    private final int stickyPrefixDepth;
     Random rand = new Random();
     
 
@@ -105,6 +174,7 @@ public boolean equals(Object obj) {
         this.conf = conf;
         this.policy = NamenodeSelector.NNSelectionPolicy.ROUND_ROBIN;
         this.namenodeListUpdateTimePeriod = -1;
+        this.stickyPrefixDepth = 0;
     }
 
     NamenodeSelector(Configuration conf, URI defaultUri) throws IOException {
@@ -115,19 +185,23 @@ public boolean equals(Object obj) {
         namenodeListUpdateTimePeriod = conf.getInt(DFSConfigKeys.DFS_CLIENT_REFRESH_NAMENODE_LIST_IN_MS_KEY, DFSConfigKeys.DFS_CLIENT_REFRESH_NAMENODE_LIST_IN_MS_DEFAULT);
 
         // Getting appropriate policy
-        // supported policies are 'RANDOM' and 'ROUND_ROBIN'
-        String policyName = conf.get(DFSConfigKeys.DFS_NAMENODE_SELECTOR_POLICY_KEY, "ROUND_ROBIN");
-        if (policyName == NamenodeSelector.NNSelectionPolicy.RANDOM.toString()) {
-            policy = NamenodeSelector.NNSelectionPolicy.RANDOM;
-        } else if (policyName == NamenodeSelector.NNSelectionPolicy.ROUND_ROBIN.toString()) {
-            policy = NamenodeSelector.NNSelectionPolicy.ROUND_ROBIN;
-        } else {
-            policy = NamenodeSelector.NNSelectionPolicy.ROUND_ROBIN;
+        // supported policies are 'RANDOM', 'ROUND_ROBIN' and 'LOAD_AWARE'
+        String policyName = conf.get(DFSConfigKeys.DFS_NAMENODE_SELECTOR_POLICY_KEY,
+                DFSConfigKeys.DFS_NAMENODE_SELECTOR_POLICY_DEFAULT);
+        NamenodeSelector.NNSelectionPolicy configuredPolicy = NamenodeSelector.NNSelectionPolicy.ROUND_ROBIN;
+        for (NamenodeSelector.NNSelectionPolicy p : NamenodeSelector.NNSelectionPolicy.values()) {
+            if (p.toString().equalsIgnoreCase(policyName.trim())) {
+                configuredPolicy = p;
+            }
         }
+        policy = configuredPolicy;
+        stickyPrefixDepth = conf.getInt(DFSConfigKeys.DFS_NAMENODE_SELECTOR_STICKY_PREFIX_DEPTH_KEY,
+                DFSConfigKeys.DFS_NAMENODE_SELECTOR_STICKY_PREFIX_DEPTH_DEFAULT);
         LOG.debug("Client's namenode selection policy is "+policy);
 
         //get the list of Namenodes
         createNamenodeClinetsFromList();
+        NamenodeSelectorMetrics.getInstance().add(this);
 
         //start periodic Namenode list update thread.
         start();
@@ -160,6 +234,7 @@ private void asyncNNListUpdate(){
 
     public synchronized void close(){
         stopPeriodicUpdates();
+        NamenodeSelectorMetrics.getInstance().remove(this);
 
         //close all clients
         for (NamenodeSelector.NamenodeHandle namenode : nnList) {
@@ -197,15 +272,29 @@ public NamenodeHandle getLeadingNameNode() throws IOException {
     int rrIndex = 0;
 
     public NamenodeSelector.NamenodeHandle getNextNamenode() throws IOException {
-      
-      
-                
+        return getNextNamenode(null);
+    }
+
+    /**
+     * Gets the appropriate namenode for an operation on the given path. If
+     * sticky selection is configured, operations on paths sharing the same
+     * prefix go to the same namenode as long as it is not black listed.
+     *
+     * @param path the path of the operation, or null
+     */
+    public NamenodeSelector.NamenodeHandle getNextNamenode(String path) throws IOException {
         if (nnList == null || nnList.isEmpty()) {
             asyncNNListUpdate();
             throw new NoAliveNamenodeException("Every thing is null why");
         }
 
-        NamenodeSelector.NamenodeHandle handle = getNextNNBasedOnPolicy();
+        NamenodeSelector.NamenodeHandle handle = null;
+        if (path != null && stickyPrefixDepth > 0) {
+            handle = getNNForPrefix(path);
+        }
+        if (handle == null) {
+            handle = getNextNNBasedOnPolicy();
+        }
         if (handle == null || handle.getRPCHandle() == null) {
             //update the list right now 
             asyncNNListUpdate();
@@ -236,11 +325,75 @@ private synchronized NamenodeSelector.NamenodeHandle getNextNNBasedOnPolicy() {
                 }
             }
             return null;
+        } else if (policy == NamenodeSelector.NNSelectionPolicy.LOAD_AWARE) {
+            // power of two choices, the less loaded of two random namenodes
+            NamenodeSelector.NamenodeHandle first = null;
+            for (int i = 0; i < 10 && first == null; i++) {
+                NamenodeSelector.NamenodeHandle handle = nnList.get(rand.nextInt(nnList.size()));
+                if (!this.blackListedNamenodes.contains(handle)) {
+                    first = handle;
+                }
+            }
+            if (first == null || nnList.size() == 1) {
+                return first;
+            }
+            for (int i = 0; i < 10; i++) {
+                NamenodeSelector.NamenodeHandle second = nnList.get(rand.nextInt(nnList.size()));
+                if (second != first && !this.blackListedNamenodes.contains(second)) {
+                    return second.getLoad() < first.getLoad() ? second : first;
+                }
+            }
+            return first;
         } else {
             throw new UnsupportedOperationException("Namenode selection policy is not supported. Selected policy is " + policy);
         }
     }
 
+    /**
+     * Picks the namenode for the first stickyPrefixDepth components of the
+     * path by rendezvous hashing, so that a prefix only moves to another
+     * namenode if its namenode leaves or is black listed.
+     */
+    private NamenodeSelector.NamenodeHandle getNNForPrefix(String path) {
+        int prefixHash = getPrefix(path, stickyPrefixDepth).hashCode();
+        NamenodeSelector.NamenodeHandle best = null;
+        long bestWeight = Long.MIN_VALUE;
+        for (NamenodeSelector.NamenodeHandle handle : nnList) {
+            if (this.blackListedNamenodes.contains(handle)) {
+                continue;
+            }
+            long weight = mix(((long) prefixHash << 32)
+                    ^ handle.getNamenode().getInetSocketAddress().hashCode());
+            if (best == null || weight > bestWeight) {
+                best = handle;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    static String getPrefix(String path, int depth) {
+        int end = 0;
+        for (int i = 0; i < depth; i++) {
+            int next = path.indexOf('/', end + 1);
+            if (next < 0) {
+                // a shallow path is its own prefix, it goes with its children
+                return path;
+            }
+            end = next;
+        }
+        return path.substring(0, end);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
     String printNamenodes() {
         String nns = "Client is connected to namenodes: ";
         for (NamenodeSelector.NamenodeHandle namenode : nnList) {
@@ -258,6 +411,14 @@ public int getTotalConnectedNamenodes() {
         return nnList.size();
     }
 
+    /**
+     * @return the handles of the connected namenodes, with the latency and
+     * the load this client observed on each of them
+     */
+    public List<NamenodeSelector.NamenodeHandle> getNamenodes() {
+        return Collections.unmodifiableList(nnList);
+    }
+
     /**
      * try connecting to the default uri and get the list of NN from there if it
      * fails then read the list of NNs from the config file and connect to them
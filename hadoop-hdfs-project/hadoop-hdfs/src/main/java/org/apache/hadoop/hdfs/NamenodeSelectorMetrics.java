@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+/**
+ * The latency and the load the clients of this JVM observe on every
+ * namenode, summed over all the open {@link NamenodeSelector}s. There is
+ * one record per namenode, so the metrics do not grow with the number of
+ * clients, and a closed client leaves no source behind.
+ */
+@InterfaceAudience.Private
+class NamenodeSelectorMetrics implements MetricsSource {
+  enum Singleton {
+    INSTANCE;
+
+    NamenodeSelectorMetrics impl;
+
+    synchronized NamenodeSelectorMetrics get() {
+      if (impl == null) {
+        impl = DefaultMetricsSystem.instance().register(RECORD.name(),
+            RECORD.description(), new NamenodeSelectorMetrics());
+      }
+      return impl;
+    }
+  }
+
+  static final MetricsInfo RECORD = Interns.info("NamenodeSelector",
+      "Namenode latency and load observed by the clients");
+  static final MetricsInfo NAMENODE = Interns.info("Namenode",
+      "Address of the namenode");
+  static final MetricsInfo CLIENTS = Interns.info("Clients",
+      "Clients connected to the namenode");
+  static final MetricsInfo LATENCY = Interns.info("LatencyEwmaMillis",
+      "Moving average of the call latency, averaged over the clients");
+  static final MetricsInfo IN_FLIGHT = Interns.info("InFlight",
+      "Calls sent to the namenode and not answered yet");
+  static final MetricsInfo CALLS = Interns.info("Calls",
+      "Calls of the open clients to the namenode");
+  static final MetricsInfo FAILURES = Interns.info("Failures",
+      "Calls of the open clients which could not reach the namenode");
+
+  private final Set<NamenodeSelector> selectors = Collections.synchronizedSet(
+      Collections.newSetFromMap(new WeakHashMap<NamenodeSelector, Boolean>()));
+
+  static NamenodeSelectorMetrics getInstance() {
+    return Singleton.INSTANCE.get();
+  }
+
+  void add(NamenodeSelector selector) {
+    selectors.add(selector);
+  }
+
+  void remove(NamenodeSelector selector) {
+    selectors.remove(selector);
+  }
+
+  private static class Aggregate {
+    private int clients;
+    private int latencies;
+    private double latencySum;
+    private int inFlight;
+    private long calls;
+    private long failures;
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    List<NamenodeSelector> open;
+    synchronized (selectors) {
+      open = new ArrayList<NamenodeSelector>(selectors);
+    }
+    Map<String, Aggregate> byNamenode = new TreeMap<String, Aggregate>();
+    for (NamenodeSelector selector : open) {
+      for (NamenodeSelector.NamenodeHandle handle : selector.getNamenodes()) {
+        String address =
+            String.valueOf(handle.getNamenode().getInetSocketAddress());
+        Aggregate aggregate = byNamenode.get(address);
+        if (aggregate == null) {
+          aggregate = new Aggregate();
+          byNamenode.put(address, aggregate);
+        }
+        aggregate.clients++;
+        double latency = handle.getLatencyEwmaMillis();
+        if (latency > 0) {
+          aggregate.latencies++;
+          aggregate.latencySum += latency;
+        }
+        aggregate.inFlight += handle.getInFlight();
+        aggregate.calls += handle.getCalls();
+        aggregate.failures += handle.getFailures();
+      }
+    }
+
+    for (Map.Entry<String, Aggregate> entry : byNamenode.entrySet()) {
+      Aggregate aggregate = entry.getValue();
+      collector.addRecord(RECORD).setContext("dfs")
+          .tag(NAMENODE, entry.getKey())
+          .addGauge(CLIENTS, aggregate.clients)
+          .addGauge(LATENCY, aggregate.latencies == 0 ? 0 :
+              aggregate.latencySum / aggregate.latencies)
+          .addGauge(IN_FLIGHT, aggregate.inFlight)
+          .addGauge(CALLS, aggregate.calls)
+          .addGauge(FAILURES, aggregate.failures);
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status.SUCCESS;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.Options.ChecksumOpt;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.datatransfer.BlockConstructionStage;
+import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferEncryptor;
+import org.apache.hadoop.hdfs.protocol.datatransfer.IOStreamPair;
+import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.protocol.datatransfer.PipelineAck;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Sender;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.BlockOpResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import org.apache.hadoop.hdfs.protocolPB.PBHelper;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.util.DataChecksum;
+
+/**
+ * Writes a new replica of a block of a complete file to the datanodes of a
+ * located block. DFSOutputStream only writes the blocks the namenode
+ * allocates to a file under construction, this stream is used to put back
+ * blocks which were reconstructed from the parity of an erasure coded file.
+ * The block keeps its id and generation stamp and the datanodes report the
+ * replica to the namenode once it is finalized.
+ * <p>
+ * The packets are sent as they fill up and at most
+ * {@link #MAX_OUTSTANDING_PACKETS} wait for their acknowledgement, so the
+ * block is never held in memory. The caller has to write exactly the number
+ * of bytes of the block.
+ */
+@InterfaceAudience.Private
+public class RepairedBlockOutputStream extends OutputStream {
+
+  static final int MAX_OUTSTANDING_PACKETS = 80;
+  private static final long HEART_BEAT_SEQNO = -1L;
+
+  private final ExtendedBlock block;
+  private final DatanodeInfo[] targets;
+  private final DataChecksum checksum;
+  private final int bytesPerChecksum;
+
+  private final Socket socket;
+  private final DataOutputStream out;
+  private final DataInputStream in;
+
+  private final byte[] data;
+  private final byte[] sums;
+  private int dataLen = 0;
+  private long offsetInBlock = 0;
+  private long nextSeqno = 0;
+  private long nextAckSeqno = 0;
+  private boolean closed = false;
+
+  public RepairedBlockOutputStream(DFSClient dfsClient, LocatedBlock target)
+      throws IOException {
+    ExtendedBlock repaired = target.getBlock();
+    this.block = new ExtendedBlock(repaired.getBlockPoolId(),
+        repaired.getBlockId(), 0, repaired.getGenerationStamp());
+    this.targets = target.getLocations();
+    if (targets.length == 0) {
+      throw new IOException("No datanode to write " + block + " to");
+    }
+
+    ChecksumOpt checksumOpt = dfsClient.getConf().defaultChecksumOpt;
+    this.checksum = DataChecksum.newDataChecksum(
+        checksumOpt.getChecksumType(), checksumOpt.getBytesPerChecksum());
+    this.bytesPerChecksum = checksum.getBytesPerChecksum();
+    int chunkSize = bytesPerChecksum + checksum.getChecksumSize();
+    int chunksPerPacket = Math.max(1,
+        (dfsClient.getConf().writePacketSize - PacketHeader.PKT_MAX_HEADER_LEN)
+            / chunkSize);
+    this.data = new byte[chunksPerPacket * bytesPerChecksum];
+    this.sums = new byte[chunksPerPacket * checksum.getChecksumSize()];
+
+    Socket s = DFSOutputStream.createSocketForPipeline(targets[0],
+        targets.length, dfsClient);
+    boolean success = false;
+    DataOutputStream blockStream = null;
+    try {
+      OutputStream unbufOut = NetUtils.getOutputStream(s,
+          dfsClient.getDatanodeWriteTimeout(targets.length));
+      InputStream unbufIn = NetUtils.getInputStream(s);
+      if (dfsClient.shouldEncryptData()) {
+        IOStreamPair encryptedStreams =
+            DataTransferEncryptor.getEncryptedStreams(unbufOut, unbufIn,
+                dfsClient.getDataEncryptionKey());
+        unbufOut = encryptedStreams.out;
+        unbufIn = encryptedStreams.in;
+      }
+      blockStream = new DataOutputStream(new BufferedOutputStream(unbufOut,
+          HdfsConstants.SMALL_BUFFER_SIZE));
+      DataInputStream replyStream = new DataInputStream(unbufIn);
+
+      new Sender(blockStream).writeBlock(block, target.getBlockToken(),
+          dfsClient.clientName, targets, null,
+          BlockConstructionStage.PIPELINE_SETUP_CREATE, targets.length, 0, 0,
+          0, checksum);
+      BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
+          PBHelper.vintPrefixed(replyStream));
+      if (resp.getStatus() != SUCCESS) {
+        throw new IOException("Bad connect ack for " + block
+            + " with firstBadLink as " + resp.getFirstBadLink());
+      }
+      this.socket = s;
+      this.out = blockStream;
+      this.in = replyStream;
+      success = true;
+    } finally {
+      if (!success) {
+        IOUtils.closeStream(blockStream);
+        IOUtils.closeSocket(s);
+      }
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkOpen();
+    while (len > 0) {
+      int n = Math.min(len, data.length - dataLen);
+      System.arraycopy(b, off, data, dataLen, n);
+      dataLen += n;
+      off += n;
+      len -= n;
+      if (dataLen == data.length) {
+        sendPacket(false);
+      }
+    }
+  }
+
+  /**
+   * Sends the buffered data and an empty last packet, and waits until the
+   * datanodes acknowledged all of them.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (dataLen > 0) {
+        sendPacket(false);
+      }
+      sendPacket(true);
+      out.flush();
+      while (nextAckSeqno < nextSeqno) {
+        readAck();
+      }
+    } finally {
+      IOUtils.closeStream(out);
+      IOUtils.closeStream(in);
+      IOUtils.closeSocket(socket);
+    }
+  }
+
+  /**
+   * Closes the connection without sending the last packet, so that the
+   * datanodes do not finalize the replica. Used when the block could not be
+   * written completely.
+   */
+  public void abort() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    // the socket goes first, so that no buffered data is flushed
+    IOUtils.closeSocket(socket);
+    IOUtils.closeStream(out);
+    IOUtils.closeStream(in);
+  }
+
+  private void sendPacket(boolean lastPacketInBlock) throws IOException {
+    int checksumLen = 0;
+    if (dataLen > 0) {
+      int chunks = (dataLen + bytesPerChecksum - 1) / bytesPerChecksum;
+      checksumLen = chunks * checksum.getChecksumSize();
+      checksum.calculateChunkedSums(ByteBuffer.wrap(data, 0, dataLen),
+          ByteBuffer.wrap(sums, 0, checksumLen));
+    }
+
+    if (nextSeqno - nextAckSeqno >= MAX_OUTSTANDING_PACKETS) {
+      out.flush();
+      readAck();
+    }
+    PacketHeader header = new PacketHeader(
+        HdfsConstants.BYTES_IN_INTEGER + checksumLen + dataLen, offsetInBlock,
+        nextSeqno++, lastPacketInBlock, dataLen, false);
+    header.write(out);
+    out.write(sums, 0, checksumLen);
+    out.write(data, 0, dataLen);
+    offsetInBlock += dataLen;
+    dataLen = 0;
+  }
+
+  private void readAck() throws IOException {
+    PipelineAck ack = new PipelineAck();
+    ack.readFields(in);
+    if (ack.getSeqno() == HEART_BEAT_SEQNO) {
+      return;
+    }
+    if (ack.getSeqno() != nextAckSeqno) {
+      throw new IOException("Expected ack " + nextAckSeqno + " for " + block
+          + " but received " + ack.getSeqno());
+    }
+    for (int i = ack.getNumOfReplies() - 1; i >= 0; i--) {
+      Status reply = ack.getReply(i);
+      if (reply != SUCCESS) {
+        throw new IOException("Bad response " + reply + " for " + block
+            + " from datanode " + targets[i]);
+      }
+    }
+    nextAckSeqno++;
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream for " + block + " is closed");
+    }
+  }
+}
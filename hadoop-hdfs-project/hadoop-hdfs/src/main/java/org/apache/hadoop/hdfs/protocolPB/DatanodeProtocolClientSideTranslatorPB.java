@@ -72,6 +72,10 @@
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.ActiveNamenodeListRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.ActiveNamenodeListResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.NameNodeAddressRequestForBlockReportingProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportCompletedRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportSlotProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportSlotRequestProto;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
 import se.sics.hop.leaderElection.node.ActiveNode;
 import se.sics.hop.leaderElection.node.SortedActiveNodeList;
 import se.sics.hop.leaderElection.LeaderElectionProtos.ActiveNodeProto;
@@ -326,6 +330,33 @@ public ActiveNode getNextNamenodeToSendBlockReport() throws IOException {
       throw ProtobufHelper.getRemoteException(e);
     }
   }
+
+  @Override
+  public BlockReportSlot requestBlockReportSlot(
+      DatanodeRegistration registration, long numBlocks) throws IOException {
+    BlockReportSlotRequestProto request = BlockReportSlotRequestProto
+        .newBuilder().setRegistration(PBHelper.convert(registration))
+        .setNumBlocks(numBlocks).build();
+    try {
+      BlockReportSlotProto response = rpcProxy.requestBlockReportSlot(NULL_CONTROLLER, request);
+      return PBHelper.convert(response);
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
+
+  @Override
+  public void blockReportCompleted(DatanodeRegistration registration,
+      long numBlocks, long processingTime) throws IOException {
+    BlockReportCompletedRequestProto request = BlockReportCompletedRequestProto
+        .newBuilder().setRegistration(PBHelper.convert(registration))
+        .setNumBlocks(numBlocks).setProcessingTimeMs(processingTime).build();
+    try {
+      rpcProxy.blockReportCompleted(NULL_CONTROLLER, request);
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
   //END_HOP_CODE
     
 }
@@ -60,6 +60,11 @@
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.ActiveNamenodeListRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.ActiveNamenodeListResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.NameNodeAddressRequestForBlockReportingProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportCompletedRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportCompletedResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportSlotProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportSlotRequestProto;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
 import se.sics.hop.leaderElection.node.ActiveNode;
 import se.sics.hop.leaderElection.node.SortedActiveNodeList;
 import se.sics.hop.leaderElection.LeaderElectionProtos.ActiveNodeProto;
@@ -80,6 +85,9 @@ public class DatanodeProtocolServerSideTranslatorPB implements
   private static final CommitBlockSynchronizationResponseProto 
       VOID_COMMIT_BLOCK_SYNCHRONIZATION_RESPONSE_PROTO =
           CommitBlockSynchronizationResponseProto.newBuilder().build();
+  private static final BlockReportCompletedResponseProto
+      VOID_BLOCK_REPORT_COMPLETED_RESPONSE =
+          BlockReportCompletedResponseProto.newBuilder().build();
 
   public DatanodeProtocolServerSideTranslatorPB(DatanodeProtocol impl) {
     this.impl = impl;
@@ -281,5 +289,30 @@ public ActiveNodeProto getNextNamenodeToSendBlockReport(RpcController controller
       throw new ServiceException(e);
     }
   }
+
+  @Override
+  public BlockReportSlotProto requestBlockReportSlot(RpcController controller,
+      BlockReportSlotRequestProto request) throws ServiceException {
+    try {
+      BlockReportSlot response = impl.requestBlockReportSlot(
+          PBHelper.convert(request.getRegistration()), request.getNumBlocks());
+      return PBHelper.convert(response);
+    } catch (IOException e) {
+      throw new ServiceException(e);
+    }
+  }
+
+  @Override
+  public BlockReportCompletedResponseProto blockReportCompleted(
+      RpcController controller, BlockReportCompletedRequestProto request)
+      throws ServiceException {
+    try {
+      impl.blockReportCompleted(PBHelper.convert(request.getRegistration()),
+          request.getNumBlocks(), request.getProcessingTimeMs());
+    } catch (IOException e) {
+      throw new ServiceException(e);
+    }
+    return VOID_BLOCK_REPORT_COMPLETED_RESPONSE;
+  }
   //HOP_CODE_END
 }
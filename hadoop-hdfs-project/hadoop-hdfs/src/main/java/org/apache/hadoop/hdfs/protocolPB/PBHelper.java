@@ -54,6 +54,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BalancerBandwidthCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockRecoveryCommandProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportSlotProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.DatanodeCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.DatanodeRegistrationProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.DatanodeStorageProto;
@@ -110,6 +111,7 @@
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.BlockWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.CheckpointCommand;
@@ -1402,6 +1404,21 @@ public static ActiveNamenodeListResponseProto convert(SortedActiveNodeList anlWr
     return anlrpb.build();
   }
 
+  public static BlockReportSlot convert(BlockReportSlotProto p) {
+    return new BlockReportSlot(p.hasNamenode() ? convert(p.getNamenode()) : null,
+        p.getRetryAfterMs(), p.getQueuePosition());
+  }
+
+  public static BlockReportSlotProto convert(BlockReportSlot slot) {
+    BlockReportSlotProto.Builder builder = BlockReportSlotProto.newBuilder()
+        .setRetryAfterMs(slot.getRetryAfter())
+        .setQueuePosition(slot.getQueuePosition());
+    if (slot.isGranted()) {
+      builder.setNamenode(convert(slot.getNamenode()));
+    }
+    return builder.build();
+  }
+
   public static EncodingStatus convert (ClientNamenodeProtocolProtos.EncodingStatusProto encodingStatusProto) {
     EncodingStatus.Status status = convert(encodingStatusProto.getStatus());
     EncodingPolicy policy = encodingStatusProto.hasPolicy()? PBHelper.convert(encodingStatusProto.getPolicy()) : null;
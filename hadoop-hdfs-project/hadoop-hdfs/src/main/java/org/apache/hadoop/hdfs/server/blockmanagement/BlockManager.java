@@ -55,6 +55,7 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.KeyUpdateCommand;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
+import org.apache.hadoop.hdfs.util.LongHashSet;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.Time;
@@ -67,9 +68,9 @@
 import se.sics.hop.metadata.Variables;
 import se.sics.hop.metadata.blockmanagement.ExcessReplicasMap;
 import se.sics.hop.metadata.hdfs.dal.MisReplicatedRangeQueueDataAccess;
-import se.sics.hop.metadata.hdfs.entity.hop.var.HopVariable;
 import se.sics.hop.metadata.security.token.block.NameNodeBlockTokenSecretManager;
 import se.sics.hop.transaction.EntityManager;
+import se.sics.hop.transaction.context.RowCounters;
 import se.sics.hop.transaction.handler.HDFSOperationType;
 import se.sics.hop.transaction.handler.HopsTransactionalRequestHandler;
 import se.sics.hop.transaction.handler.LightWeightRequestHandler;
@@ -80,18 +81,30 @@
 import se.sics.hop.util.Slicer;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.apache.hadoop.util.ExitUtil.terminate;
@@ -152,7 +165,7 @@ public long getScheduledReplicationBlocksCount() {
   }
   /** Used by metrics */
   public long getPendingDeletionBlocksCount() throws IOException {
-    return invalidateBlocks.numBlocks();
+    return invalidateBlocks.approximateNumBlocks();
   }
   /** Used by metrics */
   public long getExcessBlocksCount() {
@@ -252,6 +265,10 @@ public long getPostponedMisreplicatedBlocksCount() {
   private final int processReportBatchSize;
   private final int processMisReplicatedBatchSize;
   private final int processMisReplicatedNoOfBatchs;
+  private final int processReportActionsBatchSize;
+  private final ExecutorService processReportExecutor;
+  private final int replicationWorkBatchSize;
+  private final ExecutorService replicationWorkExecutor;
   
   public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
       final Configuration conf) throws IOException {
@@ -330,6 +347,22 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.processMisReplicatedNoOfBatchs = conf.getInt(DFSConfigKeys.DFS_NAMENODE_PROCESS_MISREPLICATED_NO_OF_BATCHS, 
             DFSConfigKeys.DFS_NAMENODE_PROCESS_MISREPLICATED_NO_OF_BATCHS_DEFAULT);
     
+    this.processReportActionsBatchSize = conf.getInt(DFSConfigKeys.DFS_NAMENODE_PROCESS_REPORT_ACTIONS_BATCH_SIZE,
+            DFSConfigKeys.DFS_NAMENODE_PROCESS_REPORT_ACTIONS_BATCH_SIZE_DEFAULT);
+    
+    final int processReportThreads = conf.getInt(DFSConfigKeys.DFS_NAMENODE_PROCESS_REPORT_THREADS,
+            DFSConfigKeys.DFS_NAMENODE_PROCESS_REPORT_THREADS_DEFAULT);
+    this.processReportExecutor = processReportThreads > 0 ?
+        Executors.newFixedThreadPool(processReportThreads,
+            new Daemon.DaemonFactory()) : null;
+
+    this.replicationWorkBatchSize = conf.getInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE,
+            DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_DEFAULT);
+    final int replicationWorkThreads = conf.getInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS,
+            DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT);
+    this.replicationWorkExecutor = Executors.newFixedThreadPool(replicationWorkThreads,
+            new Daemon.DaemonFactory());
+    
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
     LOG.info("minReplication             = " + minReplication);
@@ -340,6 +373,7 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     //HOP
     LOG.info("misReplicatedBatchSize     = " + processMisReplicatedBatchSize);
     LOG.info("misReplicatedNoOfBatchs     = " + processMisReplicatedNoOfBatchs);
+    LOG.info("processReportThreads       = " + processReportThreads);
   }
 
   private  NameNodeBlockTokenSecretManager createBlockTokenSecretManager(
@@ -424,6 +458,10 @@ public void close() {
       }
     } catch (InterruptedException ie) {
     }
+    if (processReportExecutor != null) {
+      processReportExecutor.shutdownNow();
+    }
+    replicationWorkExecutor.shutdownNow();
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -1197,9 +1235,26 @@ private void postponeBlock(Block blk) {
   
   
   void updateState() throws IOException {
-    pendingReplicationBlocksCount = pendingReplications.size();
-    underReplicatedBlocksCount = neededReplications.size();
-    corruptReplicaBlocksCount = corruptReplicas.size();
+    pendingReplicationBlocksCount = pendingReplications.approximateSize();
+    underReplicatedBlocksCount = neededReplications.approximateSize();
+    corruptReplicaBlocksCount = corruptReplicas.approximateSize();
+  }
+
+  /**
+   * Replaces the block counts kept by {@link RowCounters} with the results
+   * of COUNT queries.
+   */
+  public void reconcileRowCounters() throws IOException {
+    RowCounters counters = RowCounters.getInstance();
+    counters.reconcile(RowCounters.Counter.BLOCKS, blocksMap.size());
+    counters.reconcile(RowCounters.Counter.UNDER_REPLICATED_BLOCKS,
+        neededReplications.size());
+    counters.reconcile(RowCounters.Counter.INVALIDATED_BLOCKS,
+        invalidateBlocks.numBlocks());
+    counters.reconcile(RowCounters.Counter.CORRUPT_BLOCKS,
+        corruptReplicas.size());
+    counters.reconcile(RowCounters.Counter.PENDING_REPLICATIONS,
+        pendingReplications.size());
   }
 
   /** Return number of under-replicated but not missing blocks */
@@ -1245,90 +1300,324 @@ int computeReplicationWork(int blocksToProcess) throws IOException {
       namesystem.writeUnlock();
     }
 
-    int scheduledWork = 0;
+    return computeReplicationWorkForBlocks(blocksToReplicate);
+  }
+
+  /**
+   * Replicate a set of blocks. The blocks are split in batches of about
+   * replicationWorkBatchSize, and the batches run in parallel. The blocks of
+   * a file are always in the same batch, so that the batches do not wait on
+   * the lock of each other's files. Every batch chooses the sources in one
+   * transaction, the targets without holding any lock, and schedules the
+   * work in a second transaction. The replication index is updated once,
+   * after all the batches.
+   *
+   * @param blocksToReplicate the blocks to replicate, by priority
+   * @return the number of blocks scheduled for replication
+   */
+  @VisibleForTesting
+  int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate)
+      throws IOException {
+    final long startTime = Time.now();
+    List<Block> blocks = new ArrayList<Block>();
+    List<Integer> priorities = new ArrayList<Integer>();
     for (int priority = 0; priority < blocksToReplicate.size(); priority++) {
       for (Block block : blocksToReplicate.get(priority)) {
-        scheduledWork += computeReplicationWorkForBlock(block, priority);
+        blocks.add(block);
+        priorities.add(priority);
       }
     }
-    return scheduledWork;
+    if (blocks.isEmpty()) {
+      return 0;
+    }
+
+    int[] inodeIds = resolveReplicationINodeIds(blocks);
+    INodeIdentifier[] inodeIdentifiers =
+        INodeUtil.resolveINodesFromIds(inodeIds);
+
+    final AtomicInteger scheduledWork = new AtomicInteger();
+    final AtomicIntegerArray indexDecrements =
+        new AtomicIntegerArray(UnderReplicatedBlocks.LEVEL);
+    final List<Future<Object>> batches = new ArrayList<Future<Object>>();
+    try {
+      for (List<Integer> batch : batchByINode(inodeIds,
+          replicationWorkBatchSize)) {
+        List<Block> batchBlocks = new ArrayList<Block>(batch.size());
+        List<Integer> batchPriorities = new ArrayList<Integer>(batch.size());
+        List<INodeIdentifier> batchINodes = new ArrayList<INodeIdentifier>();
+        for (int i : batch) {
+          // the files which were deleted since the blocks were chosen
+          if (inodeIdentifiers[i].getName() == null) {
+            continue;
+          }
+          batchBlocks.add(blocks.get(i));
+          batchPriorities.add(priorities.get(i));
+          if (batchINodes.isEmpty() || batchINodes.get(batchINodes.size() - 1)
+              .getInodeId() != inodeIds[i]) {
+            batchINodes.add(inodeIdentifiers[i]);
+          }
+        }
+        if (!batchBlocks.isEmpty()) {
+          batches.add(submitReplicationWork(batchBlocks, batchPriorities,
+              batchINodes, scheduledWork, indexDecrements));
+        }
+      }
+    } finally {
+      try {
+        waitForAll(batches);
+      } finally {
+        int[] decrements = new int[indexDecrements.length()];
+        for (int i = 0; i < decrements.length; i++) {
+          decrements[i] = indexDecrements.get(i);
+        }
+        neededReplications.decrementReplicationIndex(decrements);
+      }
+    }
+
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      long elapsed = Math.max(Time.now() - startTime, 1);
+      metrics.incrReplicationWorkScheduled(scheduledWork.get());
+      metrics.setReplicationWorkRate(scheduledWork.get() * 1000L / elapsed);
+    }
+    if(blockLog.isDebugEnabled()) {
+        blockLog.debug(
+          "BLOCK* neededReplications = " + neededReplications.size()
+          + " pendingReplications = " + pendingReplications.size());
+    }
+    return scheduledWork.get();
   }
 
-  /** Replicate a set of blocks
+  /**
+   * Splits the blocks in batches of about batchSize blocks. The blocks of a
+   * file are never split over several batches, a file with more blocks than
+   * batchSize gets a batch of its own.
    *
-   * @return the number of blocks scheduled for replication
+   * @param inodeIds the file of every block
+   * @return the indexes of the blocks of every batch, the blocks of a file
+   * next to each other
+   */
+  @VisibleForTesting
+  static List<List<Integer>> batchByINode(int[] inodeIds, int batchSize) {
+    Map<Integer, List<Integer>> blocksByINode =
+        new LinkedHashMap<Integer, List<Integer>>();
+    for (int i = 0; i < inodeIds.length; i++) {
+      List<Integer> inodeBlocks = blocksByINode.get(inodeIds[i]);
+      if (inodeBlocks == null) {
+        inodeBlocks = new ArrayList<Integer>();
+        blocksByINode.put(inodeIds[i], inodeBlocks);
+      }
+      inodeBlocks.add(i);
+    }
+    List<List<Integer>> batches = new ArrayList<List<Integer>>();
+    List<Integer> batch = new ArrayList<Integer>();
+    for (List<Integer> inodeBlocks : blocksByINode.values()) {
+      if (!batch.isEmpty() && batch.size() + inodeBlocks.size() > batchSize) {
+        batches.add(batch);
+        batch = new ArrayList<Integer>();
+      }
+      batch.addAll(inodeBlocks);
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  private Future<Object> submitReplicationWork(final List<Block> blocks,
+      final List<Integer> priorities,
+      final List<INodeIdentifier> inodeIdentifiers,
+      final AtomicInteger scheduledWork,
+      final AtomicIntegerArray indexDecrements) {
+    return replicationWorkExecutor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        int[] decrements = new int[indexDecrements.length()];
+        List<ReplicationWork> work = chooseReplicationWorkTx(blocks,
+            priorities, inodeIdentifiers, decrements);
+        addIndexDecrements(indexDecrements, decrements);
+        if (work.isEmpty()) {
+          return null;
+        }
+        chooseReplicationTargets(work);
+        scheduledWork.addAndGet(
+            scheduleReplicationWorkTx(work, inodeIdentifiers, decrements));
+        addIndexDecrements(indexDecrements, decrements);
+        return null;
+      }
+    });
+  }
+
+  private static void addIndexDecrements(AtomicIntegerArray indexDecrements,
+      int[] decrements) {
+    for (int i = 0; i < decrements.length; i++) {
+      indexDecrements.addAndGet(i, decrements[i]);
+    }
+  }
+
+  /**
+   * @return the file of every block, read in one request for the blocks
+   * which do not know it
+   */
+  private int[] resolveReplicationINodeIds(List<Block> blocks)
+      throws StorageException {
+    int[] inodeIds = new int[blocks.size()];
+    List<Integer> unresolved = new ArrayList<Integer>();
+    for (int i = 0; i < inodeIds.length; i++) {
+      Block block = blocks.get(i);
+      if (block instanceof BlockInfo) {
+        inodeIds[i] = ((BlockInfo) block).getInodeId();
+      } else {
+        unresolved.add(i);
+      }
+    }
+    if (!unresolved.isEmpty()) {
+      long[] blockIds = new long[unresolved.size()];
+      for (int i = 0; i < blockIds.length; i++) {
+        blockIds[i] = blocks.get(unresolved.get(i)).getBlockId();
+      }
+      int[] resolved = INodeUtil.resolveINodesFromBlockIds(blockIds);
+      for (int i = 0; i < blockIds.length; i++) {
+        inodeIds[unresolved.get(i)] = resolved[i];
+      }
+    }
+    return inodeIds;
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<ReplicationWork> chooseReplicationWorkTx(
+      final List<Block> blocks, final List<Integer> priorities,
+      final List<INodeIdentifier> inodeIdentifiers, final int[] decrements)
+      throws IOException {
+    return (List<ReplicationWork>) new HopsTransactionalRequestHandler(
+        HDFSOperationType.CHOOSE_REPLICATION_WORK) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        HopsLockFactory lf = HopsLockFactory.getInstance();
+        locks.add(lf.getBatchedINodesLock(INodeLockType.WRITE, inodeIdentifiers))
+                .add(lf.getSqlBatchedBlocksLock())
+                .add(lf.getSqlBatchedBlocksRelated(BLK.RE, BLK.ER, BLK.CR, BLK.PE, BLK.UR, BLK.UC));
+      }
+
+      @Override
+      public Object performTask() throws IOException {
+        Arrays.fill(decrements, 0);
+        List<ReplicationWork> work = new ArrayList<ReplicationWork>();
+        for (int i = 0; i < blocks.size(); i++) {
+          ReplicationWork rw = chooseReplicationWork(blocks.get(i),
+              priorities.get(i), decrements);
+          if (rw != null) {
+            work.add(rw);
+          }
+        }
+        return work;
+      }
+    }.handle(namesystem);
+  }
+
+  private int scheduleReplicationWorkTx(final List<ReplicationWork> work,
+      final List<INodeIdentifier> inodeIdentifiers, final int[] decrements)
+      throws IOException {
+    return (Integer) new HopsTransactionalRequestHandler(
+        HDFSOperationType.SCHEDULE_REPLICATION_WORK) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        HopsLockFactory lf = HopsLockFactory.getInstance();
+        locks.add(lf.getBatchedINodesLock(INodeLockType.WRITE, inodeIdentifiers))
+                .add(lf.getSqlBatchedBlocksLock())
+                .add(lf.getSqlBatchedBlocksRelated(BLK.RE, BLK.ER, BLK.CR, BLK.PE, BLK.UR, BLK.UC));
+      }
+
+      @Override
+      public Object performTask() throws IOException {
+        Arrays.fill(decrements, 0);
+        int scheduled = 0;
+        for (ReplicationWork rw : work) {
+          if (scheduleReplicationWork(rw, decrements)) {
+            scheduled++;
+          }
+        }
+        return scheduled;
+      }
+    }.handle(namesystem);
+  }
+
+  /**
+   * Choose the source of the replication of a block, called in the
+   * transaction which locks the block.
+   *
+   * @param decrements the decrements of the replication index, by priority
+   * @return the work to schedule, or null if the block needs no replication
    */
-  private int computeReplicationWorkForBlockInternal(Block blk, int priority1) throws
-      StorageException, IOException {
+  private ReplicationWork chooseReplicationWork(Block blk, int priority,
+      int[] decrements) throws StorageException, IOException {
     int requiredReplication, numEffectiveReplicas;
     List<DatanodeDescriptor> containingNodes, liveReplicaNodes;
     DatanodeDescriptor srcNode;
     BlockCollection bc = null;
     int additionalReplRequired;
 
-    int scheduledWork = 0;
-    List<ReplicationWork> work = new LinkedList<ReplicationWork>();
-
     namesystem.writeLock();
     try {
       synchronized (neededReplications) {
-//        for (int priority = 0; priority < blocksToReplicate.size(); priority++) {
-//          for (Block block : blocksToReplicate.get(priority)) {
-            // block should belong to a file
-            bc = blocksMap.getBlockCollection(blk);
-            // abandoned block or block reopened for append
-            if(bc == null || bc instanceof MutableBlockCollection) {
-              neededReplications.remove(getBlockInfo(blk), priority1); // remove from neededReplications
-              neededReplications.decrementReplicationIndex(priority1);
-              return scheduledWork;
-            }
-
-            requiredReplication = bc.getBlockReplication();
-
-            // get a source data-node
-            containingNodes = new ArrayList<DatanodeDescriptor>();
-            liveReplicaNodes = new ArrayList<DatanodeDescriptor>();
-            NumberReplicas numReplicas = new NumberReplicas();
-            srcNode = chooseSourceDatanode(
-                blk, containingNodes, liveReplicaNodes, numReplicas,
-                priority1);
-            if(srcNode == null) { // block can not be replicated from any node
-              LOG.debug("Block " + blk + " cannot be repl from any node");
-              return scheduledWork;
-            }
+        // block should belong to a file
+        bc = blocksMap.getBlockCollection(blk);
+        // abandoned block or block reopened for append
+        if(bc == null || bc instanceof MutableBlockCollection) {
+          neededReplications.remove(getBlockInfo(blk), priority); // remove from neededReplications
+          decrements[priority]++;
+          return null;
+        }
 
-            assert liveReplicaNodes.size() == numReplicas.liveReplicas();
-            // do not schedule more if enough replicas is already pending
-            numEffectiveReplicas = numReplicas.liveReplicas() +
-                                    pendingReplications.getNumReplicas(getBlockInfo(blk));
-      
-            if (numEffectiveReplicas >= requiredReplication) {
-              if ( (pendingReplications.getNumReplicas(getBlockInfo(blk)) > 0) ||
-                   (blockHasEnoughRacks(blk)) ) {
-                neededReplications.remove(getBlockInfo(blk), priority1); // remove from neededReplications
-                neededReplications.decrementReplicationIndex(priority1);
-                blockLog.info("BLOCK* Removing " + blk
-                    + " from neededReplications as it has enough replicas");
-                return scheduledWork;
-              }
-            }
+        requiredReplication = bc.getBlockReplication();
+
+        // get a source data-node
+        containingNodes = new ArrayList<DatanodeDescriptor>();
+        liveReplicaNodes = new ArrayList<DatanodeDescriptor>();
+        NumberReplicas numReplicas = new NumberReplicas();
+        srcNode = chooseSourceDatanode(
+            blk, containingNodes, liveReplicaNodes, numReplicas,
+            priority);
+        if(srcNode == null) { // block can not be replicated from any node
+          LOG.debug("Block " + blk + " cannot be repl from any node");
+          return null;
+        }
 
-            if (numReplicas.liveReplicas() < requiredReplication) {
-              additionalReplRequired = requiredReplication
-                  - numEffectiveReplicas;
-            } else {
-              additionalReplRequired = 1; // Needed on a new rack
-            }
-            work.add(new ReplicationWork(blk, bc, srcNode,
-                containingNodes, liveReplicaNodes, additionalReplRequired,
-                priority1));
+        assert liveReplicaNodes.size() == numReplicas.liveReplicas();
+        // do not schedule more if enough replicas is already pending
+        numEffectiveReplicas = numReplicas.liveReplicas() +
+                                pendingReplications.getNumReplicas(getBlockInfo(blk));
+
+        if (numEffectiveReplicas >= requiredReplication) {
+          if ( (pendingReplications.getNumReplicas(getBlockInfo(blk)) > 0) ||
+               (blockHasEnoughRacks(blk)) ) {
+            neededReplications.remove(getBlockInfo(blk), priority); // remove from neededReplications
+            decrements[priority]++;
+            blockLog.info("BLOCK* Removing " + blk
+                + " from neededReplications as it has enough replicas");
+            return null;
           }
-//        }
-//      }
+        }
+
+        if (numReplicas.liveReplicas() < requiredReplication) {
+          additionalReplRequired = requiredReplication
+              - numEffectiveReplicas;
+        } else {
+          additionalReplRequired = 1; // Needed on a new rack
+        }
+        return new ReplicationWork(blk, bc, srcNode,
+            containingNodes, liveReplicaNodes, additionalReplRequired,
+            priority);
+      }
     } finally {
       namesystem.writeUnlock();
     }
+  }
 
+  /**
+   * Choose the targets of the replications, outside of any transaction.
+   */
+  private void chooseReplicationTargets(List<ReplicationWork> work) {
     HashMap<Node, Node> excludedNodes
         = new HashMap<Node, Node>();
     for(ReplicationWork rw : work){
@@ -1346,79 +1635,88 @@ private int computeReplicationWorkForBlockInternal(Block blk, int priority1) thr
           rw.additionalReplRequired, rw.srcNode, rw.liveReplicaNodes,
           excludedNodes, rw.block.getNumBytes());
     }
+  }
+
+  /**
+   * Recheck the block, since it was not locked while the targets were
+   * chosen, and schedule its replication.
+   *
+   * @param decrements the decrements of the replication index, by priority
+   * @return true if the replication was scheduled
+   */
+  private boolean scheduleReplicationWork(ReplicationWork rw,
+      int[] decrements) throws StorageException, IOException {
+    int requiredReplication, numEffectiveReplicas;
+    BlockCollection bc;
+    DatanodeDescriptor[] targets = rw.targets;
+    if(targets == null || targets.length == 0){
+      rw.targets = null;
+      return false;
+    }
 
     namesystem.writeLock();
     try {
-      for(ReplicationWork rw : work){
-        DatanodeDescriptor[] targets = rw.targets;
-        if(targets == null || targets.length == 0){
+      synchronized (neededReplications) {
+        Block block = rw.block;
+        int priority = rw.priority;
+        // Recheck since global lock was released
+        // block should belong to a file
+        bc = blocksMap.getBlockCollection(block);
+        // abandoned block or block reopened for append
+        if(bc == null || bc instanceof MutableBlockCollection) {
+          neededReplications.remove(getBlockInfo(block), priority); // remove from neededReplications
           rw.targets = null;
-          continue;
+          decrements[priority]++;
+          return false;
         }
+        requiredReplication = bc.getBlockReplication();
 
-        synchronized (neededReplications) {
-          Block block = rw.block;
-          int priority = rw.priority;
-          // Recheck since global lock was released
-          // block should belong to a file
-          bc = blocksMap.getBlockCollection(block);
-          // abandoned block or block reopened for append
-          if(bc == null || bc instanceof MutableBlockCollection) {
+        // do not schedule more if enough replicas is already pending
+        NumberReplicas numReplicas = countNodes(block);
+        numEffectiveReplicas = numReplicas.liveReplicas() +
+          pendingReplications.getNumReplicas(getBlockInfo(block));
+
+        if (numEffectiveReplicas >= requiredReplication) {
+          if ( (pendingReplications.getNumReplicas(getBlockInfo(block)) > 0) ||
+               (blockHasEnoughRacks(block)) ) {
             neededReplications.remove(getBlockInfo(block), priority); // remove from neededReplications
+            decrements[priority]++;
             rw.targets = null;
-            neededReplications.decrementReplicationIndex(priority);
-            continue;
-          }
-          requiredReplication = bc.getBlockReplication();
-
-          // do not schedule more if enough replicas is already pending
-          NumberReplicas numReplicas = countNodes(block);
-          numEffectiveReplicas = numReplicas.liveReplicas() +
-            pendingReplications.getNumReplicas(getBlockInfo(block));
-
-          if (numEffectiveReplicas >= requiredReplication) {
-            if ( (pendingReplications.getNumReplicas(getBlockInfo(block)) > 0) ||
-                 (blockHasEnoughRacks(block)) ) {
-              neededReplications.remove(getBlockInfo(block), priority); // remove from neededReplications
-              neededReplications.decrementReplicationIndex(priority);
-              rw.targets = null;
-              blockLog.info("BLOCK* Removing " + block
-                  + " from neededReplications as it has enough replicas");
-              continue;
-            }
+            blockLog.info("BLOCK* Removing " + block
+                + " from neededReplications as it has enough replicas");
+            return false;
           }
+        }
 
-          if ( (numReplicas.liveReplicas() >= requiredReplication) &&
-               (!blockHasEnoughRacks(block)) ) {
-            if (rw.srcNode.getNetworkLocation().equals(targets[0].getNetworkLocation())) {
-              //No use continuing, unless a new rack in this case
-              continue;
-            }
+        if ( (numReplicas.liveReplicas() >= requiredReplication) &&
+             (!blockHasEnoughRacks(block)) ) {
+          if (rw.srcNode.getNetworkLocation().equals(targets[0].getNetworkLocation())) {
+            //No use continuing, unless a new rack in this case
+            return false;
           }
+        }
 
-          // Add block to the to be replicated list
-          rw.srcNode.addBlockToBeReplicated(block, targets);
-          scheduledWork++;
+        // Add block to the to be replicated list
+        rw.srcNode.addBlockToBeReplicated(block, targets);
 
-          for (DatanodeDescriptor dn : targets) {
-            dn.incBlocksScheduled();
-          }
+        for (DatanodeDescriptor dn : targets) {
+          dn.incBlocksScheduled();
+        }
 
-          // Move the block-replication into a "pending" state.
-          // The reason we use 'pending' is so we can retry
-          // replications that fail after an appropriate amount of time.
-          pendingReplications.increment(getBlockInfo(block), targets.length);
-          if(blockLog.isDebugEnabled()) {
-            blockLog.debug(
-                "BLOCK* block " + block
-                + " is moved from neededReplications to pendingReplications");
-          }
+        // Move the block-replication into a "pending" state.
+        // The reason we use 'pending' is so we can retry
+        // replications that fail after an appropriate amount of time.
+        pendingReplications.increment(getBlockInfo(block), targets.length);
+        if(blockLog.isDebugEnabled()) {
+          blockLog.debug(
+              "BLOCK* block " + block
+              + " is moved from neededReplications to pendingReplications");
+        }
 
-          // remove from neededReplications
-          if(numEffectiveReplicas + targets.length >= requiredReplication) {
-            neededReplications.remove(getBlockInfo(block), priority); // remove from neededReplications
-            neededReplications.decrementReplicationIndex(priority);
-          }
+        // remove from neededReplications
+        if(numEffectiveReplicas + targets.length >= requiredReplication) {
+          neededReplications.remove(getBlockInfo(block), priority); // remove from neededReplications
+          decrements[priority]++;
         }
       }
     } finally {
@@ -1427,26 +1725,15 @@ private int computeReplicationWorkForBlockInternal(Block blk, int priority1) thr
 
     if (blockLog.isInfoEnabled()) {
       // log which blocks have been scheduled for replication
-      for(ReplicationWork rw : work){
-        DatanodeDescriptor[] targets = rw.targets;
-        if (targets != null && targets.length != 0) {
-          StringBuilder targetList = new StringBuilder("datanode(s)");
-          for (int k = 0; k < targets.length; k++) {
-            targetList.append(' ');
-            targetList.append(targets[k]);
-          }
-          blockLog.info("BLOCK* ask " + rw.srcNode
-              + " to replicate " + rw.block + " to " + targetList);
-        }
+      StringBuilder targetList = new StringBuilder("datanode(s)");
+      for (int k = 0; k < targets.length; k++) {
+        targetList.append(' ');
+        targetList.append(targets[k]);
       }
+      blockLog.info("BLOCK* ask " + rw.srcNode
+          + " to replicate " + rw.block + " to " + targetList);
     }
-    if(blockLog.isDebugEnabled()) {
-        blockLog.debug(
-          "BLOCK* neededReplications = " + neededReplications.size()
-          + " pendingReplications = " + pendingReplications.size());
-    }
-
-    return scheduledWork;
+    return true;
   }
 
   /**
@@ -1659,8 +1946,9 @@ public void processReport(final DatanodeID nodeID, final String poolId,
     namesystem.writeLock();
     final long startTime = Time.now(); //after acquiring write lock
     final long endTime;
+    final DatanodeDescriptor node;
     try {
-      final DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+      node = datanodeManager.getDatanode(nodeID);
       if (node == null || !node.isAlive) {
         throw new IOException(
             "ProcessReport from dead or unregistered node: " + nodeID);
@@ -1700,13 +1988,19 @@ public void processReport(final DatanodeID nodeID, final String poolId,
     }
 
     // Log the block report processing stats from Namenode perspective
+    final long processingTime = endTime - startTime;
+    final int numBlocks = newReport.getNumberOfBlocks();
+    final long blocksPerSec = numBlocks * 1000L / Math.max(1, processingTime);
+    node.setLastBlockReportStats(processingTime, blocksPerSec);
     final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
     if (metrics != null) {
-      metrics.addBlockReport((int) (endTime - startTime));
+      metrics.addBlockReport((int) processingTime);
+      metrics.addBlockReportThroughput(blocksPerSec);
     }
     blockLog.info("BLOCK* processReport: from "
-        + nodeID + ", blocks: " + newReport.getNumberOfBlocks()
-        + ", processing time: " + (endTime - startTime) + " msecs");
+        + nodeID + ", blocks: " + numBlocks
+        + ", processing time: " + processingTime + " msecs"
+        + ", blocks/sec: " + blocksPerSec);
   }
 
   /**
@@ -1774,35 +2068,20 @@ private void processReport(final DatanodeDescriptor node,
     // Modify the (block-->datanode) map, according to the difference
     // between the old and new block report.
     //
-    Collection<BlockInfo> toAdd = new HashSet<BlockInfo>();
-    Collection<Long> toRemove = new HashSet<Long>();
-    Collection<Block> toInvalidate = new HashSet<Block>();
-    Collection<BlockToMarkCorrupt> toCorrupt = new HashSet<BlockToMarkCorrupt>();
-    Collection<StatefulBlockInfo> toUC = new HashSet<StatefulBlockInfo>();
+    // The report slices are diffed concurrently, so the result collections
+    // have to be thread safe.
+    Collection<BlockInfo> toAdd = newConcurrentSet();
+    LongHashSet toRemove = new LongHashSet();
+    Collection<Block> toInvalidate = newConcurrentSet();
+    Collection<BlockToMarkCorrupt> toCorrupt = newConcurrentSet();
+    Collection<StatefulBlockInfo> toUC = newConcurrentSet();
     
     final boolean firstBlockReport = namesystem.isInStartupSafeMode() && node.isFirstBlockReport();
     reportDiff(node, report, toAdd, toRemove, toInvalidate, toCorrupt, toUC, firstBlockReport);
      
     // Process the blocks on each queue
-    for (StatefulBlockInfo b : toUC) {
-      if (firstBlockReport) {
-        addStoredBlockUnderConstructionImmediateTx(b.storedBlock, node, b.reportedState);
-      } else {
-        addStoredBlockUnderConstructionTx(b.storedBlock, node, b.reportedState);
-      }
-    }
-
-    for (BlockInfo b : toAdd) {
-      if (firstBlockReport) {
-        addStoredBlockImmediateTx(b, node);
-      } else {
-        addStoredBlockTx(b, node, null, true);
-      }
-    }
-
-    for (BlockToMarkCorrupt b : toCorrupt) {
-      markBlockAsCorruptTx(b, node);
-    }
+    applyReportActions(node, toUC, toAdd, toCorrupt, new LongHashSet(),
+        firstBlockReport);
 
     if (!firstBlockReport) {
       for (Block b : toInvalidate) {
@@ -1812,9 +2091,9 @@ private void processReport(final DatanodeDescriptor node,
       }
       addToInvalidates(toInvalidate, node);
 
-      for (Long b : toRemove) {
-        removeStoredBlockTx(b, node);
-      }
+      applyReportActions(node, Collections.<StatefulBlockInfo>emptySet(),
+          Collections.<BlockInfo>emptySet(),
+          Collections.<BlockToMarkCorrupt>emptySet(), toRemove, false);
     }
   }
 
@@ -1921,7 +2200,7 @@ public Object performTask() throws IOException {
   private void reportDiff(final DatanodeDescriptor dn,
       final BlockListAsLongs newReport, 
       final Collection<BlockInfo> toAdd,              // add to DatanodeDescriptor
-      final Collection<Long> toRemove,           // remove from DatanodeDescriptor
+      final LongHashSet toRemove,           // remove from DatanodeDescriptor
       final Collection<Block> toInvalidate,       // should be removed from DN
       final Collection<BlockToMarkCorrupt> toCorrupt, // add to corrupt replicas list
       final Collection<StatefulBlockInfo> toUC,
@@ -1930,57 +2209,83 @@ private void reportDiff(final DatanodeDescriptor dn,
     if(newReport == null)
       return;
    
-   final Set<Long> allMachineBlocks = dn.getAllMachineBlocks();
-   final Set<Long> safeBlocks = new HashSet<Long>(allMachineBlocks);
-   
-   final HopsTransactionalRequestHandler processReportHandler = new HopsTransactionalRequestHandler(firstBlockReport ? 
-           HDFSOperationType.PROCESS_FIRST_BLOCK_REPORT : HDFSOperationType.PROCESS_REPORT) {
-     @Override
-     public void acquireLock(TransactionLocks locks) throws IOException {
-       HopsLockFactory lf = HopsLockFactory.getInstance();
-       long[] partOfreportedBlks = (long[]) getParams()[0];
-       locks.add(lf.getBlockReportingLocks(partOfreportedBlks, dn.getSId()));
-     }
-     
-     @Override
-     public Object performTask() throws IOException {
-       Block[] blks = (Block[]) getParams()[1];
-       ReplicaState[] blksStates = (ReplicaState[]) getParams()[2];
-
-       // scan the report and process newly reported blocks
-       for (int index = 0; index < blks.length; index++) {
-         Block iblk = blks[index];
-         ReplicaState iState = blksStates[index];
-         BlockInfo storedBlock = processReportedBlock(dn, iblk, iState,
-                 toAdd, toInvalidate, toCorrupt, toUC, safeBlocks, firstBlockReport);
-         if (storedBlock != null && storedBlock.findDatanode(dn) >= 0) {
-           allMachineBlocks.remove(storedBlock.getBlockId());
-         }
-       }
-
-       return null;
-     }
-   };
-    
+    // The stored ids are only read if the number of reported blocks found on
+    // the datanode differs from the number of its stored replicas. Only the
+    // datanode itself adds replicas to its storage, and it does not report
+    // concurrently.
+    final int numStoredBlocks = dn.numBlocks();
+
+    // Every slice collects the ids of the blocks it found on the datanode,
+    // and of the reported blocks which are not safe, in sets of its own.
+    // They are merged once all slices are done.
+    final List<LongHashSet[]> sliceResults =
+        Collections.synchronizedList(new ArrayList<LongHashSet[]>());
+    final List<Future<Object>> slices = new ArrayList<Future<Object>>();
     try {
       final int numOfReportedBlks = newReport.getNumberOfBlocks();
       Slicer.slice(numOfReportedBlks, processReportBatchSize, new Slicer.OperationHandler() {
         @Override
-        public void handle(int startIndex, int endIndex) throws Exception {
-          //blksIds, blks, states
-          Object[] blksData = newReport.getBlocksAndIdsAndStates(startIndex, endIndex);
-          processReportHandler.setParams(blksData[0], blksData[1], blksData[2]);
-          processReportHandler.handle(null);
+        public void handle(final int startIndex, final int endIndex) throws Exception {
+          slices.add(submitReportTask(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+              //blksIds, blks, states
+              Object[] blksData = newReport.getBlocksAndIdsAndStates(startIndex, endIndex);
+              final LongHashSet storedOnNode = new LongHashSet(endIndex - startIndex);
+              final LongHashSet notSafe = new LongHashSet();
+              new HopsTransactionalRequestHandler(firstBlockReport ?
+                  HDFSOperationType.PROCESS_FIRST_BLOCK_REPORT : HDFSOperationType.PROCESS_REPORT) {
+                @Override
+                public void acquireLock(TransactionLocks locks) throws IOException {
+                  HopsLockFactory lf = HopsLockFactory.getInstance();
+                  long[] partOfreportedBlks = (long[]) getParams()[0];
+                  locks.add(lf.getBlockReportingLocks(partOfreportedBlks, dn.getSId()));
+                }
+
+                @Override
+                public Object performTask() throws IOException {
+                  Block[] blks = (Block[]) getParams()[1];
+                  ReplicaState[] blksStates = (ReplicaState[]) getParams()[2];
+
+                  // scan the report and process newly reported blocks
+                  for (int index = 0; index < blks.length; index++) {
+                    Block iblk = blks[index];
+                    ReplicaState iState = blksStates[index];
+                    BlockInfo storedBlock = processReportedBlock(dn, iblk, iState,
+                            toAdd, toInvalidate, toCorrupt, toUC, notSafe, firstBlockReport);
+                    if (storedBlock != null && storedBlock.findDatanode(dn) >= 0) {
+                      storedOnNode.add(storedBlock.getBlockId());
+                    }
+                  }
+                  return null;
+                }
+              }.setParams(blksData[0], blksData[1], blksData[2]).handle(null);
+              sliceResults.add(new LongHashSet[]{storedOnNode, notSafe});
+              return null;
+            }
+          }));
         }
       });
-      
-      toRemove.addAll(allMachineBlocks);
-      if (namesystem.isInStartupSafeMode()) {
-        safeBlocks.removeAll(toRemove);
-        namesystem.adjustSafeModeBlocks(safeBlocks);
-      }
     } catch (Exception ex) {
       throw new IOException(ex);
+    } finally {
+      waitForAll(slices);
+    }
+
+    final LongHashSet foundOnNode = new LongHashSet(numStoredBlocks);
+    final LongHashSet notSafe = new LongHashSet();
+    for (LongHashSet[] sliceResult : sliceResults) {
+      foundOnNode.addAll(sliceResult[0]);
+      notSafe.addAll(sliceResult[1]);
+    }
+    if (foundOnNode.size() != numStoredBlocks) {
+      LongHashSet allMachineBlocks = dn.getAllMachineBlocks();
+      allMachineBlocks.removeAll(foundOnNode);
+      toRemove.addAll(allMachineBlocks);
+    }
+    if (namesystem.isInStartupSafeMode()) {
+      foundOnNode.removeAll(notSafe);
+      namesystem.adjustSafeModeBlocks(foundOnNode);
     }
   }
 
@@ -2021,7 +2326,7 @@ private BlockInfo processReportedBlock(final DatanodeDescriptor dn,
       final Collection<Block> toInvalidate, 
       final Collection<BlockToMarkCorrupt> toCorrupt,
       final Collection<StatefulBlockInfo> toUC, 
-      final Set<Long> safeBlocks,
+      final LongHashSet notSafeBlocks,
       final boolean firstBlockReport) throws IOException {
     
     if(LOG.isDebugEnabled()) {
@@ -2046,7 +2351,7 @@ private BlockInfo processReportedBlock(final DatanodeDescriptor dn,
           + block + " on " + dn + " size " + block.getNumBytes()
           + " does not belong to any file");
       toInvalidate.add(new Block(block));
-      safeBlocks.remove(block.getBlockId());
+      notSafeBlocks.add(block.getBlockId());
       return null;
     }
     BlockUCState ucState = storedBlock.getBlockUCState();
@@ -2078,14 +2383,14 @@ private BlockInfo processReportedBlock(final DatanodeDescriptor dn,
 //      } else {
         toCorrupt.add(c);
 //      }
-      safeBlocks.remove(block.getBlockId());
+      notSafeBlocks.add(block.getBlockId());
       return storedBlock;
     }
 
     if (isBlockUnderConstruction(storedBlock, ucState, reportedState)) {
        toUC.add(new StatefulBlockInfo(
           (BlockInfoUnderConstruction)storedBlock, reportedState));
-      safeBlocks.remove(block.getBlockId());
+      notSafeBlocks.add(block.getBlockId());
       return storedBlock;
     }
 
@@ -2093,7 +2398,7 @@ private BlockInfo processReportedBlock(final DatanodeDescriptor dn,
     if (reportedState == ReplicaState.FINALIZED
         && storedBlock.findDatanode(dn) < 0) {
       toAdd.add(storedBlock);
-      safeBlocks.remove(block.getBlockId());
+      notSafeBlocks.add(block.getBlockId());
     }
     return storedBlock;
   }
@@ -3438,6 +3743,14 @@ public int getTotalBlocks() throws IOException {
     return blocksMap.size();
   }
 
+  /**
+   * @return the block count kept by {@link RowCounters}, only for the
+   * metrics
+   */
+  public int getApproximateTotalBlocks() throws IOException {
+    return blocksMap.approximateSize();
+  }
+
   public void removeBlock(Block block)
       throws StorageException, TransactionContextException {
     assert namesystem.hasWriteLock();
@@ -3818,43 +4131,6 @@ public Object performTask() throws IOException {
     }.handle(namesystem);
   }
   
-  @VisibleForTesting
-  int computeReplicationWorkForBlock(final Block b, final int priority) throws IOException {
-    return (Integer) new HopsTransactionalRequestHandler(HDFSOperationType.COMPUTE_REPLICATION_WORK_FOR_BLOCK) {
-      INodeIdentifier inodeIdentifier;
-
-      @Override
-      public void setUp() throws StorageException {
-        inodeIdentifier = INodeUtil.resolveINodeFromBlock(b);
-      }
-
-      @Override
-      public void acquireLock(TransactionLocks locks) throws IOException {
-        HopsLockFactory lf = HopsLockFactory.getInstance();
-        locks.add(lf.getIndividualINodeLock(INodeLockType.WRITE, inodeIdentifier))
-                .add(lf.getIndividualBlockLock(b.getBlockId(), inodeIdentifier))
-                .add(lf.getVariableLock(HopVariable.Finder.ReplicationIndex, LockType.WRITE))
-                .add(lf.getBlockRelated(BLK.RE, BLK.ER, BLK.CR, BLK.PE, BLK.UR, BLK.UC));
-      }
-
-      @Override
-      public Object performTask() throws IOException {
-        return computeReplicationWorkForBlockInternal(b, priority);
-      }
-    }.handle(namesystem);
-  }
-  
-  //TODO? this is only called in a test, should we remove it? 
-  int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) throws IOException{
-    int scheduledWork = 0;
-    for (int priority = 0; priority < blocksToReplicate.size(); priority++) {
-      for (Block block : blocksToReplicate.get(priority)) {
-        scheduledWork += computeReplicationWorkForBlock(block, priority);
-      }
-    }
-    return scheduledWork;
-  }
-  
    public BlockInfo tryToCompleteBlock(final MutableBlockCollection bc,
       final int blkIndex) throws IOException {
     
@@ -3942,171 +4218,249 @@ private BlockInfo getBlockInfo(Block b)
     return binfo;
   }
   
-  private Block addStoredBlockTx(final BlockInfo block,
-          final DatanodeDescriptor node,
-          final DatanodeDescriptor delNodeHint,
-          final boolean logEveryBlock) throws IOException {
-    return (Block) new HopsTransactionalRequestHandler(HDFSOperationType.AFTER_PROCESS_REPORT_ADD_BLK) {
-      INodeIdentifier inodeIdentifier;
-
-      @Override
-      public void setUp() throws StorageException {
-        inodeIdentifier = INodeUtil.resolveINodeFromBlock(block);
-      }
-
-      @Override
-      public void acquireLock(TransactionLocks locks) throws IOException {
-        HopsLockFactory lf = HopsLockFactory.getInstance();
-        locks.add(lf.getIndividualINodeLock(INodeLockType.WRITE, inodeIdentifier))
-                .add(lf.getBlockLock(block.getBlockId(), inodeIdentifier))
-                .add(lf.getBlockRelated(BLK.RE, BLK.ER, BLK.CR, BLK.PE, BLK.IV, BLK.UR));
-        if (((FSNamesystem) namesystem).isErasureCodingEnabled() && inodeIdentifier != null) {
-          locks.add(lf.getIndivdualEncodingStatusLock(LockType.WRITE, inodeIdentifier.getInodeId()));
-        }
-      }
-
-      @Override
-      public Object performTask() throws IOException {
-        return addStoredBlock(block, node, delNodeHint, logEveryBlock);
-      }
-    }.handle();
-  }
-
-  private void addStoredBlockUnderConstructionTx(final BlockInfoUnderConstruction block,
-          final DatanodeDescriptor node,
-          final ReplicaState reportedState) throws IOException {
-    
-    new HopsTransactionalRequestHandler(HDFSOperationType.AFTER_PROCESS_REPORT_ADD_UC_BLK) {
-      INodeIdentifier inodeIdentifier;
-
-      @Override
-      public void setUp() throws StorageException {
-        inodeIdentifier = INodeUtil.resolveINodeFromBlock(block);
-      }
-
-      @Override
-      public void acquireLock(TransactionLocks locks) throws IOException {
-        HopsLockFactory lf = HopsLockFactory.getInstance();
-        locks.add(lf.getIndividualINodeLock(INodeLockType.WRITE, inodeIdentifier))
-                .add(lf.getIndividualBlockLock(block.getBlockId(), inodeIdentifier))
-                .add(lf.getBlockRelated(BLK.RE, BLK.UC, BLK.ER, BLK.CR, BLK.PE, BLK.UR));
-        if (((FSNamesystem) namesystem).isErasureCodingEnabled() && inodeIdentifier != null) {
-          locks.add(lf.getIndivdualEncodingStatusLock(LockType.WRITE, inodeIdentifier.getInodeId()));
-        }
-      }
-
-      @Override
-      public Object performTask() throws IOException {
-        addStoredBlockUnderConstruction(block, node, reportedState);
-        return null;
-      }
-    }.handle();
-  }
-
   private void addToInvalidates(final Collection<Block> blocks,
           final DatanodeDescriptor node) throws IOException {
     invalidateBlocks.add(blocks, node);
   }
 
-  private void markBlockAsCorruptTx(final BlockToMarkCorrupt b,
-          final DatanodeInfo dn) throws IOException {
-    new HopsTransactionalRequestHandler(HDFSOperationType.AFTER_PROCESS_REPORT_ADD_CORRUPT_BLK) {
-      INodeIdentifier inodeIdentifier;
-
-      @Override
-      public void setUp() throws StorageException {
-        inodeIdentifier = INodeUtil.resolveINodeFromBlock(b.corrupted);
-      }
-
-      @Override
-      public void acquireLock(TransactionLocks locks) throws IOException {
-        HopsLockFactory lf = HopsLockFactory.getInstance();
-        locks.add(lf.getIndividualINodeLock(INodeLockType.WRITE, inodeIdentifier))
-                .add(lf.getIndividualBlockLock(b.corrupted.getBlockId(), inodeIdentifier))
-                .add(lf.getBlockRelated(BLK.RE, BLK.ER, BLK.CR, BLK.UR, BLK.UC, BLK.IV));
-        if (((FSNamesystem) namesystem).isErasureCodingEnabled() && inodeIdentifier != null) {
-          locks.add(lf.getIndivdualEncodingStatusLock(LockType.WRITE, inodeIdentifier.getInodeId()));
-        }
-      }
-
-      @Override
-      public Object performTask() throws IOException {
-        markBlockAsCorrupt(b, dn);
-        return null;
-      }
-    }.handle();
-  }
-  
    private BlockInfo processReportedBlock(final DatanodeDescriptor dn, 
       final Block block, final ReplicaState reportedState, 
       final Collection<BlockInfo> toAdd, 
       final Collection<Block> toInvalidate, 
       final Collection<BlockToMarkCorrupt> toCorrupt,
       final Collection<StatefulBlockInfo> toUC) throws IOException {
-     return processReportedBlock(dn, block, reportedState, toAdd, toInvalidate, toCorrupt, toUC, new HashSet<Long>(), false);
+     return processReportedBlock(dn, block, reportedState, toAdd, toInvalidate, toCorrupt, toUC, new LongHashSet(), false);
    }
    
   public int getTotalCompleteBlocks() throws IOException {
     return blocksMap.sizeCompleteOnly();
   }
   
-  private void addStoredBlockUnderConstructionImmediateTx(final BlockInfoUnderConstruction block,
+  private void addStoredBlockUnderConstructionImmediate(
+          final BlockInfoUnderConstruction block,
           final DatanodeDescriptor node,
           final ReplicaState reportedState) throws IOException {
-    
-    new HopsTransactionalRequestHandler(HDFSOperationType.AFTER_PROCESS_REPORT_ADD_UC_BLK_IMMEDIATE) {
-      INodeIdentifier inodeIdentifier;
+    block.addReplicaIfNotPresent(node, block, reportedState);
+    //and fall through to next clause
+    //add replica if appropriate
+    if (reportedState == ReplicaState.FINALIZED) {
+      addStoredBlockImmediate(block, node);
+    }
+  }
 
-      @Override
-      public void setUp() throws StorageException {
-        inodeIdentifier = INodeUtil.resolveINodeFromBlock(block);
+  /**
+   * Applies the outcome of a block report diff. The blocks are grouped by
+   * the file they belong to and the groups are packed into batches of about
+   * {@link #processReportActionsBatchSize} blocks. Each batch is applied in
+   * one transaction, and the batches are applied concurrently. Since a file
+   * never spans two batches, concurrent batches do not lock the same rows.
+   */
+  private void applyReportActions(final DatanodeDescriptor node,
+      final Collection<StatefulBlockInfo> toUC,
+      final Collection<BlockInfo> toAdd,
+      final Collection<BlockToMarkCorrupt> toCorrupt,
+      final LongHashSet toRemove,
+      final boolean firstBlockReport) throws IOException {
+    final Map<Integer, ReportActions> actionsByINode =
+        new HashMap<Integer, ReportActions>();
+    for (StatefulBlockInfo b : toUC) {
+      getReportActions(actionsByINode, b.storedBlock.getInodeId()).toUC.add(b);
+    }
+    for (BlockInfo b : toAdd) {
+      getReportActions(actionsByINode, b.getInodeId()).toAdd.add(b);
+    }
+    for (BlockToMarkCorrupt b : toCorrupt) {
+      getReportActions(actionsByINode, b.corrupted.getInodeId()).toCorrupt.add(b);
+    }
+    if (!toRemove.isEmpty()) {
+      final long[] blockIds = toRemove.toArray();
+      try {
+        Slicer.slice(blockIds.length, processReportBatchSize, new Slicer.OperationHandler() {
+          @Override
+          public void handle(int startIndex, int endIndex) throws Exception {
+            long[] ids = Arrays.copyOfRange(blockIds, startIndex, endIndex);
+            int[] inodeIds = INodeUtil.resolveINodesFromBlockIds(ids);
+            for (int j = 0; j < ids.length; j++) {
+              getReportActions(actionsByINode, inodeIds[j]).toRemove.add(ids[j]);
+            }
+          }
+        });
+      } catch (Exception ex) {
+        throw new IOException(ex);
       }
+    }
 
-      @Override
-      public void acquireLock(TransactionLocks locks) throws IOException {
-        HopsLockFactory lf = HopsLockFactory.getInstance();
-        locks.add(lf.getIndividualINodeLock(INodeLockType.WRITE, inodeIdentifier))
-                .add(lf.getIndividualBlockLock(block.getBlockId(), inodeIdentifier))
-                .add(lf.getBlockRelated(BLK.RE, BLK.UC, BLK.CR, BLK.ER, BLK.PE, BLK.UR));
+    final List<Future<Object>> batches = new ArrayList<Future<Object>>();
+    try {
+      List<ReportActions> batch = new ArrayList<ReportActions>();
+      int batchSize = 0;
+      for (ReportActions actions : actionsByINode.values()) {
+        batch.add(actions);
+        batchSize += actions.size();
+        if (batchSize >= processReportActionsBatchSize) {
+          batches.add(submitReportActions(node, batch, firstBlockReport));
+          batch = new ArrayList<ReportActions>();
+          batchSize = 0;
+        }
       }
+      if (!batch.isEmpty()) {
+        batches.add(submitReportActions(node, batch, firstBlockReport));
+      }
+    } finally {
+      waitForAll(batches);
+    }
+  }
+
+  private ReportActions getReportActions(Map<Integer, ReportActions> actions,
+      int inodeId) {
+    ReportActions inodeActions = actions.get(inodeId);
+    if (inodeActions == null) {
+      inodeActions = new ReportActions(inodeId);
+      actions.put(inodeId, inodeActions);
+    }
+    return inodeActions;
+  }
 
+  private Future<Object> submitReportActions(final DatanodeDescriptor node,
+      final List<ReportActions> batch, final boolean firstBlockReport) {
+    return submitReportTask(new Callable<Object>() {
       @Override
-      public Object performTask() throws IOException {
-        block.addReplicaIfNotPresent(node, block, reportedState);
-        //and fall through to next clause
-        //add replica if appropriate
-        if (reportedState == ReplicaState.FINALIZED) {
-          addStoredBlockImmediate(block, node);
+      public Object call() throws Exception {
+        int[] inodeIds = new int[batch.size()];
+        for (int i = 0; i < inodeIds.length; i++) {
+          inodeIds[i] = batch.get(i).inodeId;
         }
-        return null;
+        final List<INodeIdentifier> inodeIdentifiers =
+            new ArrayList<INodeIdentifier>(batch.size());
+        for (INodeIdentifier inodeIdentifier :
+            INodeUtil.resolveINodesFromIds(inodeIds)) {
+          // the file was deleted, and its blocks along with it
+          if (inodeIdentifier.getName() != null) {
+            inodeIdentifiers.add(inodeIdentifier);
+          }
+        }
+        if (inodeIdentifiers.isEmpty()) {
+          return null;
+        }
+        return new HopsTransactionalRequestHandler(HDFSOperationType.AFTER_PROCESS_REPORT) {
+          @Override
+          public void acquireLock(TransactionLocks locks) throws IOException {
+            HopsLockFactory lf = HopsLockFactory.getInstance();
+            locks.add(lf.getBatchedINodesLock(INodeLockType.WRITE, inodeIdentifiers))
+                    .add(lf.getSqlBatchedBlocksLock())
+                    .add(lf.getSqlBatchedBlocksRelated(BLK.RE, BLK.ER, BLK.CR, BLK.PE, BLK.IV, BLK.UR, BLK.UC));
+            if (((FSNamesystem) namesystem).isErasureCodingEnabled()) {
+              locks.add(lf.getBatchedEncodingStatusLock(LockType.WRITE));
+            }
+          }
+
+          @Override
+          public Object performTask() throws IOException {
+            Set<Integer> existing = new HashSet<Integer>();
+            for (INodeIdentifier inodeIdentifier : inodeIdentifiers) {
+              existing.add(inodeIdentifier.getInodeId());
+            }
+            for (ReportActions actions : batch) {
+              if (existing.contains(actions.inodeId)) {
+                applyINodeReportActions(node, actions, firstBlockReport);
+              }
+            }
+            return null;
+          }
+        }.handle();
       }
-    }.handle();
+    });
   }
 
-  private void addStoredBlockImmediateTx(final BlockInfo block,
-          final DatanodeDescriptor node) throws IOException {
-    new HopsTransactionalRequestHandler(HDFSOperationType.AFTER_PROCESS_REPORT_ADD_BLK_IMMEDIATE) {
-      INodeIdentifier inodeIdentifier;
+  private void applyINodeReportActions(DatanodeDescriptor node,
+      ReportActions actions, boolean firstBlockReport) throws IOException {
+    for (StatefulBlockInfo b : actions.toUC) {
+      if (firstBlockReport) {
+        addStoredBlockUnderConstructionImmediate(b.storedBlock, node, b.reportedState);
+      } else {
+        addStoredBlockUnderConstruction(b.storedBlock, node, b.reportedState);
+      }
+    }
 
-      @Override
-      public void setUp() throws StorageException {
-        inodeIdentifier = INodeUtil.resolveINodeFromBlock(block);
+    for (BlockInfo b : actions.toAdd) {
+      if (firstBlockReport) {
+        addStoredBlockImmediate(b, node);
+      } else {
+        addStoredBlock(b, node, null, true);
       }
+    }
 
-      @Override
-      public void acquireLock(TransactionLocks locks) throws IOException {
-        HopsLockFactory lf = HopsLockFactory.getInstance();
-        locks.add(lf.getIndividualINodeLock(INodeLockType.WRITE, inodeIdentifier))
-                .add(lf.getIndividualBlockLock(block.getBlockId(), inodeIdentifier))
-                .add(lf.getBlockRelated(BLK.RE, BLK.CR, BLK.ER, BLK.PE, BLK.IV, BLK.UR));
+    for (BlockToMarkCorrupt b : actions.toCorrupt) {
+      markBlockAsCorrupt(b, node);
+    }
+
+    for (Long b : actions.toRemove) {
+      BlockInfo block = EntityManager.find(BlockInfo.Finder.ById, b);
+      if (block != null) {
+        removeStoredBlock(block, node);
       }
+    }
+  }
 
-      @Override
-      public Object performTask() throws IOException {
-        addStoredBlockImmediate(block, node);
-        return null;
+  /**
+   * Submits a part of the processing of a block report to the worker pool.
+   * The task is run in the caller thread if there is no pool, or if the
+   * system level lock is enabled, since the caller then holds the namesystem
+   * write lock which the workers would not hold.
+   */
+  private Future<Object> submitReportTask(Callable<Object> task) {
+    if (processReportExecutor == null ||
+        FSNamesystem.isSystemLevelLockEnabled()) {
+      FutureTask<Object> future = new FutureTask<Object>(task);
+      future.run();
+      return future;
+    }
+    return processReportExecutor.submit(task);
+  }
+
+  private void waitForAll(List<Future<Object>> futures) throws IOException {
+    IOException failure = null;
+    for (Future<Object> f : futures) {
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (failure == null) {
+          failure = new InterruptedIOException(e.getMessage());
+        }
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof IOException ?
+              (IOException) e.getCause() : new IOException(e.getCause());
+        }
       }
-    }.handle();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static <T> Set<T> newConcurrentSet() {
+    return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+  }
+
+  /**
+   * The block report actions on the blocks of one file.
+   */
+  private static class ReportActions {
+    final int inodeId;
+    final List<StatefulBlockInfo> toUC = new ArrayList<StatefulBlockInfo>();
+    final List<BlockInfo> toAdd = new ArrayList<BlockInfo>();
+    final List<BlockToMarkCorrupt> toCorrupt = new ArrayList<BlockToMarkCorrupt>();
+    final List<Long> toRemove = new ArrayList<Long>();
+
+    ReportActions(int inodeId) {
+      this.inodeId = inodeId;
+    }
+
+    int size() {
+      return toUC.size() + toAdd.size() + toCorrupt.size() + toRemove.size();
+    }
   }
   //END_HOP_CODE
 }
@@ -27,6 +27,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import se.sics.hop.exception.TransactionContextException;
 import se.sics.hop.transaction.EntityManager;
+import se.sics.hop.transaction.context.RowCounters;
 import se.sics.hop.transaction.handler.LightWeightRequestHandler;
 import se.sics.hop.exception.StorageException;
 import se.sics.hop.metadata.INodeIdentifier;
@@ -144,6 +145,15 @@ boolean removeNode(Block b, DatanodeDescriptor node) throws
     return removed;
   }
 
+  /**
+   * The count kept by {@link RowCounters}, it can be behind the database by
+   * up to a reconcile interval. Only for the metrics.
+   */
+  int approximateSize() throws IOException {
+    Long count = RowCounters.getInstance().get(RowCounters.Counter.BLOCKS);
+    return count != null ? count.intValue() : size();
+  }
+
   int size() throws IOException {
     LightWeightRequestHandler getAllBlocksSizeHander = new LightWeightRequestHandler(HDFSOperationType.GET_ALL_BLOCKS_SIZE) {
       @Override
@@ -26,6 +26,7 @@
 import se.sics.hop.metadata.hdfs.dal.CorruptReplicaDataAccess;
 import se.sics.hop.metadata.hdfs.entity.hop.HopCorruptReplica;
 import se.sics.hop.transaction.EntityManager;
+import se.sics.hop.transaction.context.RowCounters;
 import se.sics.hop.transaction.handler.HDFSOperationType;
 import se.sics.hop.transaction.handler.LightWeightRequestHandler;
 
@@ -171,6 +172,16 @@ public int numCorruptReplicas(BlockInfo blk)
     return (nodes == null) ? 0 : nodes.size();
   }
   
+  /**
+   * The count kept by {@link RowCounters}, it can be behind the database by
+   * up to a reconcile interval. Only for the metrics.
+   */
+  int approximateSize() throws IOException {
+    Long count = RowCounters.getInstance().get(
+        RowCounters.Counter.CORRUPT_BLOCKS);
+    return count != null ? count.intValue() : size();
+  }
+
   public int size() throws IOException{
     return (Integer) new LightWeightRequestHandler(HDFSOperationType.COUNT_CORRUPT_REPLICAS) {
       @Override
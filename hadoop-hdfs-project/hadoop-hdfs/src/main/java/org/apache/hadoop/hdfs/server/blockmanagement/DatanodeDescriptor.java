@@ -37,6 +37,7 @@
 import se.sics.hop.metadata.hdfs.dal.BlockInfoDataAccess;
 import se.sics.hop.metadata.StorageFactory;
 import org.apache.hadoop.hdfs.util.LightWeightHashSet;
+import org.apache.hadoop.hdfs.util.LongHashSet;
 import org.apache.hadoop.util.Time;
 import se.sics.hop.metadata.hdfs.dal.ReplicaDataAccess;
 
@@ -161,6 +162,12 @@ synchronized void clear() {
   
   /** Set to false after processing first block report */
   private boolean firstBlockReport = true;
+  /** Set when the namenode wants a new full block report */
+  private boolean blockReportRequested = false;
+
+  /** Processing time and throughput of the last full block report */
+  private volatile long lastBlockReportProcessingTime = 0;
+  private volatile long lastBlockReportBlocksPerSec = 0;
   
   /** 
    * When set to true, the node is not in include list and is not allowed
@@ -394,7 +401,12 @@ public Object performTask() throws StorageException, IOException {
     return (List<BlockInfo>) findBlocksHandler.handle();
   }
   
-  public Set<Long> getAllMachineBlocks() throws IOException {
+  /**
+   * @return the ids of the replicas stored on this datanode. The data access
+   * layer returns them boxed, so they are only read when the count of
+   * {@link #numBlocks()} is not enough.
+   */
+  public LongHashSet getAllMachineBlocks() throws IOException {
     LightWeightRequestHandler findBlocksHandler = new LightWeightRequestHandler(HDFSOperationType.GET_ALL_MACHINE_BLOCKS_IDS) {
       @Override
       public Object performTask() throws StorageException, IOException {
@@ -402,7 +414,7 @@ public Object performTask() throws StorageException, IOException {
         return da.findByStorageIdOnlyIds(getSId());
       }
     };
-    return (Set<Long>) findBlocksHandler.handle();
+    return new LongHashSet((Set<Long>) findBlocksHandler.handle());
   }
   
   /**
@@ -641,6 +653,41 @@ boolean isFirstBlockReport() {
     return firstBlockReport;
   }
 
+  void requestBlockReport() {
+    blockReportRequested = true;
+  }
+
+  /**
+   * @return true if a new full block report was requested since the last
+   * call
+   */
+  boolean takeBlockReportRequest() {
+    boolean requested = blockReportRequested;
+    blockReportRequested = false;
+    return requested;
+  }
+
+  void setLastBlockReportStats(long processingTime, long blocksPerSec) {
+    this.lastBlockReportProcessingTime = processingTime;
+    this.lastBlockReportBlocksPerSec = blocksPerSec;
+  }
+
+  /**
+   * @return the time in milliseconds the namenode spent processing the last
+   * full block report of this datanode
+   */
+  public long getLastBlockReportProcessingTime() {
+    return lastBlockReportProcessingTime;
+  }
+
+  /**
+   * @return the number of blocks per second processed from the last full
+   * block report of this datanode
+   */
+  public long getLastBlockReportBlocksPerSec() {
+    return lastBlockReportBlocksPerSec;
+  }
+
   @Override
   public String dumpDatanode() {
     StringBuilder sb = new StringBuilder(super.dumpDatanode());
@@ -1130,6 +1130,10 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
 
         heartbeatManager.updateHeartbeat(nodeinfo, capacity, dfsUsed,
             remaining, blockPoolUsed, xceiverCount, failedVolumes);
+
+        if (nodeinfo.takeBlockReportRequest()) {
+          return new DatanodeCommand[]{RegisterCommand.REGISTER};
+        }
         
         //check lease recovery
         BlockInfoUnderConstruction[] blocks = nodeinfo
@@ -1209,6 +1213,19 @@ public void markAllDatanodesStale() {
     }
   }
 
+  /**
+   * Asks every datanode to register again at its next heartbeat, which
+   * makes it send a new full block report.
+   */
+  public void requestBlockReports() {
+    LOG.info("Asking all datanodes for new block reports");
+    synchronized (datanodeMap) {
+      for (DatanodeDescriptor dn : datanodeMap.values()) {
+        dn.requestBlockReport();
+      }
+    }
+  }
+
   /**
    * Clear any actions that are queued up to be sent to the DNs
    * on their next heartbeats. This includes block invalidations,
@@ -28,6 +28,7 @@
 import se.sics.hop.metadata.hdfs.dal.InvalidateBlockDataAccess;
 import se.sics.hop.metadata.hdfs.entity.hop.HopInvalidatedBlock;
 import se.sics.hop.transaction.EntityManager;
+import se.sics.hop.transaction.context.RowCounters;
 import se.sics.hop.transaction.handler.HDFSOperationType;
 import se.sics.hop.transaction.handler.LightWeightRequestHandler;
 
@@ -54,6 +55,16 @@ class InvalidateBlocks {
     this.datanodeManager = datanodeManager;
   }
 
+  /**
+   * The count kept by {@link RowCounters}, it can be behind the database by
+   * up to a reconcile interval. Only for the metrics.
+   */
+  long approximateNumBlocks() throws IOException {
+    Long count = RowCounters.getInstance().get(
+        RowCounters.Counter.INVALIDATED_BLOCKS);
+    return count != null ? count : numBlocks();
+  }
+
   /** @return the number of blocks to be invalidated . */
   long numBlocks() throws IOException {
     return (Integer) new LightWeightRequestHandler(HDFSOperationType.GET_NUM_INVALIDATED_BLKS) {
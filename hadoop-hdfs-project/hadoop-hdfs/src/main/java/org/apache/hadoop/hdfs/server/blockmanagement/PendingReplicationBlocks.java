@@ -25,6 +25,7 @@
 import se.sics.hop.metadata.StorageFactory;
 import se.sics.hop.metadata.hdfs.dal.PendingBlockDataAccess;
 import se.sics.hop.transaction.EntityManager;
+import se.sics.hop.transaction.context.RowCounters;
 import se.sics.hop.transaction.handler.HDFSOperationType;
 import se.sics.hop.transaction.handler.LightWeightRequestHandler;
 
@@ -125,6 +126,16 @@ public Object performTask() throws StorageException, IOException {
     }.handle();
   }
 
+  /**
+   * The count kept by {@link RowCounters}, it can be behind the database by
+   * up to a reconcile interval. Only for the metrics.
+   */
+  int approximateSize() throws IOException {
+    Long count = RowCounters.getInstance().get(
+        RowCounters.Counter.PENDING_REPLICATIONS);
+    return count != null ? count.intValue() : size();
+  }
+
   /**
    * The total number of blocks that are undergoing replication
    */
@@ -30,6 +30,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import se.sics.hop.transaction.EntityManager;
+import se.sics.hop.transaction.context.RowCounters;
 import se.sics.hop.exception.StorageException;
 import se.sics.hop.transaction.handler.HDFSOperationType;
 import se.sics.hop.metadata.hdfs.dal.UnderReplicatedBlockDataAccess;
@@ -115,6 +116,16 @@ public Object performTask() throws StorageException, IOException {
     }.handle();
   }
 
+  /**
+   * The count kept by {@link RowCounters}, it can be behind the database by
+   * up to a reconcile interval. Only for the metrics.
+   */
+  int approximateSize() throws IOException {
+    Long count = RowCounters.getInstance().get(
+        RowCounters.Counter.UNDER_REPLICATED_BLOCKS);
+    return count != null ? count.intValue() : size();
+  }
+
   /** Return the total number of under replication blocks */
   int size() throws IOException {
     return (Integer) new LightWeightRequestHandler(HDFSOperationType.COUNT_ALL_UNDER_REPLICATED_BLKS) {
@@ -512,17 +523,39 @@ int getPriority() {
   }
 
   /**
-   * This method is to decrement the replication index for the given priority
+   * This method is to decrement the replication indexes of all priorities
+   * in one transaction
    * 
-   * @param priority  - int priority level
+   * @param decrements  - the decrement of every priority level
    */
-  public void decrementReplicationIndex(int priority) throws
-      StorageException, TransactionContextException {
-    List<Integer> priorityToReplIdx = getReplicationIndex();
-    Integer replIdx = priorityToReplIdx.get(priority);
-    replIdx = replIdx <= 0 ? 0 :  (replIdx-1);
-    priorityToReplIdx.set(priority, replIdx);
-    setReplicationIndex(priorityToReplIdx);
+  public void decrementReplicationIndex(final int[] decrements)
+      throws IOException {
+    boolean decremented = false;
+    for (int decrement : decrements) {
+      decremented |= decrement > 0;
+    }
+    if (!decremented) {
+      return;
+    }
+    new HopsTransactionalRequestHandler(HDFSOperationType.DECREMENT_REPLICATION_INDEX) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        HopsLockFactory lf = HopsLockFactory.getInstance();
+        locks.add(lf.getVariableLock(HopVariable.Finder.ReplicationIndex, TransactionLockTypes.LockType.WRITE));
+      }
+
+      @Override
+      public Object performTask() throws StorageException, IOException {
+        List<Integer> priorityToReplIdx = getReplicationIndex();
+        for (int priority = 0; priority < decrements.length; priority++) {
+          Integer replIdx = priorityToReplIdx.get(priority);
+          replIdx = Math.max(replIdx - decrements[priority], 0);
+          priorityToReplIdx.set(priority, replIdx);
+        }
+        setReplicationIndex(priorityToReplIdx);
+        return null;
+      }
+    }.handle();
   }
   
   
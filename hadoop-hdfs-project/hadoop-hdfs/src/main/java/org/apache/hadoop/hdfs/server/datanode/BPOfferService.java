@@ -29,9 +29,11 @@
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocolPB.DatanodeProtocolClientSideTranslatorPB;
+import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
 import org.apache.hadoop.hdfs.server.protocol.BalancerBandwidthCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
@@ -114,6 +116,13 @@ class BPOfferService implements Runnable {
   private volatile long lastBlockReport = 0;
   private boolean resetBlockReportTime = true;
   private BPServiceActor blkReportHander = null;
+  // the actor of the namenode which handed out the block report slot
+  private BPServiceActor blkReportSlotGrantor = null;
+  // do not ask for a block report slot before this time
+  private volatile long nextBlockReportSlotRequest = 0;
+  // size of the last block report, the leader weighs the reports by it.
+  // -1 until the size is known
+  private long lastBlockReportSize = -1;
   private List<ActiveNode> nnList = new CopyOnWriteArrayList<ActiveNode>();
   private List<InetSocketAddress> blackListNN = new CopyOnWriteArrayList<InetSocketAddress>();
   private volatile int rpcRoundRobinIndex = 0; // you have bunch of NNs, which one to send the incremental block report
@@ -854,7 +863,24 @@ DatanodeCommand blockReport() throws IOException {
     // send block report if timer has expired.
     DatanodeCommand cmd = null;
     long startTime = now();
-    if (startTime - lastBlockReport > dnConf.blockReportInterval) {
+    if (startTime - lastBlockReport > dnConf.blockReportInterval
+            && startTime >= nextBlockReportSlotRequest) {
+
+      // ask the leader for a slot before creating the report, the leader
+      // caps the number of full reports processed at the same time
+      BlockReportSlot slot = nextNNForBlkReport();
+      if (slot == null) {
+        LOG.warn("Unable to send block report");
+        return null;
+      } else if (!slot.isGranted()) {
+        LOG.info("Waiting for a block report slot, " + slot);
+        nextBlockReportSlotRequest = startTime + slot.getRetryAfter();
+        return null;
+      }
+      blkReportHander = getAnActor(slot.getNamenode().getInetSocketAddress());
+      if (blkReportHander == null || !blkReportHander.isInitialized()) {
+        return null; //no one is ready to handle the request, return now without changing the values of lastBlockReport. it will be retried in next cycle
+      }
 
       // Flush any block information that precedes the block report. Otherwise
       // we have a chance that we will miss the delHint information
@@ -865,6 +891,7 @@ DatanodeCommand blockReport() throws IOException {
       // Create block report
       long brCreateStartTime = now();
       BlockListAsLongs bReport = dn.getFSDataset().getBlockReport(getBlockPoolId());
+      lastBlockReportSize = bReport.getNumberOfBlocks();
 
       // Send block report
       long brSendStartTime = now();
@@ -872,19 +899,12 @@ DatanodeCommand blockReport() throws IOException {
         new DatanodeStorage(bpRegistration.getStorageID()),
         bReport.getBlockListAsLongs())};
 
-      ActiveNode an = nextNNForBlkReport();
-      if (an != null) {
-        blkReportHander = getAnActor(an.getInetSocketAddress());
-        if (blkReportHander == null || !blkReportHander.isInitialized()) {
-          return null; //no one is ready to handle the request, return now without changing the values of lastBlockReport. it will be retried in next cycle
-        }
-      } else {
-        LOG.warn("Unable to send block report");
-        return null;
+      try {
+        cmd = blkReportHander.blockReport(bpRegistration, getBlockPoolId(), report);
+      } finally {
+        releaseBlockReportSlot(bReport.getNumberOfBlocks(), now() - brSendStartTime);
       }
 
-      cmd = blkReportHander.blockReport(bpRegistration, getBlockPoolId(), report);
-
       // Log the block report processing stats from Datanode perspective
       long brSendCost = now() - brSendStartTime;
       long brCreateCost = brSendStartTime - brCreateStartTime;
@@ -918,6 +938,7 @@ DatanodeCommand blockReport() throws IOException {
    * next heartbeat.
    */
   void scheduleBlockReportInt(long delay) {
+    nextBlockReportSlotRequest = 0;
     if (delay > 0) { // send BR after random delay
       lastBlockReport = Time.now()
               - (dnConf.blockReportInterval - DFSUtil.getRandom().nextInt((int) (delay)));      
@@ -934,6 +955,7 @@ void scheduleBlockReportInt(long delay) {
   void triggerBlockReportForTestsInt() {
     synchronized (pendingIncrementalBR) {
       lastBlockReport = 0;
+      nextBlockReportSlotRequest = 0;
       pendingIncrementalBR.notifyAll();
       while (lastBlockReport == 0) {
         try {
@@ -1026,7 +1048,17 @@ private void blockReceivedAndDeletedWithRetry(final StorageReceivedDeletedBlocks
     doActorActionWithRetry(new ActorActionHandler() {
       @Override
       public Object doAction(BPServiceActor actor) throws IOException {
-        actor.blockReceivedAndDeleted(bpRegistration, getBlockPoolId(), receivedAndDeletedBlocks);
+        try {
+          actor.blockReceivedAndDeleted(bpRegistration, getBlockPoolId(), receivedAndDeletedBlocks);
+        } catch (RemoteException e) {
+          // in startup safe mode only the leader takes incremental reports
+          BPServiceActor leader = bpServiceToActive;
+          if (leader == null || leader == actor
+              || !SafeModeException.class.getName().equals(e.getClassName())) {
+            throw e;
+          }
+          leader.blockReceivedAndDeleted(bpRegistration, getBlockPoolId(), receivedAndDeletedBlocks);
+        }
         return null;
       }
     });
@@ -1113,28 +1145,51 @@ private BPServiceActor nextNNForNonBlkReportRPC() {
     return null;
   }
 
-  private ActiveNode nextNNForBlkReport() {
+  private BlockReportSlot nextNNForBlkReport() {
     if (nnList == null || nnList.isEmpty()) {
       return null;
     }
 
-    ActiveNode ann = null;
+    if (lastBlockReportSize < 0) {
+      // no report sent yet, count the replicas the first one will carry
+      lastBlockReportSize = dn.getFSDataset().getBlockReport(getBlockPoolId())
+          .getNumberOfBlocks();
+    }
+
+    BlockReportSlot slot = null;
     for (ActiveNode leader : nnList) {  // first element is the leader. if it does not work then ask non leader nodes
       try {
         BPServiceActor leaderActor = this.getAnActor(leader.getInetSocketAddress());
-        LOG.debug("XXX nextNNForBlkReport called 5");
         if (leaderActor != null) {
-          ann = leaderActor.nextNNForBlkReport();
+          slot = leaderActor.nextNNForBlkReport(bpRegistration, lastBlockReportSize);
           //no exception
-          if(ann != null){
-            return ann;
+          if(slot != null){
+            blkReportSlotGrantor = leaderActor;
+            return slot;
           }
         }
       } catch (IOException e) {
         continue;
       } 
     }
-    return ann;
+    return slot;
+  }
+
+  /**
+   * Tells the namenode which handed out the block report slot that the
+   * report is done. If this fails the slot is freed once its lease expires.
+   */
+  private void releaseBlockReportSlot(long numBlocks, long processingTime) {
+    BPServiceActor grantor = blkReportSlotGrantor;
+    blkReportSlotGrantor = null;
+    if (grantor == null) {
+      return;
+    }
+    try {
+      grantor.blockReportCompleted(bpRegistration, numBlocks, processingTime);
+    } catch (IOException e) {
+      LOG.warn("Unable to release the block report slot", e);
+    }
   }
   
     private void forwardRRIndex() {
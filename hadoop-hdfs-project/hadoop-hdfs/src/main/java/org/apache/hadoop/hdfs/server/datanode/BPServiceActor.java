@@ -38,6 +38,7 @@
 import org.apache.hadoop.hdfs.protocolPB.DatanodeProtocolClientSideTranslatorPB;
 import org.apache.hadoop.hdfs.server.common.IncorrectVersionException;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
@@ -50,6 +51,7 @@
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RpcServerException;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Time;
 import org.apache.hadoop.util.VersionInfo;
@@ -59,7 +61,6 @@
 import com.google.common.collect.Maps;
 import java.util.ArrayList;
 import java.util.List;
-import se.sics.hop.leaderElection.node.ActiveNode;
 import se.sics.hop.leaderElection.node.SortedActiveNodeList;
 
 /**
@@ -82,6 +83,8 @@ class BPServiceActor implements Runnable {
   private volatile long lastHeartbeat = 0;
   private volatile boolean initialized = false;
   private volatile boolean shouldServiceRun = true;
+  // false once the namenode turned out not to know requestBlockReportSlot
+  private volatile boolean blockReportSlotsSupported = true;
   private final DataNode dn;
   private final DNConf dnConf;
 
@@ -622,13 +625,32 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
     return bpNamenode.blockReport(registration, poolId, reports);
   }
 
-  public ActiveNode nextNNForBlkReport() throws IOException {
-    if (bpNamenode != null) {
-      ActiveNode an = bpNamenode.getNextNamenodeToSendBlockReport();
-      return an;
-    } else {
+  public BlockReportSlot nextNNForBlkReport(DatanodeRegistration registration,
+          long numBlocks) throws IOException {
+    if (bpNamenode == null) {
       return null;
     }
+    if (blockReportSlotsSupported) {
+      try {
+        return bpNamenode.requestBlockReportSlot(registration, numBlocks);
+      } catch (RemoteException e) {
+        if (!RpcServerException.class.getName().equals(e.getClassName())) {
+          throw e;
+        }
+        // a namenode which does not schedule the reports yet
+        LOG.info(nnAddr + " does not hand out block report slots, asking it"
+            + " for a namenode instead");
+        blockReportSlotsSupported = false;
+      }
+    }
+    return new BlockReportSlot(bpNamenode.getNextNamenodeToSendBlockReport());
+  }
+
+  public void blockReportCompleted(DatanodeRegistration registration,
+          long numBlocks, long processingTime) throws IOException {
+    if (bpNamenode != null && blockReportSlotsSupported) {
+      bpNamenode.blockReportCompleted(registration, numBlocks, processingTime);
+    }
   }
   //END_HOP_CODE
 }
@@ -186,12 +186,10 @@ class BlockSender implements java.io.Closeable {
             "If verifying checksum, currently must also send it.");
       }
       
-      final Replica replica;
-      final long replicaVisibleLength;
-      synchronized(datanode.data) { 
-        replica = getReplica(block, datanode);
-        replicaVisibleLength = replica.getVisibleLength();
-      }
+      // the visible length is read from the replica found in the replica
+      // map, without locking the dataset
+      final Replica replica = getReplica(block, datanode);
+      final long replicaVisibleLength = replica.getVisibleLength();
       // if there is a write in progress
       ChunkChecksum chunkChecksum = null;
       if (replica instanceof ReplicaBeingWritten) {
@@ -1219,7 +1219,16 @@ private void handleDiskError(String errMsgr) {
   /** Number of concurrent xceivers per node. */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    if (threadGroup == null) {
+      return 0;
+    }
+    int count = threadGroup.activeCount();
+    if (dataXceiverServer != null) {
+      // connections processed by a worker of the selector
+      count += ((DataXceiverServer) this.dataXceiverServer.getRunnable())
+          .getProcessingConnectionCount();
+    }
+    return count;
   }
   
   int getXmitsInProgress() {
@@ -2088,7 +2097,7 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
     final BlockConstructionStage stage;
 
     //get replica information
-    synchronized(data) {
+    synchronized(data.getBlockLock(b.getBlockId())) {
       Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
           b.getBlockId());
       if (null == storedBlock) {
@@ -2179,11 +2188,33 @@ public String getNamenodeAddresses() {
   /**
    * Returned information is a JSON representation of a map with 
    * volume name as the key and value is a map of volume attribute 
-   * keys to its values
+   * keys to its values, including the stats of the last directory scan
+   * of the volume
    */
   @Override // DataNodeMXBean
   public String getVolumeInfo() {
-    return JSON.toString(data.getVolumeInfoMap());
+    Map<String, Object> info = data.getVolumeInfoMap();
+    Map<String, DirectoryScanner.VolumeStats> scanStats =
+        getDirectoryScanStats();
+    if (scanStats != null) {
+      for (DirectoryScanner.VolumeStats stats : scanStats.values()) {
+        Object volumeInfo = info.get(stats.volume);
+        if (volumeInfo instanceof Map) {
+          @SuppressWarnings("unchecked")
+          Map<String, Object> innerInfo = (Map<String, Object>) volumeInfo;
+          innerInfo.put("directoryScanTime", stats.scanTimeMsecs);
+          innerInfo.put("directoryScanDirsListed", stats.dirsListed);
+          innerInfo.put("directoryScanDirsUnchanged", stats.dirsSkipped);
+          innerInfo.put("directoryScanDiffs", stats.diffs);
+        }
+      }
+    }
+    return JSON.toString(info);
+  }
+
+  private synchronized Map<String, DirectoryScanner.VolumeStats>
+      getDirectoryScanStats() {
+    return directoryScanner == null ? null : directoryScanner.getVolumeStats();
   }
   
   @Override // DataNodeMXBean
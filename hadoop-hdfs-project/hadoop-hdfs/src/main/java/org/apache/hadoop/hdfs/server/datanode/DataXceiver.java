@@ -88,6 +88,8 @@ class DataXceiver extends Receiver implements Runnable {
   private final DataXceiverServer dataXceiverServer;
   private final boolean connectToDnViaHostname;
   private long opStartTime; //the start time of receiving an Op
+  private int opsProcessed = 0; //the ops processed on the connection
+  private Op op = null; //the last op read from the connection
   private final SocketInputWrapper socketIn;
   private OutputStream socketOut;
 
@@ -153,87 +155,159 @@ private OutputStream getOutputStream() {
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
-    Op op = null;
-    
-    dataXceiverServer.childSockets.add(s);
+    dataXceiverServer.addConnection(s);
     
     try {
-      
-      InputStream input = socketIn;
-      if (dnConf.encryptDataTransfer) {
-        IOStreamPair encryptedStreams = null;
-        try {
-          encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
-              socketIn, datanode.blockPoolTokenSecretManager,
-              dnConf.encryptionAlgorithm);
-        } catch (InvalidMagicNumberException imne) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + s.getInetAddress() + ". Perhaps the client is running an " +
-              "older version of Hadoop which does not support encryption");
-          return;
-        }
-        input = encryptedStreams.in;
-        socketOut = encryptedStreams.out;
+      if (!initializeStreams()) {
+        return;
       }
-      input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
-      
-      super.initialize(new DataInputStream(input));
       
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
       do {
-        updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
-
-        try {
-          if (opsProcessed != 0) {
-            assert dnConf.socketKeepaliveTimeout > 0;
-            socketIn.setTimeout(dnConf.socketKeepaliveTimeout);
-          } else {
-            socketIn.setTimeout(dnConf.socketTimeout);
-          }
-          op = readOp();
-        } catch (InterruptedIOException ignored) {
-          // Time out while we wait for client rpc
-          break;
-        } catch (IOException err) {
-          // Since we optimistically expect the next op, it's quite normal to get EOF here.
-          if (opsProcessed > 0 &&
-              (err instanceof EOFException || err instanceof ClosedChannelException)) {
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Cached " + s.toString() + " closing after " + opsProcessed + " ops");
-            }
-          } else {
-            throw err;
-          }
+        if (!processNextOp()) {
           break;
         }
-
-        // restore normal timeout
-        if (opsProcessed != 0) {
-          s.setSoTimeout(dnConf.socketTimeout);
-        }
-
-        opStartTime = now();
-        processOp(op);
-        ++opsProcessed;
       } while (!s.isClosed() && dnConf.socketKeepaliveTimeout > 0);
     } catch (Throwable t) {
-      LOG.error(datanode.getDisplayName() + ":DataXceiver error processing " +
-                ((op == null) ? "unknown" : op.name()) + " operation " +
-                " src: " + remoteAddress +
-                " dest: " + localAddress, t);
+      logOpError(t);
     } finally {
       if (LOG.isDebugEnabled()) {
         LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
             + datanode.getXceiverCount());
       }
       updateCurrentThreadName("Cleaning up");
-      IOUtils.closeStream(in);
-      IOUtils.closeSocket(s);
-      dataXceiverServer.childSockets.remove(s);
+      close();
+    }
+  }
+
+  /**
+   * Processes the ops of a connection the DataXceiverServer found ready to
+   * read. Ops are processed as long as the next one is already buffered,
+   * but the thread does not wait for more ops to arrive.
+   * <p>
+   * An encrypted connection can hold the next op in the buffers of its
+   * SASL stream, which available() does not always count and the selector
+   * never sees. It stays on its thread and waits for its ops as without
+   * the selector.
+   *
+   * @return true if the connection is kept alive, the DataXceiverServer then
+   * waits for the next op without holding a thread. Otherwise the connection
+   * is closed.
+   */
+  boolean processReadyOps() {
+    boolean keepAlive = false;
+    try {
+      if (in == null && !initializeStreams()) {
+        return false;
+      }
+      boolean blocking = dnConf.encryptDataTransfer;
+      do {
+        if (!processNextOp()) {
+          return false;
+        }
+      } while (!s.isClosed() && dnConf.socketKeepaliveTimeout > 0
+          && (blocking || in.available() > 0));
+      keepAlive = !s.isClosed() && dnConf.socketKeepaliveTimeout > 0;
+    } catch (Throwable t) {
+      logOpError(t);
+    } finally {
+      if (!keepAlive) {
+        close();
+      }
     }
+    return keepAlive;
+  }
+
+  /**
+   * Sets up the streams of the connection, which reads the encryption
+   * handshake if data transfer is encrypted.
+   *
+   * @return false if the handshake failed and the connection should be closed
+   */
+  private boolean initializeStreams() throws IOException {
+    InputStream input = socketIn;
+    if (dnConf.encryptDataTransfer) {
+      IOStreamPair encryptedStreams = null;
+      try {
+        encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
+            socketIn, datanode.blockPoolTokenSecretManager,
+            dnConf.encryptionAlgorithm);
+      } catch (InvalidMagicNumberException imne) {
+        LOG.info("Failed to read expected encryption handshake from client " +
+            "at " + s.getInetAddress() + ". Perhaps the client is running an " +
+            "older version of Hadoop which does not support encryption");
+        return false;
+      }
+      input = encryptedStreams.in;
+      socketOut = encryptedStreams.out;
+    }
+    input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
+    
+    super.initialize(new DataInputStream(input));
+    return true;
+  }
+
+  /**
+   * Reads the next op from the connection and processes it.
+   *
+   * @return false if the connection was closed or timed out before the op
+   */
+  private boolean processNextOp() throws IOException {
+    updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
+
+    try {
+      if (opsProcessed != 0) {
+        assert dnConf.socketKeepaliveTimeout > 0;
+        socketIn.setTimeout(dnConf.socketKeepaliveTimeout);
+      } else {
+        socketIn.setTimeout(dnConf.socketTimeout);
+      }
+      op = readOp();
+    } catch (InterruptedIOException ignored) {
+      // Time out while we wait for client rpc
+      return false;
+    } catch (IOException err) {
+      // Since we optimistically expect the next op, it's quite normal to get EOF here.
+      if (opsProcessed > 0 &&
+          (err instanceof EOFException || err instanceof ClosedChannelException)) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Cached " + s.toString() + " closing after " + opsProcessed + " ops");
+        }
+      } else {
+        throw err;
+      }
+      return false;
+    }
+
+    // restore normal timeout
+    if (opsProcessed != 0) {
+      s.setSoTimeout(dnConf.socketTimeout);
+    }
+
+    opStartTime = now();
+    processOp(op);
+    ++opsProcessed;
+    return true;
+  }
+
+  private void logOpError(Throwable t) {
+    LOG.error(datanode.getDisplayName() + ":DataXceiver error processing " +
+              ((op == null) ? "unknown" : op.name()) + " operation " +
+              " src: " + remoteAddress +
+              " dest: " + localAddress, t);
+  }
+
+  /** Closes the connection. */
+  void close() {
+    IOUtils.closeStream(in);
+    IOUtils.closeSocket(s);
+    dataXceiverServer.removeConnection(s);
+  }
+
+  Socket getSocket() {
+    return s;
   }
 
   @Override
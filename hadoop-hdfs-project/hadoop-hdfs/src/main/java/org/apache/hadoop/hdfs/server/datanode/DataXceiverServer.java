@@ -22,10 +22,24 @@
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
@@ -34,6 +48,7 @@
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
 
 
 /**
@@ -41,6 +56,12 @@
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ * <p>
+ * When {@link DFSConfigKeys#DFS_DATANODE_XCEIVER_SELECTOR_ENABLED_KEY} is
+ * set and the listening socket has a channel, the connections wait for their next op in a selector, and only the
+ * connections with an op to process are handed to a pool of threads. A
+ * connection kept alive between ops then does not hold a thread, and is not
+ * counted as an xceiver.
  */
 class DataXceiverServer implements Runnable {
   public static final Log LOG = DataNode.LOG;
@@ -59,6 +80,19 @@ class DataXceiverServer implements Runnable {
   int maxXceiverCount =
     DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT;
 
+  /** The threads which process ops, null without a selector. */
+  private final ThreadPoolExecutor workers;
+  private volatile Selector selector;
+  /** Connections whose op was processed, to wait for their next op. */
+  private final Queue<Connection> toPark =
+      new ConcurrentLinkedQueue<Connection>();
+  /** Connections waiting for their next op, used by the selector thread. */
+  private final Set<Connection> parked = new HashSet<Connection>();
+  /** The earliest time a parked connection can time out. */
+  private long nextExpiry = Long.MAX_VALUE;
+  /** Connections handed to the workers and not parked again yet. */
+  private final AtomicInteger processing = new AtomicInteger();
+
   /** A manager to make sure that cluster balancing does not
    * take too much resources.
    * 
@@ -126,10 +160,34 @@ synchronized void release() {
     this.balanceThrottler = new BlockBalanceThrottler(
       conf.getLong(DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_KEY, 
                    DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT));
+
+    if (ss.getChannel() != null && conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_SELECTOR_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_SELECTOR_ENABLED_DEFAULT)) {
+      // The workers are not in the thread group of the datanode, which
+      // counts the xceivers, as idle workers are kept for a while. The
+      // connections processed by a worker are counted instead.
+      final ThreadGroup workerGroup = new ThreadGroup("dataXceiverWorkers");
+      workerGroup.setDaemon(true);
+      this.workers = new ThreadPoolExecutor(0, maxXceiverCount,
+          60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              return new Daemon(workerGroup, r);
+            }
+          });
+    } else {
+      this.workers = null;
+    }
   }
 
   @Override
   public void run() {
+    if (workers != null) {
+      runSelector();
+      return;
+    }
     while (datanode.shouldRun) {
       Socket s = null;
       try {
@@ -184,6 +242,223 @@ public void run() {
     }
   }
   
+  /**
+   * Accepts the connections and waits for their ops in a selector, the ops
+   * are processed by the workers.
+   */
+  private void runSelector() {
+    ServerSocketChannel serverChannel = ss.getChannel();
+    try {
+      selector = Selector.open();
+      serverChannel.configureBlocking(false);
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+      while (datanode.shouldRun) {
+        Connection connection;
+        while ((connection = toPark.poll()) != null) {
+          park(connection, datanode.getDnConf().socketKeepaliveTimeout);
+        }
+        long now = Time.now();
+        if (now >= nextExpiry) {
+          closeExpired(now);
+        }
+        updateConnectionMetrics();
+        selector.select(nextExpiry == Long.MAX_VALUE ? 0
+            : Math.max(1, nextExpiry - now));
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept(serverChannel);
+          } else if (key.isReadable()) {
+            connection = (Connection) key.attachment();
+            key.interestOps(0);
+            parked.remove(connection);
+            dispatch(connection);
+          }
+        }
+      }
+    } catch (AsynchronousCloseException ace) {
+      if (datanode.shouldRun) {
+        LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: ", ace);
+      }
+    } catch (Throwable te) {
+      if (datanode.shouldRun) {
+        LOG.error(datanode.getDisplayName()
+            + ":DataXceiverServer: Exiting due to: ", te);
+        datanode.shouldRun = false;
+      }
+    } finally {
+      try {
+        if (selector != null) {
+          selector.close();
+        }
+        ss.close();
+      } catch (IOException ie) {
+        LOG.warn(datanode.getDisplayName()
+            + " :DataXceiverServer: close exception", ie);
+      }
+      for (Connection connection : parked) {
+        connection.xceiver.close();
+      }
+      parked.clear();
+      workers.shutdownNow();
+      try {
+        workers.awaitTermination(datanode.getDnConf().socketTimeout,
+            TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        // the datanode is shutting down
+      }
+    }
+  }
+
+  private void accept(ServerSocketChannel serverChannel) throws IOException {
+    while (true) {
+      SocketChannel channel;
+      try {
+        channel = serverChannel.accept();
+      } catch (ClosedChannelException e) {
+        throw e;
+      } catch (IOException ie) {
+        // try again when the selector wakes up
+        LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: ", ie);
+        return;
+      }
+      if (channel == null) {
+        return;
+      }
+      Socket s = channel.socket();
+      try {
+        s.setTcpNoDelay(true);
+
+        // Make sure the xceiver count is not exceeded
+        int curXceiverCount = datanode.getXceiverCount();
+        if (curXceiverCount > maxXceiverCount) {
+          throw new IOException("Xceiver count " + curXceiverCount
+              + " exceeds the limit of concurrent xcievers: "
+              + maxXceiverCount);
+        }
+
+        channel.configureBlocking(false);
+        Connection connection = new Connection(
+            DataXceiver.create(s, datanode, this), channel);
+        addConnection(s);
+        // the first op is waited for with the normal timeout
+        park(connection, datanode.getDnConf().socketTimeout);
+      } catch (IOException ie) {
+        IOUtils.closeSocket(s);
+        LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: ", ie);
+      } catch (OutOfMemoryError ie) {
+        IOUtils.closeSocket(s);
+        LOG.warn("DataNode is out of memory, closed the connection from "
+            + s, ie);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Waits for the next op of the connection in the selector. Only called
+   * from the selector thread.
+   */
+  private void park(Connection connection, int timeout) {
+    try {
+      if (connection.key == null) {
+        connection.key = connection.channel.register(selector,
+            SelectionKey.OP_READ, connection);
+      } else {
+        connection.key.interestOps(SelectionKey.OP_READ);
+      }
+    } catch (IOException e) {
+      LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: ", e);
+      connection.xceiver.close();
+      return;
+    } catch (CancelledKeyException e) {
+      // the connection was closed
+      connection.xceiver.close();
+      return;
+    }
+    connection.deadline = timeout > 0 ? Time.now() + timeout
+        : Long.MAX_VALUE;
+    nextExpiry = Math.min(nextExpiry, connection.deadline);
+    parked.add(connection);
+  }
+
+  /** Closes the parked connections whose client did not send an op in time. */
+  private void closeExpired(long now) {
+    nextExpiry = Long.MAX_VALUE;
+    Iterator<Connection> it = parked.iterator();
+    while (it.hasNext()) {
+      Connection connection = it.next();
+      if (connection.deadline <= now) {
+        it.remove();
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Closing idle connection " + connection.xceiver.getSocket());
+        }
+        connection.xceiver.close();
+      } else {
+        nextExpiry = Math.min(nextExpiry, connection.deadline);
+      }
+    }
+  }
+
+  private void dispatch(final Connection connection) {
+    processing.incrementAndGet();
+    try {
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (connection.xceiver.processReadyOps()) {
+              toPark.add(connection);
+              selector.wakeup();
+            }
+          } finally {
+            processing.decrementAndGet();
+            Thread.currentThread().setName("DataXceiver worker");
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      processing.decrementAndGet();
+      LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: "
+          + "no worker for the op of " + connection.xceiver.getSocket()
+          + ", all " + maxXceiverCount + " are busy");
+      connection.xceiver.close();
+    }
+  }
+
+  void addConnection(Socket s) {
+    if (childSockets.add(s) && datanode.getMetrics() != null) {
+      datanode.getMetrics().incrXceiverConnections();
+    }
+  }
+
+  void removeConnection(Socket s) {
+    if (childSockets.remove(s) && datanode.getMetrics() != null) {
+      datanode.getMetrics().decrXceiverConnections();
+    }
+  }
+
+  private void updateConnectionMetrics() {
+    if (datanode.getMetrics() != null) {
+      datanode.getMetrics().setIdleXceiverConnections(parked.size());
+    }
+  }
+
+  /**
+   * @return the connections processed by a worker, which is not in the
+   * datanode thread group that counts the xceivers otherwise. The parked
+   * connections hold no thread and are not counted.
+   */
+  int getProcessingConnectionCount() {
+    return processing.get();
+  }
+
   void kill() {
     assert datanode.shouldRun == false :
       "shoudRun should be set to false before killing";
@@ -192,6 +467,9 @@ void kill() {
     } catch (IOException ie) {
       LOG.warn(datanode.getDisplayName() + ":DataXceiverServer.kill(): ", ie);
     }
+    if (selector != null) {
+      selector.wakeup();
+    }
 
     // close all the sockets that were accepted earlier
     synchronized (childSockets) {
@@ -205,4 +483,18 @@ void kill() {
       }
     }
   }
+
+  /** A connection of the selector and the xceiver processing its ops. */
+  private static class Connection {
+    final DataXceiver xceiver;
+    final SocketChannel channel;
+    SelectionKey key;
+    /** When the connection is closed if its next op did not arrive. */
+    long deadline;
+
+    Connection(DataXceiver xceiver, SocketChannel channel) {
+      this.xceiver = xceiver;
+      this.channel = channel;
+    }
+  }
 }
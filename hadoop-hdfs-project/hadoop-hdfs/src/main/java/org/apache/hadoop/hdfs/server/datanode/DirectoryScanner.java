@@ -24,9 +24,11 @@
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -51,6 +53,13 @@
 /**
  * Periodically scans the data directories for block and block metadata files.
  * Reconciles the differences with block information maintained in the dataset.
+ * <p>
+ * The volumes are scanned in parallel, each of them at most for
+ * {@link DFSConfigKeys#DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY}
+ * milliseconds per second. In the incremental mode the listing of every
+ * directory is kept with its modification time, and only the directories
+ * which changed since the previous scan are listed again. The differences
+ * are reconciled in batches while they are found.
  */
 @InterfaceAudience.Private
 public class DirectoryScanner implements Runnable {
@@ -60,11 +69,26 @@ public class DirectoryScanner implements Runnable {
   private final ExecutorService reportCompileThreadPool;
   private final ScheduledExecutorService masterThread;
   private final long scanPeriodMsecs;
+  private final boolean incremental;
+  private final int throttleLimitMsPerSec;
+  private final int reconcileBatchSize;
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
+  /** Set while reconcile() scans, the differences are then reconciled as
+   *  they are found. */
+  private boolean reconciling = false;
+  /** The number of differences of the current diff list reconciled so far */
+  private int reconciled = 0;
+
+  /** The report compilers keep the directory listings of the volumes */
+  private final Map<FsVolumeSpi, ReportCompiler> compilers =
+      new HashMap<FsVolumeSpi, ReportCompiler>();
 
   ScanInfoPerBlockPool diffs = new ScanInfoPerBlockPool();
   Map<String, Stats> stats = new HashMap<String, Stats>();
+  /** The stats of the last scan of every volume, by volume directory */
+  private final Map<String, VolumeStats> volumeStats =
+      new ConcurrentHashMap<String, VolumeStats>();
   
   /**
    * Allow retaining diffs for unit test and analysis
@@ -96,6 +120,29 @@ public String toString() {
       + ", mismatched blocks:" + mismatchBlocks;
     }
   }
+
+  /** Stats of the last scan of a volume, per volume */
+  static class VolumeStats {
+    final String volume;
+    long scanTimeMsecs = 0;
+    long dirsListed = 0;
+    long dirsSkipped = 0;
+    long totalBlocks = 0;
+    /** The differences found in the block files of the volume */
+    long diffs = 0;
+
+    VolumeStats(String volume) {
+      this.volume = volume;
+    }
+
+    @Override
+    public String toString() {
+      return "Volume " + volume + " scanned in " + scanTimeMsecs + " ms,"
+      + " directories listed: " + dirsListed + ", directories unchanged: "
+      + dirsSkipped + ", total blocks: " + totalBlocks + ", differences: "
+      + diffs;
+    }
+  }
   
   static class ScanInfoPerBlockPool extends 
                      HashMap<String, LinkedList<ScanInfo>> {
@@ -229,6 +276,24 @@ public long getGenStamp() {
     int threads = 
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
+    if (threads <= 0) {
+      // one thread per volume
+      threads = Math.max(1, dataset.getVolumes().size());
+    }
+    incremental = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT);
+    throttleLimitMsPerSec = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT);
+    if (throttleLimitMsPerSec <= 0) {
+      throw new IllegalArgumentException(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY
+          + " must be positive, it is " + throttleLimitMsPerSec);
+    }
+    reconcileBatchSize = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT));
 
     reportCompileThreadPool = Executors.newFixedThreadPool(threads, 
         new Daemon.DaemonFactory());
@@ -256,6 +321,14 @@ private void clear() {
     stats.clear();
   }
 
+  /**
+   * @return the stats of the last scan of every volume, by the directory of
+   *         the volume
+   */
+  Map<String, VolumeStats> getVolumeStats() {
+    return volumeStats;
+  }
+
   /**
    * Main program loop for DirectoryScanner
    * Runs "reconcile()" periodically under the masterThread.
@@ -314,19 +387,35 @@ void shutdown() {
    * Reconcile differences between disk and in-memory blocks
    */
   void reconcile() {
-    scan();
-    for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
-      String bpid = entry.getKey();
-      LinkedList<ScanInfo> diff = entry.getValue();
-      
-      for (ScanInfo info : diff) {
-        dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
-            info.getMetaFile(), info.getVolume());
-      }
+    reconciling = true;
+    try {
+      scan();
+    } finally {
+      reconciling = false;
     }
     if (!retainDiffs) clear();
   }
 
+  /**
+   * Reconciles the differences of the diff list which were not reconciled
+   * yet. The list is emptied unless the diffs are retained, so it does not
+   * hold more than a batch.
+   */
+  private void reconcileDiffs(String bpid, LinkedList<ScanInfo> diffRecord) {
+    ListIterator<ScanInfo> it = diffRecord.listIterator(reconciled);
+    while (it.hasNext()) {
+      ScanInfo info = it.next();
+      dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
+          info.getMetaFile(), info.getVolume());
+    }
+    if (retainDiffs) {
+      reconciled = diffRecord.size();
+    } else {
+      diffRecord.clear();
+      reconciled = 0;
+    }
+  }
+
   /**
    * Scan for the differences between disk and in-memory blocks
    * Scan only the "finalized blocks" lists of both disk and memory.
@@ -335,85 +424,116 @@ void scan() {
     clear();
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<Block> bl = dataset.getFinalizedBlocks(bpid);
-        Block[] memReport = bl.toArray(new Block[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          Block memBlock = memReport[Math.min(m, memReport.length - 1)];
-          ScanInfo info = blockpoolReport[Math.min(
-              d, blockpoolReport.length - 1)];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            // Block is missing in memory
-            statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord, memBlock.getBlockId());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFile().length() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          }
+    // The finalized blocks are a snapshot of the block map which changes
+    // meanwhile, reconcile checks every difference again under the lock of
+    // its block
+    for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
+      String bpid = entry.getKey();
+      ScanInfo[] blockpoolReport = entry.getValue();
+      
+      Stats statsRecord = new Stats(bpid);
+      stats.put(bpid, statsRecord);
+      LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+      diffs.put(bpid, diffRecord);
+      reconciled = 0;
+      
+      statsRecord.totalBlocks = blockpoolReport.length;
+      List<Block> bl = dataset.getFinalizedBlocks(bpid);
+      Block[] memReport = bl.toArray(new Block[bl.size()]);
+      Arrays.sort(memReport); // Sort based on blockId
+
+      int d = 0; // index for blockpoolReport
+      int m = 0; // index for memReprot
+      while (m < memReport.length && d < blockpoolReport.length) {
+        Block memBlock = memReport[Math.min(m, memReport.length - 1)];
+        ScanInfo info = blockpoolReport[Math.min(
+            d, blockpoolReport.length - 1)];
+        if (info.getBlockId() < memBlock.getBlockId()) {
+          // Block is missing in memory
+          statsRecord.missingMemoryBlocks++;
+          addDifference(bpid, diffRecord, statsRecord, info);
           d++;
-          m++;
+          continue;
         }
-        while (m < memReport.length) {
-          addDifference(diffRecord, statsRecord, memReport[m++].getBlockId());
+        if (info.getBlockId() > memBlock.getBlockId()) {
+          // Block is missing on the disk
+          addDifference(bpid, diffRecord, statsRecord, memBlock.getBlockId());
+          m++;
+          continue;
         }
-        while (d < blockpoolReport.length) {
-          statsRecord.missingMemoryBlocks++;
-          addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+        // Block file and/or metadata file exists on the disk
+        // Block exists in memory
+        if (info.getBlockFile() == null) {
+          // Block metadata file exits and block file is missing
+          addDifference(bpid, diffRecord, statsRecord, info);
+        } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+            || info.getBlockFile().length() != memBlock.getNumBytes()) {
+          // Block metadata file is missing or has wrong generation stamp,
+          // or block file length is different than expected
+          statsRecord.mismatchBlocks++;
+          addDifference(bpid, diffRecord, statsRecord, info);
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronizedz
+        d++;
+        m++;
+      }
+      while (m < memReport.length) {
+        addDifference(bpid, diffRecord, statsRecord, memReport[m++].getBlockId());
+      }
+      while (d < blockpoolReport.length) {
+        statsRecord.missingMemoryBlocks++;
+        addDifference(bpid, diffRecord, statsRecord, blockpoolReport[d++]);
+      }
+      if (reconciling) {
+        reconcileDiffs(bpid, diffRecord);
+      }
+      LOG.info(statsRecord.toString());
+    } //end for
+
+    for (ReportCompiler compiler : compilers.values()) {
+      VolumeStats volumeRecord = compiler.getStats();
+      volumeStats.put(volumeRecord.volume, volumeRecord);
+      LOG.info(volumeRecord.toString());
+    }
+    volumeStats.keySet().retainAll(getVolumeNames());
+  }
+
+  private List<String> getVolumeNames() {
+    List<String> names = new ArrayList<String>(compilers.size());
+    for (FsVolumeSpi volume : compilers.keySet()) {
+      names.add(volume.toString());
+    }
+    return names;
   }
 
   /**
    * Block is found on the disk. In-memory block is missing or does not match
    * the block on the disk
    */
-  private void addDifference(LinkedList<ScanInfo> diffRecord, 
+  private void addDifference(String bpid, LinkedList<ScanInfo> diffRecord,
                              Stats statsRecord, ScanInfo info) {
     statsRecord.missingMetaFile += info.getMetaFile() == null ? 1 : 0;
     statsRecord.missingBlockFile += info.getBlockFile() == null ? 1 : 0;
-    diffRecord.add(info);
+    ReportCompiler compiler = compilers.get(info.getVolume());
+    if (compiler != null) {
+      compiler.getStats().diffs++;
+    }
+    addDifference(bpid, diffRecord, info);
   }
 
   /** Block is not found on the disk */
-  private void addDifference(LinkedList<ScanInfo> diffRecord,
+  private void addDifference(String bpid, LinkedList<ScanInfo> diffRecord,
                              Stats statsRecord, long blockId) {
     statsRecord.missingBlockFile++;
     statsRecord.missingMetaFile++;
-    diffRecord.add(new ScanInfo(blockId));
+    addDifference(bpid, diffRecord, new ScanInfo(blockId));
+  }
+
+  private void addDifference(String bpid, LinkedList<ScanInfo> diffRecord,
+                             ScanInfo info) {
+    diffRecord.add(info);
+    if (reconciling && diffRecord.size() - reconciled >= reconcileBatchSize) {
+      reconcileDiffs(bpid, diffRecord);
+    }
   }
 
   /** Is the given volume still valid in the dataset? */
@@ -431,6 +551,8 @@ private static boolean isValid(final FsDatasetSpi<?> dataset,
   private Map<String, ScanInfo[]> getDiskReport() {
     // First get list of data directories
     final List<? extends FsVolumeSpi> volumes = dataset.getVolumes();
+    // and forget the listings of the volumes which were removed
+    compilers.keySet().retainAll(volumes);
 
     // Use an array since the threads may return out of order and
     // compilersInProgress#keySet may return out of order as well.
@@ -441,8 +563,12 @@ private Map<String, ScanInfo[]> getDiskReport() {
 
     for (int i = 0; i < volumes.size(); i++) {
       if (isValid(dataset, volumes.get(i))) {
-        ReportCompiler reportCompiler =
-          new ReportCompiler(volumes.get(i));
+        ReportCompiler reportCompiler = compilers.get(volumes.get(i));
+        if (reportCompiler == null) {
+          reportCompiler = new ReportCompiler(volumes.get(i), incremental,
+              throttleLimitMsPerSec);
+          compilers.put(volumes.get(i), reportCompiler);
+        }
         Future<ScanInfoPerBlockPool> result = 
           reportCompileThreadPool.submit(reportCompiler);
         compilersInProgress.put(i, result);
@@ -477,30 +603,127 @@ private static boolean isBlockMetaFile(String blockId, String metaFile) {
         && metaFile.endsWith(Block.METADATA_EXTENSION);
   }
 
+  /**
+   * The listing of a directory, the blocks in it and its subdirectories.
+   */
+  private static class DirInfo {
+    /**
+     * A directory modified this recently before it was listed might be
+     * modified again without a change of its modification time, on file
+     * systems which only keep the time to the second.
+     */
+    private static final long MTIME_GRANULARITY_MSECS = 2000;
+
+    private final long lastModified;
+    private final long listedAt;
+    private final File[] subDirs;
+    private final ScanInfo[] blocks;
+
+    DirInfo(long lastModified, long listedAt, File[] subDirs,
+        ScanInfo[] blocks) {
+      this.lastModified = lastModified;
+      this.listedAt = listedAt;
+      this.subDirs = subDirs;
+      this.blocks = blocks;
+    }
+
+    /**
+     * @return true if the directory with the given modification time still
+     *         has the entries it had when it was listed
+     */
+    boolean isUnchanged(long lastModified) {
+      return lastModified != 0 && lastModified == this.lastModified
+          && lastModified + MTIME_GRANULARITY_MSECS < listedAt;
+    }
+  }
+
   private static class ReportCompiler 
   implements Callable<ScanInfoPerBlockPool> {
-    private FsVolumeSpi volume;
-
-    public ReportCompiler(FsVolumeSpi volume) {
+    private final FsVolumeSpi volume;
+    private final boolean incremental;
+    private final int throttleLimitMsPerSec;
+    /** The directory listings of the previous scan, when incremental */
+    private Map<File, DirInfo> dirCache = new HashMap<File, DirInfo>();
+    private VolumeStats stats;
+    private long throttlePeriodStart;
+
+    public ReportCompiler(FsVolumeSpi volume, boolean incremental,
+        int throttleLimitMsPerSec) {
       this.volume = volume;
+      this.incremental = incremental;
+      this.throttleLimitMsPerSec = throttleLimitMsPerSec;
+      this.stats = new VolumeStats(volume.toString());
+    }
+
+    VolumeStats getStats() {
+      return stats;
     }
 
     @Override
     public ScanInfoPerBlockPool call() throws Exception {
+      LOG.info("Scanning local blocks of " + volume);
+      long start = Time.monotonicNow();
+      stats = new VolumeStats(volume.toString());
+      throttlePeriodStart = start;
+      Map<File, DirInfo> newCache = incremental ?
+          new HashMap<File, DirInfo>(dirCache.size()) : null;
       String[] bpList = volume.getBlockPoolList();
       ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
       for (String bpid : bpList) {
         LinkedList<ScanInfo> report = new LinkedList<ScanInfo>();
         File bpFinalizedDir = volume.getFinalizedDir(bpid);
-        result.put(bpid, compileReport(volume, bpFinalizedDir, report));
+        result.put(bpid, compileReport(volume, bpFinalizedDir, report,
+            newCache));
+        stats.totalBlocks += report.size();
+      }
+      if (incremental) {
+        // drops the directories which no longer exist
+        dirCache = newCache;
       }
+      stats.scanTimeMsecs = Time.monotonicNow() - start;
       return result;
     }
 
-    /** Compile list {@link ScanInfo} for the blocks in the directory <dir> */
+    /**
+     * Sleeps once the volume was scanned for throttleLimitMsPerSec, for as
+     * long as needed to scan it at most that long per second.
+     */
+    private void throttle() throws InterruptedException {
+      if (throttleLimitMsPerSec >= 1000) {
+        return;
+      }
+      long elapsed = Time.monotonicNow() - throttlePeriodStart;
+      if (elapsed >= throttleLimitMsPerSec) {
+        Thread.sleep(elapsed * (1000 - throttleLimitMsPerSec)
+            / throttleLimitMsPerSec);
+        throttlePeriodStart = Time.monotonicNow();
+      }
+    }
+
+    /**
+     * Compile list {@link ScanInfo} for the blocks in the directory <dir>.
+     * When newCache is set, the directories unchanged since they were last
+     * listed are not listed again, and the listings are added to newCache.
+     */
     private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
-        LinkedList<ScanInfo> report) {
-      LOG.info("Scanning local blocks");
+        LinkedList<ScanInfo> report, Map<File, DirInfo> newCache)
+        throws InterruptedException {
+      long lastModified = 0;
+      if (newCache != null) {
+        lastModified = dir.lastModified();
+        DirInfo cached = dirCache.get(dir);
+        if (cached != null && cached.isUnchanged(lastModified)) {
+          stats.dirsSkipped++;
+          newCache.put(dir, cached);
+          for (File subDir : cached.subDirs) {
+            compileReport(vol, subDir, report, newCache);
+          }
+          report.addAll(Arrays.asList(cached.blocks));
+          return report;
+        }
+      }
+
+      long listedAt = Time.now();
       File[] files;
       try {
         files = FileUtil.listFiles(dir);
@@ -509,6 +732,8 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
         // Ignore this directory and proceed.
         return report;
       }
+      stats.dirsListed++;
+      throttle();
       Arrays.sort(files);
       
       /*
@@ -563,23 +788,30 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
       }
 
       for (File subDir : subDirs) {
-        compileReport(vol, subDir, report);
+        compileReport(vol, subDir, report, newCache);
       }
 
+      List<ScanInfo> blocks = new ArrayList<ScanInfo>(blkFiles.size());
       for (int i = blkFiles.size() - 1; i >= 0; i--) {
         File blkFile = blkFiles.get(i);
         long blockId = Block.filename2id(blkFile.getName());
         File metaFile = popMetaFile(blkFile, metaFiles);
-        report.add(new ScanInfo(blockId, blkFile, metaFile, vol));
+        blocks.add(new ScanInfo(blockId, blkFile, metaFile, vol));
         blkFiles.remove(i);
       }
 
       for (int i = metaFiles.size() - 1; i >= 0; i--) {
         File metaFile = metaFiles.get(i);
         long blockId = Block.getBlockId(metaFile.getName());
-        report.add(new ScanInfo(blockId, null, metaFile, vol));
+        blocks.add(new ScanInfo(blockId, null, metaFile, vol));
       }
       //END_HOP_CODE
+      report.addAll(blocks);
+      if (newCache != null && lastModified != 0) {
+        newCache.put(dir, new DirInfo(lastModified, listedAt,
+            subDirs.toArray(new File[subDirs.size()]),
+            blocks.toArray(new ScanInfo[blocks.size()])));
+      }
       return report;
     }
   }
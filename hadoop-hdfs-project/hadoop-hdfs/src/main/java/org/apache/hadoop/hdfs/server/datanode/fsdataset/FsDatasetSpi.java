@@ -141,6 +141,12 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b
    * @return the generation stamp stored with the block.
    */
   public Block getStoredBlock(String bpid, long blkid) throws IOException;
+
+  /**
+   * @return the lock held while the replica of the block changes, holding
+   * it gives a consistent view of the replica
+   */
+  public Object getBlockLock(long blockId);
   
   /**
    * Returns an input stream at specified offset of the specified block
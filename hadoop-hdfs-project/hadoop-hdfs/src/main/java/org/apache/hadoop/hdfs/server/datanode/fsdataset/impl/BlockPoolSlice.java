@@ -46,7 +46,8 @@
  * Taken together, all BlockPoolSlices sharing a block pool ID across a 
  * cluster represent a single block pool.
  * 
- * This class is synchronized by {@link FsVolumeImpl}.
+ * The block pools of the volume are synchronized by {@link FsVolumeImpl},
+ * the finalized directory tree by the slice itself.
  */
 class BlockPoolSlice {
   private final String bpid;
@@ -148,14 +149,14 @@ File createRbwFile(Block b) throws IOException {
     return DatanodeUtil.createTmpFile(b, f);
   }
 
-  File addBlock(Block b, File f) throws IOException {
+  synchronized File addBlock(Block b, File f) throws IOException {
     File blockFile = finalizedDir.addBlock(b, f);
     File metaFile = FsDatasetUtil.getMetaFile(blockFile, b.getGenerationStamp());
     dfsUsage.incDfsUsed(b.getNumBytes()+metaFile.length());
     return blockFile;
   }
     
-  void checkDirs() throws DiskErrorException {
+  synchronized void checkDirs() throws DiskErrorException {
     finalizedDir.checkDirTree();
     DiskChecker.checkDir(tmpDir);
     DiskChecker.checkDir(rbwDir);
@@ -271,7 +272,7 @@ private long validateIntegrity(File blockFile, long genStamp) {
     }
   }
     
-  void clearPath(File f) {
+  synchronized void clearPath(File f) {
     finalizedDir.clearPath(f);
   }
     
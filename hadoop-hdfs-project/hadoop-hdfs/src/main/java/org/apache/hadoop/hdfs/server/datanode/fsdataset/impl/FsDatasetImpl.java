@@ -87,6 +87,14 @@
  * FSDataset manages a set of data blocks.  Each block
  * has a unique name and an extent on disk.
  *
+ * The operations on a replica are serialized by the lock of its block, one
+ * of a fixed set of striped locks, so the writes, finalizations and
+ * recoveries of different blocks do not wait for each other. The replicas
+ * are kept in a concurrent {@link ReplicaMap} which is read without locks,
+ * block reports and the directory scanner work on weakly consistent
+ * snapshots of it. The dataset object itself is only locked by the changes
+ * of the block pools.
+ *
  ***************************************************/
 @InterfaceAudience.Private
 class FsDatasetImpl implements FsDatasetSpi<FsVolumeImpl> {
@@ -98,21 +106,23 @@ public List<FsVolumeImpl> getVolumes() {
   }
 
   @Override
-  public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
+  public FsVolumeImpl getVolume(final ExtendedBlock b) {
     final ReplicaInfo r =  volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
     return r != null? (FsVolumeImpl)r.getVolume(): null;
   }
 
   @Override // FsDatasetSpi
-  public synchronized Block getStoredBlock(String bpid, long blkid)
+  public Block getStoredBlock(String bpid, long blkid)
       throws IOException {
-    File blockfile = getFile(bpid, blkid);
-    if (blockfile == null) {
-      return null;
+    synchronized (getBlockLock(blkid)) {
+      File blockfile = getFile(bpid, blkid);
+      if (blockfile == null) {
+        return null;
+      }
+      final File metafile = FsDatasetUtil.findMetaFile(blockfile);
+      final long gs = FsDatasetUtil.parseGenerationStamp(blockfile, metafile);
+      return new Block(blkid, blockfile.length(), gs);
     }
-    final File metafile = FsDatasetUtil.findMetaFile(blockfile);
-    final long gs = FsDatasetUtil.parseGenerationStamp(blockfile, metafile);
-    return new Block(blkid, blockfile.length(), gs);
   }
 
 
@@ -160,6 +170,10 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
   // Used for synchronizing access to usage stats
   private final Object statsLock = new Object();
 
+  /** The number of striped block locks, a power of two. */
+  static final int NUM_BLOCK_LOCKS = 1024;
+  private final Object[] blockLocks = new Object[NUM_BLOCK_LOCKS];
+
   /**
    * An FSDataset has a directory where it loads its data files.
    */
@@ -197,7 +211,10 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
       volArray.add(new FsVolumeImpl(this, storage.getStorageID(), dir, conf));
       LOG.info("Added volume - " + dir);
     }
-    volumeMap = new ReplicaMap(this);
+    for (int i = 0; i < blockLocks.length; i++) {
+      blockLocks[i] = new Object();
+    }
+    volumeMap = new ReplicaMap();
 
     @SuppressWarnings("unchecked")
     final VolumeChoosingPolicy<FsVolumeImpl> blockChooserImpl =
@@ -216,6 +233,18 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
     registerMBean(storage.getStorageID());
   }
 
+  /**
+   * The lock of a block, it serializes the operations which check and
+   * update the replica of the block. The same lock is shared by the blocks
+   * of a stripe, so a block lock is never held while another one is taken.
+   */
+  @Override // FsDatasetSpi
+  public Object getBlockLock(long blockId) {
+    // spreads the sequential block ids and the random ones alike
+    long h = blockId * 0x9E3779B97F4A7C15L;
+    return blockLocks[(int) (h >>> 32) & (NUM_BLOCK_LOCKS - 1)];
+  }
+
   /**
    * Return the total space used by dfs datanode
    */
@@ -309,10 +338,8 @@ File getBlockFile(String bpid, Block b) throws IOException {
    */
   private File getBlockFileNoExistsCheck(ExtendedBlock b)
       throws IOException {
-    final File f;
-    synchronized(this) {
-      f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId());
-    }
+    final File f = getFile(b.getBlockPoolId(),
+        b.getLocalBlock().getBlockId());
     if (f == null) {
       throw new IOException("Block " + b + " is not valid");
     }
@@ -378,20 +405,22 @@ private ReplicaInfo getReplicaInfo(String bpid, long blkid)
    * Returns handles to the block file and its metadata file
    */
   @Override // FsDatasetSpi
-  public synchronized ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, 
+  public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, 
                           long blkOffset, long ckoff) throws IOException {
-    ReplicaInfo info = getReplicaInfo(b);
-    File blockFile = info.getBlockFile();
-    RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
-    if (blkOffset > 0) {
-      blockInFile.seek(blkOffset);
-    }
-    File metaFile = info.getMetaFile();
-    RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
-    if (ckoff > 0) {
-      metaInFile.seek(ckoff);
+    synchronized (getBlockLock(b.getBlockId())) {
+      ReplicaInfo info = getReplicaInfo(b);
+      File blockFile = info.getBlockFile();
+      RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
+      if (blkOffset > 0) {
+        blockInFile.seek(blkOffset);
+      }
+      File metaFile = info.getMetaFile();
+      RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
+      if (ckoff > 0) {
+        metaInFile.seek(ckoff);
+      }
+      return new ReplicaInputStreams(blockInFile.getFD(), metaInFile.getFD());
     }
-    return new ReplicaInputStreams(blockInFile.getFD(), metaInFile.getFD());
   }
 
   static File moveBlockFiles(Block b, File srcfile, File destdir
@@ -471,33 +500,35 @@ static private void truncateBlock(File blockFile, File metaFile,
 
 
   @Override  // FsDatasetSpi
-  public synchronized ReplicaInPipeline append(ExtendedBlock b,
+  public ReplicaInPipeline append(ExtendedBlock b,
       long newGS, long expectedBlockLen) throws IOException {
-    // If the block was successfully finalized because all packets
-    // were successfully processed at the Datanode but the ack for
-    // some of the packets were not received by the client. The client 
-    // re-opens the connection and retries sending those packets.
-    // The other reason is that an "append" is occurring to this block.
+    synchronized (getBlockLock(b.getBlockId())) {
+      // If the block was successfully finalized because all packets
+      // were successfully processed at the Datanode but the ack for
+      // some of the packets were not received by the client. The client 
+      // re-opens the connection and retries sending those packets.
+      // The other reason is that an "append" is occurring to this block.
     
-    // check the validity of the parameter
-    if (newGS < b.getGenerationStamp()) {
-      throw new IOException("The new generation stamp " + newGS + 
-          " should be greater than the replica " + b + "'s generation stamp");
-    }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    LOG.info("Appending to " + replicaInfo);
-    if (replicaInfo.getState() != ReplicaState.FINALIZED) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
-    }
-    if (replicaInfo.getNumBytes() != expectedBlockLen) {
-      throw new IOException("Corrupted replica " + replicaInfo + 
-          " with a length of " + replicaInfo.getNumBytes() + 
-          " expected length is " + expectedBlockLen);
-    }
+      // check the validity of the parameter
+      if (newGS < b.getGenerationStamp()) {
+        throw new IOException("The new generation stamp " + newGS + 
+            " should be greater than the replica " + b + "'s generation stamp");
+      }
+      ReplicaInfo replicaInfo = getReplicaInfo(b);
+      LOG.info("Appending to " + replicaInfo);
+      if (replicaInfo.getState() != ReplicaState.FINALIZED) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
+      }
+      if (replicaInfo.getNumBytes() != expectedBlockLen) {
+        throw new IOException("Corrupted replica " + replicaInfo + 
+            " with a length of " + replicaInfo.getNumBytes() + 
+            " expected length is " + expectedBlockLen);
+      }
 
-    return append(b.getBlockPoolId(), (FinalizedReplica)replicaInfo, newGS,
-        b.getNumBytes());
+      return append(b.getBlockPoolId(), (FinalizedReplica)replicaInfo, newGS,
+          b.getNumBytes());
+    }
   }
   
   /** Append to a finalized replica
@@ -512,7 +543,7 @@ public synchronized ReplicaInPipeline append(ExtendedBlock b,
    * @throws IOException if moving the replica from finalized directory 
    *         to rbw directory fails
    */
-  private synchronized ReplicaBeingWritten append(String bpid,
+  private ReplicaBeingWritten append(String bpid,
       FinalizedReplica replicaInfo, long newGS, long estimateBlockLen)
       throws IOException {
     // unlink the finalized replica
@@ -618,33 +649,37 @@ private ReplicaInfo recoverCheck(ExtendedBlock b, long newGS,
   }
   
   @Override  // FsDatasetSpi
-  public synchronized ReplicaInPipeline recoverAppend(ExtendedBlock b,
+  public ReplicaInPipeline recoverAppend(ExtendedBlock b,
       long newGS, long expectedBlockLen) throws IOException {
-    LOG.info("Recover failed append to " + b);
-
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
-
-    // change the replica's state/gs etc.
-    if (replicaInfo.getState() == ReplicaState.FINALIZED ) {
-      return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS, 
-          b.getNumBytes());
-    } else { //RBW
-      bumpReplicaGS(replicaInfo, newGS);
-      return (ReplicaBeingWritten)replicaInfo;
+    synchronized (getBlockLock(b.getBlockId())) {
+      LOG.info("Recover failed append to " + b);
+
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+
+      // change the replica's state/gs etc.
+      if (replicaInfo.getState() == ReplicaState.FINALIZED ) {
+        return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS, 
+            b.getNumBytes());
+      } else { //RBW
+        bumpReplicaGS(replicaInfo, newGS);
+        return (ReplicaBeingWritten)replicaInfo;
+      }
     }
   }
 
   @Override // FsDatasetSpi
   public void recoverClose(ExtendedBlock b, long newGS,
       long expectedBlockLen) throws IOException {
-    LOG.info("Recover failed close " + b);
-    // check replica's state
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
-    // bump the replica's GS
-    bumpReplicaGS(replicaInfo, newGS);
-    // finalize the replica if RBW
-    if (replicaInfo.getState() == ReplicaState.RBW) {
-      finalizeReplica(b.getBlockPoolId(), replicaInfo);
+    synchronized (getBlockLock(b.getBlockId())) {
+      LOG.info("Recover failed close " + b);
+      // check replica's state
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+      // bump the replica's GS
+      bumpReplicaGS(replicaInfo, newGS);
+      // finalize the replica if RBW
+      if (replicaInfo.getState() == ReplicaState.RBW) {
+        finalizeReplica(b.getBlockPoolId(), replicaInfo);
+      }
     }
   }
   
@@ -678,149 +713,157 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo,
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createRbw(ExtendedBlock b)
+  public ReplicaInPipeline createRbw(ExtendedBlock b)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
-        b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-      " already exists in state " + replicaInfo.getState() +
-      " and thus cannot be created.");
-    }
-    // create a new block
-    FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
-    // create a rbw file to hold block in the designated volume
-    File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
-    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-    return newReplicaInfo;
+    synchronized (getBlockLock(b.getBlockId())) {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
+          b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+        " already exists in state " + replicaInfo.getState() +
+        " and thus cannot be created.");
+      }
+      // create a new block
+      FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
+      // create a rbw file to hold block in the designated volume
+      File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
+      ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
+          b.getGenerationStamp(), v, f.getParentFile());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      return newReplicaInfo;
+    }
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline recoverRbw(ExtendedBlock b,
+  public ReplicaInPipeline recoverRbw(ExtendedBlock b,
       long newGS, long minBytesRcvd, long maxBytesRcvd)
       throws IOException {
-    LOG.info("Recover RBW replica " + b);
+    synchronized (getBlockLock(b.getBlockId())) {
+      LOG.info("Recover RBW replica " + b);
 
-    ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
+      ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
     
-    // check the replica's state
-    if (replicaInfo.getState() != ReplicaState.RBW) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
-    }
-    ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
+      // check the replica's state
+      if (replicaInfo.getState() != ReplicaState.RBW) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
+      }
+      ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
     
-    LOG.info("Recovering " + rbw);
+      LOG.info("Recovering " + rbw);
 
-    // Stop the previous writer
-    rbw.stopWriter();
-    rbw.setWriter(Thread.currentThread());
+      // Stop the previous writer
+      rbw.stopWriter();
+      rbw.setWriter(Thread.currentThread());
 
-    // check generation stamp
-    long replicaGenerationStamp = rbw.getGenerationStamp();
-    if (replicaGenerationStamp < b.getGenerationStamp() ||
-        replicaGenerationStamp > newGS) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
-          ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
-          newGS + "].");
-    }
+      // check generation stamp
+      long replicaGenerationStamp = rbw.getGenerationStamp();
+      if (replicaGenerationStamp < b.getGenerationStamp() ||
+          replicaGenerationStamp > newGS) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
+            ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
+            newGS + "].");
+      }
     
-    // check replica length
-    if (rbw.getBytesAcked() < minBytesRcvd || rbw.getNumBytes() > maxBytesRcvd){
-      throw new ReplicaNotFoundException("Unmatched length replica " + 
-          replicaInfo + ": BytesAcked = " + rbw.getBytesAcked() + 
-          " BytesRcvd = " + rbw.getNumBytes() + " are not in the range of [" + 
-          minBytesRcvd + ", " + maxBytesRcvd + "].");
-    }
+      // check replica length
+      if (rbw.getBytesAcked() < minBytesRcvd || rbw.getNumBytes() > maxBytesRcvd){
+        throw new ReplicaNotFoundException("Unmatched length replica " + 
+            replicaInfo + ": BytesAcked = " + rbw.getBytesAcked() + 
+            " BytesRcvd = " + rbw.getNumBytes() + " are not in the range of [" + 
+            minBytesRcvd + ", " + maxBytesRcvd + "].");
+      }
 
-    // bump the replica's generation stamp to newGS
-    bumpReplicaGS(rbw, newGS);
+      // bump the replica's generation stamp to newGS
+      bumpReplicaGS(rbw, newGS);
     
-    return rbw;
+      return rbw;
+    }
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline convertTemporaryToRbw(
+  public ReplicaInPipeline convertTemporaryToRbw(
       final ExtendedBlock b) throws IOException {
-    final long blockId = b.getBlockId();
-    final long expectedGs = b.getGenerationStamp();
-    final long visible = b.getNumBytes();
-    LOG.info("Convert " + b + " from Temporary to RBW, visible length="
-        + visible);
-
-    final ReplicaInPipeline temp;
-    {
-      // get replica
-      final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
-      if (r == null) {
-        throw new ReplicaNotFoundException(
-            ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+    synchronized (getBlockLock(b.getBlockId())) {
+      final long blockId = b.getBlockId();
+      final long expectedGs = b.getGenerationStamp();
+      final long visible = b.getNumBytes();
+      LOG.info("Convert " + b + " from Temporary to RBW, visible length="
+          + visible);
+
+      final ReplicaInPipeline temp;
+      {
+        // get replica
+        final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
+        if (r == null) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+        }
+        // check the replica's state
+        if (r.getState() != ReplicaState.TEMPORARY) {
+          throw new ReplicaAlreadyExistsException(
+              "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+        }
+        temp = (ReplicaInPipeline)r;
       }
-      // check the replica's state
-      if (r.getState() != ReplicaState.TEMPORARY) {
+      // check generation stamp
+      if (temp.getGenerationStamp() != expectedGs) {
         throw new ReplicaAlreadyExistsException(
-            "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+            "temp.getGenerationStamp() != expectedGs = " + expectedGs
+            + ", temp=" + temp);
       }
-      temp = (ReplicaInPipeline)r;
-    }
-    // check generation stamp
-    if (temp.getGenerationStamp() != expectedGs) {
-      throw new ReplicaAlreadyExistsException(
-          "temp.getGenerationStamp() != expectedGs = " + expectedGs
-          + ", temp=" + temp);
-    }
 
-    // TODO: check writer?
-    // set writer to the current thread
-    // temp.setWriter(Thread.currentThread());
+      // TODO: check writer?
+      // set writer to the current thread
+      // temp.setWriter(Thread.currentThread());
 
-    // check length
-    final long numBytes = temp.getNumBytes();
-    if (numBytes < visible) {
-      throw new IOException(numBytes + " = numBytes < visible = "
-          + visible + ", temp=" + temp);
-    }
-    // check volume
-    final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
-    if (v == null) {
-      throw new IOException("r.getVolume() = null, temp="  + temp);
-    }
+      // check length
+      final long numBytes = temp.getNumBytes();
+      if (numBytes < visible) {
+        throw new IOException(numBytes + " = numBytes < visible = "
+            + visible + ", temp=" + temp);
+      }
+      // check volume
+      final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
+      if (v == null) {
+        throw new IOException("r.getVolume() = null, temp="  + temp);
+      }
     
-    // move block files to the rbw directory
-    BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
-    final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
-        bpslice.getRbwDir());
-    // create RBW
-    final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
-        blockId, numBytes, expectedGs,
-        v, dest.getParentFile(), Thread.currentThread());
-    rbw.setBytesAcked(visible);
-    // overwrite the RBW in the volume map
-    volumeMap.add(b.getBlockPoolId(), rbw);
-    return rbw;
+      // move block files to the rbw directory
+      BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
+      final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
+          bpslice.getRbwDir());
+      // create RBW
+      final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
+          blockId, numBytes, expectedGs,
+          v, dest.getParentFile(), Thread.currentThread());
+      rbw.setBytesAcked(visible);
+      // overwrite the RBW in the volume map
+      volumeMap.add(b.getBlockPoolId(), rbw);
+      return rbw;
+    }
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createTemporary(ExtendedBlock b)
+  public ReplicaInPipeline createTemporary(ExtendedBlock b)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-          " already exists in state " + replicaInfo.getState() +
-          " and thus cannot be created.");
-    }
+    synchronized (getBlockLock(b.getBlockId())) {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+            " already exists in state " + replicaInfo.getState() +
+            " and thus cannot be created.");
+      }
     
-    FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
-    // create a temporary file to hold block in the designated volume
-    File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
-    ReplicaInPipeline newReplicaInfo = new ReplicaInPipeline(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
+      // create a temporary file to hold block in the designated volume
+      File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
+      ReplicaInPipeline newReplicaInfo = new ReplicaInPipeline(b.getBlockId(), 
+          b.getGenerationStamp(), v, f.getParentFile());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
     
-    return newReplicaInfo;
+      return newReplicaInfo;
+    }
   }
 
   /**
@@ -853,21 +896,23 @@ public void adjustCrcChannelPosition(ExtendedBlock b, ReplicaOutputStreams strea
    * Complete the block write!
    */
   @Override // FsDatasetSpi
-  public synchronized void finalizeBlock(ExtendedBlock b) throws IOException {
-    if (Thread.interrupted()) {
-      // Don't allow data modifications from interrupted threads
-      throw new IOException("Cannot finalize block from Interrupted Thread");
-    }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    if (replicaInfo.getState() == ReplicaState.FINALIZED) {
-      // this is legal, when recovery happens on a file that has
-      // been opened for append but never modified
-      return;
+  public void finalizeBlock(ExtendedBlock b) throws IOException {
+    synchronized (getBlockLock(b.getBlockId())) {
+      if (Thread.interrupted()) {
+        // Don't allow data modifications from interrupted threads
+        throw new IOException("Cannot finalize block from Interrupted Thread");
+      }
+      ReplicaInfo replicaInfo = getReplicaInfo(b);
+      if (replicaInfo.getState() == ReplicaState.FINALIZED) {
+        // this is legal, when recovery happens on a file that has
+        // been opened for append but never modified
+        return;
+      }
+      finalizeReplica(b.getBlockPoolId(), replicaInfo);
     }
-    finalizeReplica(b.getBlockPoolId(), replicaInfo);
   }
   
-  private synchronized FinalizedReplica finalizeReplica(String bpid,
+  private FinalizedReplica finalizeReplica(String bpid,
       ReplicaInfo replicaInfo) throws IOException {
     FinalizedReplica newReplicaInfo = null;
     if (replicaInfo.getState() == ReplicaState.RUR &&
@@ -894,17 +939,19 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
    * Remove the temporary block file (if any)
    */
   @Override // FsDatasetSpi
-  public synchronized void unfinalizeBlock(ExtendedBlock b) throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
-        b.getLocalBlock());
-    if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
-      // remove from volumeMap
-      volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
+  public void unfinalizeBlock(ExtendedBlock b) throws IOException {
+    synchronized (getBlockLock(b.getBlockId())) {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
+          b.getLocalBlock());
+      if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
+        // remove from volumeMap
+        volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
       
-      // delete the on-disk temp file
-      if (delBlockFromDisk(replicaInfo.getBlockFile(), 
-          replicaInfo.getMetaFile(), b.getLocalBlock())) {
-        LOG.warn("Block " + b + " unfinalized and removed. " );
+        // delete the on-disk temp file
+        if (delBlockFromDisk(replicaInfo.getBlockFile(), 
+            replicaInfo.getMetaFile(), b.getLocalBlock())) {
+          LOG.warn("Block " + b + " unfinalized and removed. " );
+        }
       }
     }
   }
@@ -935,51 +982,54 @@ private boolean delBlockFromDisk(File blockFile, File metaFile, Block b) {
   }
 
   /**
-   * Generates a block report from the in-memory block map.
+   * Generates a block report from the in-memory block map. The report is a
+   * snapshot taken without locking the replicas, a replica which changes
+   * meanwhile is reported in either of its states and the next report
+   * corrects it.
    */
   @Override // FsDatasetSpi
   public BlockListAsLongs getBlockReport(String bpid) {
     int size =  volumeMap.size(bpid);
     ArrayList<ReplicaInfo> finalized = new ArrayList<ReplicaInfo>(size);
     ArrayList<ReplicaInfo> uc = new ArrayList<ReplicaInfo>();
-    if (size == 0) {
+    Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+    if (size == 0 || replicas == null) {
       return new BlockListAsLongs(finalized, uc);
     }
     
-    synchronized(this) {
-      for (ReplicaInfo b : volumeMap.replicas(bpid)) {
-        switch(b.getState()) {
-        case FINALIZED:
-          finalized.add(b);
-          break;
-        case RBW:
-        case RWR:
-          uc.add(b);
-          break;
-        case RUR:
-          ReplicaUnderRecovery rur = (ReplicaUnderRecovery)b;
-          uc.add(rur.getOriginalReplica());
-          break;
-        case TEMPORARY:
-          break;
-        default:
-          assert false : "Illegal ReplicaInfo state.";
-        }
+    for (ReplicaInfo b : replicas) {
+      switch(b.getState()) {
+      case FINALIZED:
+        finalized.add(b);
+        break;
+      case RBW:
+      case RWR:
+        uc.add(b);
+        break;
+      case RUR:
+        ReplicaUnderRecovery rur = (ReplicaUnderRecovery)b;
+        uc.add(rur.getOriginalReplica());
+        break;
+      case TEMPORARY:
+        break;
+      default:
+        assert false : "Illegal ReplicaInfo state.";
       }
-      return new BlockListAsLongs(finalized, uc);
     }
+    return new BlockListAsLongs(finalized, uc);
   }
 
   /**
    * Get the list of finalized blocks from in-memory blockmap for a block pool.
    */
   @Override
-  public synchronized List<Block> getFinalizedBlocks(String bpid) {
+  public List<Block> getFinalizedBlocks(String bpid) {
     ArrayList<Block> finalized = new ArrayList<Block>(volumeMap.size(bpid));
     //START_HOP_CODE
-    if(volumeMap.replicas(bpid) != null ){
+    Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+    if(replicas != null ){
     //END_HOP_CODE
-    for (ReplicaInfo b : volumeMap.replicas(bpid)) {
+    for (ReplicaInfo b : replicas) {
       if(b.getState() == ReplicaState.FINALIZED) {
         finalized.add(new Block(b));
       }
@@ -1019,10 +1069,7 @@ private boolean isValid(final ExtendedBlock b, final ReplicaState state) {
    */
   File validateBlockFile(String bpid, Block b) {
     //Should we check for metadata file too?
-    final File f;
-    synchronized(this) {
-      f = getFile(bpid, b.getBlockId());
-    }
+    final File f = getFile(bpid, b.getBlockId());
     
     if(f != null ) {
       if(f.exists())
@@ -1071,7 +1118,7 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
     for (int i = 0; i < invalidBlks.length; i++) {
       final File f;
       final FsVolumeImpl v;
-      synchronized (this) {
+      synchronized (getBlockLock(invalidBlks[i].getBlockId())) {
         f = getFile(bpid, invalidBlks[i].getBlockId());
         ReplicaInfo info = volumeMap.get(bpid, invalidBlks[i]);
         if (info == null) {
@@ -1127,7 +1174,7 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
   }
 
   @Override // FsDatasetSpi
-  public synchronized boolean contains(final ExtendedBlock block) {
+  public boolean contains(final ExtendedBlock block) {
     final long blockId = block.getLocalBlock().getBlockId();
     return getFile(block.getBlockPoolId(), blockId) != null;
   }
@@ -1163,24 +1210,28 @@ public void checkDataDir() throws DiskErrorException {
     
     // Otherwise remove blocks for the failed volumes
     long mlsec = Time.now();
-    synchronized (this) {
-      for (FsVolumeImpl fv: failedVols) {
-        for (String bpid : fv.getBlockPoolList()) {
-          Iterator<ReplicaInfo> ib = volumeMap.replicas(bpid).iterator();
-          while(ib.hasNext()) {
-            ReplicaInfo b = ib.next();
-            totalBlocks++;
-            // check if the volume block belongs to still valid
-            if(b.getVolume() == fv) {
-              LOG.warn("Removing replica " + bpid + ":" + b.getBlockId()
-                  + " on failed volume " + fv.getCurrentDir().getAbsolutePath());
-              ib.remove();
-              removedBlocks++;
-            }
+    // the failed volumes are not chosen for new replicas anymore, and the
+    // iterator of the concurrent map removes the replicas they have
+    for (FsVolumeImpl fv: failedVols) {
+      for (String bpid : fv.getBlockPoolList()) {
+        Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+        if (replicas == null) {
+          continue;
+        }
+        Iterator<ReplicaInfo> ib = replicas.iterator();
+        while(ib.hasNext()) {
+          ReplicaInfo b = ib.next();
+          totalBlocks++;
+          // check if the volume block belongs to still valid
+          if(b.getVolume() == fv) {
+            LOG.warn("Removing replica " + bpid + ":" + b.getBlockId()
+                + " on failed volume " + fv.getCurrentDir().getAbsolutePath());
+            ib.remove();
+            removedBlocks++;
           }
         }
       }
-    } // end of sync
+    }
     mlsec = Time.now() - mlsec;
     LOG.warn("Removed " + removedBlocks + " out of " + totalBlocks +
         "(took " + mlsec + " millisecs)");
@@ -1272,7 +1323,7 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
       File diskMetaFile, FsVolumeSpi vol) {
     Block corruptBlock = null;
     ReplicaInfo memBlockInfo;
-    synchronized (this) {
+    synchronized (getBlockLock(blockId)) {
       memBlockInfo = volumeMap.get(bpid, blockId);
       if (memBlockInfo != null && memBlockInfo.getState() != ReplicaState.FINALIZED) {
         // Block is not finalized - ignore the difference
@@ -1415,16 +1466,18 @@ public ReplicaInfo getReplica(String bpid, long blockId) {
   }
 
   @Override 
-  public synchronized String getReplicaString(String bpid, long blockId) {
+  public String getReplicaString(String bpid, long blockId) {
     final Replica r = volumeMap.get(bpid, blockId);
     return r == null? "null": r.toString();
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaRecoveryInfo initReplicaRecovery(
+  public ReplicaRecoveryInfo initReplicaRecovery(
       RecoveringBlock rBlock) throws IOException {
-    return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(),
-        volumeMap, rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp());
+    synchronized (getBlockLock(rBlock.getBlock().getBlockId())) {
+      return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(),
+          volumeMap, rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp());
+    }
   }
 
   /** static version of {@link #initReplicaRecovery(Block, long)}. */
@@ -1493,54 +1546,56 @@ static ReplicaRecoveryInfo initReplicaRecovery(String bpid,
   }
 
   @Override // FsDatasetSpi
-  public synchronized String updateReplicaUnderRecovery(
+  public String updateReplicaUnderRecovery(
                                     final ExtendedBlock oldBlock,
                                     final long recoveryId,
                                     final long newlength) throws IOException {
-    //get replica
-    final String bpid = oldBlock.getBlockPoolId();
-    final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
-    LOG.info("updateReplica: " + oldBlock
-        + ", recoveryId=" + recoveryId
-        + ", length=" + newlength
-        + ", replica=" + replica);
+    synchronized (getBlockLock(oldBlock.getBlockId())) {
+      //get replica
+      final String bpid = oldBlock.getBlockPoolId();
+      final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
+      LOG.info("updateReplica: " + oldBlock
+          + ", recoveryId=" + recoveryId
+          + ", length=" + newlength
+          + ", replica=" + replica);
 
-    //check replica
-    if (replica == null) {
-      throw new ReplicaNotFoundException(oldBlock);
-    }
+      //check replica
+      if (replica == null) {
+        throw new ReplicaNotFoundException(oldBlock);
+      }
 
-    //check replica state
-    if (replica.getState() != ReplicaState.RUR) {
-      throw new IOException("replica.getState() != " + ReplicaState.RUR
-          + ", replica=" + replica);
-    }
+      //check replica state
+      if (replica.getState() != ReplicaState.RUR) {
+        throw new IOException("replica.getState() != " + ReplicaState.RUR
+            + ", replica=" + replica);
+      }
 
-    //check replica's byte on disk
-    if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
-      throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:"
-          + " replica.getBytesOnDisk() != block.getNumBytes(), block="
-          + oldBlock + ", replica=" + replica);
-    }
+      //check replica's byte on disk
+      if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
+        throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:"
+            + " replica.getBytesOnDisk() != block.getNumBytes(), block="
+            + oldBlock + ", replica=" + replica);
+      }
 
-    //check replica files before update
-    checkReplicaFiles(replica);
+      //check replica files before update
+      checkReplicaFiles(replica);
 
-    //update replica
-    final FinalizedReplica finalized = updateReplicaUnderRecovery(oldBlock
-        .getBlockPoolId(), (ReplicaUnderRecovery) replica, recoveryId, newlength);
-    assert finalized.getBlockId() == oldBlock.getBlockId()
-        && finalized.getGenerationStamp() == recoveryId
-        && finalized.getNumBytes() == newlength
-        : "Replica information mismatched: oldBlock=" + oldBlock
-            + ", recoveryId=" + recoveryId + ", newlength=" + newlength
-            + ", finalized=" + finalized;
+      //update replica
+      final FinalizedReplica finalized = updateReplicaUnderRecovery(oldBlock
+          .getBlockPoolId(), (ReplicaUnderRecovery) replica, recoveryId, newlength);
+      assert finalized.getBlockId() == oldBlock.getBlockId()
+          && finalized.getGenerationStamp() == recoveryId
+          && finalized.getNumBytes() == newlength
+          : "Replica information mismatched: oldBlock=" + oldBlock
+              + ", recoveryId=" + recoveryId + ", newlength=" + newlength
+              + ", finalized=" + finalized;
 
-    //check replica files after update
-    checkReplicaFiles(finalized);
+      //check replica files after update
+      checkReplicaFiles(finalized);
 
-    //return storage ID
-    return getVolume(new ExtendedBlock(bpid, finalized)).getStorageID();
+      //return storage ID
+      return getVolume(new ExtendedBlock(bpid, finalized)).getStorageID();
+    }
   }
 
   private FinalizedReplica updateReplicaUnderRecovery(
@@ -1575,7 +1630,7 @@ private FinalizedReplica updateReplicaUnderRecovery(
   }
 
   @Override // FsDatasetSpi
-  public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
+  public long getReplicaVisibleLength(final ExtendedBlock block)
   throws IOException {
     final Replica replica = getReplicaInfo(block.getBlockPoolId(), 
         block.getBlockId());
@@ -37,7 +37,9 @@
 /**
  * The underlying volume used to store replica.
  * 
- * It uses the {@link FsDatasetImpl} object for synchronization.
+ * It uses the {@link FsDatasetImpl} object for synchronization of its block
+ * pools, the block pool slices synchronize their finalized directories
+ * themselves so the replicas of different volumes are finalized in parallel.
  */
 @InterfaceAudience.Private
 class FsVolumeImpl implements FsVolumeSpi {
@@ -18,36 +18,25 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 
 /**
- * Maintains the replica map. 
+ * Maintains the replica map. The map is concurrent, so lookups do not
+ * serialize with each other nor with the updates of other replicas. The
+ * operations which check a replica before they update it are made atomic by
+ * the block locks of {@link FsDatasetImpl}.
  */
 class ReplicaMap {
-  // Object using which this class is synchronized
-  private final Object mutex;
-  
   // Map of block pool Id to another map of block Id to ReplicaInfo.
-  private Map<String, Map<Long, ReplicaInfo>> map = 
-    new HashMap<String, Map<Long, ReplicaInfo>>();
-  
-  ReplicaMap(Object mutex) {
-    if (mutex == null) {
-      throw new HadoopIllegalArgumentException(
-          "Object to synchronize on cannot be null");
-    }
-    this.mutex = mutex;
-  }
+  private final ConcurrentMap<String, ConcurrentMap<Long, ReplicaInfo>> map =
+    new ConcurrentHashMap<String, ConcurrentMap<Long, ReplicaInfo>>();
   
   String[] getBlockPoolList() {
-    synchronized(mutex) {
-      return map.keySet().toArray(new String[map.keySet().size()]);   
-    }
+    return map.keySet().toArray(new String[0]);
   }
   
   private void checkBlockPool(String bpid) {
@@ -90,10 +79,8 @@ ReplicaInfo get(String bpid, Block block) {
    */
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      return m != null ? m.get(blockId) : null;
-    }
+    ConcurrentMap<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.get(blockId) : null;
   }
   
   /**
@@ -107,15 +94,7 @@ ReplicaInfo get(String bpid, long blockId) {
   ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
     checkBlockPool(bpid);
     checkBlock(replicaInfo);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
-        map.put(bpid, m);
-      }
-      return  m.put(replicaInfo.getBlockId(), replicaInfo);
-    }
+    return getOrCreate(bpid).put(replicaInfo.getBlockId(), replicaInfo);
   }
   
   /**
@@ -129,15 +108,16 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
   ReplicaInfo remove(String bpid, Block block) {
     checkBlockPool(bpid);
     checkBlock(block);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
-        Long key = Long.valueOf(block.getBlockId());
-        ReplicaInfo replicaInfo = m.get(key);
-        if (replicaInfo != null &&
-            block.getGenerationStamp() == replicaInfo.getGenerationStamp()) {
-          return m.remove(key);
-        } 
+    ConcurrentMap<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      Long key = Long.valueOf(block.getBlockId());
+      ReplicaInfo replicaInfo = m.get(key);
+      if (replicaInfo != null &&
+          block.getGenerationStamp() == replicaInfo.getGenerationStamp()) {
+        // only removes the replica which was checked
+        if (m.remove(key, replicaInfo)) {
+          return replicaInfo;
+        }
       }
     }
     
@@ -152,11 +132,9 @@ ReplicaInfo remove(String bpid, Block block) {
    */
   ReplicaInfo remove(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
-        return m.remove(blockId);
-      }
+    ConcurrentMap<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      return m.remove(blockId);
     }
     return null;
   }
@@ -167,53 +145,46 @@ ReplicaInfo remove(String bpid, long blockId) {
    * @return the number of replicas in the map
    */
   int size(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    synchronized(mutex) {
-      m = map.get(bpid);
-      return m != null ? m.size() : 0;
-    }
+    ConcurrentMap<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.size() : 0;
   }
   
   /**
-   * Get a collection of the replicas for given block pool
-   * This method is <b>not synchronized</b>. It needs to be synchronized
-   * externally using the mutex, both for getting the replicas
-   * values from the map and iterating over it. Mutex can be accessed using
-   * {@link #getMutext()} method.
+   * Get a collection of the replicas for given block pool.
+   * The collection is a live view of the map, it can be iterated while the
+   * replicas are updated without any lock. The iteration is weakly
+   * consistent: it sees every replica which was in the map for the whole
+   * iteration, and may or may not see the replicas added or removed
+   * meanwhile.
    * 
    * @param bpid block pool id
    * @return a collection of the replicas belonging to the block pool
    */
   Collection<ReplicaInfo> replicas(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    m = map.get(bpid);
+    ConcurrentMap<Long, ReplicaInfo> m = map.get(bpid);
     return m != null ? m.values() : null;
   }
 
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
-        map.put(bpid, m);
-      }
-    }
+    getOrCreate(bpid);
   }
   
   void cleanUpBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      map.remove(bpid);
-    }
+    map.remove(bpid);
   }
-  
-  /**
-   * Give access to mutex used for synchronizing ReplicasMap
-   * @return object used as lock
-   */
-  Object getMutext() {
-    return mutex;
+
+  private ConcurrentMap<Long, ReplicaInfo> getOrCreate(String bpid) {
+    ConcurrentMap<Long, ReplicaInfo> m = map.get(bpid);
+    if (m == null) {
+      // Add an entry for block pool if it does not exist already
+      m = new ConcurrentHashMap<Long, ReplicaInfo>();
+      ConcurrentMap<Long, ReplicaInfo> previous = map.putIfAbsent(bpid, m);
+      if (previous != null) {
+        m = previous;
+      }
+    }
+    return m;
   }
-}
\ No newline at end of file
+}
@@ -29,6 +29,7 @@
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
@@ -67,6 +68,11 @@ public class DataNodeMetrics {
   
   @Metric MutableCounterLong volumeFailures;
 
+  @Metric("Open data transfer connections")
+  MutableGaugeInt xceiverConnections;
+  @Metric("Data transfer connections kept alive waiting for their next op")
+  MutableGaugeInt idleXceiverConnections;
+
   @Metric MutableRate readBlockOp;
   @Metric MutableRate writeBlockOp;
   @Metric MutableRate blockChecksumOp;
@@ -244,6 +250,18 @@ public void incrVolumeFailures() {
     volumeFailures.incr();
   }
 
+  public void incrXceiverConnections() {
+    xceiverConnections.incr();
+  }
+
+  public void decrXceiverConnections() {
+    xceiverConnections.decr();
+  }
+
+  public void setIdleXceiverConnections(int connections) {
+    idleXceiverConnections.set(connections);
+  }
+
   /** Increment for getBlockLocalPathInfo calls */
   public void incrBlocksGetLocalPathInfo() {
     blocksGetLocalPathInfo.incr();
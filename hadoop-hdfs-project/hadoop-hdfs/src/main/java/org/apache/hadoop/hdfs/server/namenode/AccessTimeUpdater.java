@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.util.Daemon;
+import se.sics.hop.metadata.INodeIdentifier;
+import se.sics.hop.transaction.EntityManager;
+import se.sics.hop.transaction.handler.HDFSOperationType;
+import se.sics.hop.transaction.handler.HopsTransactionalRequestHandler;
+import se.sics.hop.transaction.lock.HopsLockFactory;
+import se.sics.hop.transaction.lock.TransactionLockTypes;
+import se.sics.hop.transaction.lock.TransactionLocks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the access times of files off the read path. Reads record the time
+ * they accessed a file, the records of one file are coalesced into the
+ * latest time and a daemon writes at most flushLimit of them per interval,
+ * several inodes per transaction. Reads therefore never take a write lock
+ * on the inode.
+ * <p>
+ * At most maxPending inodes wait to be written, the access times of other
+ * inodes are dropped while the backlog is full. The access times of a
+ * transaction which failed are queued again.
+ */
+class AccessTimeUpdater {
+
+  static final Log LOG = LogFactory.getLog(AccessTimeUpdater.class);
+
+  private final FSNamesystem namesystem;
+
+  private final int flushInterval;
+  private final int flushLimit;
+  private final int inodesPerTransaction;
+  private final int maxPending;
+
+  private final Daemon flushThread = new Daemon(new AccessTimeFlusher());
+
+  private final ConcurrentHashMap<Integer, PendingAccess> pending =
+      new ConcurrentHashMap<Integer, PendingAccess>();
+
+  private static class PendingAccess {
+    /** The access time of an entry taken by the flusher. */
+    private static final long TAKEN = -1;
+
+    private final String name;
+    private final int parentId;
+    private final AtomicLong accessTime;
+
+    PendingAccess(String name, int parentId, long accessTime) {
+      this.name = name;
+      this.parentId = parentId;
+      this.accessTime = new AtomicLong(accessTime);
+    }
+
+    /**
+     * @return false if the entry was taken by the flusher, and the time has
+     * to be recorded in a new entry
+     */
+    boolean update(long time) {
+      long current = accessTime.get();
+      while (current != TAKEN) {
+        if (time <= current || accessTime.compareAndSet(current, time)) {
+          return true;
+        }
+        current = accessTime.get();
+      }
+      return false;
+    }
+
+    /**
+     * @return the latest access time, updates after it go to a new entry
+     */
+    long take() {
+      return accessTime.getAndSet(TAKEN);
+    }
+  }
+
+  AccessTimeUpdater(FSNamesystem namesystem, Configuration conf) {
+    this.namesystem = namesystem;
+    flushInterval =
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_FLUSH_INTERVAL_KEY,
+            DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_FLUSH_INTERVAL_DEFAULT);
+    flushLimit =
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_FLUSH_LIMIT_KEY,
+            DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_FLUSH_LIMIT_DEFAULT);
+    inodesPerTransaction =
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_INODES_PER_TX_KEY,
+            DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_INODES_PER_TX_DEFAULT);
+    maxPending =
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_MAX_PENDING_KEY,
+            DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_MAX_PENDING_DEFAULT);
+  }
+
+  void activate() {
+    flushThread.start();
+  }
+
+  void close() {
+    flushThread.interrupt();
+    try {
+      flushThread.join(3000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Records that the file was accessed at the given time. The caller decides
+   * whether the access falls outside the precision of the stored access
+   * time, the write is skipped if the stored time is not older anymore.
+   */
+  void record(INode inode, long accessTime) {
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrAccessTimeUpdatesRequested();
+    }
+    if (!enqueue(inode.getId(), inode.getLocalName(), inode.getParentId(),
+        accessTime, true) && metrics != null) {
+      metrics.incrAccessTimeUpdatesDropped();
+    }
+  }
+
+  /**
+   * Merges the access time into the entry of the inode.
+   *
+   * @param bounded if no new entry is added while maxPending inodes wait
+   * @return false if the access time was dropped
+   */
+  private boolean enqueue(int inodeId, String name, int parentId,
+      long accessTime, boolean bounded) {
+    while (true) {
+      PendingAccess access = pending.get(inodeId);
+      if (access == null) {
+        if (bounded && pending.size() >= maxPending) {
+          return false;
+        }
+        access = pending.putIfAbsent(inodeId,
+            new PendingAccess(name, parentId, accessTime));
+        if (access == null) {
+          return true;
+        }
+      }
+      if (access.update(accessTime)) {
+        return true;
+      }
+      // taken by the flusher, which removes it right after
+      pending.remove(inodeId, access);
+    }
+  }
+
+  int getBacklog() {
+    return pending.size();
+  }
+
+  private class AccessTimeFlusher implements Runnable {
+    @Override
+    public void run() {
+      long startTime;
+      while (namesystem.isRunning()) {
+        startTime = System.currentTimeMillis();
+        try {
+          flush();
+          // sleep even if more access times are waiting, which bounds the
+          // write rate to flushLimit per interval
+          long sleepDuration =
+              flushInterval - (System.currentTimeMillis() - startTime);
+          if (sleepDuration > 0) {
+            Thread.sleep(sleepDuration);
+          }
+        } catch (InterruptedException ie) {
+          LOG.debug("AccessTimeFlusher thread received InterruptedException.");
+          break;
+        } catch (IOException e) {
+          LOG.warn("AccessTimeFlusher failed to write access times.", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the next batch of at most flushLimit access times.
+   *
+   * @return true if more access times are waiting
+   */
+  boolean flush() throws IOException {
+    List<INodeIdentifier> identifiers = new ArrayList<INodeIdentifier>();
+    List<Long> accessTimes = new ArrayList<Long>();
+    Iterator<Map.Entry<Integer, PendingAccess>> iterator =
+        pending.entrySet().iterator();
+    while (iterator.hasNext() && identifiers.size() < flushLimit) {
+      Map.Entry<Integer, PendingAccess> entry = iterator.next();
+      PendingAccess access = entry.getValue();
+      // reads after the entry was taken record their time in a new entry
+      long accessTime = access.take();
+      pending.remove(entry.getKey(), access);
+      if (accessTime == PendingAccess.TAKEN) {
+        continue;
+      }
+      INodeIdentifier identifier = new INodeIdentifier(entry.getKey());
+      identifier.setName(access.name);
+      identifier.setPid(access.parentId);
+      identifiers.add(identifier);
+      accessTimes.add(accessTime);
+    }
+
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.setAccessTimeUpdateBacklog(pending.size());
+    }
+    for (int start = 0; start < identifiers.size();
+        start += inodesPerTransaction) {
+      int end = Math.min(start + inodesPerTransaction, identifiers.size());
+      int written;
+      try {
+        written = applyAccessTimes(identifiers.subList(start, end),
+            accessTimes.subList(start, end));
+      } catch (IOException e) {
+        requeue(identifiers.subList(start, identifiers.size()),
+            accessTimes.subList(start, identifiers.size()));
+        throw e;
+      }
+      if (metrics != null) {
+        metrics.incrAccessTimeUpdatesWritten(written);
+      }
+    }
+    return !pending.isEmpty();
+  }
+
+  /**
+   * Queues the access times which were not written again. They were taken
+   * from the backlog, so they are queued even if it is full meanwhile.
+   */
+  private void requeue(List<INodeIdentifier> identifiers,
+      List<Long> accessTimes) {
+    for (int i = 0; i < identifiers.size(); i++) {
+      INodeIdentifier identifier = identifiers.get(i);
+      enqueue(identifier.getInodeId(), identifier.getName(),
+          identifier.getPid(), accessTimes.get(i), false);
+    }
+  }
+
+  private int applyAccessTimes(final List<INodeIdentifier> identifiers,
+      final List<Long> accessTimes) throws IOException {
+    return (Integer) new HopsTransactionalRequestHandler(
+        HDFSOperationType.APPLY_ACCESS_TIMES) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        HopsLockFactory lf = HopsLockFactory.getInstance();
+        locks.add(lf.getBatchedINodesLock(
+            TransactionLockTypes.INodeLockType.WRITE, identifiers));
+      }
+
+      @Override
+      public Object performTask() throws IOException {
+        int written = 0;
+        for (int i = 0; i < identifiers.size(); i++) {
+          INodeIdentifier identifier = identifiers.get(i);
+          INode inode = EntityManager.find(INode.Finder.ByINodeID,
+              identifier.getInodeId());
+          if (inode == null || inode.getParentId() != identifier.getPid()
+              || !inode.getLocalName().equals(identifier.getName())) {
+            // deleted or moved since it was read, the next read of the file
+            // records it again
+            continue;
+          }
+          long accessTime = accessTimes.get(i);
+          if (accessTime > inode.getAccessTime()) {
+            inode.setAccessTime(accessTime);
+            written++;
+          }
+        }
+        return written;
+      }
+    }.handle(this);
+  }
+}
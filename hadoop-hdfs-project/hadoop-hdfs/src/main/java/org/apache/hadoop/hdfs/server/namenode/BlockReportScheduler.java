@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
+import se.sics.hop.leaderElection.node.ActiveNode;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out the slots for full block reports on the leader. A slot is a
+ * namenode the datanode may send its report to, at most maxPerNamenode
+ * reports run on each namenode and every report goes to the namenode with
+ * the fewest blocks being reported to it. Datanodes which find no free slot
+ * wait in a queue, in the order they first asked, and are told when to ask
+ * again.
+ * <p>
+ * A slot is freed when the datanode reports that its report is done, when
+ * it asks for a new slot, or when its lease expires because the datanode
+ * died. The lease and the wait are estimated from the processing times of
+ * the reports completed so far.
+ * <p>
+ * During startup safe mode all the reports go to the leader, which counts
+ * the safe blocks, and the cluster can only leave safe mode once enough of
+ * them are processed. The reports are then not capped, a queue would only
+ * delay the restart.
+ */
+class BlockReportScheduler {
+
+  static final Log LOG = LogFactory.getLog(BlockReportScheduler.class);
+
+  /** Weight of the latest report in the moving averages. */
+  private static final double EWMA_ALPHA = 0.2;
+
+  private final int maxPerNamenode;
+  private final long minLease;
+  private final long queueTimeout;
+
+  private static class Assignment {
+    private final long namenodeId;
+    private final long numBlocks;
+    private final long expiry;
+
+    Assignment(long namenodeId, long numBlocks, long expiry) {
+      this.namenodeId = namenodeId;
+      this.numBlocks = numBlocks;
+      this.expiry = expiry;
+    }
+  }
+
+  /** The reports in progress, by storage id of the datanode. */
+  private final Map<String, Assignment> assignments =
+      new HashMap<String, Assignment>();
+  /** The waiting datanodes in the order they first asked, with the time
+   * their place in the queue expires. */
+  private final LinkedHashMap<String, Long> queue =
+      new LinkedHashMap<String, Long>();
+
+  private double avgReportTime = 0;
+  private double avgTimePerBlock = 0;
+
+  BlockReportScheduler(Configuration conf) {
+    maxPerNamenode = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_MAX_CONCURRENT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_MAX_CONCURRENT_DEFAULT);
+    minLease = conf.getLong(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_LEASE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_LEASE_DEFAULT);
+    queueTimeout = conf.getLong(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_QUEUE_TIMEOUT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_QUEUE_TIMEOUT_DEFAULT);
+  }
+
+  synchronized BlockReportSlot requestSlot(String storageId, long numBlocks,
+      List<ActiveNode> namenodes, long now) {
+    return requestSlot(storageId, numBlocks, namenodes, now, false);
+  }
+
+  /**
+   * @param storageId the datanode asking for a slot
+   * @param numBlocks the number of blocks in its last report
+   * @param namenodes the active namenodes
+   * @param now the current time
+   * @param safeMode whether the cluster is in startup safe mode, the
+   * reports are not capped then
+   */
+  synchronized BlockReportSlot requestSlot(String storageId, long numBlocks,
+      List<ActiveNode> namenodes, long now, boolean safeMode) {
+    expire(now);
+    // a datanode only asks again once its previous report is done
+    assignments.remove(storageId);
+
+    if (maxPerNamenode <= 0 || safeMode) {
+      queue.remove(storageId);
+      return grant(storageId, numBlocks, namenodes, now, 0);
+    }
+
+    // a datanode already waiting keeps its position
+    queue.put(storageId, now + queueTimeout);
+    int position = 0;
+    for (String waiting : queue.keySet()) {
+      if (waiting.equals(storageId)) {
+        break;
+      }
+      position++;
+    }
+
+    int totalSlots = maxPerNamenode * namenodes.size();
+    int free = totalSlots - assignments.size();
+    if (position < free) {
+      BlockReportSlot slot =
+          grant(storageId, numBlocks, namenodes, now, maxPerNamenode);
+      if (slot.isGranted()) {
+        queue.remove(storageId);
+        return slot;
+      }
+    }
+    BlockReportSlot slot = BlockReportSlot.waitFor(
+        estimateWait(position - Math.max(free, 0), totalSlots), position);
+    // the datanode does not ask again before the wait is over, keep its
+    // place until then
+    queue.put(storageId, now + slot.getRetryAfter() + queueTimeout);
+    publish(totalSlots);
+    return slot;
+  }
+
+  /**
+   * Frees the slot of a finished report.
+   *
+   * @param processingTime the time the namenode took to process it, in ms
+   */
+  synchronized void reportCompleted(String storageId, long numBlocks,
+      long processingTime) {
+    if (assignments.remove(storageId) == null) {
+      // the lease expired or the slot was handed out by another leader
+      return;
+    }
+    avgReportTime = average(avgReportTime, processingTime);
+    if (numBlocks > 0) {
+      avgTimePerBlock = average(avgTimePerBlock,
+          (double) processingTime / numBlocks);
+    }
+  }
+
+  synchronized int getReportsInProgress() {
+    return assignments.size();
+  }
+
+  synchronized int getQueueLength() {
+    return queue.size();
+  }
+
+  /**
+   * @param limit the reports which may run on a namenode, 0 for no limit
+   */
+  private BlockReportSlot grant(String storageId, long numBlocks,
+      List<ActiveNode> namenodes, long now, int limit) {
+    Map<Long, long[]> load = new HashMap<Long, long[]>();
+    for (ActiveNode namenode : namenodes) {
+      load.put(namenode.getId(), new long[2]);
+    }
+    for (Assignment assignment : assignments.values()) {
+      long[] nnLoad = load.get(assignment.namenodeId);
+      if (nnLoad != null) {
+        nnLoad[0]++;
+        nnLoad[1] += assignment.numBlocks;
+      }
+    }
+
+    ActiveNode target = null;
+    long[] targetLoad = null;
+    for (ActiveNode namenode : namenodes) {
+      long[] nnLoad = load.get(namenode.getId());
+      if (limit > 0 && nnLoad[0] >= limit) {
+        continue;
+      }
+      if (target == null || nnLoad[1] < targetLoad[1]
+          || (nnLoad[1] == targetLoad[1] && nnLoad[0] < targetLoad[0])) {
+        target = namenode;
+        targetLoad = nnLoad;
+      }
+    }
+    if (target == null) {
+      return BlockReportSlot.waitFor(estimateWait(0, assignments.size()), 0);
+    }
+
+    long lease = minLease + 2 * (long) (numBlocks * avgTimePerBlock);
+    assignments.put(storageId,
+        new Assignment(target.getId(), numBlocks, now + lease));
+    publish(maxPerNamenode * namenodes.size());
+    LOG.debug("Block report slot on " + target.getInetSocketAddress() +
+        " for " + storageId + " with " + numBlocks + " blocks");
+    return new BlockReportSlot(target);
+  }
+
+  private void expire(long now) {
+    Iterator<Map.Entry<String, Assignment>> assigned =
+        assignments.entrySet().iterator();
+    while (assigned.hasNext()) {
+      Map.Entry<String, Assignment> entry = assigned.next();
+      if (entry.getValue().expiry < now) {
+        LOG.info("Block report lease of " + entry.getKey() + " expired");
+        assigned.remove();
+      }
+    }
+    Iterator<Long> waiting = queue.values().iterator();
+    while (waiting.hasNext()) {
+      if (waiting.next() < now) {
+        waiting.remove();
+      }
+    }
+  }
+
+  /**
+   * @param ahead the number of datanodes which get a slot before this one
+   * @param totalSlots the number of reports which run at the same time
+   */
+  private long estimateWait(int ahead, int totalSlots) {
+    long rounds = ahead / Math.max(totalSlots, 1) + 1;
+    return rounds * (long) avgReportTime;
+  }
+
+  private void publish(int totalSlots) {
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.setBlockReportsInProgress(assignments.size());
+      metrics.setBlockReportQueueLength(queue.size());
+      metrics.setBlockReportQueueWait(estimateWait(queue.size(), totalSlots));
+    }
+  }
+
+  private static double average(double current, double sample) {
+    return current == 0 ? sample : current + EWMA_ALPHA * (sample - current);
+  }
+}
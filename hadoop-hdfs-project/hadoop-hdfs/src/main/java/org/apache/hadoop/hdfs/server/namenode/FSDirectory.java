@@ -1537,6 +1537,48 @@ DirectoryListing getListing(String src, byte[] startAfter,
     }
   }
 
+  /**
+   * Get a listing of the indicated directory from a page of its children
+   * which was already read into the transaction.
+   *
+   * @param src the directory name
+   * @param children the children to list, sorted by name
+   * @param remainingEntries the number of children following the page
+   * @param needLocation if block locations are returned
+   * @return the listing of the page
+   */
+  DirectoryListing getListing(String src, List<INode> children,
+      int remainingEntries, boolean needLocation)
+      throws UnresolvedLinkException, IOException, StorageException {
+    String srcs = normalizePath(src);
+
+    readLock();
+    try {
+      INode targetNode = getRootDir().getNode(srcs, true);
+      if (targetNode == null)
+        return null;
+
+      if (!targetNode.isDirectory()) {
+        return new DirectoryListing(
+            new HdfsFileStatus[]{createFileStatus(HdfsFileStatus.EMPTY_NAME,
+                targetNode, needLocation)}, 0);
+      }
+      HdfsFileStatus listing[] = new HdfsFileStatus[children.size()];
+      for (int i=0; i<listing.length; i++) {
+        INode cur = children.get(i);
+        listing[i] = createFileStatus(cur.name, cur, needLocation);
+      }
+      return new DirectoryListing(listing, remainingEntries);
+    } finally {
+      readUnlock();
+    }
+  }
+
+  /** @return the maximum number of entries returned by one listing */
+  int getLsLimit() {
+    return lsLimit;
+  }
+
   /** Get the file info for a specific file.
    * @param src The string representation of the path to the file
    * @param resolveLink whether to throw UnresolvedLinkException 
@@ -1773,7 +1815,7 @@ void unprotectedUpdateCount(INode[] inodes, int numOfINodes,
 //    }
      INode iNode = inodes[numOfINodes - 1];
      namesystem.getQuotaUpdateManager().addUpdate(iNode.getId(), nsDelta, dsDelta);
-  }
+   }
   
   /** Return the name of the path represented by inodes at [0, pos] */
   private static String getFullPathName(INode[] inodes, int pos) {
@@ -2153,12 +2195,10 @@ private <T extends INode> T addChild(INode[] pathComponents, int pos,
     }
     //START_HOP_CODE
     if(addedNode != null){
-      if(!addedNode.isDirectory()){
-        INode[] pc = Arrays.copyOf(pathComponents, pathComponents.length);
-        pc[pc.length -1] = addedNode;
-        String path = getFullPathName(pc, pc.length - 1);
-        PathMemcache.getInstance().set(path, pc);
-      }
+      INode[] pc = Arrays.copyOf(pathComponents, pathComponents.length);
+      pc[pc.length -1] = addedNode;
+      String path = getFullPathName(pc, pc.length - 1);
+      PathMemcache.getInstance().set(path, pc);
     }
     //
     return addedNode;
@@ -2188,12 +2228,10 @@ private <T extends INode> T addChild(INode[] pathComponents, int pos, T child,
     }
     //START_HOP_CODE
     if(addedNode != null){
-      if(!addedNode.isDirectory()){
-        INode[] pc = Arrays.copyOf(pathComponents, pathComponents.length);
-        pc[pc.length -1] = addedNode;
-        String path = getFullPathName(pc, pc.length - 1);
-        PathMemcache.getInstance().set(path, pc);
-      }
+      INode[] pc = Arrays.copyOf(pathComponents, pathComponents.length);
+      pc[pc.length -1] = addedNode;
+      String path = getFullPathName(pc, pc.length - 1);
+      PathMemcache.getInstance().set(path, pc);
     }
     //
     return addedNode;
@@ -2243,6 +2281,9 @@ INode removeChild(INode[] pathComponents, int pos, boolean forRename) throws
     } else {
       removedNode = ((INodeDirectory)pathComponents[pos-1]).removeChild(pathComponents[pos]);
     }
+    if (removedNode != null) {
+      PathMemcache.getInstance().invalidate(pathComponents, pos);
+    }
     if (removedNode != null && isQuotaEnabled()) {
       List<QuotaUpdate> outstandingUpdates = (List<QuotaUpdate>)
           EntityManager.findList(QuotaUpdate.Finder.ByInodeId, removedNode.getId());
@@ -2263,26 +2304,60 @@ INode removeChild(INode[] pathComponents, int pos, boolean forRename) throws
   INode removeChildNonRecursively(INode[] pathComponents, int pos) throws
       StorageException, TransactionContextException {
     INode removedNode = ((INodeDirectory)pathComponents[pos-1]).removeChild(pathComponents[pos]);
+    if (removedNode != null) {
+      PathMemcache.getInstance().invalidate(pathComponents, pos);
+    }
     if (removedNode != null && isQuotaEnabled()) {
-      List<QuotaUpdate> outstandingUpdates = (List<QuotaUpdate>)
-          EntityManager.findList(QuotaUpdate.Finder.ByInodeId, removedNode.getId());
-      long nsDelta = 0;
-      long dsDelta = 0;
-      for (QuotaUpdate update : outstandingUpdates) {
-        nsDelta += update.getNamespaceDelta();
-        dsDelta += update.getDiskspaceDelta();
-      }
-      if (removedNode.isDirectory()) {
-        updateCountNoQuotaCheck(pathComponents, pos, -1 + nsDelta, dsDelta);
-      } else {
-        INode.DirCounts counts = new INode.DirCounts();
-        removedNode.spaceConsumedInTree(counts);
-        updateCountNoQuotaCheck(pathComponents, pos, -counts.getNsCount() + nsDelta, -counts.getDsCount() + dsDelta);
+      long[] deltas = getRemovedChildQuotaDeltas(removedNode);
+      updateCountNoQuotaCheck(pathComponents, pos, deltas[0], deltas[1]);
+    }
+    return removedNode;
+  }
+
+  /**
+   * Removes a child whose ancestors were not resolved, as in the batched
+   * delete of a subtree which only locks the parent and its children.
+   *
+   * @param path the full path of the child
+   */
+  INode removeChildNonRecursively(INodeDirectory parent, INode child,
+      String path)
+      throws StorageException, TransactionContextException {
+    INode removedNode = parent.removeChild(child);
+    if (removedNode != null) {
+      PathMemcache.getInstance().invalidate(path);
+      if (isQuotaEnabled()) {
+        long[] deltas = getRemovedChildQuotaDeltas(removedNode);
+        namesystem.getQuotaUpdateManager().addUpdate(parent.getId(),
+            deltas[0], deltas[1]);
       }
     }
     return removedNode;
   }
 
+  /**
+   * @return the namespace and diskspace deltas of removing the node,
+   *         including its quota updates which were not applied yet
+   */
+  private long[] getRemovedChildQuotaDeltas(INode removedNode)
+      throws StorageException, TransactionContextException {
+    List<QuotaUpdate> outstandingUpdates = (List<QuotaUpdate>)
+        EntityManager.findList(QuotaUpdate.Finder.ByInodeId, removedNode.getId());
+    long nsDelta = 0;
+    long dsDelta = 0;
+    for (QuotaUpdate update : outstandingUpdates) {
+      nsDelta += update.getNamespaceDelta();
+      dsDelta += update.getDiskspaceDelta();
+    }
+    if (removedNode.isDirectory()) {
+      return new long[] {-1 + nsDelta, dsDelta};
+    }
+    INode.DirCounts counts = new INode.DirCounts();
+    removedNode.spaceConsumedInTree(counts);
+    return new long[] {-counts.getNsCount() + nsDelta,
+        -counts.getDsCount() + dsDelta};
+  }
+
   private INode removeChild(INode[] pathComponents, int pos, boolean forRename, long nsCount, long dsCount)
       throws
       StorageException, TransactionContextException {
@@ -2292,6 +2367,9 @@ private INode removeChild(INode[] pathComponents, int pos, boolean forRename, lo
     } else {
       removedNode = ((INodeDirectory)pathComponents[pos-1]).removeChild(pathComponents[pos]);
     }
+    if (removedNode != null) {
+      PathMemcache.getInstance().invalidate(pathComponents, pos);
+    }
     if (removedNode != null && isQuotaEnabled()) {
       updateCountNoQuotaCheck(pathComponents, pos, -nsCount, -dsCount);
     }
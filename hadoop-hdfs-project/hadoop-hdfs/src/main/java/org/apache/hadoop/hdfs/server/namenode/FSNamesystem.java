@@ -88,6 +88,8 @@
 import org.apache.hadoop.hdfs.server.namenode.metrics.FSNamesystemMBean;
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.namenode.web.resources.NamenodeWebHdfsMethods;
+import org.apache.hadoop.hdfs.util.LongBitmap;
+import org.apache.hadoop.hdfs.util.LongHashSet;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.HeartbeatResponse;
@@ -135,8 +137,8 @@
 import se.sics.hop.metadata.hdfs.dal.EncodingStatusDataAccess;
 import se.sics.hop.metadata.hdfs.dal.INodeAttributesDataAccess;
 import se.sics.hop.metadata.hdfs.dal.INodeDataAccess;
-import se.sics.hop.metadata.hdfs.dal.SafeBlocksDataAccess;
 import se.sics.hop.transaction.context.EntityContext;
+import se.sics.hop.transaction.context.RowCounters;
 import se.sics.hop.metadata.hdfs.entity.hdfs.ProjectedINode;
 import se.sics.hop.metadata.hdfs.entity.hop.BlockChecksum;
 import se.sics.hop.transaction.EntityManager;
@@ -144,6 +146,7 @@
 import se.sics.hop.transaction.handler.HDFSOperationType;
 import se.sics.hop.transaction.handler.HopsTransactionalRequestHandler;
 import se.sics.hop.transaction.handler.LightWeightRequestHandler;
+import se.sics.hop.transaction.lock.HopsListingINodeLock;
 import se.sics.hop.transaction.lock.HopsLockFactory;
 import se.sics.hop.transaction.lock.SubtreeLockHelper;
 import se.sics.hop.transaction.lock.SubtreeLockedException;
@@ -185,8 +188,10 @@
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -255,6 +260,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_REPLICATION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_EXECUTOR_LIMIT_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_EXECUTOR_LIMIT_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_MAX_INFLIGHT_QUERIES_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_MAX_INFLIGHT_QUERIES_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUPPORT_APPEND_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUPPORT_APPEND_KEY;
 import static org.apache.hadoop.util.Time.now;
@@ -443,11 +450,18 @@ private void logAuditEvent(boolean succeeded,
   private static boolean rowLevelLockEnabled = true;
   private final Configuration conf;
   private final QuotaUpdateManager quotaUpdateManager;
+  private final AccessTimeUpdater accessTimeUpdater;
+  private final RowCountReconciler rowCountReconciler;
   private final boolean legacyDeleteEnabled;
   private final boolean legacyRenameEnabled;
   private final boolean legacyContentSummaryEnabled;
+  private final boolean legacyListingEnabled;
   private final boolean legacySetQuotaEnabled;
   private final ExecutorService subtreeOperationsExecutor;
+  private final boolean subtreeBatchedDeleteEnabled;
+  private final int subtreeDeleteBatchSize;
+  private final int subtreeDeleteBatchRetries;
+  private final int subtreeMaxInflightQueries;
   private final boolean erasureCodingEnabled;
   private final ErasureCodingManager erasureCodingManager;
   //END_HOP_CODE
@@ -589,13 +603,24 @@ public static FSNamesystem loadFromDisk(Configuration conf)
       blockManager.setBlockPoolId(blockPoolId);
       hopSpecificInitialization(conf);
       this.quotaUpdateManager = new QuotaUpdateManager(this, conf);
+      this.accessTimeUpdater = new AccessTimeUpdater(this, conf);
+      this.rowCountReconciler = new RowCountReconciler(this, conf);
       legacyDeleteEnabled = conf.getBoolean(DFS_LEGACY_DELETE_ENABLE_KEY, DFS_LEGACY_DELETE_ENABLE_DEFAULT);
       legacyRenameEnabled = conf.getBoolean(DFS_LEGACY_RENAME_ENABLE_KEY, DFS_LEGACY_RENAME_ENABLE_DEFAULT);
       legacyContentSummaryEnabled = conf.getBoolean(DFS_LEGACY_CONTENT_SUMMARY_ENABLE_KEY, DFS_LEGACY_CONTENT_SUMMARY_ENABLE_DEFAULT);
+      legacyListingEnabled = conf.getBoolean(DFS_LEGACY_LISTING_ENABLE_KEY, DFS_LEGACY_LISTING_ENABLE_DEFAULT);
       legacySetQuotaEnabled = conf.getBoolean(DFS_LEGACY_SET_QUOTA_ENABLE_KEY, DFS_LEGACY_SET_QUOTA_ENABLE_DEFAULT);
       subtreeOperationsExecutor = Executors.newFixedThreadPool(
           conf.getInt(DFS_SUBTREE_EXECUTOR_LIMIT_KEY,
           DFS_SUBTREE_EXECUTOR_LIMIT_DEFAULT));
+      subtreeBatchedDeleteEnabled = conf.getBoolean(DFS_SUBTREE_BATCHED_DELETE_ENABLE_KEY,
+          DFS_SUBTREE_BATCHED_DELETE_ENABLE_DEFAULT);
+      subtreeDeleteBatchSize = conf.getInt(DFS_SUBTREE_DELETE_BATCH_SIZE_KEY,
+          DFS_SUBTREE_DELETE_BATCH_SIZE_DEFAULT);
+      subtreeDeleteBatchRetries = conf.getInt(DFS_SUBTREE_DELETE_BATCH_RETRIES_KEY,
+          DFS_SUBTREE_DELETE_BATCH_RETRIES_DEFAULT);
+      subtreeMaxInflightQueries = Math.max(1, conf.getInt(DFS_SUBTREE_MAX_INFLIGHT_QUERIES_KEY,
+          DFS_SUBTREE_MAX_INFLIGHT_QUERIES_DEFAULT));
       //END_HOP_CODE
       
       LOG.info("fsOwner             = " + fsOwner);
@@ -791,6 +816,12 @@ void startCommonServices(Configuration conf, HAContext haContext) throws IOExcep
       if (dir.isQuotaEnabled()) {
         quotaUpdateManager.activate();
       }
+      if (isAccessTimeSupported()) {
+        accessTimeUpdater.activate();
+      }
+      if (RowCounters.getInstance().isEnabled()) {
+        rowCountReconciler.activate();
+      }
     } finally {
       writeUnlock();
     }
@@ -808,6 +839,8 @@ void stopCommonServices() {
     try {
       if (blockManager != null) blockManager.close();
       if (quotaUpdateManager != null) quotaUpdateManager.close();
+      if (accessTimeUpdater != null) accessTimeUpdater.close();
+      if (rowCountReconciler != null) rowCountReconciler.close();
     } finally {
       writeUnlock();
     }
@@ -1397,7 +1430,7 @@ LocatedBlocks getBlockLocations(final String clientMachine, final String src,
           @Override
           public void acquireLock(TransactionLocks locks) throws IOException {
             HopsLockFactory lf = getInstance();
-            locks.add(lf.getINodeLock(nameNode, INodeLockType.WRITE, INodeResolveType.PATH, src))
+            locks.add(lf.getINodeLock(nameNode, INodeLockType.READ, INodeResolveType.PATH, src))
                 .add(lf.getBlockLock())
                 .add(lf.getBlockRelated(BLK.RE, BLK.ER, BLK.CR, BLK.UC));
           }
@@ -1518,8 +1551,9 @@ private LocatedBlocks getBlockLocationsInt(FSPermissionChecker pc,
   }
 
   /*
-   * Get block locations within the specified range, updating the
-   * access times if necessary. 
+   * Get block locations within the specified range, recording the access
+   * time if necessary. The access time is written later by the
+   * AccessTimeUpdater, so that reads do not need a write lock on the inode.
    */
   private LocatedBlocks getBlockLocationsUpdateTimes(String src,
                                                        long offset, 
@@ -1528,45 +1562,30 @@ private LocatedBlocks getBlockLocationsUpdateTimes(String src,
                                                        boolean needBlockToken)
       throws FileNotFoundException, UnresolvedLinkException, IOException,
       StorageException {
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
 
-    for (int attempt = 0; attempt < 2; attempt++) {
-      if (attempt == 0) { // first attempt is with readlock
-        readLock();
-      }  else { // second attempt is with  write lock
-        writeLock(); // writelock is needed to set accesstime
+      // if the namenode is in safemode, then do not update access time
+      if (isInSafeMode()) {
+        doAccessTime = false;
       }
-      try {
-        checkOperation(OperationCategory.READ);
-
-        // if the namenode is in safemode, then do not update access time
-        if (isInSafeMode()) {
-          doAccessTime = false;
-        }
 
-        long now = now();
-        final INodeFile inode = INodeFile.valueOf(dir.getINode(src), src);
-        if (doAccessTime && isAccessTimeSupported()) {
-          if (now <= inode.getAccessTime() + getAccessTimePrecision()) {
-            // if we have to set access time but we only have the readlock, then
-            // restart this entire operation with the writeLock.
-            if (attempt == 0) {
-              continue;
-            }
-          }
-          dir.setTimes(src, inode, -1, now, false);
-        }
-        return blockManager.createLocatedBlocks(inode.getBlocks(),
-            inode.computeFileSize(false), inode.isUnderConstruction(),
-            offset, length, needBlockToken);
-      } finally {
-        if (attempt == 0) {
-          readUnlock();
-        } else {
-          writeUnlock();
+      long now = now();
+      final INodeFile inode = INodeFile.valueOf(dir.getINode(src), src);
+      if (doAccessTime && isAccessTimeSupported()) {
+        // if the last access time update was within the last precision
+        // interval, then no need to store access time
+        if (now > inode.getAccessTime() + getAccessTimePrecision()) {
+          accessTimeUpdater.record(inode, now);
         }
       }
+      return blockManager.createLocatedBlocks(inode.getBlocks(),
+          inode.computeFileSize(false), inode.isUnderConstruction(),
+          offset, length, needBlockToken);
+    } finally {
+      readUnlock();
     }
-    return null; // can never reach here
   }
 
   /**
@@ -4044,6 +4063,42 @@ public Object performTask() throws IOException {
   DirectoryListing getListing(final String src, final byte[] startAfter,
       final boolean needLocation)
       throws AccessControlException, UnresolvedLinkException, IOException {
+    if (legacyListingEnabled) {
+      return legacyGetListing(src, startAfter, needLocation);
+    }
+    HopsTransactionalRequestHandler getListingHandler =
+        new HopsTransactionalRequestHandler(HDFSOperationType.GET_LISTING,
+            src) {
+          private HopsListingINodeLock listingLock;
+
+          @Override
+          public void acquireLock(TransactionLocks locks) throws IOException {
+            HopsLockFactory lf = HopsLockFactory.getInstance();
+            listingLock = lf.getListingINodeLock(nameNode, INodeLockType.READ,
+                src, startAfter, dir.getLsLimit());
+            locks.add(listingLock).add(lf.getBlockLock());
+            if (needLocation) {
+              locks.add(lf.getBlockRelated(BLK.RE, BLK.ER, BLK.CR, BLK.UC));
+            }
+          }
+
+          @Override
+          public Object performTask() throws IOException {
+            try {
+              return getListingInt(src, startAfter, listingLock.getChildren(),
+                  listingLock.getRemainingEntries(), needLocation);
+            } catch (AccessControlException e) {
+              logAuditEvent(false, "listStatus", src);
+              throw e;
+            }
+          }
+        };
+    return (DirectoryListing) getListingHandler.handle(this);
+  }
+
+  private DirectoryListing legacyGetListing(final String src,
+      final byte[] startAfter, final boolean needLocation)
+      throws AccessControlException, UnresolvedLinkException, IOException {
     HopsTransactionalRequestHandler getListingHandler =
         new HopsTransactionalRequestHandler(HDFSOperationType.GET_LISTING,
             src) {
@@ -4059,7 +4114,7 @@ public void acquireLock(TransactionLocks locks) throws IOException {
           @Override
           public Object performTask() throws IOException {
             try {
-              return getListingInt(src, startAfter, needLocation);
+              return getListingInt(src, startAfter, null, 0, needLocation);
             } catch (AccessControlException e) {
               logAuditEvent(false, "listStatus", src);
               throw e;
@@ -4069,8 +4124,12 @@ public Object performTask() throws IOException {
     return (DirectoryListing) getListingHandler.handle(this);
   }
 
+  /**
+   * Lists src either from startAfter or, if children is not null, from the
+   * page of children resolved by the {@link HopsListingINodeLock}.
+   */
   private DirectoryListing getListingInt(String src, byte[] startAfter,
-      boolean needLocation) 
+      List<INode> children, int remainingEntries, boolean needLocation)
     throws AccessControlException, UnresolvedLinkException, IOException,
       StorageException {
     DirectoryListing dl;
@@ -4087,7 +4146,11 @@ private DirectoryListing getListingInt(String src, byte[] startAfter,
         }
       }
       logAuditEvent(true, "listStatus", src);
-      dl = dir.getListing(src, startAfter, needLocation);
+      if (children == null) {
+        dl = dir.getListing(src, startAfter, needLocation);
+      } else {
+        dl = dir.getListing(src, children, remainingEntries, needLocation);
+      }
     } finally {
       readUnlock();
     }
@@ -4522,7 +4585,14 @@ class SafeModeInfo {
     
     //HOP_START_CODE
     public ThreadLocal<Boolean> safeModePendingOperation = new ThreadLocal<Boolean>();
-   // private final Set<Long> safeBlocks = new HashSet<Long>();
+    /**
+     * The blocks reported safe to this namenode. During startup safe mode
+     * the leader processes all full and incremental block reports, so it
+     * alone counts the safe blocks, in memory instead of one row per block
+     * in the database. A new leader rebuilds the set from new full reports,
+     * see {@link #rebuildSafeBlocks()}.
+     */
+    private final LongBitmap safeBlocks = new LongBitmap();
     //HOP_END_CODE
     
     /**
@@ -4634,8 +4704,9 @@ private void leave() throws IOException {
       
       Variables.exitClusterSafeMode();
       Variables.resetMisReplicatedIndex();
-      //safeBlocks.clear();
-      clearSafeBlocks();
+      synchronized (safeBlocks) {
+        safeBlocks.clear();
+      }
     }
     
     private void leaveInternal() throws IOException{
@@ -4793,7 +4864,9 @@ private void incrementSafeBlockCount(Block blk) throws IOException {
 //      if (replication == safeReplication) {
 //        this.blockSafe++;
 //HOP        checkMode();
-        addSafeBlock(blk.getBlockId());
+        synchronized (safeBlocks) {
+          safeBlocks.add(blk.getBlockId());
+        }
         setSafeModePendingOperation(true);
      // }
     }
@@ -4808,7 +4881,9 @@ private void decrementSafeBlockCount(Block blk, short replication) throws IOExce
 //        this.blockSafe--;
 //        assert blockSafe >= 0 || isManual();
 //HOP        checkMode();
-        removeSafeBlock(blk.getBlockId());
+        synchronized (safeBlocks) {
+          safeBlocks.remove(blk.getBlockId());
+        }
         setSafeModePendingOperation(true);
       }
     }
@@ -4989,10 +5064,15 @@ private void setSafeModePendingOperation(Boolean val){
     }
     
     //HOP
-    private void adjustSafeBlocks(Set<Long> safeBlocks) throws IOException {
-      int lastSafeBlockSize = blockSafe();
-      addSafeBlocks(safeBlocks);
-      int newSafeBlockSize = blockSafe();
+    private void adjustSafeBlocks(LongHashSet reportedSafeBlocks)
+        throws IOException {
+      int lastSafeBlockSize;
+      int newSafeBlockSize;
+      synchronized (safeBlocks) {
+        lastSafeBlockSize = (int) safeBlocks.size();
+        safeBlocks.addAll(reportedSafeBlocks.toArray());
+        newSafeBlockSize = (int) safeBlocks.size();
+      }
       //if (LOG.isDebugEnabled()) {
         LOG.error("xxx: Adjusting safe blocks from "
                 + lastSafeBlockSize + "/" + blockTotal + " to "
@@ -5018,7 +5098,23 @@ private void performSafeModePendingOperation() throws IOException {
     }
     
     int blockSafe() throws IOException{
-      return getBlockSafe();
+      synchronized (safeBlocks) {
+        return (int) safeBlocks.size();
+      }
+    }
+
+    /**
+     * Called when this namenode becomes the leader. The blocks counted by
+     * the previous leader are lost with it, so the count starts over and
+     * every datanode is asked for a new full block report.
+     */
+    private void rebuildSafeBlocks() {
+      synchronized (safeBlocks) {
+        safeBlocks.clear();
+      }
+      NameNode.stateChangeLog.info("STATE* Counting the safe blocks again"
+          + " after becoming the leader in safe mode");
+      blockManager.getDatanodeManager().requestBlockReports();
     }
   }
     
@@ -5181,7 +5277,7 @@ public void setBlockTotal() throws IOException {
   @Override // FSNamesystemMBean
   @Metric
   public long getBlocksTotal() throws IOException{
-    return blockManager.getTotalBlocks();
+    return blockManager.getApproximateTotalBlocks();
   }
 
   /**
@@ -5454,7 +5550,7 @@ private void checkPermission(FSPermissionChecker pc,
    */
   void checkFsObjectLimit() throws IOException, StorageException {
     if (maxFsObjects != 0 &&
-        maxFsObjects <= dir.totalInodes() + getBlocksTotal()) {
+        maxFsObjects <= dir.totalInodes() + blockManager.getTotalBlocks()) {
       throw new IOException("Exceeded the configured number of objects " +
                              maxFsObjects + " in the filesystem.");
     }
@@ -6444,6 +6540,10 @@ public String getLiveNodes() throws IOException{
       innerinfo.put("nonDfsUsedSpace", node.getNonDfsUsed());
       innerinfo.put("capacity", node.getCapacity());
       innerinfo.put("numBlocks", node.numBlocks());
+      innerinfo.put("lastBlockReportProcessingTime",
+          node.getLastBlockReportProcessingTime());
+      innerinfo.put("lastBlockReportBlocksPerSec",
+          node.getLastBlockReportBlocksPerSec());
       info.put(node.getHostName(), innerinfo);
     }
     return JSON.toString(info);
@@ -6667,8 +6767,14 @@ public void setNameNodeId(long nameNodeId) {
   }
   
   public void setNameNodeRole(NamenodeRole role) {
+    boolean becameLeader = role == NamenodeRole.LEADER && !isLeader();
     this.nameNodeRole = role;
     blockManager.updateLeaderState(nameNodeRole == NamenodeRole.LEADER);
+    // safeMode is volatile, and may be set to null at any time
+    SafeModeInfo safeMode = this.safeMode;
+    if (becameLeader && safeMode != null && !safeMode.isManual()) {
+      safeMode.rebuildSafeBlocks();
+    }
   }
   
   public String getSupergroup() {
@@ -6856,8 +6962,22 @@ private boolean deleteChildrenIncrementally(LinkedList<FNode> toBeDeleted, final
     return true;
   }
   
+  /**
+   * During startup safe mode the leader alone counts the safe blocks, so
+   * the other namenodes turn the incremental block reports away and the
+   * datanodes send them to the leader.
+   */
+  void checkLeaderInStartupSafeMode(DatanodeID nodeID) throws IOException {
+    // safeMode is volatile, and may be set to null at any time
+    SafeModeInfo safeMode = this.safeMode;
+    if (safeMode != null && !isLeader() && isInStartupSafeMode()) {
+      throw new SafeModeException("Incremental block report from " + nodeID
+          + " has to be sent to the leader", safeMode);
+    }
+  }
+
   @Override
-  public void adjustSafeModeBlocks(Set<Long> safeBlocks) throws IOException {
+  public void adjustSafeModeBlocks(LongHashSet safeBlocks) throws IOException {
     // safeMode is volatile, and may be set to null at any time
     SafeModeInfo safeMode = this.safeMode;
     if (safeMode == null)
@@ -6873,55 +6993,6 @@ public String getFilePathAncestorLockType(){
     return conf.get(DFSConfigKeys.DFS_STORAGE_ANCESTOR_LOCK_TYPE, DFSConfigKeys.DFS_STORAGE_ANCESTOR_LOCK_TYPE_DEFAULT);
   }
   
-   private void addSafeBlock(final Long safeBlock) throws IOException {
-     Set<Long> safeBlocks = new HashSet<Long>();
-     safeBlocks.add(safeBlock);
-     addSafeBlocks(safeBlocks);
-  }
-  
-  private void removeSafeBlock(final Long safeBlock) throws IOException {
-    new LightWeightRequestHandler(HDFSOperationType.REMOVE_SAFE_BLOCKS) {
-      @Override
-      public Object performTask() throws StorageException, IOException {
-        SafeBlocksDataAccess da = (SafeBlocksDataAccess) StorageFactory.getDataAccess(SafeBlocksDataAccess.class);
-        da.remove(safeBlock);
-        return null;
-      }
-    };
-  }
-   
-  private void addSafeBlocks(final Set<Long> safeBlocks) throws IOException {
-    new LightWeightRequestHandler(HDFSOperationType.ADD_SAFE_BLOCKS) {
-      @Override
-      public Object performTask() throws StorageException, IOException {
-        SafeBlocksDataAccess da = (SafeBlocksDataAccess) StorageFactory.getDataAccess(SafeBlocksDataAccess.class);
-        da.insert(safeBlocks);
-        return null;
-      }
-    }.handle();
-  }
-
-  private int getBlockSafe() throws IOException {
-    return (Integer) new LightWeightRequestHandler(HDFSOperationType.GET_SAFE_BLOCKS_COUNT) {
-      @Override
-      public Object performTask() throws StorageException, IOException {
-        SafeBlocksDataAccess da = (SafeBlocksDataAccess) StorageFactory.getDataAccess(SafeBlocksDataAccess.class);
-        return da.countAll();
-      }
-    }.handle();
-  }
-  
-  private void clearSafeBlocks() throws IOException {
-    new LightWeightRequestHandler(HDFSOperationType.CLEAR_SAFE_BLOCKS) {
-      @Override
-      public Object performTask() throws StorageException, IOException {
-        SafeBlocksDataAccess da = (SafeBlocksDataAccess) StorageFactory.getDataAccess(SafeBlocksDataAccess.class);
-        da.removeAll();
-        return null;
-      }
-    }.handle();
-  }
-
   private boolean isClusterInSafeMode() throws IOException {
     return Variables.isClusterInSafeMode();
   }
@@ -7306,17 +7377,175 @@ private boolean multiTransactionalDeleteInternal(final String path, final boolea
         throw new IOException(path + " is non empty");
       }
 
+      long startTime = now();
       for (int i = fileTree.getHeight(); i>0; i--) {
-        if (deleteTreeLevel(path, fileTree, i) == false) {
+        boolean levelDeleted;
+        if (subtreeBatchedDeleteEnabled && i > FileTree.ROOT_LEVEL) {
+          levelDeleted = deleteTreeLevelBatched(path, fileTree, i);
+        } else {
+          levelDeleted = deleteTreeLevel(path, fileTree, i);
+        }
+        if (levelDeleted == false) {
           return false;
         }
       }
+      logSubtreeDeleteRate(path, fileTree.getAll().size(), now() - startTime);
     } finally {
       unlockSubtree(path);
     }
     return true;
   }
 
+  private void logSubtreeDeleteRate(String path, int inodesDeleted,
+      long elapsedTime) {
+    if (LOG.isInfoEnabled()) {
+      long rate = elapsedTime > 0 ? inodesDeleted * 1000L / elapsedTime :
+          inodesDeleted;
+      LOG.info("Deleted " + inodesDeleted + " inodes under " + path + " in " +
+          elapsedTime + " ms (" + rate + " inodes/sec" +
+          (subtreeBatchedDeleteEnabled ? ", batch size " +
+              subtreeDeleteBatchSize : "") + ")");
+    }
+  }
+
+  /**
+   * Deletes all inodes of one level of the subtree. Siblings are grouped by
+   * their parent and removed in transactions of at most
+   * {@link #subtreeDeleteBatchSize} inodes, which take batched locks on the
+   * parent, the children and all their block related rows. Each batch is
+   * retried up to {@link #subtreeDeleteBatchRetries} times.
+   */
+  private boolean deleteTreeLevelBatched(String subtreeRootPath,
+      final FileTree fileTree, int level) {
+    Map<Integer, List<ProjectedINode>> inodesByParent =
+        new HashMap<Integer, List<ProjectedINode>>();
+    for (ProjectedINode inode : fileTree.getInodesByLevel(level)) {
+      List<ProjectedINode> siblings = inodesByParent.get(inode.getParentId());
+      if (siblings == null) {
+        siblings = new ArrayList<ProjectedINode>();
+        inodesByParent.put(inode.getParentId(), siblings);
+      }
+      siblings.add(inode);
+    }
+
+    ArrayList<Future> barrier = new ArrayList<Future>();
+    for (Map.Entry<Integer, List<ProjectedINode>> entry :
+        inodesByParent.entrySet()) {
+      final ProjectedINode parent = fileTree.getInodeById(entry.getKey());
+      final String parentPath =
+          fileTree.createAbsolutePath(subtreeRootPath, parent);
+      final List<ProjectedINode> siblings = entry.getValue();
+      for (int start = 0; start < siblings.size();
+           start += subtreeDeleteBatchSize) {
+        int end = Math.min(start + subtreeDeleteBatchSize, siblings.size());
+        final List<ProjectedINode> batch = siblings.subList(start, end);
+        barrier.add(subtreeOperationsExecutor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            IOException lastException = null;
+            for (int i = 0; i <= subtreeDeleteBatchRetries; i++) {
+              try {
+                return deleteSiblingsBatch(parent, parentPath, batch);
+              } catch (IOException e) {
+                lastException = e;
+                LOG.warn("Batched delete of " + batch.size() + " children of " +
+                    parent.getName() + " failed. Attempt " + (i + 1) +
+                    " of " + (subtreeDeleteBatchRetries + 1), e);
+              }
+            }
+            throw lastException;
+          }
+        }));
+      }
+    }
+
+    boolean result = true;
+    for (Future f : barrier) {
+      try {
+        if (((Boolean) f.get()) == false) {
+          result = false;
+        }
+      } catch (Exception e) {
+        result = false;
+        LOG.error("Exception was thrown during partial delete", e);
+      }
+    }
+    return result;
+  }
+
+  private boolean deleteSiblingsBatch(final ProjectedINode parent,
+      final String parentPath, final List<ProjectedINode> children) throws IOException {
+    final List<INodeIdentifier> inodeIdentifiers =
+        new ArrayList<INodeIdentifier>(children.size() + 1);
+    inodeIdentifiers.add(toINodeIdentifier(parent));
+    for (ProjectedINode child : children) {
+      inodeIdentifiers.add(toINodeIdentifier(child));
+    }
+
+    HopsTransactionalRequestHandler deleteHandler =
+        new HopsTransactionalRequestHandler(
+            HDFSOperationType.SUBTREE_BATCHED_DELETE) {
+          @Override
+          public void acquireLock(TransactionLocks locks) throws IOException {
+            HopsLockFactory lf = HopsLockFactory.getInstance();
+            locks.add(lf.getBatchedINodesLock(INodeLockType.WRITE,
+                inodeIdentifiers))
+                .add(lf.getLeaseLock(LockType.WRITE))
+                .add(lf.getLeasePathLock(LockType.WRITE))
+                .add(lf.getSqlBatchedBlocksLock())
+                .add(lf.getSqlBatchedBlocksRelated(BLK.RE, BLK.CR, BLK.UC,
+                    BLK.UR, BLK.PE, BLK.IV));
+            if (dir.isQuotaEnabled()) {
+              locks.add(lf.getQuotaUpdateLock());
+            }
+            if (erasureCodingEnabled) {
+              locks.add(lf.getBatchedEncodingStatusLock(LockType.WRITE));
+            }
+          }
+
+          @Override
+          public Object performTask() throws IOException {
+            INode parentNode =
+                EntityManager.find(INode.Finder.ByINodeID, parent.getId());
+            if (parentNode == null) {
+              LOG.error("Parent INode disappeared during deletion");
+              return false;
+            }
+
+            int deleted = 0;
+            ArrayList<Block> collectedBlocks = new ArrayList<Block>();
+            for (ProjectedINode child : children) {
+              INode inode =
+                  EntityManager.find(INode.Finder.ByINodeID, child.getId());
+              if (inode == null) {
+                // Already deleted by a previous attempt of this batch
+                continue;
+              }
+              dir.removeChildNonRecursively((INodeDirectory) parentNode, inode,
+                  parentPath + Path.SEPARATOR + inode.getLocalName());
+              deleted++;
+
+              if (inode instanceof INodeFile) {
+                ((INodeFile) inode).collectSubtreeBlocksAndClear(
+                    collectedBlocks);
+              }
+            }
+            removeBlocks(collectedBlocks);
+            parentNode.setModificationTime(now());
+            NameNode.getNameNodeMetrics().incrFilesDeleted(deleted);
+            return true;
+          }
+        };
+    return (Boolean) deleteHandler.handle(this);
+  }
+
+  private static INodeIdentifier toINodeIdentifier(ProjectedINode inode) {
+    INodeIdentifier inodeIdentifier = new INodeIdentifier(inode.getId());
+    inodeIdentifier.setName(inode.getName());
+    inodeIdentifier.setPid(inode.getParentId());
+    return inodeIdentifier;
+  }
+
   private boolean deleteTreeLevel(final String subtreeRootPath,
       final FileTree fileTree, int level) {
     ArrayList<Future> barrier = new ArrayList<Future>();
@@ -7492,33 +7721,48 @@ public BuildingUpFileTreeFailedException(Throwable cause) {
   @VisibleForTesting
   abstract class AbstractFileTree {
     private final int subtreeRootId;
-    private final List<Future> activeCollectors = new ArrayList<Future>();
     private final FsAction subAccess;
     private volatile IOException exception;
 
-    private class ChildCollector implements Runnable {
-      private final int parentId;
+    /**
+     * A directory of the tree whose children still need to be collected.
+     */
+    private class Parent {
+      private final int id;
       private final int level;
-      private boolean quotaEnabledBranch;
+      private final boolean quotaEnabledBranch;
 
-      private ChildCollector(int parentId, int level, boolean quotaEnabledBranch) {
-        this.parentId = parentId;
+      private Parent(int id, int level, boolean quotaEnabledBranch) {
+        this.id = id;
         this.level = level;
         this.quotaEnabledBranch = quotaEnabledBranch;
       }
+    }
+
+    /**
+     * Collects the children of one directory, and returns its child
+     * directories.
+     */
+    private class ChildCollector implements Callable<List<Parent>> {
+      private final Parent parent;
+
+      private ChildCollector(Parent parent) {
+        this.parent = parent;
+      }
 
       @Override
-      public void run() {
+      public List<Parent> call() {
+        final List<Parent> childDirs = new ArrayList<Parent>();
         LightWeightRequestHandler handler = new LightWeightRequestHandler(HDFSOperationType.GET_CHILD_INODES) {
           @Override
           public Object performTask() throws StorageException, IOException {
             INodeDataAccess<INode> dataAccess = (INodeDataAccess) StorageFactory.getDataAccess(INodeDataAccess.class);
-            List<ProjectedINode> children = dataAccess.findInodesForSubtreeOperationsWithReadLock(parentId);
+            List<ProjectedINode> children = dataAccess.findInodesForSubtreeOperationsWithReadLock(parent.id);
             for (ProjectedINode child : children) {
               if (isPermissionEnabled && subAccess != null) {
                 checkAccess(child, subAccess);
               }
-              addChildNode(level, child, quotaEnabledBranch);
+              addChildNode(parent.level, child, parent.quotaEnabledBranch);
             }
 
             if (exception != null) {
@@ -7536,9 +7780,8 @@ public Object performTask() throws StorageException, IOException {
                 return null;
               }
               if (inode.isDirectory()) {
-                synchronized (activeCollectors) {
-                  collectChildren(inode.getId(), level + 1, inode.isDirWithQuota());
-                }
+                childDirs.add(new Parent(inode.getId(), parent.level + 1,
+                    inode.isDirWithQuota()));
               }
             }
             return null;
@@ -7550,6 +7793,7 @@ public Object performTask() throws StorageException, IOException {
         } catch (IOException e) {
           setExceptionIfNull(e);
         }
+        return childDirs;
       }
     }
 
@@ -7562,6 +7806,13 @@ public AbstractFileTree(int subtreeRootId, FsAction subAccess) {
       this.subAccess = subAccess;
     }
 
+    /**
+     * Builds the tree by collecting the children of every directory in a
+     * task of its own. The child directories are submitted as soon as their
+     * parent is collected, and at most subtreeMaxInflightQueries tasks run at
+     * the same time. The tree still costs one index scan per directory, the
+     * DAL has no finder that reads the children of several parents at once.
+     */
     public void buildUp() throws IOException {
       INode subtreeRoot = readSubtreeRoot();
       if (subtreeRoot.isDirectory() == false) {
@@ -7569,34 +7820,48 @@ public void buildUp() throws IOException {
       }
 
       boolean quotaEnabled = subtreeRoot instanceof INodeDirectoryWithQuota? true : false;
-      collectChildren(subtreeRootId, 2, quotaEnabled);
-      while (true) {
-        Future future;
-        synchronized (activeCollectors) {
-          if (activeCollectors.size() == 0) {
-            break;
+      CompletionService<List<Parent>> collectors =
+          new ExecutorCompletionService<List<Parent>>(subtreeOperationsExecutor);
+      LinkedList<Parent> pending = new LinkedList<Parent>();
+      pending.add(new Parent(subtreeRootId, 2, quotaEnabled));
+      int inflight = 0;
+      try {
+        while (true) {
+          while (!pending.isEmpty() && inflight < subtreeMaxInflightQueries
+              && exception == null) {
+            collectors.submit(new ChildCollector(pending.removeFirst()));
+            inflight++;
           }
-          future = activeCollectors.remove(0);
-        }
-        try {
-          future.get();
-        } catch (InterruptedException e) {
-          LOG.info("FileTree builder was interrupted");
-          throw new BuildingUpFileTreeFailedException("Building the up the file tree was interrupted.");
-        } catch (ExecutionException e) {
-          if (e.getCause() instanceof RuntimeException) {
-            throw new RuntimeException(e.getCause());
-          } else {
-            // This should not happen as it is a Runnable
-            LOG.warn("FileTree.buildUp received an unexpected execution exception", e);
+          if (inflight == 0) {
+            break;
           }
+          pending.addAll(takeCollected(collectors));
+          inflight--;
         }
+      } catch (InterruptedException e) {
+        LOG.info("FileTree builder was interrupted");
+        throw new BuildingUpFileTreeFailedException("Building the up the file tree was interrupted.");
       }
       if (exception != null) {
         throw exception;
       }
     }
 
+    private List<Parent> takeCollected(CompletionService<List<Parent>> collectors)
+        throws InterruptedException {
+      try {
+        return collectors.take().get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw new RuntimeException(e.getCause());
+        } else {
+          // This should not happen as the collectors handle their IOExceptions
+          LOG.warn("FileTree.buildUp received an unexpected execution exception", e);
+          return Collections.emptyList();
+        }
+      }
+    }
+
     protected synchronized void setExceptionIfNull(IOException e) {
       if (exception == null) {
         exception = e;
@@ -7640,10 +7905,6 @@ public Object performTask() throws StorageException, IOException {
         }
       }.handle(this);
     }
-
-    private void collectChildren(int parentId, int level, boolean quotaEnabledBranch) {
-      activeCollectors.add(subtreeOperationsExecutor.submit(new ChildCollector(parentId, level, quotaEnabledBranch)));
-    }
   }
 
   /**
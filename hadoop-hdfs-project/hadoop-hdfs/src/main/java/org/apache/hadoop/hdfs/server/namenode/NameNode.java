@@ -43,7 +43,9 @@
 import org.apache.hadoop.hdfs.server.namenode.ha.HAState;
 import org.apache.hadoop.hdfs.server.namenode.ha.StandbyState;
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.JournalProtocol;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
@@ -61,6 +63,7 @@
 import org.apache.hadoop.util.ExitUtil.ExitException;
 import org.apache.hadoop.util.ServicePlugin;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
 import se.sics.hop.exception.StorageException;
 import se.sics.hop.exception.StorageInitializtionException;
 import se.sics.hop.leaderElection.LeaderElection;
@@ -82,6 +85,7 @@
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -322,6 +326,7 @@ public long getProtocolVersion(String protocol,
     private Object leaderSyncObj = new Object();
     protected LeaderElection leaderElection;
     private SortedActiveNodeList nnList = null;
+    private BlockReportScheduler blockReportScheduler;
     //END_HOP_CODE
 
     /**
@@ -519,6 +524,8 @@ protected void initialize(Configuration conf) throws IOException {
         rpcServer = createRpcServer(conf);
 
     //START_HOP_CODE
+      blockReportScheduler = new BlockReportScheduler(conf);
+
         // Initialize the leader election algorithm (only once rpc server is created)
       long leadercheckInterval = conf.getInt(
               DFSConfigKeys.DFS_LEADER_CHECK_INTERVAL_IN_MS_KEY,
@@ -1690,7 +1697,7 @@ public SortedActiveNodeList getActiveNamenodes(){
     protected volatile int nnIndex = 0;
 
     public ActiveNode getNextNamenodeToSendBlockReport() throws IOException {
-        List<ActiveNode> allNodes = getActiveNamenodes().getActiveNodes();//((SortedActiveNamenodeList) selectAllNameNodesHandler.handle()).getActiveNamenodes();
+        List<ActiveNode> allNodes = getBlockReportNamenodes();
         if (this.isLeader()) {
             // Use the modulo to roundrobin b/w namenodes
             nnIndex = ++nnIndex % allNodes.size();
@@ -1698,14 +1705,49 @@ public ActiveNode getNextNamenodeToSendBlockReport() throws IOException {
             //LOG.debug("Returning "+ann.getIpAddress()+" for Next Block report");
             return ann;
         } else {
-            // random allocation of NN
-            Random rand = new Random();
-            rand.setSeed(System.currentTimeMillis());
-            ActiveNode ann = allNodes.get(rand.nextInt(allNodes.size()));
-            LOG.debug("XXX Returning " + ann.getIpAddress() + " for Next Block report");
-            return ann;
+            return getRandomNamenode(allNodes);
+        }
+    }
+
+    public BlockReportSlot requestBlockReportSlot(
+            DatanodeRegistration nodeReg, long numBlocks) throws IOException {
+        List<ActiveNode> allNodes = getBlockReportNamenodes();
+        if (this.isLeader()) {
+            // the leader spreads the reports over the namenodes by load
+            BlockReportSlot slot = blockReportScheduler.requestSlot(
+                    nodeReg.getStorageID(), numBlocks, allNodes, Time.now(),
+                    namesystem.isInStartupSafeMode());
+            LOG.debug("Block report of " + nodeReg + ": " + slot);
+            return slot;
+        } else {
+            return new BlockReportSlot(getRandomNamenode(allNodes));
         }
     }
+
+    private List<ActiveNode> getBlockReportNamenodes() {
+        SortedActiveNodeList activeNodes = getActiveNamenodes();
+        if (namesystem.isInStartupSafeMode() && activeNodes.getLeader() != null) {
+            // the leader counts the safe blocks in memory, so it processes
+            // all the reports until the cluster leaves safe mode
+            return Collections.singletonList(activeNodes.getLeader());
+        }
+        return activeNodes.getActiveNodes();//((SortedActiveNamenodeList) selectAllNameNodesHandler.handle()).getActiveNamenodes();
+    }
+
+    private ActiveNode getRandomNamenode(List<ActiveNode> allNodes) {
+        // random allocation of NN
+        Random rand = new Random();
+        rand.setSeed(System.currentTimeMillis());
+        ActiveNode ann = allNodes.get(rand.nextInt(allNodes.size()));
+        LOG.debug("XXX Returning " + ann.getIpAddress() + " for Next Block report");
+        return ann;
+    }
+
+    public void blockReportCompleted(DatanodeRegistration nodeReg,
+            long numBlocks, long processingTime) {
+        blockReportScheduler.reportCompleted(nodeReg.getStorageID(),
+                numBlocks, processingTime);
+    }
     
     private static void safeModeTmpFix(Configuration conf) throws StorageInitializtionException, StorageException, IOException{
       StorageFactory.setConfiguration(conf);
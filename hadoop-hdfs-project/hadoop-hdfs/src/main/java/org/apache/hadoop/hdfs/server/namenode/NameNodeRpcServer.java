@@ -90,6 +90,7 @@
 import org.apache.hadoop.hdfs.server.namenode.NameNode.OperationCategory;
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.namenode.web.resources.NamenodeWebHdfsMethods;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
@@ -963,6 +964,7 @@ public DatanodeCommand blockReport(DatanodeRegistration nodeReg,
   public void blockReceivedAndDeleted(DatanodeRegistration nodeReg, String poolId,
       StorageReceivedDeletedBlocks[] receivedAndDeletedBlocks) throws IOException {
     verifyRequest(nodeReg);
+    namesystem.checkLeaderInStartupSafeMode(nodeReg);
     if(blockStateChangeLog.isDebugEnabled()) {
       blockStateChangeLog.debug("*BLOCK* NameNode.blockReceivedAndDeleted: "
           +"from "+nodeReg+" "+receivedAndDeletedBlocks.length
@@ -1144,6 +1146,18 @@ public SortedActiveNodeList getActiveNamenodes() throws IOException {
   public ActiveNode getNextNamenodeToSendBlockReport() throws IOException {
     return nn.getNextNamenodeToSendBlockReport();
   }
+
+  @Override
+  public BlockReportSlot requestBlockReportSlot(
+      DatanodeRegistration nodeReg, long numBlocks) throws IOException {
+    return nn.requestBlockReportSlot(nodeReg, numBlocks);
+  }
+
+  @Override
+  public void blockReportCompleted(DatanodeRegistration nodeReg,
+      long numBlocks, long processingTime) throws IOException {
+    nn.blockReportCompleted(nodeReg, numBlocks, processingTime);
+  }
   
   @Override
   public void ping() throws IOException {
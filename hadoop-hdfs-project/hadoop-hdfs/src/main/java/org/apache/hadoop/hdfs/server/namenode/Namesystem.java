@@ -18,9 +18,9 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.IOException;
-import java.util.Set;
 import org.apache.hadoop.classification.InterfaceAudience;
 import se.sics.hop.exception.StorageException;
+import org.apache.hadoop.hdfs.util.LongHashSet;
 import org.apache.hadoop.hdfs.util.RwLock;
 import org.apache.hadoop.security.AccessControlException;
 
@@ -52,7 +52,7 @@ public boolean isGenStampInFuture(long generationStamp) throws
 
   public NameNode getNameNode();
 
-  public void adjustSafeModeBlocks(Set<Long> safeBlocks) throws IOException;
+  public void adjustSafeModeBlocks(LongHashSet safeBlocks) throws IOException;
    
   //END_HOP_CODE
 }
\ No newline at end of file
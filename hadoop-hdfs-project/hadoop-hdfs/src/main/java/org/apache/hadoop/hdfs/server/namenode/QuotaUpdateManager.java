@@ -4,8 +4,10 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.util.Daemon;
 import se.sics.hop.common.HopQuotaUpdateIdGen;
+import se.sics.hop.common.INodeUtil;
 import se.sics.hop.exception.StorageException;
 import se.sics.hop.exception.TransactionContextException;
 import se.sics.hop.metadata.INodeIdentifier;
@@ -22,12 +24,23 @@
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.apache.hadoop.util.ExitUtil.terminate;
 
@@ -39,8 +52,40 @@ public class QuotaUpdateManager {
 
   private final int updateInterval;
   private final int updateLimit;
+  private final int updateThreads;
+  private final int inodesPerTransaction;
 
   private final Daemon updateThread = new Daemon(new QuotaUpdateMonitor());
+  /** The pool applying the partitions of a batch, null to apply them in the monitor. */
+  private final ExecutorService updateExecutor;
+
+  /** Number of inodes updated and of parent updates added by the current round. */
+  private final AtomicInteger appliedUpdates = new AtomicInteger();
+  private final AtomicInteger parentUpdates = new AtomicInteger();
+
+  /**
+   * Updates applied by the earlier rounds of the current drain, i.e. since a
+   * fetch was last below the limit. Only used by the monitor thread.
+   */
+  private long drainedUpdates = 0;
+
+  private static final int RESOLVED_INODES_CACHE_SIZE = 10000;
+
+  /**
+   * The names and parent ids of the directories updated recently. The same
+   * ancestors are updated round after round, so they are only resolved with
+   * an index scan once. An entry is checked against the inode locked by its
+   * name and parent id, and dropped if the directory moved or was deleted.
+   */
+  private final Map<Integer, INodeIdentifier> resolvedINodes =
+      Collections.synchronizedMap(
+          new LinkedHashMap<Integer, INodeIdentifier>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Integer, INodeIdentifier> eldest) {
+              return size() > RESOLVED_INODES_CACHE_SIZE;
+            }
+          });
 
   private final ConcurrentLinkedQueue<Iterator<Integer>> prioritizedUpdates =
       new ConcurrentLinkedQueue<Iterator<Integer>>();
@@ -53,6 +98,15 @@ public QuotaUpdateManager(FSNamesystem namesystem, Configuration conf) {
     updateLimit =
         conf.getInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_LIMIT_KEY,
                     DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_LIMIT_DEFAULT);
+    updateThreads =
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_THREADS_KEY,
+                    DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_THREADS_DEFAULT);
+    inodesPerTransaction =
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_INODES_PER_TX_KEY,
+                    DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_INODES_PER_TX_DEFAULT);
+    updateExecutor = updateThreads > 0 ?
+        Executors.newFixedThreadPool(updateThreads, new Daemon.DaemonFactory())
+        : null;
   }
 
   public void activate() {
@@ -60,6 +114,9 @@ public void activate() {
   }
 
   public void close() {
+    if (updateExecutor != null) {
+      updateExecutor.shutdownNow();
+    }
     if (updateThread != null) {
       updateThread.interrupt();
       try {
@@ -98,15 +155,22 @@ public void run() {
                 iterator.notify();
               }
             }
-            processNextUpdateBatch();
+            if (processNextUpdateBatch()) {
+              // more updates are waiting, either because the fetch limit was
+              // hit or because parents got updates, do not wait for them
+              continue;
+            }
           }
           long sleepDuration = updateInterval - (System.currentTimeMillis() - startTime);
           if (sleepDuration > 0) {
-            Thread.sleep(updateInterval);
+            Thread.sleep(sleepDuration);
           }
         } catch (InterruptedException ie) {
           LOG.warn("QuotaUpdateMonitor thread received InterruptedException.", ie);
           break;
+        } catch (InterruptedIOException ie) {
+          LOG.warn("QuotaUpdateMonitor thread received InterruptedIOException.", ie);
+          break;
         } catch (StorageException e){
           LOG.warn("QuotaUpdateMonitor thread received StorageException.", e);
           break;
@@ -146,7 +210,15 @@ public Object performTask() throws IOException {
     applyBatchedUpdate(quotaUpdates);
   }
 
-  private void processNextUpdateBatch() throws IOException {
+  /**
+   * Fetches the next batch of updates and applies it. The updates are grouped
+   * by inode and the groups are partitioned by inode id across the update
+   * threads, so that two threads never apply updates of the same inode. Each
+   * thread coalesces several inodes into one transaction.
+   *
+   * @return true if more updates are known to be waiting
+   */
+  private boolean processNextUpdateBatch() throws IOException {
     LightWeightRequestHandler findHandler = new LightWeightRequestHandler(HDFSOperationType.GET_NEXT_QUOTA_BATCH) {
       @Override
       public Object performTask() throws IOException {
@@ -157,28 +229,180 @@ public Object performTask() throws IOException {
     };
 
     List<QuotaUpdate> quotaUpdates = (List<QuotaUpdate>) findHandler.handle();
+    // there is no COUNT query for the updates, a fetch below the limit gives
+    // the backlog, a full one only a part of it, so the updates applied by
+    // the earlier full rounds are added until the backlog is drained
+    boolean full = quotaUpdates.size() >= updateLimit;
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.setQuotaUpdateBacklog(
+          (full ? drainedUpdates : 0) + quotaUpdates.size());
+    }
+    if (!full) {
+      drainedUpdates = 0;
+    }
+    if (quotaUpdates.isEmpty()) {
+      return false;
+    }
     Collections.sort(quotaUpdates, quotaUpdateComparator);
 
+    final int numPartitions = Math.max(1, updateThreads);
+    final List<List<List<QuotaUpdate>>> partitions =
+        new ArrayList<List<List<QuotaUpdate>>>(numPartitions);
+    for (int i = 0; i < numPartitions; i++) {
+      partitions.add(new ArrayList<List<QuotaUpdate>>());
+    }
     ArrayList<QuotaUpdate> batch = new ArrayList<QuotaUpdate>();
     for (QuotaUpdate update : quotaUpdates) {
-      if (batch.size() == 0 || batch.get(0).getInodeId() == update.getInodeId()) {
-        batch.add(update);
-      } else {
-        applyBatchedUpdate(batch);
+      if (batch.size() != 0 && batch.get(0).getInodeId() != update.getInodeId()) {
+        partitions.get(partitionOf(batch.get(0).getInodeId())).add(batch);
         batch = new ArrayList<QuotaUpdate>();
-        batch.add(update);
+      }
+      batch.add(update);
+    }
+    partitions.get(partitionOf(batch.get(0).getInodeId())).add(batch);
+
+    appliedUpdates.set(0);
+    parentUpdates.set(0);
+    List<Future<Object>> workers = new ArrayList<Future<Object>>();
+    for (final List<List<QuotaUpdate>> partition : partitions) {
+      if (partition.isEmpty()) {
+        continue;
+      }
+      Callable<Object> worker = new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          for (int start = 0; start < partition.size(); start += inodesPerTransaction) {
+            int end = Math.min(start + inodesPerTransaction, partition.size());
+            applyBatchedUpdates(partition.subList(start, end));
+          }
+          return null;
+        }
+      };
+      if (updateExecutor == null) {
+        FutureTask<Object> future = new FutureTask<Object>(worker);
+        future.run();
+        workers.add(future);
+      } else {
+        workers.add(updateExecutor.submit(worker));
+      }
+    }
+
+    IOException failure = null;
+    for (Future<Object> worker : workers) {
+      try {
+        worker.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof IOException ?
+              (IOException) e.getCause() : new IOException(e.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    if (full) {
+      drainedUpdates += appliedUpdates.get();
+    }
+    return parentUpdates.get() > 0 ||
+        (quotaUpdates.size() >= updateLimit && appliedUpdates.get() > 0);
+  }
+
+  private int partitionOf(int inodeId) {
+    return (inodeId & Integer.MAX_VALUE) % Math.max(1, updateThreads);
+  }
+
+  /**
+   * Applies the updates of several inodes in one transaction. The inodes
+   * which are not in {@link #resolvedINodes} are resolved in one request.
+   * Inodes which could not be resolved, most likely because they were
+   * deleted, are left to {@link #applyBatchedUpdate(List)} which drops their
+   * updates.
+   */
+  private void applyBatchedUpdates(final List<List<QuotaUpdate>> updatesByINode)
+      throws IOException {
+    if (updatesByINode.size() == 1) {
+      applyBatchedUpdate(updatesByINode.get(0));
+      return;
+    }
+
+    INodeIdentifier[] identifiers = new INodeIdentifier[updatesByINode.size()];
+    int[] unknownIds = new int[updatesByINode.size()];
+    int numUnknown = 0;
+    for (int i = 0; i < identifiers.length; i++) {
+      int inodeId = updatesByINode.get(i).get(0).getInodeId();
+      identifiers[i] = resolvedINodes.get(inodeId);
+      if (identifiers[i] == null) {
+        unknownIds[numUnknown++] = inodeId;
+      }
+    }
+    if (numUnknown > 0) {
+      // the updates are for directories, the range scans over the file ids
+      // would not find them
+      INodeIdentifier[] unknown = INodeUtil.resolveINodesFromIds(
+          Arrays.copyOf(unknownIds, numUnknown), false);
+      for (int i = 0, j = 0; i < identifiers.length; i++) {
+        if (identifiers[i] == null) {
+          identifiers[i] = unknown[j++];
+          if (identifiers[i].getName() != null) {
+            resolvedINodes.put(identifiers[i].getInodeId(), identifiers[i]);
+          }
+        }
       }
     }
 
-    if (batch.size() != 0) {
-      applyBatchedUpdate(batch);
+    final List<INodeIdentifier> inodeIdentifiers = new ArrayList<INodeIdentifier>();
+    final List<List<QuotaUpdate>> resolved = new ArrayList<List<QuotaUpdate>>();
+    for (int i = 0; i < identifiers.length; i++) {
+      if (identifiers[i].getName() == null) {
+        applyBatchedUpdate(updatesByINode.get(i));
+      } else {
+        inodeIdentifiers.add(identifiers[i]);
+        resolved.add(updatesByINode.get(i));
+      }
     }
+    if (resolved.isEmpty()) {
+      return;
+    }
+
+    final long startTime = System.currentTimeMillis();
+    new HopsTransactionalRequestHandler(HDFSOperationType.APPLY_QUOTA_UPDATE) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        HopsLockFactory lf = HopsLockFactory.getInstance();
+        locks.add(lf.getBatchedINodesLock(TransactionLockTypes.INodeLockType.WRITE, inodeIdentifiers));
+      }
+
+      @Override
+      public Object performTask() throws IOException {
+        for (int i = 0; i < resolved.size(); i++) {
+          INodeIdentifier inodeIdentifier = inodeIdentifiers.get(i);
+          // the locked inode, found without a storage call
+          INode inode = EntityManager.find(INode.Finder.ByPK_NameAndParentId,
+              inodeIdentifier.getName(), inodeIdentifier.getPid());
+          if (inode == null || inode.getId() != inodeIdentifier.getInodeId()) {
+            // moved or deleted since it was resolved and therefore not
+            // locked, resolve it again with the next batch
+            resolvedINodes.remove(inodeIdentifier.getInodeId());
+            continue;
+          }
+          applyUpdates((INodeDirectory) inode, resolved.get(i));
+        }
+        return null;
+      }
+    }.handle(this);
+    recordApplyLatency(startTime);
   }
 
   private void applyBatchedUpdate(final List<QuotaUpdate> updates) throws IOException {
     if (updates.size() == 0) {
       return;
     }
+    final long startTime = System.currentTimeMillis();
     new HopsTransactionalRequestHandler(HDFSOperationType.APPLY_QUOTA_UPDATE) {
       INodeIdentifier iNodeIdentifier;
       @Override
@@ -196,57 +420,72 @@ public void acquireLock(TransactionLocks locks) throws IOException {
       @Override
       public Object performTask() throws IOException {
         INodeDirectory dir = (INodeDirectory) EntityManager.find(INode.Finder.ByINodeID, updates.get(0).getInodeId());
-        if (dir != null && SubtreeLockHelper.isSubtreeLocked(
-            dir.isSubtreeLocked(),
-            dir.getSubtreeLockOwner(),
-            namesystem.getNameNode().getActiveNamenodes().getActiveNodes())) {
-          /*
-           * We cannot process updates to keep move operations consistent. Otherwise the calculated size of the subtree
-           * could differ from the view of the parent if outstanding quota updates are applied after being considered
-           * by the QuotaCountingFileTree but before successfully moving the subtree.
-           */
-          return null;
-        }
+        applyUpdates(dir, updates);
+        return null;
+      }
+    }.handle(this);
+    recordApplyLatency(startTime);
+  }
 
-        long namespaceDelta = 0;
-        long diskspaceDelta = 0;
-        for (QuotaUpdate update : updates) {
-          namespaceDelta += update.getNamespaceDelta();
-          diskspaceDelta += update.getDiskspaceDelta();
-          LOG.debug("handling " + update);
-          EntityManager.remove(update);
-        }
+  private void applyUpdates(INodeDirectory dir, List<QuotaUpdate> updates)
+      throws IOException {
+    if (dir != null && SubtreeLockHelper.isSubtreeLocked(
+        dir.isSubtreeLocked(),
+        dir.getSubtreeLockOwner(),
+        namesystem.getNameNode().getActiveNamenodes().getActiveNodes())) {
+      /*
+       * We cannot process updates to keep move operations consistent. Otherwise the calculated size of the subtree
+       * could differ from the view of the parent if outstanding quota updates are applied after being considered
+       * by the QuotaCountingFileTree but before successfully moving the subtree.
+       */
+      return;
+    }
 
-        if (dir == null) {
-          LOG.debug("dropping update for " + updates.get(0) + " ns " + namespaceDelta + " ds " + diskspaceDelta
-              + " because of deletion");
-          return null;
-        }
-        if (namespaceDelta == 0 && diskspaceDelta == 0) {
-          return null;
-        }
+    long namespaceDelta = 0;
+    long diskspaceDelta = 0;
+    for (QuotaUpdate update : updates) {
+      namespaceDelta += update.getNamespaceDelta();
+      diskspaceDelta += update.getDiskspaceDelta();
+      LOG.debug("handling " + update);
+      EntityManager.remove(update);
+    }
+    appliedUpdates.incrementAndGet();
 
-        if (dir != null && dir.isQuotaSet()) {
-          INodeDirectoryWithQuota quotaDir = (INodeDirectoryWithQuota) dir;
-          INodeAttributes attributes = quotaDir.getINodeAttributes();
-          attributes.setNsCount(attributes.getNsCount() + namespaceDelta);
-          attributes.setDiskspace(attributes.getDiskspace() + diskspaceDelta);
-          LOG.debug("applying aggregated update for directory " + dir.getId() + " with namespace delta "
-              + namespaceDelta + " and diskspace delta " + diskspaceDelta);
-        }
+    if (dir == null) {
+      LOG.debug("dropping update for " + updates.get(0) + " ns " + namespaceDelta + " ds " + diskspaceDelta
+          + " because of deletion");
+      return;
+    }
+    if (namespaceDelta == 0 && diskspaceDelta == 0) {
+      return;
+    }
 
-        if (dir != null && dir.getId() != INodeDirectory.ROOT_ID) {
-          QuotaUpdate parentUpdate = new QuotaUpdate(
-              nextId(),
-              dir.getParentId(),
-              namespaceDelta,
-              diskspaceDelta);
-          EntityManager.add(parentUpdate);
-          LOG.debug("adding parent update " + parentUpdate);
-        }
-        return null;
-      }
-    }.handle(this);
+    if (dir.isQuotaSet()) {
+      INodeDirectoryWithQuota quotaDir = (INodeDirectoryWithQuota) dir;
+      INodeAttributes attributes = quotaDir.getINodeAttributes();
+      attributes.setNsCount(attributes.getNsCount() + namespaceDelta);
+      attributes.setDiskspace(attributes.getDiskspace() + diskspaceDelta);
+      LOG.debug("applying aggregated update for directory " + dir.getId() + " with namespace delta "
+          + namespaceDelta + " and diskspace delta " + diskspaceDelta);
+    }
+
+    if (dir.getId() != INodeDirectory.ROOT_ID) {
+      QuotaUpdate parentUpdate = new QuotaUpdate(
+          nextId(),
+          dir.getParentId(),
+          namespaceDelta,
+          diskspaceDelta);
+      EntityManager.add(parentUpdate);
+      parentUpdates.incrementAndGet();
+      LOG.debug("adding parent update " + parentUpdate);
+    }
+  }
+
+  private void recordApplyLatency(long startTime) {
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addQuotaUpdateApply(System.currentTimeMillis() - startTime);
+    }
   }
 
   /**
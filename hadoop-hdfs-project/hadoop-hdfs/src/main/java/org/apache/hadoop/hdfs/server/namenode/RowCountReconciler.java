@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.util.Daemon;
+import se.sics.hop.transaction.context.RowCounters;
+
+import java.io.IOException;
+
+/**
+ * Replaces the counts kept by {@link RowCounters} with the results of COUNT
+ * queries once per interval. This fixes the drift caused by the writes of
+ * the other namenodes and by the rows written outside the transaction
+ * contexts, and refreshes the counts which are not kept incrementally.
+ */
+class RowCountReconciler {
+
+  static final Log LOG = LogFactory.getLog(RowCountReconciler.class);
+
+  private final FSNamesystem namesystem;
+  private final long interval;
+
+  private final Daemon reconcileThread = new Daemon(new Reconciler());
+
+  RowCountReconciler(FSNamesystem namesystem, Configuration conf) {
+    this.namesystem = namesystem;
+    interval =
+        conf.getLong(DFSConfigKeys.DFS_ROW_COUNTERS_RECONCILE_INTERVAL_KEY,
+            DFSConfigKeys.DFS_ROW_COUNTERS_RECONCILE_INTERVAL_DEFAULT);
+  }
+
+  void activate() {
+    reconcileThread.start();
+  }
+
+  void close() {
+    reconcileThread.interrupt();
+    try {
+      reconcileThread.join(3000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void reconcile() throws IOException {
+    namesystem.getBlockManager().reconcileRowCounters();
+  }
+
+  private class Reconciler implements Runnable {
+    @Override
+    public void run() {
+      while (namesystem.isRunning()) {
+        try {
+          reconcile();
+          Thread.sleep(interval);
+        } catch (InterruptedException ie) {
+          LOG.debug("RowCountReconciler thread received InterruptedException.");
+          break;
+        } catch (IOException e) {
+          LOG.warn("RowCountReconciler failed to count the rows.", e);
+          try {
+            Thread.sleep(interval);
+          } catch (InterruptedException ie) {
+            break;
+          }
+        }
+      }
+    }
+  }
+}
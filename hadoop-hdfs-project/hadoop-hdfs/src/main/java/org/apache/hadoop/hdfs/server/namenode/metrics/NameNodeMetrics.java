@@ -30,8 +30,10 @@
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.metrics2.lib.MutableStat;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
 
 /**
@@ -65,6 +67,64 @@ public class NameNodeMetrics {
   MutableCounterLong transactionsBatchedInSync;
   @Metric("Block report") MutableRate blockReport;
   MutableQuantiles[] blockReportQuantiles;
+  @Metric("Blocks processed per second of block report processing")
+  MutableRate blockReportThroughput;
+
+  @Metric("Path resolutions served by a verified parent-id hint")
+  MutableCounterLong pathResolutionHintHits;
+  @Metric("Path resolutions without a hint or with a stale hint")
+  MutableCounterLong pathResolutionHintMisses;
+  final MutableStat pathResolutionRoundTripsSaved;
+  @Metric("Path lookups served by the local path cache for the full path")
+  MutableCounterLong pathCacheHits;
+  @Metric("Path lookups served by the local path cache for a prefix only")
+  MutableCounterLong pathCachePartialHits;
+  @Metric("Path lookups not found in the local path cache")
+  MutableCounterLong pathCacheMisses;
+  @Metric("Local path cache entries evicted because of its size limit")
+  MutableCounterLong pathCacheEvictions;
+  @Metric("Local path cache hints which failed the verification")
+  MutableCounterLong pathCacheStaleHints;
+  @Metric("Directory lookups served by the shared inode cache")
+  MutableCounterLong inodeCacheHits;
+  @Metric("Directory lookups not found in the shared inode cache")
+  MutableCounterLong inodeCacheMisses;
+  @Metric("Rows dropped from the shared inode cache because they were written")
+  MutableCounterLong inodeCacheInvalidations;
+
+  @Metric("Id ranges fetched from the database")
+  MutableCounterLong idRangeRefills;
+  @Metric("Id allocations which found the id queue empty")
+  MutableCounterLong idQueueDepletions;
+
+  @Metric("Access time updates requested by reads")
+  MutableCounterLong accessTimeUpdatesRequested;
+  @Metric("Access time updates written, after coalescing per inode")
+  MutableCounterLong accessTimeUpdatesWritten;
+  @Metric("Inodes waiting for their access time to be written")
+  MutableGaugeInt accessTimeUpdateBacklog;
+  @Metric("Access time updates dropped as too many inodes were waiting")
+  MutableCounterLong accessTimeUpdatesDropped;
+
+  @Metric("Rows the row counters were off by when they were reconciled")
+  MutableCounterLong rowCounterDrift;
+
+  @Metric("Full block reports with a slot handed out by the leader")
+  MutableGaugeInt blockReportsInProgress;
+  @Metric("Datanodes waiting for a full block report slot")
+  MutableGaugeInt blockReportQueueLength;
+  @Metric("Estimated wait in ms of the last datanode in the block report queue")
+  MutableGaugeLong blockReportQueueWait;
+
+  @Metric("Blocks scheduled for replication by the replication monitor")
+  MutableCounterLong replicationWorkScheduled;
+  @Metric("Blocks per second scheduled for replication in the last round")
+  MutableGaugeLong replicationWorkRate;
+
+  @Metric("Quota updates waiting, counted over the rounds of a full fetch")
+  MutableGaugeLong quotaUpdateBacklog;
+  @Metric("Quota update apply") MutableRate quotaUpdateApply;
+  MutableQuantiles[] quotaUpdateApplyQuantiles;
 
   @Metric("Duration in SafeMode at startup") MutableGaugeInt safeModeTime;
   @Metric("Time loading FS Image at startup") MutableGaugeInt fsImageLoadTime;
@@ -72,9 +132,14 @@ public class NameNodeMetrics {
   NameNodeMetrics(String processName, String sessionId, int[] intervals) {
     registry.tag(ProcessName, processName).tag(SessionId, sessionId);
     
+    pathResolutionRoundTripsSaved = registry.newStat(
+        "pathResolutionRoundTripsSaved",
+        "Round trips saved by batched ancestor reads", "ops", "roundTrips");
+
     final int len = intervals.length;
     syncsQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
+    quotaUpdateApplyQuantiles = new MutableQuantiles[len];
     
     for (int i = 0; i < len; i++) {
       int interval = intervals[i];
@@ -84,6 +149,9 @@ public class NameNodeMetrics {
       blockReportQuantiles[i] = registry.newQuantiles(
           "blockReport" + interval + "s", 
           "Block report", "ops", "latency", interval);
+      quotaUpdateApplyQuantiles[i] = registry.newQuantiles(
+          "quotaUpdateApply" + interval + "s",
+          "Quota update apply", "ops", "latency", interval);
     }
   }
 
@@ -159,6 +227,90 @@ public void incrGetLinkTargetOps() {
     getLinkTargetOps.incr();
   }
 
+  public void incrPathResolutionHint(boolean hit) {
+    if (hit) {
+      pathResolutionHintHits.incr();
+    } else {
+      pathResolutionHintMisses.incr();
+    }
+  }
+
+  public void addPathResolutionRoundTripsSaved(long roundTrips) {
+    pathResolutionRoundTripsSaved.add(roundTrips);
+  }
+
+  public void incrPathCacheHits() {
+    pathCacheHits.incr();
+  }
+
+  public void incrPathCachePartialHits() {
+    pathCachePartialHits.incr();
+  }
+
+  public void incrPathCacheMisses() {
+    pathCacheMisses.incr();
+  }
+
+  public void incrPathCacheEvictions() {
+    pathCacheEvictions.incr();
+  }
+
+  public void incrPathCacheStaleHints() {
+    pathCacheStaleHints.incr();
+  }
+
+  public void incrINodeCacheLookup(boolean hit) {
+    if (hit) {
+      inodeCacheHits.incr();
+    } else {
+      inodeCacheMisses.incr();
+    }
+  }
+
+  public void incrINodeCacheInvalidations(int count) {
+    inodeCacheInvalidations.incr(count);
+  }
+
+  public void incrIdRangeRefills() {
+    idRangeRefills.incr();
+  }
+
+  public void incrIdQueueDepletions() {
+    idQueueDepletions.incr();
+  }
+
+  public void incrAccessTimeUpdatesRequested() {
+    accessTimeUpdatesRequested.incr();
+  }
+
+  public void incrAccessTimeUpdatesWritten(int written) {
+    accessTimeUpdatesWritten.incr(written);
+  }
+
+  public void incrAccessTimeUpdatesDropped() {
+    accessTimeUpdatesDropped.incr();
+  }
+
+  public void setAccessTimeUpdateBacklog(int backlog) {
+    accessTimeUpdateBacklog.set(backlog);
+  }
+
+  public void incrRowCounterDrift(long drift) {
+    rowCounterDrift.incr(drift);
+  }
+
+  public void setBlockReportsInProgress(int reports) {
+    blockReportsInProgress.set(reports);
+  }
+
+  public void setBlockReportQueueLength(int length) {
+    blockReportQueueLength.set(length);
+  }
+
+  public void setBlockReportQueueWait(long wait) {
+    blockReportQueueWait.set(wait);
+  }
+
   public void addTransaction(long latency) {
     transactions.add(latency);
   }
@@ -174,6 +326,25 @@ public void addSync(long elapsed) {
     }
   }
 
+  public void setQuotaUpdateBacklog(long backlog) {
+    quotaUpdateBacklog.set(backlog);
+  }
+
+  public void incrReplicationWorkScheduled(long blocks) {
+    replicationWorkScheduled.incr(blocks);
+  }
+
+  public void setReplicationWorkRate(long blocksPerSecond) {
+    replicationWorkRate.set(blocksPerSecond);
+  }
+
+  public void addQuotaUpdateApply(long latency) {
+    quotaUpdateApply.add(latency);
+    for (MutableQuantiles q : quotaUpdateApplyQuantiles) {
+      q.add(latency);
+    }
+  }
+
   public void setFsImageLoadTime(long elapsed) {
     fsImageLoadTime.set((int) elapsed);
   }
@@ -185,6 +356,10 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void addBlockReportThroughput(long blocksPerSec) {
+    blockReportThroughput.add(blocksPerSec);
+  }
+
   public void setSafeModeTime(long elapsed) {
     safeModeTime.set((int) elapsed);
   }
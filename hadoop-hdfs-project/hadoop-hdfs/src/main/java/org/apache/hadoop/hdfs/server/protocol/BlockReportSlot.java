@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import se.sics.hop.leaderElection.node.ActiveNode;
+
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+/**
+ * Response to {@link DatanodeProtocol#requestBlockReportSlot}. It
+ * either names the namenode the datanode may send its full block report to,
+ * or tells it how long to wait before asking again.
+ */
+public class BlockReportSlot {
+  /** The namenode to send the report to, null if no slot is free */
+  private final ActiveNode namenode;
+
+  /** Estimated time until a slot is free for the datanode */
+  private final long retryAfter;
+
+  /** Number of datanodes waiting ahead of this one */
+  private final int queuePosition;
+
+  public BlockReportSlot(ActiveNode namenode) {
+    this(namenode, 0, 0);
+  }
+
+  public BlockReportSlot(ActiveNode namenode, long retryAfter,
+      int queuePosition) {
+    this.namenode = namenode;
+    this.retryAfter = retryAfter;
+    this.queuePosition = queuePosition;
+  }
+
+  public static BlockReportSlot waitFor(long retryAfter, int queuePosition) {
+    return new BlockReportSlot(null, retryAfter, queuePosition);
+  }
+
+  public boolean isGranted() {
+    return namenode != null;
+  }
+
+  public ActiveNode getNamenode() {
+    return namenode;
+  }
+
+  public long getRetryAfter() {
+    return retryAfter;
+  }
+
+  public int getQueuePosition() {
+    return queuePosition;
+  }
+
+  @Override
+  public String toString() {
+    return isGranted() ? "slot on " + namenode.getInetSocketAddress()
+        : "no slot, position " + queuePosition + " retry after " + retryAfter
+            + " ms";
+  }
+}
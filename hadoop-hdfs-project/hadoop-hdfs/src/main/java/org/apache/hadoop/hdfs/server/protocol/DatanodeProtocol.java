@@ -177,5 +177,27 @@ public void commitBlockSynchronization(ExtendedBlock block,
    * balancing of block reports among namenodes
    */
   public ActiveNode getNextNamenodeToSendBlockReport() throws IOException;
+
+  /**
+   * Asks the leader for a slot to send a full block report in. Unlike
+   * {@link #getNextNamenodeToSendBlockReport()} the leader caps the number of
+   * concurrent full block reports, so the answer may be to retry later.
+   *
+   * @param registration the datanode asking for a slot
+   * @param numBlocks the number of replicas it will report
+   */
+  public BlockReportSlot requestBlockReportSlot(
+      DatanodeRegistration registration, long numBlocks) throws IOException;
+
+  /**
+   * Tells the leader that a block report it handed a slot out for is done,
+   * whether it succeeded or not, so that the slot can be reused.
+   *
+   * @param registration the datanode which sent the report
+   * @param numBlocks the number of blocks in the report
+   * @param processingTime the time the namenode took to process it, in ms
+   */
+  public void blockReportCompleted(DatanodeRegistration registration,
+      long numBlocks, long processingTime) throws IOException;
   //END_HOP_CODE
 }
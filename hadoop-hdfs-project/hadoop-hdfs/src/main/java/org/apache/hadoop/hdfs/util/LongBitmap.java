@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compressed set of primitive longs in the manner of a roaring bitmap.
+ * The elements are split into chunks by their upper 48 bits, and the lower
+ * 16 bits of the elements of a chunk are kept in a sorted char array while
+ * the chunk is sparse, or in a bitmap of 64K bits once it is dense. Block
+ * ids are allocated sequentially, so the set of the blocks of a cluster
+ * takes about one bit per block instead of the 8 bytes of a
+ * {@link LongHashSet}.
+ *
+ * This class is not thread safe.
+ */
+public class LongBitmap {
+  static final int CHUNK_BITS = 16;
+  static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  /** A chunk with more elements is kept as a bitmap. */
+  static final int MAX_ARRAY_SIZE = 4096;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int WORDS = CHUNK_SIZE / 64;
+
+  private final Map<Long, Chunk> chunks = new HashMap<Long, Chunk>();
+  private long size;
+
+  /**
+   * @return true if the element was not already in the set
+   */
+  public boolean add(long e) {
+    Long key = e >> CHUNK_BITS;
+    Chunk chunk = chunks.get(key);
+    if (chunk == null) {
+      chunk = new Chunk();
+      chunks.put(key, chunk);
+    }
+    if (chunk.add((char) (e & CHUNK_MASK))) {
+      size++;
+      return true;
+    }
+    return false;
+  }
+
+  public void addAll(long[] elements) {
+    for (long e : elements) {
+      add(e);
+    }
+  }
+
+  /**
+   * @return true if the element was in the set
+   */
+  public boolean remove(long e) {
+    Long key = e >> CHUNK_BITS;
+    Chunk chunk = chunks.get(key);
+    if (chunk == null || !chunk.remove((char) (e & CHUNK_MASK))) {
+      return false;
+    }
+    if (chunk.cardinality == 0) {
+      chunks.remove(key);
+    }
+    size--;
+    return true;
+  }
+
+  public boolean contains(long e) {
+    Chunk chunk = chunks.get(e >> CHUNK_BITS);
+    return chunk != null && chunk.contains((char) (e & CHUNK_MASK));
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    chunks.clear();
+    size = 0;
+  }
+
+  /**
+   * The lower bits of the elements of a chunk, either in the first
+   * cardinality entries of a sorted array or in a bitmap.
+   */
+  private static class Chunk {
+    private char[] array = new char[4];
+    private long[] bitmap;
+    private int cardinality;
+
+    boolean add(char low) {
+      if (bitmap != null) {
+        long bit = 1L << low;
+        int word = low >>> 6;
+        if ((bitmap[word] & bit) != 0) {
+          return false;
+        }
+        bitmap[word] |= bit;
+        cardinality++;
+        return true;
+      }
+      int i = Arrays.binarySearch(array, 0, cardinality, low);
+      if (i >= 0) {
+        return false;
+      }
+      if (cardinality == MAX_ARRAY_SIZE) {
+        toBitmap();
+        return add(low);
+      }
+      i = -i - 1;
+      if (cardinality == array.length) {
+        array = Arrays.copyOf(array,
+            Math.min(MAX_ARRAY_SIZE, array.length * 2));
+      }
+      System.arraycopy(array, i, array, i + 1, cardinality - i);
+      array[i] = low;
+      cardinality++;
+      return true;
+    }
+
+    boolean remove(char low) {
+      if (bitmap != null) {
+        long bit = 1L << low;
+        int word = low >>> 6;
+        if ((bitmap[word] & bit) == 0) {
+          return false;
+        }
+        bitmap[word] &= ~bit;
+        cardinality--;
+        // half of the array size, so a chunk at the limit does not convert
+        // back and forth
+        if (cardinality <= MAX_ARRAY_SIZE / 2) {
+          toArray();
+        }
+        return true;
+      }
+      int i = Arrays.binarySearch(array, 0, cardinality, low);
+      if (i < 0) {
+        return false;
+      }
+      System.arraycopy(array, i + 1, array, i, cardinality - i - 1);
+      cardinality--;
+      return true;
+    }
+
+    boolean contains(char low) {
+      if (bitmap != null) {
+        return (bitmap[low >>> 6] & (1L << low)) != 0;
+      }
+      return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+    }
+
+    private void toBitmap() {
+      bitmap = new long[WORDS];
+      for (int i = 0; i < cardinality; i++) {
+        bitmap[array[i] >>> 6] |= 1L << array[i];
+      }
+      array = null;
+    }
+
+    private void toArray() {
+      array = new char[MAX_ARRAY_SIZE];
+      int n = 0;
+      for (int word = 0; word < WORDS; word++) {
+        long bits = bitmap[word];
+        while (bits != 0) {
+          int bit = Long.numberOfTrailingZeros(bits);
+          array[n++] = (char) ((word << 6) + bit);
+          bits &= bits - 1;
+        }
+      }
+      bitmap = null;
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set of primitive longs, which uses open addressing with linear probing
+ * in a single long array. Unlike a {@link HashSet} of {@link Long} it does
+ * not allocate an object per element, which matters for sets of millions of
+ * block ids.
+ *
+ * This class is not thread safe.
+ */
+public class LongHashSet {
+  static final int MINIMUM_CAPACITY = 16;
+  static final int MAXIMUM_CAPACITY = 1 << 30;
+  private static final float MAX_LOAD_FACTOR = 0.5f;
+
+  /** Marks an empty slot. The element itself is tracked by hasFreeKey. */
+  private static final long FREE_KEY = 0L;
+
+  private long[] keys;
+  private int mask;
+  private int size;
+  private int threshold;
+  private boolean hasFreeKey;
+
+  public LongHashSet() {
+    this(MINIMUM_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize the number of elements the set should hold without
+   * being resized
+   */
+  public LongHashSet(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /** Copy constructor. */
+  public LongHashSet(LongHashSet other) {
+    this.keys = Arrays.copyOf(other.keys, other.keys.length);
+    this.mask = other.mask;
+    this.size = other.size;
+    this.threshold = other.threshold;
+    this.hasFreeKey = other.hasFreeKey;
+  }
+
+  public LongHashSet(Collection<Long> elements) {
+    this(elements.size());
+    for (Long e : elements) {
+      add(e);
+    }
+  }
+
+  /**
+   * @return true if the element was not already in the set
+   */
+  public boolean add(long e) {
+    if (e == FREE_KEY) {
+      if (hasFreeKey) {
+        return false;
+      }
+      hasFreeKey = true;
+      size++;
+      return true;
+    }
+    int slot = slot(e);
+    while (keys[slot] != FREE_KEY) {
+      if (keys[slot] == e) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = e;
+    if (++size > threshold) {
+      resize(keys.length << 1);
+    }
+    return true;
+  }
+
+  public void addAll(long[] elements) {
+    for (long e : elements) {
+      add(e);
+    }
+  }
+
+  public void addAll(LongHashSet other) {
+    if (other.hasFreeKey) {
+      add(FREE_KEY);
+    }
+    for (long e : other.keys) {
+      if (e != FREE_KEY) {
+        add(e);
+      }
+    }
+  }
+
+  public boolean contains(long e) {
+    if (e == FREE_KEY) {
+      return hasFreeKey;
+    }
+    int slot = slot(e);
+    while (keys[slot] != FREE_KEY) {
+      if (keys[slot] == e) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the element was in the set
+   */
+  public boolean remove(long e) {
+    if (e == FREE_KEY) {
+      if (!hasFreeKey) {
+        return false;
+      }
+      hasFreeKey = false;
+      size--;
+      return true;
+    }
+    int slot = slot(e);
+    while (keys[slot] != FREE_KEY) {
+      if (keys[slot] == e) {
+        shiftKeys(slot);
+        size--;
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  public void removeAll(LongHashSet other) {
+    if (other.hasFreeKey) {
+      remove(FREE_KEY);
+    }
+    for (long e : other.keys) {
+      if (e != FREE_KEY) {
+        remove(e);
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, FREE_KEY);
+    hasFreeKey = false;
+    size = 0;
+  }
+
+  /**
+   * @return the elements of the set in no particular order
+   */
+  public long[] toArray() {
+    long[] result = new long[size];
+    int i = 0;
+    if (hasFreeKey) {
+      result[i++] = FREE_KEY;
+    }
+    for (long e : keys) {
+      if (e != FREE_KEY) {
+        result[i++] = e;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return a boxed copy of the set, for the interfaces which need one
+   */
+  public Set<Long> toSet() {
+    Set<Long> result = new HashSet<Long>(Math.max(MINIMUM_CAPACITY,
+        (int) (size / 0.75f) + 1));
+    if (hasFreeKey) {
+      result.add(FREE_KEY);
+    }
+    for (long e : keys) {
+      if (e != FREE_KEY) {
+        result.add(e);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Closes the gap left by a removed key, so that lookups never need
+   * tombstones: every key following the gap in the same cluster is moved
+   * back if the gap lies between its home slot and its current slot.
+   */
+  private void shiftKeys(int gap) {
+    int slot = gap;
+    while (true) {
+      slot = (slot + 1) & mask;
+      long e = keys[slot];
+      if (e == FREE_KEY) {
+        keys[gap] = FREE_KEY;
+        return;
+      }
+      int home = slot(e);
+      boolean movable = gap <= slot ? (home <= gap || home > slot)
+          : (home <= gap && home > slot);
+      if (movable) {
+        keys[gap] = e;
+        gap = slot;
+      }
+    }
+  }
+
+  private void resize(int newCapacity) {
+    if (newCapacity > MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("LongHashSet can not grow beyond "
+          + MAXIMUM_CAPACITY + " slots");
+    }
+    long[] oldKeys = keys;
+    allocate(newCapacity);
+    for (long e : oldKeys) {
+      if (e != FREE_KEY) {
+        int slot = slot(e);
+        while (keys[slot] != FREE_KEY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = e;
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    mask = capacity - 1;
+    threshold = (int) (capacity * MAX_LOAD_FACTOR);
+  }
+
+  private int slot(long e) {
+    // the finalizer of MurmurHash3, block ids are often sequential
+    long h = e;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h & mask;
+  }
+
+  private static int capacityFor(int expectedSize) {
+    long needed = (long) Math.ceil(expectedSize / MAX_LOAD_FACTOR) + 1;
+    int capacity = MINIMUM_CAPACITY;
+    while (capacity < needed && capacity < MAXIMUM_CAPACITY) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+}
@@ -15,10 +15,20 @@
  */
 package se.sics.hop.common;
 
-import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 
 /**
+ * A queue of id ranges fetched from the variables table. Ids are handed out
+ * without locking: every thread claims a small chunk of ids from the head
+ * range with a single atomic add and serves the following calls from that
+ * chunk. When the queue runs dry a thread asks the {@link IDsMonitor} for
+ * an immediate refill and waits a bounded time for it. The ids left in the
+ * chunk of a thread which exited are put back into the queue, so at most
+ * one chunk per live thread is held back from the other threads.
  *
  * @author Mahmoud Ismail <maism@sics.se>
  */
@@ -27,20 +37,24 @@ public class CountersQueue {
   public static class Counter {
     private final long start;
     private final long end;
-    private long current;
+    private final AtomicLong current;
 
     public Counter(long start, long end) {
       this.start = start;
       this.end = end;
-      this.current = start;
+      this.current = new AtomicLong(start);
     }
 
     public long next() {
-      return current++;
+      return current.getAndIncrement();
     }
 
     public boolean hasNext() {
-      return current < end;
+      return current.get() < end;
+    }
+
+    long remaining() {
+      return Math.max(0, end - current.get());
     }
 
     @Override
@@ -48,56 +62,183 @@ public String toString() {
       return "Counter{" + "end=" + end + ", current=" + current + '}';
     }
   }
-  
+
   public class EmptyCountersQueueException extends RuntimeException {
   }
-  
-  private int available;
-  //private int promises;
-  private Queue<Counter> queue;
+
+  private final Queue<Counter> queue;
+  private final int threadChunkSize;
+  private final long depletionWaitMs;
+  private final AtomicLong claimed = new AtomicLong();
+  private long lastSampledClaimed;
+  private final AtomicLong refills = new AtomicLong();
+  private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<Chunk>();
+  private final ThreadLocal<Chunk> threadChunk = new ThreadLocal<Chunk>() {
+    @Override
+    protected Chunk initialValue() {
+      Chunk chunk = new Chunk(Thread.currentThread());
+      chunks.offer(chunk);
+      return chunk;
+    }
+  };
+
+  /**
+   * The ids claimed by one thread, only changed by that thread. They are
+   * read by other threads once it is not alive anymore.
+   */
+  private static final class Chunk {
+    private final Thread owner;
+    private long next;
+    private long end;
+
+    private Chunk(Thread owner) {
+      this.owner = owner;
+    }
+  }
 
   public CountersQueue() {
-    queue = new ArrayDeque<CountersQueue.Counter>();
-    available = 0;
-    //promises = 0;
+    this(1, 0);
+  }
+
+  /**
+   * @param threadChunkSize the number of ids a thread claims at once
+   * @param depletionWaitMs how long a thread waits for a refill when the
+   * queue is empty before it gives up
+   */
+  public CountersQueue(int threadChunkSize, long depletionWaitMs) {
+    this.queue = new ConcurrentLinkedQueue<Counter>();
+    this.threadChunkSize = Math.max(1, threadChunkSize);
+    this.depletionWaitMs = depletionWaitMs;
   }
 
-  public synchronized void addCounter(long start, long end) {
+  public void addCounter(long start, long end) {
     addCounter(new Counter(start, end));
   }
 
-  public synchronized void addCounter(Counter counter) {
+  public void addCounter(Counter counter) {
     queue.offer(counter);
-    available += counter.end - counter.start;
+    refills.incrementAndGet();
+    synchronized (this) {
+      notifyAll();
+    }
   }
-  
-  
-  public synchronized long next() {
+
+  public long next() {
+    Chunk chunk = threadChunk.get();
+    if (chunk.next < chunk.end) {
+      return chunk.next++;
+    }
+    if (!claim(chunk)) {
+      awaitRefill(chunk);
+    }
+    return chunk.next++;
+  }
+
+  /**
+   * Claims the next ids into the chunk of the calling thread.
+   */
+  private boolean claim(Chunk chunk) {
     Counter c = queue.peek();
     while (c != null) {
-      if (c.hasNext()) {
-        available--;
-        //promises--;
-        return c.next();
-      } else {
-        queue.remove();
-        c = queue.peek();
+      long first = c.current.getAndAdd(threadChunkSize);
+      if (first < c.end) {
+        chunk.next = first;
+        chunk.end = Math.min(first + threadChunkSize, c.end);
+        claimed.addAndGet(chunk.end - chunk.next);
+        return true;
       }
+      queue.remove(c);
+      c = queue.peek();
     }
-    throw new EmptyCountersQueueException();
+    return false;
   }
-  
-  public synchronized boolean has(int expectedNumOfIds){
+
+  /**
+   * Waits for a refill. The queue is only claimed from outside the monitor,
+   * which is held just to wait for the next refill.
+   */
+  private void awaitRefill(Chunk chunk) {
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrIdQueueDepletions();
+    }
+    long deadline = System.currentTimeMillis() + depletionWaitMs;
+    long seenRefills = refills.get();
+    if (reclaimStrandedChunks() && claim(chunk)) {
+      return;
+    }
+    IDsMonitor.getInstance().refillNow();
+    while (!claim(chunk)) {
+      long wait = deadline - System.currentTimeMillis();
+      if (wait <= 0) {
+        throw new EmptyCountersQueueException();
+      }
+      synchronized (this) {
+        try {
+          if (refills.get() == seenRefills) {
+            wait(wait);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new EmptyCountersQueueException();
+        }
+      }
+      seenRefills = refills.get();
+    }
+  }
+
+  /**
+   * Puts the ids left in the chunks of the threads which exited back into
+   * the queue.
+   *
+   * @return true if ids were put back
+   */
+  boolean reclaimStrandedChunks() {
+    boolean reclaimed = false;
+    for (Chunk chunk : chunks) {
+      // only the thread which removes the chunk puts its ids back
+      if (chunk.owner.isAlive() || !chunks.remove(chunk)) {
+        continue;
+      }
+      if (chunk.next < chunk.end) {
+        claimed.addAndGet(-(chunk.end - chunk.next));
+        addCounter(chunk.next, chunk.end);
+        reclaimed = true;
+      }
+    }
+    return reclaimed;
+  }
+
+  /**
+   * @return true if at least the given number of ids is left in the queue,
+   * not counting the chunks already claimed by threads
+   */
+  public boolean has(int expectedNumOfIds) {
+    long available = 0;
+    for (Counter c : queue) {
+      available += c.remaining();
+      if (available >= expectedNumOfIds) {
+        return true;
+      }
+    }
     return available >= expectedNumOfIds;
   }
-  
-//  public synchronized boolean promise(int expectedNumOfIds) {
-//    promises += expectedNumOfIds;
-//    return available >= promises;
-//  }
+
+  /**
+   * @return the number of ids claimed since the previous call. Used by the
+   * single refilling thread to estimate the allocation rate, which also
+   * puts back the ids of the threads which exited.
+   */
+  synchronized long sampleDemand() {
+    reclaimStrandedChunks();
+    long current = claimed.get();
+    long demand = current - lastSampledClaimed;
+    lastSampledClaimed = current;
+    return Math.max(0, demand);
+  }
 
   @Override
   public String toString() {
-    return "CountersQueue{" + "available=" + available + ", queue=" + queue + '}';
+    return "CountersQueue{" + "queue=" + queue + '}';
   }
 }
@@ -30,9 +30,10 @@ public class HopBlockIdGen {
   private static int BATCH_SIZE;
   private static CountersQueue cQ;
   
-  public static void setBatchSize(int batchSize) {
+  public static void setConfiguration(int batchSize, int threadChunkSize,
+      long depletionWaitMs) {
     BATCH_SIZE = batchSize;
-    cQ = new CountersQueue();
+    cQ = new CountersQueue(threadChunkSize, depletionWaitMs);
   }
 
   public static int getUniqueBlockId(){
@@ -40,8 +41,9 @@ public static int getUniqueBlockId(){
   }
 
   public synchronized static boolean getMoreIdsIfNeeded(int threshold) throws IOException {
-    if (!cQ.has(threshold)) {
-      cQ.addCounter(Variables.incrementBlockIdCounter(BATCH_SIZE));
+    int demand = (int) Math.min(Integer.MAX_VALUE / 2, cQ.sampleDemand());
+    if (!cQ.has(Math.max(threshold, 2 * demand))) {
+      cQ.addCounter(Variables.incrementBlockIdCounter(Math.max(BATCH_SIZE, 2 * demand)));
       return true;
     }
     return false;
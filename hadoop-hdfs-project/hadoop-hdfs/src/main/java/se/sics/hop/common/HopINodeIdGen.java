@@ -27,18 +27,25 @@ public class HopINodeIdGen {
   private static int BATCH_SIZE;
   private static CountersQueue cQ;
   
-  public static void setBatchSize(int batchSize) {
+  public static void setConfiguration(int batchSize, int threadChunkSize,
+      long depletionWaitMs) {
     BATCH_SIZE = batchSize;
-    cQ = new CountersQueue();
+    cQ = new CountersQueue(threadChunkSize, depletionWaitMs);
   }
 
   public static int getUniqueINodeID(){
     return (int) cQ.next();
   }
 
+  /**
+   * Fetches a new range if less than the threshold, or less than twice the
+   * number of ids allocated since the previous check, is left. The range
+   * grows with the allocation rate as well.
+   */
   public synchronized static boolean getMoreIdsIfNeeded(int threshold) throws IOException {
-    if (!cQ.has(threshold)) {
-      cQ.addCounter(Variables.incrementINodeIdCounter(BATCH_SIZE));
+    int demand = (int) Math.min(Integer.MAX_VALUE / 2, cQ.sampleDemand());
+    if (!cQ.has(Math.max(threshold, 2 * demand))) {
+      cQ.addCounter(Variables.incrementINodeIdCounter(Math.max(BATCH_SIZE, 2 * demand)));
       return true;
     }
     return false;
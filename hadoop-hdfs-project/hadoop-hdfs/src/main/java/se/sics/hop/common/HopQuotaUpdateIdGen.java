@@ -24,9 +24,10 @@ public class HopQuotaUpdateIdGen {
   private static int BATCH_SIZE;
   private static CountersQueue cQ;
   
-  public static void setBatchSize(int batchSize) {
+  public static void setConfiguration(int batchSize, int threadChunkSize,
+      long depletionWaitMs) {
     BATCH_SIZE = batchSize;
-    cQ = new CountersQueue();
+    cQ = new CountersQueue(threadChunkSize, depletionWaitMs);
   }
 
   public static int getUniqueQuotaUpdateId(){
@@ -34,8 +35,9 @@ public static int getUniqueQuotaUpdateId(){
   }
 
   public synchronized static boolean getMoreIdsIfNeeded(int threshold) throws IOException {
-    if (!cQ.has(threshold)) {
-      cQ.addCounter(Variables.incrementQuotaUpdateIdCounter(BATCH_SIZE));
+    int demand = (int) Math.min(Integer.MAX_VALUE / 2, cQ.sampleDemand());
+    if (!cQ.has(Math.max(threshold, 2 * demand))) {
+      cQ.addCounter(Variables.incrementQuotaUpdateIdCounter(Math.max(BATCH_SIZE, 2 * demand)));
       return true;
     }
     return false;
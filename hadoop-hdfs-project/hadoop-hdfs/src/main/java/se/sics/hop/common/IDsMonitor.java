@@ -20,6 +20,8 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 
 /**
  *
@@ -34,6 +36,8 @@ public class IDsMonitor implements Runnable {
   private int blockIdsThreshold;
   private int quotaUpdateIdsThreshold;
   private int checkInterval;
+  private final Object refillLock = new Object();
+  private boolean refillRequested = false;
 
   private IDsMonitor() {
   }
@@ -52,7 +56,9 @@ public void setConfiguration(Configuration conf) {
         conf.getFloat(DFSConfigKeys.DFS_NAMENODE_INODEID_UPDATE_THRESHOLD, DFSConfigKeys.DFS_NAMENODE_INODEID_UPDATE_THRESHOLD_DEFAULT),
         conf.getFloat(DFSConfigKeys.DFS_NAMENODE_BLOCKID_UPDATE_THRESHOLD, DFSConfigKeys.DFS_NAMENODE_BLOCKID_UPDATE_THRESHOLD_DEFAULT),
         conf.getFloat(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_ID_UPDATE_THRESHOLD, DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_ID_UPDATE_THRESHOLD_DEFAULT),
-        conf.getInt(DFSConfigKeys.DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS, DFSConfigKeys.DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS_DEFAULT));
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS, DFSConfigKeys.DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS_DEFAULT),
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_ID_THREAD_CHUNK_SIZE, DFSConfigKeys.DFS_NAMENODE_ID_THREAD_CHUNK_SIZE_DEFAULT),
+        conf.getLong(DFSConfigKeys.DFS_NAMENODE_ID_DEPLETION_WAIT_IN_MS, DFSConfigKeys.DFS_NAMENODE_ID_DEPLETION_WAIT_IN_MS_DEFAULT));
   }
 
   public void setConfiguration(
@@ -62,11 +68,13 @@ public void setConfiguration(
       float inodeIdsThreshold,
       float blockIdsThreshold,
       float quotaUpdateIdsThreshold,
-      int checkInterval) {
+      int checkInterval,
+      int threadChunkSize,
+      long depletionWaitMs) {
 
-    HopINodeIdGen.setBatchSize(inodeIdsBatchSize);
-    HopBlockIdGen.setBatchSize(blockIdsBatchSize);
-    HopQuotaUpdateIdGen.setBatchSize(quotaUpdateIdsBatchSize);
+    HopINodeIdGen.setConfiguration(inodeIdsBatchSize, threadChunkSize, depletionWaitMs);
+    HopBlockIdGen.setConfiguration(blockIdsBatchSize, threadChunkSize, depletionWaitMs);
+    HopQuotaUpdateIdGen.setConfiguration(quotaUpdateIdsBatchSize, threadChunkSize, depletionWaitMs);
     this.inodeIdsThreshold = (int) (inodeIdsThreshold * inodeIdsBatchSize);
     this.blockIdsThreshold = (int) (blockIdsThreshold * blockIdsBatchSize);
     this.quotaUpdateIdsThreshold = (int) (quotaUpdateIdsThreshold * quotaUpdateIdsBatchSize);
@@ -84,6 +92,27 @@ public void start() {
   public void run() {
     while (true) {
       getNewIds();
+      try {
+        synchronized (refillLock) {
+          if (!refillRequested) {
+            refillLock.wait(checkInterval);
+          }
+          refillRequested = false;
+        }
+      } catch (InterruptedException ex) {
+        LOG.warn("IDsMonitor interrupted: " + ex);
+      }
+    }
+  }
+
+  /**
+   * Wakes the monitor up before its next check, used by the handlers which
+   * ran out of ids.
+   */
+  void refillNow() {
+    synchronized (refillLock) {
+      refillRequested = true;
+      refillLock.notifyAll();
     }
   }
 
@@ -91,20 +120,27 @@ private void getNewIds() {
     try {
       if (HopINodeIdGen.getMoreIdsIfNeeded(inodeIdsThreshold)) {
         LOG.debug("get more inode ids " + HopINodeIdGen.getCQ());
+        incrRefills();
       }
 
       if (HopBlockIdGen.getMoreIdsIfNeeded(blockIdsThreshold)) {
         LOG.debug("get more block ids " + HopBlockIdGen.getCQ());
+        incrRefills();
       }
 
       if (HopQuotaUpdateIdGen.getMoreIdsIfNeeded(quotaUpdateIdsThreshold)) {
         LOG.debug("get more quota update ids " + HopQuotaUpdateIdGen.getCQ());
+        incrRefills();
       }
-      Thread.sleep(checkInterval);
-    } catch (InterruptedException ex) {
-      LOG.warn("IDsMonitor interrupted: " + ex);
     } catch (IOException ex) {
       LOG.warn("IDsMonitor got exception: " + ex);
     }
   }
+
+  private void incrRefills() {
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrIdRangeRefills();
+    }
+  }
 }
@@ -25,6 +25,11 @@
 import se.sics.hop.exception.StorageException;
 import se.sics.hop.exception.TransactionContextException;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 public class INodeResolver {
@@ -88,6 +93,66 @@ public INode next() throws UnresolvedPathException, StorageException,
     return currentInode;
   }
 
+  /**
+   * Resolves the components following the current one up to and including
+   * {@code lastComponent} with a single batched primary key read. The parent
+   * ids are taken from {@code parentIdsHint}, where {@code parentIdsHint[i]}
+   * is the expected id of the parent of component {@code i + 1}. A hint
+   * covering only a prefix of the path resolves the components it covers.
+   * <p>
+   * The inodes read are verified against the hint in path order and the
+   * resolution stops at the first inode which does not match, or which is
+   * not a directory. Only verified inodes are returned and the resolver is
+   * advanced past them, so that {@link #next()} continues step by step if
+   * the hint turned out to be stale.
+   *
+   * @return the verified inodes, empty if the hint did not match at all
+   */
+  public List<INode> nextBatch(int[] parentIdsHint, int lastComponent)
+      throws StorageException, TransactionContextException {
+    int first = count + 1;
+    if (parentIdsHint == null) {
+      return Collections.emptyList();
+    }
+    lastComponent = Math.min(lastComponent,
+        Math.min(components.length - 1, parentIdsHint.length));
+    if (currentInode == null || !currentInode.isDirectory() ||
+        first > lastComponent ||
+        parentIdsHint[count] != currentInode.getId()) {
+      return Collections.emptyList();
+    }
+
+    int batchSize = lastComponent - first + 1;
+    String[] names = new String[batchSize];
+    int[] parentIds = new int[batchSize];
+    for (int i = 0; i < batchSize; i++) {
+      names[i] = DFSUtil.bytes2String(components[first + i]);
+      parentIds[i] = parentIdsHint[first + i - 1];
+    }
+
+    Map<String, INode> inodes = new HashMap<String, INode>();
+    for (INode inode : INodeUtil.getNodes(names, parentIds, transactional)) {
+      inodes.put(inode.nameParentKey(), inode);
+    }
+
+    List<INode> verified = new ArrayList<INode>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      INode inode = inodes.get(INode.nameParentKey(currentInode.getId(),
+          names[i]));
+      if (inode == null || inode.getParentId() != currentInode.getId() ||
+          !inode.getLocalName().equals(names[i])) {
+        break;
+      }
+      verified.add(inode);
+      currentInode = inode;
+      count++;
+      if (!inode.isDirectory()) {
+        break;
+      }
+    }
+    return verified;
+  }
+
   public int getCount() {
     return count;
   }
@@ -15,7 +15,6 @@
 import se.sics.hop.exception.TransactionContextException;
 import se.sics.hop.metadata.INodeIdentifier;
 import se.sics.hop.metadata.StorageFactory;
-import se.sics.hop.metadata.adaptor.INodeDALAdaptor;
 import se.sics.hop.metadata.hdfs.dal.BlockLookUpDataAccess;
 import se.sics.hop.metadata.hdfs.dal.INodeDataAccess;
 import se.sics.hop.metadata.hdfs.dal.LeaseDataAccess;
@@ -27,10 +26,13 @@
 import se.sics.hop.transaction.handler.LightWeightRequestHandler;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -64,6 +66,24 @@ public static INode getNode(
     }
   }
 
+  public static List<INode> getNodes(
+      String[] names,
+      int[] parentIds,
+      boolean transactional)
+      throws StorageException, TransactionContextException {
+    if (transactional) {
+      return (List<INode>) EntityManager
+          .findList(INode.Finder.ByPKS, names, parentIds);
+    } else {
+      LOG.debug(String.format(
+          "Read %d inodes with no transaction by parent-ids and names",
+          names.length));
+      INodeDataAccess<INode> da =
+          (INodeDataAccess) StorageFactory.getDataAccess(INodeDataAccess.class);
+      return da.getINodesPkBatched(names, parentIds);
+    }
+  }
+
   private static INode findINodeWithNoTransaction(
       String name,
       int parentId)
@@ -245,7 +265,7 @@ public Object performTask() throws IOException {
           return null;
         }
         INodeIdentifier inodeIdent = new INodeIdentifier(blu.getInodeId());
-        INodeDALAdaptor ida = (INodeDALAdaptor) StorageFactory
+        INodeDataAccess<INode> ida = (INodeDataAccess) StorageFactory
             .getDataAccess(INodeDataAccess.class);
         INode inode = ida.indexScanfindInodeById(blu.getInodeId());
         if (inode != null) {
@@ -269,8 +289,8 @@ public static INodeIdentifier resolveINodeFromBlock(final Block b)
     if (b instanceof BlockInfo || b instanceof BlockInfoUnderConstruction) {
       INodeIdentifier inodeIden =
           new INodeIdentifier(((BlockInfo) b).getInodeId());
-      INodeDALAdaptor ida =
-          (INodeDALAdaptor) StorageFactory.getDataAccess(INodeDataAccess.class);
+      INodeDataAccess<INode> ida =
+          (INodeDataAccess) StorageFactory.getDataAccess(INodeDataAccess.class);
       INode inode = ida.indexScanfindInodeById(((BlockInfo) b).getInodeId());
       if (inode != null) {
         inodeIden.setName(inode.getLocalName());
@@ -310,7 +330,7 @@ public static INodeIdentifier resolveINodeFromId(final int id)
 
           @Override
           public Object performTask() throws StorageException, IOException {
-            INodeDALAdaptor ida = (INodeDALAdaptor) StorageFactory
+            INodeDataAccess<INode> ida = (INodeDataAccess) StorageFactory
                 .getDataAccess(INodeDataAccess.class);
             INode inode = ida.indexScanfindInodeById(id);
             INodeIdentifier inodeIdent = new INodeIdentifier(id);
@@ -330,6 +350,83 @@ public Object performTask() throws StorageException, IOException {
     return inodeIdentifier;
   }
 
+  /**
+   * The largest gap between two sorted ids which are still read by the same
+   * range scan. The files in the gap are read along and dropped.
+   */
+  private static final int MAX_RANGE_SCAN_GAP = 32;
+
+  /**
+   * Resolves the names and parent ids of the given inodes in one request.
+   * The name of the identifier of an inode which does not exist is null.
+   * <p>
+   * The inodes table has no key on the id, so the files are read with one
+   * range scan over the file ids per run of close ids instead of one index
+   * scan per id. The ids which are not found by the range scans, directories
+   * and deleted files, are still read one by one.
+   */
+  public static INodeIdentifier[] resolveINodesFromIds(final int[] ids)
+      throws StorageException {
+    return resolveINodesFromIds(ids, true);
+  }
+
+  /**
+   * @param files whether the ids are mostly of files, the range scans are
+   * skipped if not
+   * @see #resolveINodesFromIds(int[])
+   */
+  public static INodeIdentifier[] resolveINodesFromIds(final int[] ids,
+      final boolean files) throws StorageException {
+    LightWeightRequestHandler handler =
+        new LightWeightRequestHandler(HDFSOperationType.RESOLVE_INODES_FROM_IDS) {
+
+          @Override
+          public Object performTask() throws StorageException, IOException {
+            INodeDataAccess<INode> ida = (INodeDataAccess) StorageFactory
+                .getDataAccess(INodeDataAccess.class);
+            Map<Integer, INodeIdentifier> found =
+                new HashMap<Integer, INodeIdentifier>();
+            int[] sorted = ids.clone();
+            Arrays.sort(sorted);
+            int start = 0;
+            for (int i = 1; files && i <= sorted.length; i++) {
+              if (i == sorted.length ||
+                  sorted[i] - sorted[i - 1] > MAX_RANGE_SCAN_GAP) {
+                // one past each end, whichever end the scan excludes
+                for (INodeIdentifier file : ida.getAllINodeFiles(
+                    sorted[start] - 1L, sorted[i - 1] + 1L)) {
+                  found.put(file.getInodeId(), file);
+                }
+                start = i;
+              }
+            }
+
+            INodeIdentifier[] inodeIdents = new INodeIdentifier[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+              inodeIdents[i] = new INodeIdentifier(ids[i]);
+              INodeIdentifier file = found.get(ids[i]);
+              if (file != null) {
+                inodeIdents[i].setName(file.getName());
+                inodeIdents[i].setPid(file.getPid());
+                continue;
+              }
+              INode inode = ida.indexScanfindInodeById(ids[i]);
+              if (inode != null) {
+                inodeIdents[i].setName(inode.getLocalName());
+                inodeIdents[i].setPid(inode.getParentId());
+              }
+            }
+            return inodeIdents;
+          }
+        };
+
+    try {
+      return (INodeIdentifier[]) handler.handle();
+    } catch (IOException ex) {
+      throw new StorageException(ex.getMessage());
+    }
+  }
+
   public static String constructPath(List<INode> pathINodes) {
     StringBuilder builder = new StringBuilder();
     for (INode node : pathINodes) {
@@ -18,6 +18,7 @@
 
 package se.sics.hop.erasure_coding;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -178,4 +179,49 @@ public void decodeBulk(byte[][] readBufs, byte[][] writeBufs,
       }
     }
   }
+
+  /**
+   * Encodes the bytes from the position to the limit of the buffers, without
+   * moving their positions. This implementation copies the buffers to
+   * arrays, subclasses may override it to use the buffers directly.
+   */
+  public void encodeBulk(ByteBuffer[] inputs, ByteBuffer[] outputs) {
+    byte[][] inputArrays = toArrays(inputs, true);
+    byte[][] outputArrays = toArrays(outputs, false);
+    encodeBulk(inputArrays, outputArrays);
+    fromArrays(outputArrays, outputs);
+  }
+
+  /**
+   * Decodes the bytes from the position to the limit of the buffers, without
+   * moving their positions. This implementation copies the buffers to
+   * arrays, subclasses may override it to use the buffers directly.
+   */
+  public void decodeBulk(ByteBuffer[] readBufs, ByteBuffer[] writeBufs,
+      int[] erasedLocations, int[] locationsToRead, int[] locationsNotToRead) {
+    byte[][] readArrays = toArrays(readBufs, true);
+    byte[][] writeArrays = toArrays(writeBufs, false);
+    decodeBulk(readArrays, writeArrays, erasedLocations, locationsToRead,
+        locationsNotToRead);
+    fromArrays(writeArrays, writeBufs);
+  }
+
+  private static byte[][] toArrays(ByteBuffer[] buffers, boolean copy) {
+    byte[][] arrays = new byte[buffers.length][];
+    for (int i = 0; i < buffers.length; i++) {
+      if (buffers[i] != null) {
+        arrays[i] = new byte[buffers[i].remaining()];
+        if (copy) {
+          buffers[i].duplicate().get(arrays[i]);
+        }
+      }
+    }
+    return arrays;
+  }
+
+  private static void fromArrays(byte[][] arrays, ByteBuffer[] buffers) {
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i].duplicate().put(arrays[i]);
+    }
+  }
 }
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.erasure_coding;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * An encoding or a repair run by the local managers. The status is reported
+ * as ACTIVE until the job ends, a job which is canceled stops at the next
+ * chunk it reads.
+ */
+abstract class ErasureCodingJob implements Runnable {
+
+  static final Log LOG = LogFactory.getLog(ErasureCodingJob.class);
+
+  private final String path;
+  private volatile Report.Status status = Report.Status.ACTIVE;
+  private volatile boolean canceled = false;
+
+  /**
+   * @param path the path the reports of the job are for
+   */
+  ErasureCodingJob(String path) {
+    this.path = path;
+  }
+
+  String getPath() {
+    return path;
+  }
+
+  Report.Status getStatus() {
+    return status;
+  }
+
+  void cancel() {
+    canceled = true;
+  }
+
+  void checkCanceled() {
+    if (canceled) {
+      throw new CancellationException(path);
+    }
+  }
+
+  @Override
+  public final void run() {
+    try {
+      checkCanceled();
+      execute();
+      status = Report.Status.FINISHED;
+    } catch (CancellationException e) {
+      LOG.info("Canceled " + this);
+      cleanUp();
+      status = Report.Status.CANCELED;
+    } catch (Throwable e) {
+      LOG.error("Failed " + this, e);
+      cleanUp();
+      status = Report.Status.FAILED;
+    }
+  }
+
+  abstract void execute() throws IOException;
+
+  /**
+   * Removes what a job which did not finish has written.
+   */
+  void cleanUp() {
+  }
+}
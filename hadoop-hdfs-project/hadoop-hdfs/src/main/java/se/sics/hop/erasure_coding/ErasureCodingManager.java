@@ -109,6 +109,12 @@ public void close() {
       }
     } catch (InterruptedException ie) {
     }
+    if (encodingManager != null) {
+      encodingManager.cancelAll();
+    }
+    if (blockRepairManager != null) {
+      blockRepairManager.cancelAll();
+    }
     LOG.info("ErasureCodingMonitor stopped");
   }
 
@@ -489,7 +495,7 @@ public Object performTask() throws IOException {
         blockRepairManager.repairParityBlocks(encodingStatus.getEncodingPolicy().getCodec(), new Path(path),
             new Path(parityFolder + "/" + encodingStatus.getParityFileName()));
         LOG.info("Scheulded job for parity repair " + encodingStatus);
-        activeRepairs++;
+        activeParityRepairs++;
       }
     } catch (IOException e) {
       LOG.error(e);
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sics.hop.erasure_coding;
+
+/**
+ * Arithmetic in GF(2^8) with the primitive polynomial x^8+x^4+x^3+x^2+1, the
+ * field the Reed-Solomon codes of raid use. The products of all the pairs of
+ * elements are kept in a table, so a buffer is multiplied by a constant
+ * with one lookup per byte.
+ */
+final class GaloisField {
+
+  static final int FIELD_SIZE = 256;
+  private static final int PRIMITIVE_POLYNOMIAL = 285;
+
+  private static final int[] EXP = new int[2 * FIELD_SIZE];
+  private static final int[] LOG = new int[FIELD_SIZE];
+  private static final byte[][] MUL = new byte[FIELD_SIZE][FIELD_SIZE];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < FIELD_SIZE - 1; i++) {
+      EXP[i] = x;
+      LOG[x] = i;
+      x <<= 1;
+      if (x >= FIELD_SIZE) {
+        x ^= PRIMITIVE_POLYNOMIAL;
+      }
+    }
+    for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+      EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+    }
+    for (int a = 0; a < FIELD_SIZE; a++) {
+      for (int b = 0; b < FIELD_SIZE; b++) {
+        MUL[a][b] = (byte) multiply(a, b);
+      }
+    }
+  }
+
+  private GaloisField() {
+  }
+
+  static int add(int a, int b) {
+    return a ^ b;
+  }
+
+  static int multiply(int a, int b) {
+    if (a == 0 || b == 0) {
+      return 0;
+    }
+    return EXP[LOG[a] + LOG[b]];
+  }
+
+  static int divide(int a, int b) {
+    if (b == 0) {
+      throw new ArithmeticException("Division by zero");
+    }
+    if (a == 0) {
+      return 0;
+    }
+    return EXP[LOG[a] - LOG[b] + FIELD_SIZE - 1];
+  }
+
+  static int power(int a, int n) {
+    if (n == 0) {
+      return 1;
+    }
+    if (a == 0) {
+      return 0;
+    }
+    return EXP[(int) ((long) LOG[a] * n % (FIELD_SIZE - 1))];
+  }
+
+  /**
+   * @return the products of c with all the elements, indexed by the element
+   */
+  static byte[] multiplicationTable(int c) {
+    return MUL[c];
+  }
+
+  /**
+   * @return the product of the polynomials, with the coefficients in
+   * ascending order of the powers
+   */
+  static int[] multiplyPolynomials(int[] p, int[] q) {
+    int[] result = new int[p.length + q.length - 1];
+    for (int i = 0; i < p.length; i++) {
+      for (int j = 0; j < q.length; j++) {
+        result[i + j] ^= multiply(p[i], q[j]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Inverts a square matrix with Gauss-Jordan elimination.
+   *
+   * @throws IllegalArgumentException if the matrix is singular
+   */
+  static int[][] invert(int[][] matrix) {
+    int n = matrix.length;
+    int[][] work = new int[n][2 * n];
+    for (int i = 0; i < n; i++) {
+      System.arraycopy(matrix[i], 0, work[i], 0, n);
+      work[i][n + i] = 1;
+    }
+    for (int col = 0; col < n; col++) {
+      int pivot = col;
+      while (pivot < n && work[pivot][col] == 0) {
+        pivot++;
+      }
+      if (pivot == n) {
+        throw new IllegalArgumentException("Singular matrix");
+      }
+      int[] tmp = work[col];
+      work[col] = work[pivot];
+      work[pivot] = tmp;
+
+      int scale = divide(1, work[col][col]);
+      for (int j = 0; j < 2 * n; j++) {
+        work[col][j] = multiply(work[col][j], scale);
+      }
+      for (int row = 0; row < n; row++) {
+        int factor = work[row][col];
+        if (row != col && factor != 0) {
+          for (int j = 0; j < 2 * n; j++) {
+            work[row][j] ^= multiply(factor, work[col][j]);
+          }
+        }
+      }
+    }
+    int[][] inverse = new int[n][n];
+    for (int i = 0; i < n; i++) {
+      System.arraycopy(work[i], n, inverse[i], 0, n);
+    }
+    return inverse;
+  }
+}
@@ -0,0 +1,317 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.erasure_coding;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.RepairedBlockOutputStream;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Daemon;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Repairs the lost blocks of encoded files on the namenode, without a raid
+ * node. The stripes with lost blocks are read chunk by chunk, the blocks at
+ * the locations needed to decode in parallel, and the lost blocks are
+ * written to the datanodes the namenode chooses while they are decoded.
+ * <p>
+ * The repaired blocks keep their ids, so they are written with
+ * {@link RepairedBlockOutputStream} instead of a DFSOutputStream, and the
+ * datanodes report them to the namenode when they are complete. A lost
+ * parity block is computed again from the message blocks of its stripe.
+ * <p>
+ * The stripes are read and the repaired blocks written by the namenode, so
+ * this manager is only used when it is configured as
+ * {@link DFSConfigKeys#BLOCK_REPAIR_MANAGER_CLASSNAME_KEY}. Only the leader
+ * schedules repairs, and the bytes its jobs read and write are limited to
+ * {@link DFSConfigKeys#LOCAL_BANDWIDTH_KEY} per second.
+ */
+public class LocalBlockRepairManager extends BlockRepairManager {
+
+  static final Log LOG = LogFactory.getLog(LocalBlockRepairManager.class);
+
+  private final LocalJobs jobs;
+  private final ExecutorService ioPool;
+  private final DataTransferThrottler throttler;
+  private final int chunkSize;
+  private DistributedFileSystem dfs;
+
+  public LocalBlockRepairManager(Configuration conf) {
+    super(conf);
+    this.jobs = new LocalJobs(
+        conf.getInt(DFSConfigKeys.ACTIVE_REPAIR_LIMIT_KEY,
+            DFSConfigKeys.DEFAULT_ACTIVE_REPAIR_LIMIT)
+        + conf.getInt(DFSConfigKeys.ACTIVE_PARITY_REPAIR_LIMIT_KEY,
+            DFSConfigKeys.DEFAULT_ACTIVE_PARITY_REPAIR_LIMIT));
+    this.ioPool = Executors.newFixedThreadPool(
+        conf.getInt(DFSConfigKeys.LOCAL_IO_THREADS_KEY,
+            DFSConfigKeys.DEFAULT_LOCAL_IO_THREADS),
+        new Daemon.DaemonFactory());
+    this.throttler = LocalJobs.newThrottler(conf);
+    this.chunkSize = conf.getInt(DFSConfigKeys.LOCAL_CHUNK_SIZE_KEY,
+        DFSConfigKeys.DEFAULT_LOCAL_CHUNK_SIZE);
+  }
+
+  @Override
+  public void repairSourceBlocks(String codecId, Path sourceFile,
+      Path parityFile) {
+    jobs.submit(new RepairJob(codecId, sourceFile, parityFile, false));
+  }
+
+  /**
+   * The report of a parity repair is for the parity file, so the
+   * ErasureCodingManager can tell it from a source repair.
+   */
+  @Override
+  public void repairParityBlocks(String codecId, Path sourceFile,
+      Path parityFile) {
+    jobs.submit(new RepairJob(codecId, sourceFile, parityFile, true));
+  }
+
+  @Override
+  public List<Report> computeReports() {
+    return jobs.computeReports();
+  }
+
+  @Override
+  public void cancelAll() {
+    jobs.cancelAll();
+  }
+
+  @Override
+  public void cancel(String path) {
+    jobs.cancel(path);
+  }
+
+  /**
+   * The file system is opened with the first job, the namenode might not
+   * serve requests yet when the manager is created.
+   */
+  synchronized DistributedFileSystem getFileSystem() throws IOException {
+    if (dfs == null) {
+      dfs = (DistributedFileSystem) FileSystem.newInstance(
+          FileSystem.getDefaultUri(getConf()), getConf());
+    }
+    return dfs;
+  }
+
+  static boolean isLost(LocatedBlock block) {
+    return block.getLocations().length == 0 || block.isCorrupt();
+  }
+
+  private class RepairJob extends ErasureCodingJob {
+    private final String codecId;
+    private final Path sourceFile;
+    private final Path parityFile;
+    private final boolean parity;
+
+    RepairJob(String codecId, Path sourceFile, Path parityFile,
+        boolean parity) {
+      super((parity ? parityFile : sourceFile).toUri().getPath());
+      this.codecId = codecId;
+      this.sourceFile = sourceFile;
+      this.parityFile = parityFile;
+      this.parity = parity;
+    }
+
+    @Override
+    void execute() throws IOException {
+      DistributedFileSystem dfs = getFileSystem();
+      Codec codec = Codec.getCodec(codecId);
+      if (codec == null) {
+        throw new IOException("Unknown codec " + codecId);
+      }
+      ErasureCode code = codec.createErasureCode(getConf());
+      FileStatus sourceStatus = dfs.getFileStatus(sourceFile);
+      FileStatus parityStatus = dfs.getFileStatus(parityFile);
+      List<LocatedBlock> sourceBlocks = dfs.getClient().getLocatedBlocks(
+          sourceFile.toUri().getPath(), 0, sourceStatus.getLen())
+          .getLocatedBlocks();
+      List<LocatedBlock> parityBlocks = dfs.getClient().getLocatedBlocks(
+          parityFile.toUri().getPath(), 0, parityStatus.getLen())
+          .getLocatedBlocks();
+
+      FSDataInputStream sourceIn = dfs.open(sourceFile);
+      FSDataInputStream parityIn = dfs.open(parityFile);
+      try {
+        StripeReader reader = new StripeReader(ioPool, throttler, this,
+            chunkSize, sourceStatus.getBlockSize(), code, sourceIn,
+            sourceStatus.getLen(), parityIn, parityStatus.getLen());
+        int stripes = (sourceBlocks.size() + code.stripeSize() - 1)
+            / code.stripeSize();
+        int repaired = 0;
+        for (int stripe = 0; stripe < stripes; stripe++) {
+          repaired += repairStripe(dfs.getClient(), code, reader, stripe,
+              sourceBlocks, parityBlocks);
+        }
+        LOG.info("Repaired " + repaired + " blocks of " + getPath());
+      } finally {
+        IOUtils.closeStream(sourceIn);
+        IOUtils.closeStream(parityIn);
+      }
+    }
+
+    /**
+     * @return the number of blocks repaired
+     */
+    private int repairStripe(DFSClient client, final ErasureCode code,
+        StripeReader reader, int stripe, List<LocatedBlock> sourceBlocks,
+        List<LocatedBlock> parityBlocks) throws IOException {
+      final int stripeSize = code.stripeSize();
+      final int paritySize = code.paritySize();
+      List<Integer> lostSource = new ArrayList<Integer>();
+      List<Integer> lostParity = new ArrayList<Integer>();
+      for (int i = 0; i < paritySize; i++) {
+        int index = stripe * paritySize + i;
+        if (index < parityBlocks.size() && isLost(parityBlocks.get(index))) {
+          lostParity.add(i);
+        }
+      }
+      for (int i = 0; i < stripeSize; i++) {
+        int index = stripe * stripeSize + i;
+        if (index < sourceBlocks.size() && isLost(sourceBlocks.get(index))) {
+          lostSource.add(paritySize + i);
+        }
+      }
+      final List<Integer> toRepair = parity ? lostParity : lostSource;
+      if (toRepair.isEmpty()) {
+        return 0;
+      }
+
+      final int[] locationsToRead;
+      if (parity) {
+        // the parity is computed again from the message
+        locationsToRead = new int[stripeSize];
+        for (int i = 0; i < stripeSize; i++) {
+          locationsToRead[i] = paritySize + i;
+        }
+      } else {
+        List<Integer> erased = new ArrayList<Integer>(lostSource);
+        erased.addAll(lostParity);
+        locationsToRead = toArray(code.locationsToReadForDecode(erased));
+      }
+
+      final RepairedBlockOutputStream[] outs =
+          new RepairedBlockOutputStream[toRepair.size()];
+      final long[] lengths = new long[toRepair.size()];
+      long repairLength = 0;
+      try {
+        for (int i = 0; i < outs.length; i++) {
+          int location = toRepair.get(i);
+          LocatedBlock lost = parity
+              ? parityBlocks.get(stripe * paritySize + location)
+              : sourceBlocks.get(stripe * stripeSize + location - paritySize);
+          LocatedBlock target = client.getRepairedBlockLocations(
+              sourceFile.toUri().getPath(), parityFile.toUri().getPath(),
+              lost, parity);
+          outs[i] = new RepairedBlockOutputStream(client, target);
+          lengths[i] = lost.getBlockSize();
+          repairLength = Math.max(repairLength, lengths[i]);
+        }
+
+        final int[] erasedLocations = toArray(lostSource);
+        final int[] locationsNotToRead = toArray(lostParity);
+        reader.readChunks(stripe, locationsToRead, repairLength,
+            new StripeReader.ChunkHandler() {
+              private byte[][] output;
+
+              @Override
+              public void handle(byte[][] buffers, long offset, int length)
+                  throws IOException {
+                if (parity) {
+                  if (output == null || output[0].length != length) {
+                    output = new byte[paritySize][length];
+                  }
+                  code.encodeBulk(Arrays.copyOfRange(buffers, paritySize,
+                      paritySize + stripeSize), output);
+                } else {
+                  if (output == null || output[0].length != length) {
+                    output = new byte[erasedLocations.length][length];
+                  }
+                  // only the codes of this package accept null buffers for
+                  // the locations which are not read
+                  byte[] zeros = null;
+                  for (int i = 0; i < buffers.length; i++) {
+                    if (buffers[i] == null) {
+                      zeros = zeros == null ? new byte[length] : zeros;
+                      buffers[i] = zeros;
+                    }
+                  }
+                  code.decodeBulk(buffers, output, erasedLocations,
+                      locationsToRead, locationsNotToRead);
+                }
+                for (int i = 0; i < outs.length; i++) {
+                  // the parity is written by location, the decoded message
+                  // in the order of the erased locations
+                  byte[] data = output[parity ? toRepair.get(i) : i];
+                  int n = (int) Math.max(0,
+                      Math.min(length, lengths[i] - offset));
+                  if (throttler != null) {
+                    throttler.throttle(n);
+                  }
+                  outs[i].write(data, 0, n);
+                }
+              }
+            });
+
+        for (int i = 0; i < outs.length; i++) {
+          outs[i].close();
+          outs[i] = null;
+        }
+      } finally {
+        // a failed repair must not finalize the short replicas
+        for (RepairedBlockOutputStream out : outs) {
+          if (out != null) {
+            out.abort();
+          }
+        }
+      }
+      return toRepair.size();
+    }
+
+    @Override
+    public String toString() {
+      return (parity ? "parity repair of " : "source repair of ")
+          + sourceFile + " with parity " + parityFile;
+    }
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+}
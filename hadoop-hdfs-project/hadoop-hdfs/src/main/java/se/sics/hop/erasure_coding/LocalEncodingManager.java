@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.erasure_coding;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Daemon;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_DEFAULT;
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_KEY;
+
+/**
+ * Encodes files on the namenode which schedules the encodings, without a
+ * raid node. The blocks of a stripe are read in parallel and encoded chunk
+ * by chunk, and the parity is written with one DFSOutputStream per parity
+ * block while the next chunk is read, so no block is held in memory.
+ * <p>
+ * Every parity block is written to a file of its own in the parity folder,
+ * the first one is renamed to the parity file and the others are
+ * concatenated to it in the order of the stripes. The parity blocks are
+ * padded to the block size of the source, which concat requires.
+ * <p>
+ * All the blocks of the encoded files pass through the namenode, so this
+ * manager is only used when it is configured as
+ * {@link DFSConfigKeys#ENCODING_MANAGER_CLASSNAME_KEY}. Only the leader
+ * schedules encodings, and the bytes its jobs read and write are limited to
+ * {@link DFSConfigKeys#LOCAL_BANDWIDTH_KEY} per second.
+ */
+public class LocalEncodingManager extends EncodingManager {
+
+  static final Log LOG = LogFactory.getLog(LocalEncodingManager.class);
+
+  private final LocalJobs jobs;
+  private final ExecutorService ioPool;
+  private final DataTransferThrottler throttler;
+  private final int chunkSize;
+  private DistributedFileSystem dfs;
+
+  public LocalEncodingManager(Configuration conf) {
+    super(conf);
+    this.jobs = new LocalJobs(conf.getInt(
+        DFSConfigKeys.ACTIVE_ENCODING_LIMIT_KEY,
+        DFSConfigKeys.DEFAULT_ACTIVE_ENCODING_LIMIT));
+    this.ioPool = Executors.newFixedThreadPool(
+        conf.getInt(DFSConfigKeys.LOCAL_IO_THREADS_KEY,
+            DFSConfigKeys.DEFAULT_LOCAL_IO_THREADS),
+        new Daemon.DaemonFactory());
+    this.throttler = LocalJobs.newThrottler(conf);
+    this.chunkSize = conf.getInt(DFSConfigKeys.LOCAL_CHUNK_SIZE_KEY,
+        DFSConfigKeys.DEFAULT_LOCAL_CHUNK_SIZE);
+  }
+
+  @Override
+  public void encodeFile(EncodingPolicy policy, Path sourceFile,
+      Path parityFile) {
+    jobs.submit(new EncodingJob(policy, sourceFile, parityFile));
+  }
+
+  @Override
+  public List<Report> computeReports() {
+    return jobs.computeReports();
+  }
+
+  @Override
+  public void cancelAll() {
+    jobs.cancelAll();
+  }
+
+  @Override
+  public void cancel(String path) {
+    jobs.cancel(path);
+  }
+
+  /**
+   * The file system is opened with the first job, the namenode might not
+   * serve requests yet when the manager is created.
+   */
+  synchronized DistributedFileSystem getFileSystem() throws IOException {
+    if (dfs == null) {
+      dfs = (DistributedFileSystem) FileSystem.newInstance(
+          FileSystem.getDefaultUri(getConf()), getConf());
+    }
+    return dfs;
+  }
+
+  private class EncodingJob extends ErasureCodingJob {
+    private final EncodingPolicy policy;
+    private final Path sourceFile;
+    private final Path parityFile;
+    private final List<Path> parts = new ArrayList<Path>();
+
+    EncodingJob(EncodingPolicy policy, Path sourceFile, Path parityFile) {
+      super(sourceFile.toUri().getPath());
+      this.policy = policy;
+      this.sourceFile = sourceFile;
+      this.parityFile = parityFile;
+    }
+
+    @Override
+    void execute() throws IOException {
+      DistributedFileSystem dfs = getFileSystem();
+      Codec codec = Codec.getCodec(policy.getCodec());
+      if (codec == null) {
+        throw new IOException("Unknown codec " + policy.getCodec());
+      }
+      ErasureCode code = codec.createErasureCode(getConf());
+      FileStatus status = dfs.getFileStatus(sourceFile);
+      long blockSize = status.getBlockSize();
+      long blocks = (status.getLen() + blockSize - 1) / blockSize;
+      int stripes = (int) ((blocks + code.stripeSize() - 1) / code.stripeSize());
+      dfs.mkdirs(parityFile.getParent());
+
+      FSDataInputStream in = dfs.open(sourceFile);
+      try {
+        StripeReader reader = new StripeReader(ioPool, throttler, this,
+            chunkSize, blockSize, code, in, status.getLen(), null, 0);
+        for (int stripe = 0; stripe < stripes; stripe++) {
+          encodeStripe(dfs, code, reader, stripe, blockSize);
+        }
+      } finally {
+        IOUtils.closeStream(in);
+      }
+
+      if (parts.isEmpty()) {
+        dfs.create(parityFile, policy.getTargetReplication()).close();
+        return;
+      }
+      checkCanceled();
+      if (!dfs.rename(parts.get(0), parityFile)) {
+        throw new IOException("Could not rename " + parts.get(0) + " to "
+            + parityFile);
+      }
+      if (parts.size() > 1) {
+        List<Path> rest = parts.subList(1, parts.size());
+        dfs.concat(parityFile, rest.toArray(new Path[rest.size()]));
+      }
+      parts.clear();
+      LOG.info("Encoded " + sourceFile + " to " + parityFile + " in "
+          + stripes + " stripes");
+    }
+
+    private void encodeStripe(DistributedFileSystem dfs,
+        final ErasureCode code, StripeReader reader, int stripe,
+        long blockSize) throws IOException {
+      final int stripeSize = code.stripeSize();
+      final int paritySize = code.paritySize();
+      final FSDataOutputStream[] outs = new FSDataOutputStream[paritySize];
+      try {
+        for (int i = 0; i < paritySize; i++) {
+          Path part = new Path(parityFile.getParent(),
+              parityFile.getName() + ".part" + (stripe * paritySize + i));
+          parts.add(part);
+          outs[i] = dfs.create(part, true,
+              getConf().getInt(IO_FILE_BUFFER_SIZE_KEY,
+                  IO_FILE_BUFFER_SIZE_DEFAULT),
+              policy.getTargetReplication(), blockSize);
+        }
+
+        int[] locations = new int[stripeSize];
+        for (int i = 0; i < stripeSize; i++) {
+          locations[i] = paritySize + i;
+        }
+        reader.readChunks(stripe, locations, blockSize,
+            new StripeReader.ChunkHandler() {
+              private byte[][] parity;
+
+              @Override
+              public void handle(byte[][] buffers, long offset, int length)
+                  throws IOException {
+                if (parity == null || parity[0].length != length) {
+                  parity = new byte[paritySize][length];
+                }
+                code.encodeBulk(Arrays.copyOfRange(buffers, paritySize,
+                    paritySize + stripeSize), parity);
+                if (throttler != null) {
+                  throttler.throttle((long) paritySize * length);
+                }
+                for (int i = 0; i < paritySize; i++) {
+                  outs[i].write(parity[i], 0, length);
+                }
+              }
+            });
+
+        for (int i = 0; i < paritySize; i++) {
+          outs[i].close();
+          outs[i] = null;
+        }
+      } finally {
+        IOUtils.cleanup(LOG, outs);
+      }
+    }
+
+    @Override
+    void cleanUp() {
+      try {
+        DistributedFileSystem dfs = getFileSystem();
+        for (Path part : parts) {
+          dfs.delete(part, false);
+        }
+        dfs.delete(parityFile, false);
+      } catch (IOException e) {
+        LOG.warn("Could not remove the parity of " + sourceFile, e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "encoding of " + sourceFile + " with " + policy;
+    }
+  }
+}
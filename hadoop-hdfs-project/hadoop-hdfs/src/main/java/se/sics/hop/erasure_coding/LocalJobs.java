@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.erasure_coding;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.util.Daemon;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The jobs of a local manager, run by a fixed number of threads. The
+ * ErasureCodingManager starts no more jobs than its limits allow, the pool
+ * is sized to the same limits so all of them run at once.
+ */
+class LocalJobs implements Cancelable<String> {
+
+  private final ExecutorService executor;
+  private final List<ErasureCodingJob> jobs =
+      new LinkedList<ErasureCodingJob>();
+
+  LocalJobs(int threads) {
+    executor = Executors.newFixedThreadPool(Math.max(threads, 1),
+        new Daemon.DaemonFactory());
+  }
+
+  /**
+   * @return the throttler of the bytes read and written by the jobs of a
+   * local manager, null if their bandwidth is not limited
+   */
+  static DataTransferThrottler newThrottler(Configuration conf) {
+    long bandwidth = conf.getLong(DFSConfigKeys.LOCAL_BANDWIDTH_KEY,
+        DFSConfigKeys.DEFAULT_LOCAL_BANDWIDTH);
+    return bandwidth > 0 ? new DataTransferThrottler(bandwidth) : null;
+  }
+
+  synchronized void submit(ErasureCodingJob job) {
+    jobs.add(job);
+    executor.execute(job);
+  }
+
+  /**
+   * @return a report for every job, the jobs which ended are only reported
+   * once
+   */
+  synchronized List<Report> computeReports() {
+    List<Report> reports = new ArrayList<Report>(jobs.size());
+    Iterator<ErasureCodingJob> it = jobs.iterator();
+    while (it.hasNext()) {
+      ErasureCodingJob job = it.next();
+      Report.Status status = job.getStatus();
+      reports.add(new Report(job.getPath(), status));
+      if (status != Report.Status.ACTIVE) {
+        it.remove();
+      }
+    }
+    return reports;
+  }
+
+  @Override
+  public synchronized void cancelAll() {
+    for (ErasureCodingJob job : jobs) {
+      job.cancel();
+    }
+  }
+
+  @Override
+  public synchronized void cancel(String path) {
+    for (ErasureCodingJob job : jobs) {
+      if (job.getPath().equals(path)) {
+        job.cancel();
+      }
+    }
+  }
+}
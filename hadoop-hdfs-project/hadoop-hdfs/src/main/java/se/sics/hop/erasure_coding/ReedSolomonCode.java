@@ -0,0 +1,389 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sics.hop.erasure_coding;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon code over GF(2^8). The parity is the remainder of
+ * the message divided by the generating polynomial with the roots
+ * 2^0 ... 2^(paritySize - 1), as in the Reed-Solomon code of raid, so the
+ * parity files written by either can be decoded by the other.
+ * <p>
+ * The code is linear, so the parity and the erased data are sums of the
+ * inputs multiplied by constants. The constants are computed once, for the
+ * encoding in init and for the decoding of the last erasure pattern, and the
+ * bulk operations multiply whole buffers by a constant with a table lookup
+ * per byte. The buffers are processed in chunks, so the outputs stay in the
+ * cache while all the inputs are added to them.
+ */
+public class ReedSolomonCode extends ErasureCode {
+
+  /** Bytes of every buffer processed before moving to the next output */
+  private static final int CHUNK_SIZE = 4096;
+
+  private int stripeSize;
+  private int paritySize;
+  private int[] generatingPolynomial;
+  /** Weights of the message symbols, by message then parity index */
+  private int[][] encodeMatrix;
+  /** Multiplication tables of the weights, by parity then message index */
+  private byte[][][] encodeTables;
+
+  private volatile Decoder decoder;
+
+  /**
+   * The constants to recover a set of erased locations from a set of
+   * locations to read.
+   */
+  private static final class Decoder {
+    private final int[] erasedLocations;
+    private final int[] locationsToRead;
+    /** Weights of the read symbols, by erased then read index */
+    private final int[][] matrix;
+    private final byte[][][] tables;
+
+    Decoder(int[] erasedLocations, int[] locationsToRead, int[][] matrix) {
+      this.erasedLocations = erasedLocations.clone();
+      this.locationsToRead = locationsToRead.clone();
+      this.matrix = matrix;
+      this.tables = multiplicationTables(matrix);
+    }
+
+    boolean matches(int[] erasedLocations, int[] locationsToRead) {
+      return Arrays.equals(this.erasedLocations, erasedLocations)
+          && Arrays.equals(this.locationsToRead, locationsToRead);
+    }
+  }
+
+  public ReedSolomonCode() {
+  }
+
+  public ReedSolomonCode(int stripeSize, int paritySize) {
+    init(stripeSize, paritySize);
+  }
+
+  @Override
+  public void init(Codec codec) {
+    init(codec.stripeLength, codec.parityLength);
+  }
+
+  private void init(int stripeSize, int paritySize) {
+    if (stripeSize <= 0 || paritySize <= 0
+        || stripeSize + paritySize >= GaloisField.FIELD_SIZE) {
+      throw new IllegalArgumentException("Unsupported stripe " + stripeSize
+          + " and parity " + paritySize);
+    }
+    this.stripeSize = stripeSize;
+    this.paritySize = paritySize;
+    this.decoder = null;
+
+    generatingPolynomial = new int[]{1};
+    for (int i = 0; i < paritySize; i++) {
+      generatingPolynomial = GaloisField.multiplyPolynomials(
+          generatingPolynomial, new int[]{GaloisField.power(2, i), 1});
+    }
+
+    // The weights of message symbol j are the coefficients of
+    // x^(paritySize + j) modulo the generating polynomial.
+    encodeMatrix = new int[stripeSize][];
+    int[] remainder = Arrays.copyOf(generatingPolynomial, paritySize);
+    for (int j = 0; j < stripeSize; j++) {
+      encodeMatrix[j] = remainder.clone();
+      int top = remainder[paritySize - 1];
+      for (int i = paritySize - 1; i > 0; i--) {
+        remainder[i] = remainder[i - 1];
+      }
+      remainder[0] = 0;
+      if (top != 0) {
+        for (int i = 0; i < paritySize; i++) {
+          remainder[i] ^= GaloisField.multiply(top, generatingPolynomial[i]);
+        }
+      }
+    }
+
+    int[][] byParity = new int[paritySize][stripeSize];
+    for (int i = 0; i < paritySize; i++) {
+      for (int j = 0; j < stripeSize; j++) {
+        byParity[i][j] = encodeMatrix[j][i];
+      }
+    }
+    encodeTables = multiplicationTables(byParity);
+  }
+
+  @Override
+  public int stripeSize() {
+    return stripeSize;
+  }
+
+  @Override
+  public int paritySize() {
+    return paritySize;
+  }
+
+  @Override
+  public int symbolSize() {
+    return 8;
+  }
+
+  @Override
+  public void encode(int[] message, int[] parity) {
+    assert (message.length == stripeSize && parity.length == paritySize);
+    for (int i = 0; i < paritySize; i++) {
+      parity[i] = 0;
+    }
+    for (int j = 0; j < stripeSize; j++) {
+      int[] weights = encodeMatrix[j];
+      for (int i = 0; i < paritySize; i++) {
+        parity[i] ^= GaloisField.multiply(weights[i], message[j]);
+      }
+    }
+  }
+
+  @Override
+  public void decode(int[] data, int[] erasedLocations, int[] erasedValues) {
+    decode(data, erasedLocations, erasedValues, null, null);
+  }
+
+  @Override
+  public void decode(int[] data, int[] erasedLocations, int[] erasedValues,
+      int[] locationsToRead, int[] locationsNotToRead) {
+    if (erasedLocations.length == 0) {
+      return;
+    }
+    Decoder d = getDecoder(erasedLocations, locationsToRead,
+        locationsNotToRead);
+    for (int e = 0; e < erasedLocations.length; e++) {
+      int value = 0;
+      for (int t = 0; t < d.locationsToRead.length; t++) {
+        value ^= GaloisField.multiply(d.matrix[e][t],
+            data[d.locationsToRead[t]]);
+      }
+      erasedValues[e] = value;
+    }
+  }
+
+  @Override
+  public void encodeBulk(byte[][] inputs, byte[][] outputs) {
+    assert (stripeSize == inputs.length);
+    assert (paritySize == outputs.length);
+    int length = outputs[0].length;
+    for (int start = 0; start < length; start += CHUNK_SIZE) {
+      int len = Math.min(CHUNK_SIZE, length - start);
+      for (int i = 0; i < paritySize; i++) {
+        for (int j = 0; j < stripeSize; j++) {
+          multiplyAdd(encodeTables[i][j], inputs[j], start, outputs[i], start,
+              len, j == 0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Only the locations to read are used, the other read buffers may be null.
+   */
+  @Override
+  public void decodeBulk(byte[][] readBufs, byte[][] writeBufs,
+      int[] erasedLocations, int[] locationsToRead, int[] locationsNotToRead) {
+    if (erasedLocations.length == 0) {
+      return;
+    }
+    Decoder d = getDecoder(erasedLocations, locationsToRead,
+        locationsNotToRead);
+    int length = writeBufs[0].length;
+    for (int start = 0; start < length; start += CHUNK_SIZE) {
+      int len = Math.min(CHUNK_SIZE, length - start);
+      for (int e = 0; e < erasedLocations.length; e++) {
+        for (int t = 0; t < d.locationsToRead.length; t++) {
+          multiplyAdd(d.tables[e][t], readBufs[d.locationsToRead[t]], start,
+              writeBufs[e], start, len, t == 0);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void encodeBulk(ByteBuffer[] inputs, ByteBuffer[] outputs) {
+    assert (stripeSize == inputs.length);
+    assert (paritySize == outputs.length);
+    multiplyBuffers(encodeTables, inputs, outputs);
+  }
+
+  /**
+   * Only the locations to read are used, the other read buffers may be null.
+   */
+  @Override
+  public void decodeBulk(ByteBuffer[] readBufs, ByteBuffer[] writeBufs,
+      int[] erasedLocations, int[] locationsToRead, int[] locationsNotToRead) {
+    if (erasedLocations.length == 0) {
+      return;
+    }
+    Decoder d = getDecoder(erasedLocations, locationsToRead,
+        locationsNotToRead);
+    ByteBuffer[] inputs = new ByteBuffer[d.locationsToRead.length];
+    for (int t = 0; t < inputs.length; t++) {
+      inputs[t] = readBufs[d.locationsToRead[t]];
+    }
+    multiplyBuffers(d.tables, inputs, writeBufs);
+  }
+
+  /**
+   * outputs[o] = sum of tables[o][t] * inputs[t]. Every chunk of an input is
+   * copied once to an array, which is faster than reading a direct buffer a
+   * byte at a time for every output.
+   */
+  private static void multiplyBuffers(byte[][][] tables, ByteBuffer[] inputs,
+      ByteBuffer[] outputs) {
+    int length = outputs[0].remaining();
+    byte[] in = new byte[Math.min(CHUNK_SIZE, length)];
+    byte[][] out = new byte[outputs.length][in.length];
+    for (int start = 0; start < length; start += CHUNK_SIZE) {
+      int len = Math.min(CHUNK_SIZE, length - start);
+      for (int t = 0; t < inputs.length; t++) {
+        ByteBuffer input = inputs[t].duplicate();
+        input.position(input.position() + start);
+        input.get(in, 0, len);
+        for (int o = 0; o < outputs.length; o++) {
+          multiplyAdd(tables[o][t], in, 0, out[o], 0, len, t == 0);
+        }
+      }
+      for (int o = 0; o < outputs.length; o++) {
+        ByteBuffer output = outputs[o].duplicate();
+        output.position(output.position() + start);
+        output.put(out[o], 0, len);
+      }
+    }
+  }
+
+  private Decoder getDecoder(int[] erasedLocations, int[] locationsToRead,
+      int[] locationsNotToRead) {
+    if (locationsToRead == null || locationsToRead.length != stripeSize) {
+      locationsToRead = chooseLocationsToRead(erasedLocations,
+          locationsNotToRead);
+    }
+    Decoder d = decoder;
+    if (d == null || !d.matches(erasedLocations, locationsToRead)) {
+      d = new Decoder(erasedLocations, locationsToRead,
+          decodeMatrix(erasedLocations, locationsToRead));
+      decoder = d;
+    }
+    return d;
+  }
+
+  /**
+   * The same locations as {@link #locationsToReadForDecode}, the message
+   * first.
+   */
+  private int[] chooseLocationsToRead(int[] erasedLocations,
+      int[] locationsNotToRead) {
+    int[] locationsToRead = new int[stripeSize];
+    int found = 0;
+    for (int loc = stripeSize + paritySize - 1; loc >= 0 && found < stripeSize;
+        loc--) {
+      if (!contains(erasedLocations, loc)
+          && !contains(locationsNotToRead, loc)) {
+        locationsToRead[found++] = loc;
+      }
+    }
+    if (found < stripeSize) {
+      throw new IllegalArgumentException("Too many erased locations "
+          + Arrays.toString(erasedLocations));
+    }
+    return locationsToRead;
+  }
+
+  /**
+   * A codeword is the product of the message and the generator matrix, the
+   * rows of the locations to read are inverted to get the message back from
+   * the read symbols, and the rows of the erased locations applied to it.
+   */
+  private int[][] decodeMatrix(int[] erasedLocations, int[] locationsToRead) {
+    int[][] read = new int[stripeSize][];
+    for (int t = 0; t < stripeSize; t++) {
+      read[t] = generatorRow(locationsToRead[t]);
+    }
+    int[][] inverse = GaloisField.invert(read);
+    int[][] matrix = new int[erasedLocations.length][stripeSize];
+    for (int e = 0; e < erasedLocations.length; e++) {
+      int[] row = generatorRow(erasedLocations[e]);
+      for (int t = 0; t < stripeSize; t++) {
+        int value = 0;
+        for (int j = 0; j < stripeSize; j++) {
+          value ^= GaloisField.multiply(row[j], inverse[j][t]);
+        }
+        matrix[e][t] = value;
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * @return the weights of the message symbols in the symbol at location
+   */
+  private int[] generatorRow(int location) {
+    int[] row = new int[stripeSize];
+    if (location < paritySize) {
+      for (int j = 0; j < stripeSize; j++) {
+        row[j] = encodeMatrix[j][location];
+      }
+    } else {
+      row[location - paritySize] = 1;
+    }
+    return row;
+  }
+
+  private static byte[][][] multiplicationTables(int[][] matrix) {
+    byte[][][] tables = new byte[matrix.length][][];
+    for (int i = 0; i < matrix.length; i++) {
+      tables[i] = new byte[matrix[i].length][];
+      for (int j = 0; j < matrix[i].length; j++) {
+        tables[i][j] = GaloisField.multiplicationTable(matrix[i][j]);
+      }
+    }
+    return tables;
+  }
+
+  private static boolean contains(int[] locations, int location) {
+    if (locations != null) {
+      for (int l : locations) {
+        if (l == location) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * out[outOff..] = (assign ? 0 : out[outOff..]) + table * in[inOff..]
+   */
+  private static void multiplyAdd(byte[] table, byte[] in, int inOff,
+      byte[] out, int outOff, int len, boolean assign) {
+    if (assign) {
+      for (int k = 0; k < len; k++) {
+        out[outOff + k] = table[in[inOff + k] & 0xFF];
+      }
+    } else {
+      for (int k = 0; k < len; k++) {
+        out[outOff + k] ^= table[in[inOff + k] & 0xFF];
+      }
+    }
+  }
+}
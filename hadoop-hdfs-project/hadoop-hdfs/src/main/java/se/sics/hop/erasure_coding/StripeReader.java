@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.erasure_coding;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the blocks of a stripe chunk by chunk, every location of the stripe
+ * in its own thread. The next chunk is read while the previous one is
+ * processed, so at most two chunks of every location are held in memory.
+ * <p>
+ * Locations are numbered as in {@link ErasureCode}, the parity first. The
+ * parity block q of stripe s is block s * paritySize + q of the parity file
+ * and the message block i is block s * stripeSize + i of the source file.
+ * The source past its end reads as zeros.
+ */
+class StripeReader {
+
+  interface ChunkHandler {
+    /**
+     * @param buffers the chunk of every location read, by location
+     * @param offset the offset of the chunk in the blocks
+     * @param length the length of the chunk
+     */
+    void handle(byte[][] buffers, long offset, int length) throws IOException;
+  }
+
+  private final ExecutorService ioPool;
+  private final DataTransferThrottler throttler;
+  private final ErasureCodingJob job;
+  private final int chunkSize;
+  private final long blockSize;
+  private final int stripeSize;
+  private final int paritySize;
+  private final FSDataInputStream source;
+  private final long sourceLength;
+  private final FSDataInputStream parity;
+  private final long parityLength;
+
+  /**
+   * @param throttler the throttler of the bytes read, null for none
+   * @param parity the parity file, null if only message locations are read
+   */
+  StripeReader(ExecutorService ioPool, DataTransferThrottler throttler,
+      ErasureCodingJob job, int chunkSize, long blockSize, ErasureCode code,
+      FSDataInputStream source, long sourceLength, FSDataInputStream parity,
+      long parityLength) {
+    this.ioPool = ioPool;
+    this.throttler = throttler;
+    this.job = job;
+    this.chunkSize = (int) Math.min(chunkSize, blockSize);
+    this.blockSize = blockSize;
+    this.stripeSize = code.stripeSize();
+    this.paritySize = code.paritySize();
+    this.source = source;
+    this.sourceLength = sourceLength;
+    this.parity = parity;
+    this.parityLength = parityLength;
+  }
+
+  /**
+   * Reads the first length bytes of the blocks at the locations of a stripe
+   * and passes them to the handler chunk by chunk.
+   */
+  void readChunks(int stripe, int[] locations, long length,
+      ChunkHandler handler) throws IOException {
+    if (length <= 0) {
+      return;
+    }
+    byte[][][] buffers = new byte[2][][];
+    buffers[0] = allocate(locations, (int) Math.min(chunkSize, length));
+    List<Future<Void>> pending = read(stripe, locations, 0, buffers[0]);
+    int current = 0;
+    for (long offset = 0; offset < length; ) {
+      job.checkCanceled();
+      int len = (int) Math.min(chunkSize, length - offset);
+      waitFor(pending);
+      long next = offset + len;
+      if (next < length) {
+        int nextLen = (int) Math.min(chunkSize, length - next);
+        if (buffers[1 - current] == null || nextLen != chunkSize) {
+          buffers[1 - current] = allocate(locations, nextLen);
+        }
+        pending = read(stripe, locations, next, buffers[1 - current]);
+      }
+      handler.handle(buffers[current], offset, len);
+      offset = next;
+      current = 1 - current;
+    }
+  }
+
+  private byte[][] allocate(int[] locations, int length) {
+    byte[][] buffers = new byte[stripeSize + paritySize][];
+    for (int location : locations) {
+      buffers[location] = new byte[length];
+    }
+    return buffers;
+  }
+
+  private List<Future<Void>> read(int stripe, int[] locations,
+      final long offset, byte[][] buffers) {
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(locations.length);
+    for (int location : locations) {
+      final byte[] buffer = buffers[location];
+      final FSDataInputStream in;
+      final long fileLength;
+      final long block;
+      if (location < paritySize) {
+        in = parity;
+        fileLength = parityLength;
+        block = (long) stripe * paritySize + location;
+      } else {
+        in = source;
+        fileLength = sourceLength;
+        block = (long) stripe * stripeSize + location - paritySize;
+      }
+      futures.add(ioPool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          long position = block * blockSize + offset;
+          int available = (int) Math.max(0,
+              Math.min(buffer.length, fileLength - position));
+          if (available > 0) {
+            in.readFully(position, buffer, 0, available);
+            if (throttler != null) {
+              throttler.throttle(available);
+            }
+          }
+          Arrays.fill(buffer, available, buffer.length, (byte) 0);
+          return null;
+        }
+      }));
+    }
+    return futures;
+  }
+
+  static void waitFor(List<Future<Void>> futures) throws IOException {
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+      throw new InterruptedIOException("Interrupted while reading a stripe");
+    } catch (ExecutionException e) {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+}
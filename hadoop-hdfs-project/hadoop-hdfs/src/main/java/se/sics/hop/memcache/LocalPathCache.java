@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.memcache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import java.util.Arrays;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+
+/**
+ * A bounded, concurrent LRU cache of path prefixes to the ids of the inodes
+ * along them. Every prefix of a cached path is stored with its own inode id
+ * chain, so that a lookup can return the chain of the longest cached prefix.
+ * <p>
+ * The cached chains are hints only. They are validated lazily against the
+ * database while the path is resolved, so entries below a renamed or deleted
+ * directory do not need to be removed eagerly.
+ * <p>
+ * Chains read by this namenode from the database are verified, chains taken
+ * from memcached are not. An unverified chain is only cached for its full
+ * path, and is only returned as the hint of {@link #getLongestPrefix}, whose
+ * callers verify it, until the path is resolved and cached as verified.
+ */
+class LocalPathCache {
+
+  private final Cache<PathKey, CachedIds> cache;
+
+  LocalPathCache(int maxSize) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .removalListener(new RemovalListener<PathKey, CachedIds>() {
+          @Override
+          public void onRemoval(RemovalNotification<PathKey, CachedIds> rn) {
+            if (rn.getCause() == RemovalCause.SIZE) {
+              NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+              if (metrics != null) {
+                metrics.incrPathCacheEvictions();
+              }
+            }
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Caches the verified inode ids of all prefixes of the given path.
+   *
+   * @param components the path components, starting with the root
+   * @param inodeIds the id of the inode of each component
+   */
+  void put(byte[][] components, int[] inodeIds) {
+    if (components.length != inodeIds.length || components.length < 2) {
+      return;
+    }
+    CachedIds cached = cache.getIfPresent(new PathKey(components,
+        components.length));
+    if (cached != null && cached.verified &&
+        Arrays.equals(cached.inodeIds, inodeIds)) {
+      return;
+    }
+    components = components.clone();
+    for (int length = 2; length <= components.length; length++) {
+      cache.put(new PathKey(components, length),
+          new CachedIds(Arrays.copyOf(inodeIds, length), true));
+    }
+  }
+
+  /**
+   * Caches the unverified inode ids of the given path, unless it is already
+   * cached.
+   */
+  void putUnverified(byte[][] components, int[] inodeIds) {
+    if (components.length != inodeIds.length || components.length < 2) {
+      return;
+    }
+    PathKey key = new PathKey(components.clone(), components.length);
+    if (cache.getIfPresent(key) == null) {
+      cache.put(key, new CachedIds(inodeIds.clone(), false));
+    }
+  }
+
+  /**
+   * @return the inode ids of the longest cached prefix of the path, which
+   * may not be verified, or null if no prefix is cached
+   */
+  int[] getLongestPrefix(byte[][] components) {
+    for (int length = components.length; length >= 2; length--) {
+      CachedIds cached = cache.getIfPresent(new PathKey(components, length));
+      if (cached != null) {
+        return cached.inodeIds;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the verified inode ids of the path, or null
+   */
+  int[] get(byte[][] components) {
+    CachedIds cached =
+        cache.getIfPresent(new PathKey(components, components.length));
+    return cached != null && cached.verified ? cached.inodeIds : null;
+  }
+
+  /**
+   * @return true if the path is cached, verified or not
+   */
+  boolean contains(byte[][] components) {
+    return cache.getIfPresent(new PathKey(components, components.length))
+        != null;
+  }
+
+  /**
+   * Removes the entry of the prefix of the given length.
+   */
+  void invalidate(byte[][] components, int length) {
+    cache.invalidate(new PathKey(components, length));
+  }
+
+  /**
+   * Removes the entries of all prefixes longer than the given length.
+   */
+  void invalidatePrefixesLongerThan(byte[][] components, int length) {
+    for (int i = length + 1; i <= components.length; i++) {
+      cache.invalidate(new PathKey(components, i));
+    }
+  }
+
+  void clear() {
+    cache.invalidateAll();
+  }
+
+  long size() {
+    return cache.size();
+  }
+
+  private static final class CachedIds {
+    private final int[] inodeIds;
+    private final boolean verified;
+
+    private CachedIds(int[] inodeIds, boolean verified) {
+      this.inodeIds = inodeIds;
+      this.verified = verified;
+    }
+  }
+
+  private static final class PathKey {
+    private final byte[][] components;
+    private final int length;
+    private final int hash;
+
+    private PathKey(byte[][] components, int length) {
+      this.components = components;
+      this.length = length;
+      int h = length;
+      for (int i = 0; i < length; i++) {
+        h = 31 * h + Arrays.hashCode(components[i]);
+      }
+      this.hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof PathKey)) {
+        return false;
+      }
+      PathKey other = (PathKey) obj;
+      if (hash != other.hash || length != other.length) {
+        return false;
+      }
+      for (int i = length - 1; i >= 0; i--) {
+        if (!Arrays.equals(components[i], other.components[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
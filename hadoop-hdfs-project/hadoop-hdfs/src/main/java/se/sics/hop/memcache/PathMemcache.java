@@ -17,7 +17,6 @@
 
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import net.spy.memcached.internal.OperationCompletionListener;
 import net.spy.memcached.internal.OperationFuture;
@@ -26,16 +25,21 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import se.sics.hop.common.Pair;
-import se.sics.hop.exception.StorageException;
-import se.sics.hop.metadata.StorageFactory;
-import se.sics.hop.metadata.hdfs.dal.INodeDataAccess;
-import se.sics.hop.transaction.handler.HDFSOperationType;
-import se.sics.hop.transaction.handler.LightWeightRequestHandler;
 
 /**
+ * Path to inode ids cache. The first tier is an in-process LRU cache which
+ * is consulted without any network round trip, the second tier is the
+ * optional memcached server which is shared between the namenodes. The
+ * cached ids are only used as hints and are verified while the path is
+ * resolved inside the transaction. The hints are only read by the batched
+ * path resolution, so without it neither tier is used, no memcached round
+ * trip included.
  *
  * @author Mahmoud Ismail <maism@sics.se>
  */
@@ -47,7 +51,7 @@ public class PathMemcache {
   private boolean isEnabled;
   private int keyExpiry;
   private String keyPrefix;
-  private final HashMap<String, CacheEntry> cache = new HashMap<String, CacheEntry>();
+  private LocalPathCache localCache;
 
   private int numberOfConnections;
   private String server;
@@ -68,6 +72,17 @@ public void setConfiguration(Configuration conf) throws IOException {
     keyExpiry = conf.getInt(DFSConfigKeys.DFS_MEMCACHE_KEY_EXPIRY_IN_SECONDS, DFSConfigKeys.DFS_MEMCACHE_KEY_EXPIRY_IN_SECONDS_DEFAULT);
     keyPrefix = conf.get(DFSConfigKeys.DFS_MEMCACHE_KEY_PREFIX, DFSConfigKeys.DFS_MEMCACHE_KEY_PREFIX_DEFAULT);
     isEnabled = conf.getBoolean(DFSConfigKeys.DFS_MEMCACHE_ENABLED, DFSConfigKeys.DFS_MEMCACHE_ENABLED_DEFAULT);
+    boolean hintsUsed = conf.getBoolean(
+        DFSConfigKeys.DFS_BATCHED_PATH_RESOLUTION_ENABLED_KEY,
+        DFSConfigKeys.DFS_BATCHED_PATH_RESOLUTION_ENABLED_DEFAULT);
+    if (hintsUsed && conf.getBoolean(DFSConfigKeys.DFS_PATH_CACHE_ENABLED_KEY,
+        DFSConfigKeys.DFS_PATH_CACHE_ENABLED_DEFAULT)) {
+      localCache = new LocalPathCache(conf.getInt(
+          DFSConfigKeys.DFS_PATH_CACHE_SIZE_KEY,
+          DFSConfigKeys.DFS_PATH_CACHE_SIZE_DEFAULT));
+    } else {
+      localCache = null;
+    }
     if(isEnabled){
       forceStart();
     }
@@ -96,9 +111,16 @@ private void stop() {
   }
     
   public void set(final String path, final INode[] inodes) {
-    if (isEnabled) {
+    final int[] inodeIds = getINodeIds(inodes);
+    if (inodeIds == null) {
+      return;
+    }
+    if (localCache == null) {
+      return;
+    }
+    localCache.put(INode.getPathComponents(path), inodeIds);
+    if (isEnabled && !inodes[inodes.length - 1].isDirectory()) {
       final String key = getKey(path);
-      final int[] inodeIds = getINodeIds(inodes);
       final long startTime = System.currentTimeMillis();
       mcpool.poll().set(key, keyExpiry, new CacheEntry(inodeIds)).addListener(new OperationCompletionListener() {
         @Override
@@ -110,36 +132,132 @@ public void onComplete(OperationFuture<?> f) throws Exception {
     }
   }
 
+  /**
+   * Makes sure the ids of the given path are in the local cache, fetching
+   * them from memcached on a local miss. The fetched ids are cached as
+   * unverified hints, they are verified while the path is resolved.
+   */
   public void get(String path) throws IOException {
-    if (isEnabled) {
-      final long startTime = System.currentTimeMillis();
-      Object ce = mcpool.poll().get(getKey(path));
-      if (ce != null && ce instanceof CacheEntry) {
-        LOG.debug("GET for path (" + path + ")  got value = " + ce + " in " + (System.currentTimeMillis() - startTime) + " msec");
-        verifyINodes(path, (CacheEntry)ce);
-        LOG.debug("GET for path (" + path + ") Total time = " + (System.currentTimeMillis() - startTime) + " msec");
+    if (localCache != null) {
+      byte[][] components = INode.getPathComponents(path);
+      if (localCache.contains(components)) {
+        return;
+      }
+      if (isEnabled) {
+        final long startTime = System.currentTimeMillis();
+        Object ce = mcpool.poll().get(getKey(path));
+        if (ce != null && ce instanceof CacheEntry) {
+          LOG.debug("GET for path (" + path + ")  got value = " + ce + " in " + (System.currentTimeMillis() - startTime) + " msec");
+          localCache.putUnverified(components,
+              ((CacheEntry) ce).getInodeIds());
+        }
       }
     }
   }
 
+  /**
+   * Caches the ids of the resolved inodes of a path. The inodes may cover
+   * only a prefix of the components if the path was not fully resolved.
+   */
+  public void cache(byte[][] components, List<INode> resolvedINodes) {
+    if (localCache != null && resolvedINodes.size() >= 2 &&
+        resolvedINodes.size() <= components.length) {
+      int[] inodeIds = getINodeIds(resolvedINodes.toArray(
+          new INode[resolvedINodes.size()]));
+      if (inodeIds != null) {
+        localCache.put(Arrays.copyOf(components, inodeIds.length), inodeIds);
+      }
+    }
+  }
+
+  /**
+   * @return the ids of the inodes along the longest cached prefix of the
+   * path, starting with the root. The id at index i is the parent id of the
+   * component at index i + 1.
+   */
+  public int[] getParentIdsHint(byte[][] components) {
+    if (localCache == null) {
+      return null;
+    }
+    int[] inodeIds = localCache.getLongestPrefix(components);
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      if (inodeIds == null) {
+        metrics.incrPathCacheMisses();
+      } else if (inodeIds.length < components.length) {
+        metrics.incrPathCachePartialHits();
+      } else {
+        metrics.incrPathCacheHits();
+      }
+    }
+    return inodeIds;
+  }
+
+  /**
+   * Drops the cached prefixes of the path which are longer than the part of
+   * the hint which could be verified against the database.
+   */
+  public void staleHint(byte[][] components, int verifiedComponents) {
+    if (localCache != null) {
+      localCache.invalidatePrefixesLongerThan(components, verifiedComponents);
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.incrPathCacheStaleHints();
+      }
+    }
+  }
+
+  /**
+   * Removes the inode at index pos of the given path from the local cache.
+   * Cached descendants of the inode are left in place, they fail the
+   * verification on their next use and get dropped then.
+   */
+  public void invalidate(INode[] inodes, int pos) {
+    if (localCache != null && pos > 0 && pos < inodes.length) {
+      byte[][] components = new byte[pos + 1][];
+      components[0] = DFSUtil.string2Bytes("");
+      for (int i = 1; i <= pos; i++) {
+        if (inodes[i] == null) {
+          return;
+        }
+        components[i] = DFSUtil.string2Bytes(inodes[i].getLocalName());
+      }
+      localCache.invalidate(components, components.length);
+    }
+  }
+
+  /**
+   * Removes the last inode of the given full path from the local cache.
+   */
+  public void invalidate(String path) {
+    if (localCache != null) {
+      byte[][] components = INode.getPathComponents(path);
+      localCache.invalidate(components, components.length);
+    }
+  }
+
+  /**
+   * @return the partition key of the path if its ids are cached and were
+   * verified by this namenode, or null
+   */
   public Integer getPartitionKey(String path) {
-    if (isEnabled) {
+    if (localCache != null) {
       LOG.debug("GET PARTITION KEY for path (" + path + ")");
-      CacheEntry ce = cache.get(path);
-      if (ce != null) {
-        return ce.getPartitionKey();
+      int[] inodeIds = localCache.get(INode.getPathComponents(path));
+      if (inodeIds != null) {
+        return new CacheEntry(inodeIds).getPartitionKey();
       }
     }
     return null;
   }
 
   public Pair<String[], int[]> getNameAndParentIds(String path) {
-    if (isEnabled) {
+    if (localCache != null) {
       LOG.debug("GET NAME_AND_PARENTIDS for path (" + path + ")");
-      CacheEntry ce = cache.get(path);
-      if (ce != null) {
+      int[] inodeIds = localCache.get(INode.getPathComponents(path));
+      if (inodeIds != null) {
         String[] names = getNamesWithoutRoot(path);
-        int[] parentIds = ce.getParentIds();
+        int[] parentIds = new CacheEntry(inodeIds).getParentIds();
         return new Pair<String[], int[]>(names, parentIds);
       }
     }
@@ -147,8 +265,10 @@ public Pair<String[], int[]> getNameAndParentIds(String path) {
   }
 
   public void flush(){
+    if (localCache != null) {
+      localCache.clear();
+    }
     if(isEnabled){
-      cache.clear();
       mcpool.poll().flush().addListener(new OperationCompletionListener() {
 
         @Override
@@ -158,57 +278,6 @@ public void onComplete(OperationFuture<?> f) throws Exception {
       });
     }
   }
-  
-  private void verifyINodes(final String path, final CacheEntry ce) throws IOException {
-    if (checkINodes(path, ce)) {
-      LOG.debug("GET verified the data we got from memcached with the database data");
-      cache.put(path, ce);
-    } else {
-      final String key = getKey(path);
-      mcpool.poll().delete(key).addListener(new OperationCompletionListener() {
-        @Override
-        public void onComplete(OperationFuture<?> f) throws Exception {
-          LOG.debug("DELETE for path (" + path + ")  " + key + "=" + ce);
-        }
-      });
-    }
-  }
-
-  private boolean checkINodes(String path, CacheEntry ce) throws IOException {
-    final String[] names = getNamesWithoutRoot(path);
-    final int[] parentIds = ce.getParentIds();
-    final int[] inodeIds = ce.getInodeIds();
-    
-    boolean verified = false;
-    if (names.length == parentIds.length) {
-      List<INode> inodes = getINodes(names, parentIds);
-      if (inodes.size() == names.length) {
-        boolean noChangeInInodes = true;
-        for (int i = 0; i < inodes.size(); i++) {
-          INode inode = inodes.get(i);
-          noChangeInInodes = inode.getLocalName().equals(names[i]) && inode.getParentId() == parentIds[i] && inode.getId() == inodeIds[i + 1];
-          if (!noChangeInInodes) {
-            break;
-          }
-        }
-        verified = noChangeInInodes;
-      }
-    }
-    return verified;
-  }
-
-  private List<INode> getINodes(final String[] names, final int[] parentIds) throws IOException {
-    return (List<INode>) new LightWeightRequestHandler(HDFSOperationType.GET_INODES_BATCH) {
-      @Override
-      public Object performTask() throws StorageException, IOException {
-        INodeDataAccess da = (INodeDataAccess) StorageFactory.getDataAccess(INodeDataAccess.class);
-        StorageFactory.getConnector().beginTransaction();
-        List<INode> inodes = da.getINodesPkBatched(names, parentIds);
-        StorageFactory.getConnector().commit();
-        return inodes;
-      }
-    }.handle();
-  }
 
   private static String[] getNamesWithoutRoot(String path) {
     String[] names = INodeDirectory.getPathNames(path);
@@ -222,6 +291,9 @@ private String getKey(String path) {
   private int[] getINodeIds(INode[] inodes) {
     int[] inodeIds = new int[inodes.length];
     for (int i = 0; i < inodes.length; i++) {
+      if (inodes[i] == null) {
+        return null;
+      }
       inodeIds[i] = inodes[i].getId();
     }
     return inodeIds;
@@ -22,6 +22,7 @@
 import se.sics.hop.metadata.hdfs.entity.hop.var.*;
 import se.sics.hop.transaction.EntityManager;
 import se.sics.hop.transaction.context.*;
+import se.sics.hop.transaction.handler.TransactionStats;
 
 import java.io.File;
 import java.io.IOException;
@@ -34,6 +35,7 @@
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import se.sics.hop.transaction.lock.HopsLockFactory;
 
 /**
@@ -46,6 +48,7 @@ public class StorageFactory {
   private static boolean isDALInitialized = false;
   private static DALStorageFactory dStorageFactory;
   private static Map<Class, EntityDataAccess> dataAccessAdaptors = new HashMap<Class, EntityDataAccess>();
+  private static Map<Class, EntityDataAccess> countingDataAccess = new ConcurrentHashMap<Class, EntityDataAccess>();
   
   public static StorageConnector getConnector() {
     return dStorageFactory.getConnector();
@@ -56,6 +59,10 @@ public static void setConfiguration(Configuration conf) throws IOException {
     PathMemcache.getInstance().setConfiguration(conf);
     HopsLockFactory.getInstance().setConfiguration(conf);
     NDCWrapper.enableNDC(conf.getBoolean(DFSConfigKeys.DFS_NDC_ENABLED_KEY, DFSConfigKeys.DFS_NDC_ENABLED_DEFAULT));
+    TransactionStats.getInstance().setConfiguration(conf);
+    INodeSnapshotCache.getInstance().setConfiguration(conf);
+    RowCounters.getInstance().setConfiguration(conf);
+    countingDataAccess.clear();
     if (!isDALInitialized) {
       Variables.registerDefaultValues();
       addToClassPath(conf.get(DFSConfigKeys.DFS_STORAGE_DRIVER_JAR_FILE, DFSConfigKeys.DFS_STORAGE_DRIVER_JAR_FILE_DEFAULT));
@@ -105,13 +112,13 @@ private static void addToClassPath(String s) throws StorageInitializtionExceptio
   
   private static void initDataAccessWrappers() {
     dataAccessAdaptors.clear();
-    dataAccessAdaptors.put(BlockInfoDataAccess.class, new BlockInfoDALAdaptor((BlockInfoDataAccess) getDataAccess(BlockInfoDataAccess.class)));
-    dataAccessAdaptors.put(ReplicaUnderConstructionDataAccess.class, new ReplicaUnderConstructionDALAdaptor((ReplicaUnderConstructionDataAccess) getDataAccess(ReplicaUnderConstructionDataAccess.class)));
-    dataAccessAdaptors.put(LeaseDataAccess.class, new LeaseDALAdaptor((LeaseDataAccess) getDataAccess(LeaseDataAccess.class)));
-    dataAccessAdaptors.put(PendingBlockDataAccess.class, new PendingBlockInfoDALAdaptor((PendingBlockDataAccess) getDataAccess(PendingBlockDataAccess.class)));
-    dataAccessAdaptors.put(INodeDataAccess.class, new INodeDALAdaptor((INodeDataAccess) getDataAccess(INodeDataAccess.class)));
-    dataAccessAdaptors.put(INodeAttributesDataAccess.class, new INodeAttributeDALAdaptor((INodeAttributesDataAccess) getDataAccess(INodeAttributesDataAccess.class)));
-    dataAccessAdaptors.put(EncodingStatusDataAccess.class, new EncodingStatusDALAdaptor((EncodingStatusDataAccess) getDataAccess(EncodingStatusDataAccess.class)));
+    dataAccessAdaptors.put(BlockInfoDataAccess.class, new BlockInfoDALAdaptor((BlockInfoDataAccess) getDALDataAccess(BlockInfoDataAccess.class)));
+    dataAccessAdaptors.put(ReplicaUnderConstructionDataAccess.class, new ReplicaUnderConstructionDALAdaptor((ReplicaUnderConstructionDataAccess) getDALDataAccess(ReplicaUnderConstructionDataAccess.class)));
+    dataAccessAdaptors.put(LeaseDataAccess.class, new LeaseDALAdaptor((LeaseDataAccess) getDALDataAccess(LeaseDataAccess.class)));
+    dataAccessAdaptors.put(PendingBlockDataAccess.class, new PendingBlockInfoDALAdaptor((PendingBlockDataAccess) getDALDataAccess(PendingBlockDataAccess.class)));
+    dataAccessAdaptors.put(INodeDataAccess.class, new INodeDALAdaptor((INodeDataAccess) getDALDataAccess(INodeDataAccess.class)));
+    dataAccessAdaptors.put(INodeAttributesDataAccess.class, new INodeAttributeDALAdaptor((INodeAttributesDataAccess) getDALDataAccess(INodeAttributesDataAccess.class)));
+    dataAccessAdaptors.put(EncodingStatusDataAccess.class, new EncodingStatusDALAdaptor((EncodingStatusDataAccess) getDALDataAccess(EncodingStatusDataAccess.class)));
   }
 
   private static ContextInitializer getContextInitializer() {
@@ -166,6 +173,18 @@ public StorageConnector getConnector() {
   }
 
   public static EntityDataAccess getDataAccess(Class type) {
+    if (!TransactionStats.getInstance().isEnabled()) {
+      return getDALDataAccess(type);
+    }
+    EntityDataAccess dataAccess = countingDataAccess.get(type);
+    if (dataAccess == null) {
+      dataAccess = (EntityDataAccess) TransactionStats.getInstance().wrap(getDALDataAccess(type));
+      countingDataAccess.put(type, dataAccess);
+    }
+    return dataAccess;
+  }
+
+  private static EntityDataAccess getDALDataAccess(Class type) {
     if (dataAccessAdaptors.containsKey(type)) {
       return dataAccessAdaptors.get(type);
     }
@@ -23,6 +23,7 @@
 import se.sics.hop.metadata.hdfs.dal.BlockChecksumDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hop.BlockChecksum;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.Collection;
@@ -114,10 +115,12 @@ private BlockChecksum findByKeyTuple(Object[] params)
     }
     BlockChecksum result = null;
     if (contains(key)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-block-checksum-by-keyTuple", CacheHitState.HIT,
           new String[]{"KeyTuple", key.toString()});
       result = get(key);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-block-checksum-by-keyTuple", CacheHitState.LOSS,
           new String[]{"KeyTuple", key.toString()});
       aboutToAccessStorage();
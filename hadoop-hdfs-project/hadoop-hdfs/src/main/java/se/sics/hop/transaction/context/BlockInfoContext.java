@@ -27,6 +27,7 @@
 import se.sics.hop.metadata.hdfs.dal.BlockInfoDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hdfs.HopINodeCandidatePK;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.ArrayList;
@@ -93,6 +94,8 @@ public void prepare(TransactionLocks tlm)
     Collection<BlockInfo> removed = new ArrayList<BlockInfo>(getRemoved());
     removed.addAll(concatRemovedBlks);
     dataAccess.prepare(removed, getAdded(), getModified());
+    RowCounters.getInstance().prepared(RowCounters.Counter.BLOCKS,
+        getAdded().size(), removed.size());
   }
 
   @Override
@@ -160,10 +163,12 @@ private List<BlockInfo> findByInodeId(final Object[] params) throws
     List<BlockInfo> result = null;
     final Integer inodeId = (Integer) params[0];
     if (inodeBlocks.containsKey(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-blocks-by-inodeid", CacheHitState.HIT,
           new String[]{"inodeid", Integer.toString(inodeId)});
       return inodeBlocks.get(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-blocks-by-inodeid", CacheHitState.LOSS,
           new String[]{"inodeid", Integer.toString(inodeId)});
       aboutToAccessStorage();
@@ -212,6 +217,7 @@ private BlockInfo findById(final Object[] params)
     }
     if (contains(blockId)) {
       result = get(blockId);
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-block-by-bid", CacheHitState.HIT, new String[]{"bid", Long
           .toString(blockId), "inodeId",
           inodeId != null ? Integer.toString(inodeId)
@@ -221,6 +227,7 @@ private BlockInfo findById(final Object[] params)
       // duing the acquire lock phase if we see that an id does not
       // exist in the db then we should put null in the cache for that id
 
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-block-by-bid", CacheHitState.LOSS, new String[]{"bid", Long
           .toString(blockId), "inodeId",
           inodeId != null ? Integer.toString(inodeId)
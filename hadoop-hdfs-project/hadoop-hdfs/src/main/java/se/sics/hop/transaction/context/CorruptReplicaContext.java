@@ -24,6 +24,7 @@
 import se.sics.hop.metadata.hdfs.dal.CorruptReplicaDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hop.HopCorruptReplica;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.Arrays;
@@ -108,11 +109,13 @@ private List<HopCorruptReplica> findByBlockId(Object[] params)
     final int inodeId = (Integer) params[1];
     List<HopCorruptReplica> result = null;
     if (containsByBlock(blockId) || containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-corrupts-by-bid", CacheHitState.HIT,
           new String[]{"bid", Long.toString(blockId), "inodeid",
               Integer.toString(inodeId)});
       result = getByBlock(blockId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-corrupts-by-bid", CacheHitState.LOSS,
           new String[]{"bid", Long.toString(blockId), "inodeid",
               Integer.toString(inodeId)});
@@ -129,10 +132,12 @@ private List<HopCorruptReplica> findByINodeId(Object[] params)
     final int inodeId = (Integer) params[0];
     List<HopCorruptReplica> result = null;
     if (containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-corrupts-by-inode-id", CacheHitState.HIT,
           new String[]{"inode_id", Integer.toString(inodeId)});
       result = getByINode(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-corrupts-by-inode-id", CacheHitState.LOSS,
           new String[]{"inode_id", Integer.toString(inodeId)});
       aboutToAccessStorage();
@@ -145,6 +150,7 @@ private List<HopCorruptReplica> findByINodeId(Object[] params)
   private List<HopCorruptReplica> findByINodeIds(Object[] params)
       throws StorageCallPreventedException, StorageException {
     final int[] inodeIds = (int[]) params[0];
+    TransactionStats.countLookup(this, CacheHitState.LOSS);
     log("find-corrupts-by-inode-ids", CacheHitState.LOSS,
         new String[]{"inode_ids", Arrays
             .toString(inodeIds)});
@@ -24,6 +24,7 @@
 import se.sics.hop.metadata.hdfs.dal.EncodingStatusDataAccess;
 import se.sics.hop.metadata.hdfs.entity.CounterType;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.HashMap;
@@ -127,10 +128,12 @@ private EncodingStatus findByINodeId(final int inodeId)
       throws StorageCallPreventedException, StorageException {
     EncodingStatus result = null;
     if (contains(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-encoding-status-by-inodeid", CacheHitState.HIT,
           new String[]{"inodeid", Integer.toString(inodeId)});
       result = get(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-encoding-status-by-inodeid", CacheHitState.LOSS,
           new String[]{"inodeid", Integer.toString(inodeId)});
       aboutToAccessStorage();
@@ -145,10 +148,12 @@ private EncodingStatus findByParityINodeId(final int pairtyINodeId)
       throws StorageCallPreventedException, StorageException {
     EncodingStatus result = null;
     if (parityInodeIdToEncodingStatus.containsKey(pairtyINodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-encoding-status-by-parityInodeid", CacheHitState.HIT,
           new String[]{"inodeid", Integer.toString(pairtyINodeId)});
       result = parityInodeIdToEncodingStatus.get(pairtyINodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-encoding-status-by-parityInodeid", CacheHitState.LOSS,
           new String[]{"inodeid", Integer.toString(pairtyINodeId)});
       aboutToAccessStorage();
@@ -23,6 +23,7 @@
 import se.sics.hop.metadata.hdfs.dal.ExcessReplicaDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hop.HopExcessReplica;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.Arrays;
@@ -119,11 +120,13 @@ private HopExcessReplica findByPrimaryKey(Object[] params)
         storageId);
     HopExcessReplica result = null;
     if (contains(key) || containsByINode(inodeId) || containsByBlock(blockId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-excess-by-pk", CacheHitState.HIT,
           new String[]{"bid", Long.toString(blockId), "sid",
               Integer.toString(storageId)});
       result = get(key);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-excess-by-pk", CacheHitState.LOSS,
           new String[]{"bid", Long.toString(blockId), "sid",
               Integer.toString(storageId)});
@@ -140,10 +143,12 @@ private List<HopExcessReplica> findByBlockId(Object[] params)
     final int inodeId = (Integer) params[1];
     List<HopExcessReplica> result = null;
     if (containsByBlock(blockId) || containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-excess-by-blockId", CacheHitState.HIT, new String[]{"bid",
           String.valueOf(blockId)});
       result = getByBlock(blockId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-excess-by-blockId", CacheHitState.LOSS, new String[]{"bid",
           String.valueOf(blockId)});
       aboutToAccessStorage();
@@ -159,10 +164,12 @@ private List<HopExcessReplica> findByINodeId(Object[] params)
     final int inodeId = (Integer) params[0];
     List<HopExcessReplica> result = null;
     if (containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-excess-by-inode-id", CacheHitState.HIT,
           new String[]{"inode_id", Integer.toString(inodeId)});
       result = getByINode(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-excess-by-inode-id", CacheHitState.LOSS,
           new String[]{"inode_id", Integer.toString(inodeId)});
       aboutToAccessStorage();
@@ -175,6 +182,7 @@ private List<HopExcessReplica> findByINodeId(Object[] params)
   private List<HopExcessReplica> findByINodeIds(Object[] params)
       throws StorageCallPreventedException, StorageException {
     final int[] inodeIds = (int[]) params[0];
+    TransactionStats.countLookup(this, CacheHitState.LOSS);
     log("find-excess-by-inode-ids", CacheHitState.LOSS,
         new String[]{"inode_ids", Arrays.toString(
             inodeIds)});
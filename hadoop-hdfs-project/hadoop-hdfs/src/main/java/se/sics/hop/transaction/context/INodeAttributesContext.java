@@ -26,6 +26,7 @@
 import se.sics.hop.metadata.hdfs.dal.INodeAttributesDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hdfs.HopINodeCandidatePK;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.ArrayList;
@@ -126,10 +127,12 @@ private INodeAttributes findByPrimaryKey(Object[] params)
     final int inodeId = (Integer) params[0];
     INodeAttributes result = null;
     if (contains(inodeId)) {
+      TransactionStats.countLookup(this, EntityContext.CacheHitState.HIT);
       log("find-attributes-by-pk", EntityContext.CacheHitState.HIT,
           new String[]{"id", Integer.toString(inodeId)});
       result = get(inodeId);
     } else {
+      TransactionStats.countLookup(this, EntityContext.CacheHitState.LOSS);
       log("find-attributes-by-pk", EntityContext.CacheHitState.LOSS, new
           String[]{"id", Integer.toString(inodeId), "size ",
           Integer.toString(size())});
@@ -146,10 +149,12 @@ private Collection<INodeAttributes> findByPrimaryKeys(Object[] params)
         params[0];
     Collection<INodeAttributes> result = null;
     if (contains(inodePks)) {
+      TransactionStats.countLookup(this, EntityContext.CacheHitState.HIT);
       log("find-attributes-by-pk-list", EntityContext.CacheHitState.HIT,
           new String[]{"id", Arrays.toString(inodePks.toArray())});
       result = get(inodePks);
     } else {
+      TransactionStats.countLookup(this, EntityContext.CacheHitState.LOSS);
       log("find-attributes-by-pk-list", EntityContext.CacheHitState.LOSS,
           new String[]{"id", Arrays.toString(inodePks.toArray())});
       aboutToAccessStorage(" ids = " + Arrays.toString(inodePks.toArray()));
@@ -24,6 +24,7 @@
 import se.sics.hop.exception.TransactionContextException;
 import se.sics.hop.metadata.hdfs.dal.INodeDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.HopsBaseINodeLock;
 import se.sics.hop.transaction.lock.HopsLock;
 import se.sics.hop.transaction.lock.TransactionLockTypes;
@@ -150,6 +151,11 @@ public void prepare(TransactionLocks lks)
     }
 
 
+    INodeSnapshotCache cache = INodeSnapshotCache.getInstance();
+    cache.invalidateWritten(removed);
+    cache.invalidateWritten(added);
+    cache.invalidateWritten(modified);
+
     dataAccess.prepare(removed, added, modified);
   }
 
@@ -198,14 +204,22 @@ private INode findByInodeId(Object[] params)
     INode result = null;
     final Integer inodeId = (Integer) params[0];
     if (contains(inodeId)) {
-      log("find-inode-by-id", CacheHitState.LOSS, new String[]{"id",
+      TransactionStats.countLookup(this, CacheHitState.HIT);
+      log("find-inode-by-id", CacheHitState.HIT, new String[]{"id",
           Integer.toString(inodeId)});
       result = get(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-inode-by-id", CacheHitState.LOSS, new String[]{"id",
           Integer.toString(inodeId)});
       aboutToAccessStorage();
-      result = dataAccess.indexScanfindInodeById(inodeId);
+      if (isReadCommitted()) {
+        result = INodeSnapshotCache.getInstance().get(inodeId);
+      }
+      if (result == null) {
+        result = dataAccess.indexScanfindInodeById(inodeId);
+        cacheOrInvalidate(result);
+      }
       gotFromDB(inodeId, result);
       if (result != null) {
         inodesNameParentIndex.put(result.nameParentKey(), result);
@@ -227,14 +241,17 @@ private INode findByNameAndParentId(Object[] params)
       if (!preventStorageCalls() &&
           (currentLockMode.get() == LockMode.WRITE_LOCK)) {
         //trying to upgrade lock. re-read the row from DB
+        TransactionStats.countLookup(this, CacheHitState.LOSS_LOCK_UPGRADE);
         log("find-inode-by-name-parentid-LOCK_UPGRADE",
             CacheHitState.LOSS_LOCK_UPGRADE,
             new String[]{"name", name, "pid", Integer.toString(parentId)});
         aboutToAccessStorage();
         result = dataAccess.pkLookUpFindInodeByNameAndParentId(name, parentId);
+        INodeSnapshotCache.getInstance().invalidate(result);
         gotFromDB(result);
         inodesNameParentIndex.put(nameParentKey, result);
       } else {
+        TransactionStats.countLookup(this, CacheHitState.HIT);
         log("find-inode-by-name-parentid", CacheHitState.HIT,
             new String[]{"name", name, "pid", Integer.toString(parentId)});
       }
@@ -243,9 +260,17 @@ private INode findByNameAndParentId(Object[] params)
       if (!isNewlyAdded(parentId) && !containsRemoved(parentId,
           name)) {
         aboutToAccessStorage();
-        result = dataAccess.pkLookUpFindInodeByNameAndParentId(name, parentId);
+        if (isReadCommitted()) {
+          result = INodeSnapshotCache.getInstance().get(name, parentId);
+        }
+        if (result == null) {
+          result =
+              dataAccess.pkLookUpFindInodeByNameAndParentId(name, parentId);
+          cacheOrInvalidate(result);
+        }
         gotFromDB(result);
         inodesNameParentIndex.put(nameParentKey, result);
+        TransactionStats.countLookup(this, CacheHitState.LOSS);
         log("find-inode-by-name-parentid", CacheHitState.LOSS,
             new String[]{"name", name, "pid", Integer.toString(parentId)});
       }
@@ -258,10 +283,12 @@ private List<INode> findByParentId(Object[] params) throws
     final Integer parentId = (Integer) params[0];
     List<INode> result = null;
     if (inodesParentIndex.containsKey(parentId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-inodes-by-parentid", CacheHitState.HIT,
           new String[]{"pid", Integer.toString(parentId)});
       result = inodesParentIndex.get(parentId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-inodes-by-parentid", CacheHitState.LOSS,
           new String[]{"pid", Integer.toString(parentId)});
       aboutToAccessStorage();
@@ -276,11 +303,20 @@ private List<INode> findBatch(Object[] params) throws
       TransactionContextException, StorageException {
     final String[] names = (String[]) params[0];
     final int[] parentIds = (int[]) params[1];
+    TransactionStats.countLookup(this, CacheHitState.LOSS);
     log("find-inodes-by-name-parentid", CacheHitState.LOSS,
         new String[]{"name", Arrays.toString(
             names), "pid", Arrays.toString(parentIds)});
-    return syncInodeInstances(dataAccess.getINodesPkBatched
+    List<INode> result = syncInodeInstances(dataAccess.getINodesPkBatched
         (names, parentIds));
+    // the keys which were not found do not exist, as for a single lookup
+    for (int i = 0; i < names.length; i++) {
+      String key = INode.nameParentKey(parentIds[i], names[i]);
+      if (!inodesNameParentIndex.containsKey(key)) {
+        inodesNameParentIndex.put(key, null);
+      }
+    }
+    return result;
   }
 
   private List<INode> syncInodeInstances(List<INode> newInodes) {
@@ -307,6 +343,25 @@ private List<INode> syncInodeInstances(List<INode> newInodes) {
     return finalList;
   }
 
+  private boolean isReadCommitted() {
+    return currentLockMode.get() == LockMode.READ_COMMITTED;
+  }
+
+  /**
+   * Shares rows read without a lock with the other transactions, rows read
+   * for writing are dropped from the shared cache.
+   */
+  private void cacheOrInvalidate(INode inode) throws StorageException {
+    if (inode == null) {
+      return;
+    }
+    if (isReadCommitted()) {
+      INodeSnapshotCache.getInstance().put(inode);
+    } else if (currentLockMode.get() == LockMode.WRITE_LOCK) {
+      INodeSnapshotCache.getInstance().invalidate(inode);
+    }
+  }
+
   private boolean containsRemoved(final Integer parentId, final String name) {
     return contains(new Predicate<ContextEntity>() {
       @Override
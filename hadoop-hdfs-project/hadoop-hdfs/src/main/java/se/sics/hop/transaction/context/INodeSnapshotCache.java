@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.context;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import se.sics.hop.exception.StorageException;
+import se.sics.hop.metadata.adaptor.INodeDALAdaptor;
+import se.sics.hop.metadata.hdfs.entity.hdfs.HopINode;
+
+/**
+ * Namenode wide cache of directory rows, shared by all transactions. It
+ * serves the READ_COMMITTED lookups of the {@link INodeContext}, which are
+ * mostly the ancestors of the paths being resolved.
+ * <p>
+ * The rows are kept as {@link HopINode} snapshots and every hit returns a
+ * new {@link INode}, so a transaction never sees the changes of another.
+ * Writes of this namenode invalidate the rows when the transaction is
+ * prepared and again once it has finished, and a row read by a transaction
+ * which started before an invalidation of that row is not cached. Writes of
+ * other namenodes are only noticed once the row expires, which bounds the
+ * staleness of a cached row to the configured max age. The only exception
+ * are the subtree locks: the rows served during a path resolution are read
+ * again in one batch to check their lock flags, see {@link #takeServed()}.
+ */
+public class INodeSnapshotCache {
+
+  private static final INodeSnapshotCache instance = new INodeSnapshotCache();
+
+  /** Converts between the snapshots and the inodes, it has no state. */
+  private static final INodeDALAdaptor converter = new INodeDALAdaptor(null);
+
+  private volatile Cache<Integer, HopINode> byId;
+  private volatile Cache<String, Integer> byNameAndParentId;
+  /** The time of the last invalidation of each inode id. */
+  private volatile Cache<Integer, Long> invalidations;
+
+  private final ThreadLocal<List<INode>> written =
+      new ThreadLocal<List<INode>>() {
+        @Override
+        protected List<INode> initialValue() {
+          return new ArrayList<INode>();
+        }
+      };
+  private final ThreadLocal<Long> transactionStart = new ThreadLocal<Long>();
+  private final ThreadLocal<List<INode>> served =
+      new ThreadLocal<List<INode>>() {
+        @Override
+        protected List<INode> initialValue() {
+          return new ArrayList<INode>();
+        }
+      };
+
+  private INodeSnapshotCache() {
+  }
+
+  public static INodeSnapshotCache getInstance() {
+    return instance;
+  }
+
+  public void setConfiguration(Configuration conf) {
+    if (conf.getBoolean(DFSConfigKeys.DFS_INODE_CACHE_ENABLED_KEY,
+        DFSConfigKeys.DFS_INODE_CACHE_ENABLED_DEFAULT)) {
+      long maxAge = conf.getLong(DFSConfigKeys.DFS_INODE_CACHE_MAX_AGE_KEY,
+          DFSConfigKeys.DFS_INODE_CACHE_MAX_AGE_DEFAULT);
+      int size = conf.getInt(DFSConfigKeys.DFS_INODE_CACHE_SIZE_KEY,
+          DFSConfigKeys.DFS_INODE_CACHE_SIZE_DEFAULT);
+      byId = CacheBuilder.newBuilder().maximumSize(size)
+          .expireAfterWrite(maxAge, TimeUnit.MILLISECONDS).build();
+      byNameAndParentId = CacheBuilder.newBuilder().maximumSize(size)
+          .expireAfterWrite(maxAge, TimeUnit.MILLISECONDS).build();
+      // a transaction which read a row before it was invalidated must not
+      // cache it, transactions are expected to finish within this time
+      invalidations = CacheBuilder.newBuilder()
+          .expireAfterWrite(Math.max(maxAge, 60000), TimeUnit.MILLISECONDS)
+          .build();
+    } else {
+      byId = null;
+      byNameAndParentId = null;
+      invalidations = null;
+    }
+  }
+
+  public boolean isEnabled() {
+    return byId != null;
+  }
+
+  /**
+   * Called when a transaction attempt starts on this thread.
+   */
+  public void transactionStarted() {
+    if (isEnabled()) {
+      transactionStart.set(System.nanoTime());
+      served.get().clear();
+    }
+  }
+
+  /**
+   * Called when a transaction finished on this thread, whether it committed
+   * or not. Invalidates the rows it wrote once more, in case a concurrent
+   * transaction cached them between the prepare and the commit.
+   */
+  public void transactionFinished() {
+    if (!isEnabled()) {
+      return;
+    }
+    List<INode> inodes = written.get();
+    if (!inodes.isEmpty()) {
+      invalidate(inodes);
+      inodes.clear();
+    }
+    transactionStart.remove();
+    served.get().clear();
+  }
+
+  /**
+   * @return the inodes served from the cache to the current thread since
+   * the last call or the start of its transaction. Their lock flags may be
+   * stale, the caller has to read them again if it depends on them.
+   */
+  public List<INode> takeServed() {
+    List<INode> inodes = served.get();
+    if (inodes.isEmpty()) {
+      return inodes;
+    }
+    List<INode> taken = new ArrayList<INode>(inodes);
+    inodes.clear();
+    return taken;
+  }
+
+  INode get(int id) throws StorageException {
+    INode inode = lookup(id);
+    recordLookup(inode != null);
+    if (inode != null) {
+      served.get().add(inode);
+    }
+    return inode;
+  }
+
+  INode get(String name, int parentId) throws StorageException {
+    Cache<String, Integer> index = byNameAndParentId;
+    if (index == null) {
+      return null;
+    }
+    Integer id = index.getIfPresent(INode.nameParentKey(parentId, name));
+    INode inode = id == null ? null : lookup(id);
+    if (inode != null && (inode.getParentId() != parentId ||
+        !inode.getLocalName().equals(name))) {
+      inode = null;
+    }
+    recordLookup(inode != null);
+    if (inode != null) {
+      served.get().add(inode);
+    }
+    return inode;
+  }
+
+  private INode lookup(int id) throws StorageException {
+    Cache<Integer, HopINode> cache = byId;
+    if (cache == null) {
+      return null;
+    }
+    HopINode snapshot = cache.getIfPresent(id);
+    return snapshot == null ? null : converter.convertDALtoHDFS(snapshot);
+  }
+
+  /**
+   * Caches a directory read from the database by the current transaction.
+   * Other inodes are not cached, they change too often.
+   */
+  void put(INode inode) throws StorageException {
+    Cache<Integer, HopINode> cache = byId;
+    if (cache == null || !(inode instanceof INodeDirectory)) {
+      return;
+    }
+    Long start = transactionStart.get();
+    Long invalidated = invalidations.getIfPresent(inode.getId());
+    if (start == null || (invalidated != null && invalidated >= start)) {
+      return;
+    }
+    cache.put(inode.getId(), converter.convertHDFStoDAL(inode));
+    byNameAndParentId.put(inode.nameParentKey(), inode.getId());
+  }
+
+  /**
+   * Invalidates the rows written by the current transaction and remembers
+   * them to invalidate them again when it finishes.
+   */
+  void invalidateWritten(Collection<INode> inodes) {
+    if (!isEnabled() || inodes.isEmpty()) {
+      return;
+    }
+    written.get().addAll(inodes);
+    invalidate(inodes);
+  }
+
+  /**
+   * Invalidates a row which is about to be locked for writing, or which was
+   * found to be stale.
+   */
+  public void invalidate(INode inode) {
+    if (isEnabled() && inode != null) {
+      List<INode> inodes = new ArrayList<INode>(1);
+      inodes.add(inode);
+      invalidate(inodes);
+    }
+  }
+
+  private void invalidate(Collection<INode> inodes) {
+    Cache<Integer, HopINode> cache = byId;
+    Cache<String, Integer> index = byNameAndParentId;
+    Cache<Integer, Long> times = invalidations;
+    if (cache == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    int count = 0;
+    for (INode inode : inodes) {
+      times.put(inode.getId(), now);
+      HopINode snapshot = cache.getIfPresent(inode.getId());
+      if (snapshot != null) {
+        // the name or the parent may have changed since it was cached
+        index.invalidate(INode.nameParentKey(snapshot.getParentId(),
+            snapshot.getName()));
+        cache.invalidate(inode.getId());
+        count++;
+      }
+      index.invalidate(inode.nameParentKey());
+    }
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null && count > 0) {
+      metrics.incrINodeCacheInvalidations(count);
+    }
+  }
+
+  private void recordLookup(boolean hit) {
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrINodeCacheLookup(hit);
+    }
+  }
+}
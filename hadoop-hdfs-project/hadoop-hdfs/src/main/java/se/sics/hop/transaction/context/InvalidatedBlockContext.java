@@ -23,6 +23,7 @@
 import se.sics.hop.metadata.hdfs.dal.InvalidateBlockDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hop.HopInvalidatedBlock;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.ArrayList;
@@ -97,6 +98,8 @@ public Collection<HopInvalidatedBlock> findList(
   public void prepare(TransactionLocks tlm)
       throws TransactionContextException, StorageException {
     dataAccess.prepare(getRemoved(), getAdded(), getModified());
+    RowCounters.getInstance().prepared(RowCounters.Counter.INVALIDATED_BLOCKS,
+        getAdded().size(), getRemoved().size());
   }
 
   @Override
@@ -138,11 +141,13 @@ private HopInvalidatedBlock findByPrimaryKey(Object[] params)
         storageId);
     HopInvalidatedBlock result = null;
     if (contains(key) || containsByBlock(blockId) || containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-invblock-by-pk", CacheHitState.HIT, new String[]{"bid", Long
           .toString(blockId), "sid", Integer.toString(storageId), "inodeId",
           Integer.toString(inodeId)});
       result = get(key);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-invblock-by-pk", CacheHitState.LOSS,
           new String[]{"bid", Long.toString(blockId), "sid",
               Integer.toString(storageId), "inodeId",
@@ -160,10 +165,12 @@ private List<HopInvalidatedBlock> findByBlockId(Object[] params)
     final int inodeId = (Integer) params[1];
     List<HopInvalidatedBlock> result = null;
     if (containsByBlock(blockId) || containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-invblock-by-blockId", CacheHitState.HIT, new String[]{"bid",
           String.valueOf(blockId)});
       result = getByBlock(blockId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-invblock-by-blockId", CacheHitState.LOSS, new String[]{"bid",
           String.valueOf(blockId)});
       aboutToAccessStorage();
@@ -179,10 +186,12 @@ private List<HopInvalidatedBlock> findByINodeId(Object[] params)
     final int inodeId = (Integer) params[0];
     List<HopInvalidatedBlock> result = null;
     if (containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-invblock-by-inode-id", CacheHitState.HIT,
           new String[]{"inode_id", Integer.toString(inodeId),});
       result = getByINode(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-invblock-by-inode-id", CacheHitState.LOSS,
           new String[]{"inode_id", Integer.toString(inodeId)});
       aboutToAccessStorage();
@@ -198,6 +207,7 @@ private List<HopInvalidatedBlock> findAll()
     if (allInvBlocksRead) {
       result = new ArrayList<HopInvalidatedBlock>(getAll());
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-all-invblocks", CacheHitState.LOSS);
       aboutToAccessStorage();
       result = dataAccess.findAllInvalidatedBlocks();
@@ -225,6 +235,7 @@ private List<HopInvalidatedBlock> findByPrimaryKeys(Object[] params)
   private List<HopInvalidatedBlock> findByINodeIds(Object[] params)
       throws StorageCallPreventedException, StorageException {
     final int[] inodeIds = (int[]) params[0];
+    TransactionStats.countLookup(this, CacheHitState.LOSS);
     log("find-invblock-by-inode-id", CacheHitState.LOSS,
         new String[]{"inode_id", Arrays.toString(inodeIds)});
     aboutToAccessStorage();
@@ -24,6 +24,7 @@
 import se.sics.hop.metadata.hdfs.dal.LeaseDataAccess;
 import se.sics.hop.metadata.hdfs.entity.CounterType;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.HashMap;
@@ -54,6 +55,7 @@ public int count(CounterType<Lease> counter, Object... params)
     Lease.Counter lCounter = (Lease.Counter) counter;
     switch (lCounter) {
       case All:
+        TransactionStats.countLookup(this, CacheHitState.LOSS);
         log("count-all-leases", CacheHitState.LOSS);
         return dataAccess.countAll();
     }
@@ -103,10 +105,12 @@ private Lease findByHolder(Object[] params)
     final String holder = (String) params[0];
     Lease result = null;
     if (contains(holder)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-lease-by-pk", CacheHitState.HIT,
           new String[]{"holder", holder});
       result = get(holder);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-lease-by-pk", CacheHitState.LOSS,
           new String[]{"holder", holder});
       aboutToAccessStorage();
@@ -124,10 +128,12 @@ private Lease findByHolderId(Object[] params)
     final int holderId = (Integer) params[0];
     Lease result = null;
     if (idToLease.containsKey(holderId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-lease-by-holderid", CacheHitState.HIT,
           new String[]{"hid", Integer.toString(holderId)});
       result = idToLease.get(holderId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-lease-by-holderid", CacheHitState.LOSS,
           new String[]{"hid", Integer.toString(holderId)});
       aboutToAccessStorage();
@@ -24,6 +24,7 @@
 import se.sics.hop.metadata.hdfs.dal.LeasePathDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hop.HopLeasePath;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.ArrayList;
@@ -109,9 +110,11 @@ private HopLeasePath findByPrimaryKey(Object[] params)
     final String path = (String) params[0];
     HopLeasePath result = null;
     if (contains(path)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-lpath-by-pk", CacheHitState.HIT, new String[]{"path", path});
       result = get(path);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-lpath-by-pk", CacheHitState.LOSS, new String[]{"path", path});
       aboutToAccessStorage();
       result = dataAccess.findByPKey(path);
@@ -125,10 +128,12 @@ private Collection<HopLeasePath> findByHolderId(Object[] params)
     final int holderId = (Integer) params[0];
     Collection<HopLeasePath> result = null;
     if (holderIdToLeasePath.containsKey(holderId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-lpaths-by-holderid", CacheHitState.HIT,
           new String[]{"hid", Long.toString(holderId)});
       result = new ArrayList<HopLeasePath>(holderIdToLeasePath.get(holderId));
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-lpaths-by-holderid", CacheHitState.LOSS,
           new String[]{"hid", Long.toString(holderId)});
       aboutToAccessStorage();
@@ -146,12 +151,14 @@ private Collection<HopLeasePath> findByPrefix(Object[] params)
       aboutToAccessStorage();
       result = dataAccess.findByPrefix(prefix);
       gotFromDB(result);
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-lpaths-by-prefix", CacheHitState.LOSS,
           new String[]{"prefix", prefix, "numOfLps",
               String.valueOf(result.size())});
     } catch (StorageCallPreventedException ex) {
       // This is allowed in querying lease-path by prefix, this is needed in delete operation for example.
       result = getFilteredByPrefix(prefix);
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-lpaths-by-prefix", CacheHitState.HIT,
           new String[]{"prefix", prefix, "numOfLps",
               String.valueOf(result.size())});
@@ -25,6 +25,7 @@
 import se.sics.hop.exception.TransactionContextException;
 import se.sics.hop.metadata.hdfs.dal.PendingBlockDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.ArrayList;
@@ -118,6 +119,7 @@ private PendingBlockInfo findByBlockId(Object[] params)
     final int inodeId = (Integer) params[1];
     PendingBlockInfo result = null;
     if (containsByBlock(blockId) || containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-pending-by-pk", CacheHitState.HIT, new String[]{"bid", Long.toString(blockId),"inode_id", Integer.toString(inodeId)});
       List<PendingBlockInfo> pblks = getByBlock(blockId);
       if (pblks != null) {
@@ -130,6 +132,7 @@ private PendingBlockInfo findByBlockId(Object[] params)
         }
     }
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-pending-by-pk", CacheHitState.LOSS, new String[]{"bid", Long.toString(blockId),"inode_id", Integer.toString(inodeId)});
       aboutToAccessStorage();
       result = dataAccess.findByPKey(blockId,inodeId);
@@ -142,9 +145,11 @@ private  List<PendingBlockInfo> findAll()
       throws StorageCallPreventedException, StorageException {
     List<PendingBlockInfo> result = null;
     if (allPendingRead) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-all-pendings", CacheHitState.HIT);
       result = new ArrayList<PendingBlockInfo>(getAll());
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-all-pendings", CacheHitState.LOSS);
       aboutToAccessStorage();
       result = dataAccess.findAll();
@@ -159,9 +164,11 @@ private List<PendingBlockInfo> findByINodeId(Object[] params)
     final int inodeId = (Integer) params[0];
     List<PendingBlockInfo> result = null;
     if(containsByINode(inodeId)){
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-pendings-by-inode-id", CacheHitState.HIT, new String[]{"inode_id", Integer.toString(inodeId)});
       result = getByINode(inodeId);
     }else{
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-pendings-by-inode-id", CacheHitState.LOSS, new String[]{"inode_id", Integer.toString(inodeId)});
       aboutToAccessStorage();
       result = dataAccess.findByINodeId(inodeId);
@@ -174,6 +181,7 @@ private List<PendingBlockInfo> findByINodeIds(Object[] params)
       throws StorageCallPreventedException, StorageException {
     final int[] inodeIds = (int[]) params[0];
     List<PendingBlockInfo> result = null;
+    TransactionStats.countLookup(this, CacheHitState.LOSS);
     log("find-pendings-by-inode-ids", CacheHitState.LOSS, new String[]{"inode_ids", Arrays
         .toString(inodeIds)});
     aboutToAccessStorage();
@@ -23,6 +23,7 @@
 import se.sics.hop.metadata.hdfs.dal.ReplicaDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hop.HopIndexedReplica;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.Arrays;
@@ -141,10 +142,12 @@ private List<HopIndexedReplica> findByBlockId(Object[] params)
     final int inodeId = (Integer) params[1];
     List<HopIndexedReplica> results = null;
     if (containsByBlock(blockId) || containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-replicas-by-bid", CacheHitState.HIT,
           new String[]{"bid", Long.toString(blockId)});
       results = getByBlock(blockId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-replicas-by-bid", CacheHitState.LOSS,
           new String[]{"bid", Long.toString(blockId)});
       aboutToAccessStorage();
@@ -159,10 +162,12 @@ private List<HopIndexedReplica> findByINodeId(Object[] params) throws
     final int inodeId = (Integer) params[0];
     List<HopIndexedReplica> results = null;
     if (containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-replicas-by-inode-id", CacheHitState.HIT,
           new String[]{"inode_id", Integer.toString(inodeId)});
       results = getByINode(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-replicas-by-inode-id", CacheHitState.LOSS,
           new String[]{"inode_id", Integer.toString(inodeId)});
       aboutToAccessStorage();
@@ -204,6 +209,7 @@ private List<HopIndexedReplica> findByPrimaryKeys(Object[] params) throws
   private List<HopIndexedReplica> findyByINodeIds(Object[] params) throws
       StorageCallPreventedException, StorageException {
     int[] ids = (int[]) params[0];
+    TransactionStats.countLookup(this, CacheHitState.LOSS);
     log("find-replicas-by-inode-ids", CacheHitState.LOSS,
         new String[]{"inode_ids", Arrays.toString(ids)});
     aboutToAccessStorage();
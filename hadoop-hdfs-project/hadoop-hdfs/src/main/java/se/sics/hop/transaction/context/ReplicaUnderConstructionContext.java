@@ -22,6 +22,7 @@
 import se.sics.hop.exception.TransactionContextException;
 import se.sics.hop.metadata.hdfs.dal.ReplicaUnderConstructionDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.Arrays;
@@ -110,10 +111,12 @@ private List<ReplicaUnderConstruction> findByBlockId(Object[] params)
     final int inodeId = (Integer) params[1];
     List<ReplicaUnderConstruction> result = null;
     if (containsByBlock(blockId) || containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-replicaucs-by-bid", CacheHitState.HIT,
           new String[]{"bid", Long.toString(blockId)});
       result = getByBlock(blockId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-replicaucs-by-bid", CacheHitState.LOSS,
           new String[]{"bid", Long.toString(blockId)});
       aboutToAccessStorage();
@@ -129,10 +132,12 @@ private List<ReplicaUnderConstruction> findByINodeId(Object[] params)
     final int inodeId = (Integer) params[0];
     List<ReplicaUnderConstruction> result = null;
     if (containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-replicaucs-by-inode-id", CacheHitState.HIT,
           new String[]{"inode_id", Integer.toString(inodeId)});
       result = getByINode(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-replicaucs-by-inode-id", CacheHitState.LOSS,
           new String[]{"inode_id", Integer.toString(inodeId)});
       aboutToAccessStorage();
@@ -145,6 +150,7 @@ private List<ReplicaUnderConstruction> findByINodeId(Object[] params)
   private List<ReplicaUnderConstruction> findByINodeIds(Object[] params)
       throws TransactionContextException, StorageException {
     final int[] inodeIds = (int[]) params[0];
+    TransactionStats.countLookup(this, CacheHitState.LOSS);
     log("find-replicaucs-by-inode-ids", CacheHitState.LOSS,
         new String[]{"inode_ids", Arrays.toString(
             inodeIds)});
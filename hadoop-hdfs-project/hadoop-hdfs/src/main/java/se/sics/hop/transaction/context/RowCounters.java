@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.context;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+
+/**
+ * Row counts of the tables the metrics poll, kept without COUNT queries.
+ * The contexts add the rows inserted and deleted by a transaction when it
+ * is prepared, and the counts change once the transaction commits.
+ * <p>
+ * The counts can be behind the database by up to a reconcile interval, so
+ * they are only read by the metrics. The namenode logic, such as the safe
+ * mode and the object limit checks, keeps counting the rows.
+ * <p>
+ * The counts are kept per namenode, so the writes of the other namenodes
+ * and the rows written outside the contexts are only seen when the
+ * reconciler replaces a count with the result of a COUNT query. Counters
+ * which can not be derived from the inserted and deleted rows are only
+ * refreshed by the reconciler. A count is unknown, and the callers fall
+ * back to the COUNT query, until it has been reconciled once.
+ */
+public class RowCounters {
+
+  public enum Counter {
+    BLOCKS,
+    UNDER_REPLICATED_BLOCKS,
+    INVALIDATED_BLOCKS,
+    /** Blocks with corrupt replicas, only refreshed by the reconciler */
+    CORRUPT_BLOCKS,
+    /** Pending replications not timed out, only refreshed by the reconciler */
+    PENDING_REPLICATIONS
+  }
+
+  private static final long UNKNOWN = Long.MIN_VALUE;
+
+  private static final RowCounters instance = new RowCounters();
+
+  private volatile boolean enabled = false;
+  private final AtomicLongArray counts =
+      new AtomicLongArray(Counter.values().length);
+
+  private final ThreadLocal<long[]> pending = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[Counter.values().length];
+    }
+  };
+
+  private RowCounters() {
+    reset();
+  }
+
+  public static RowCounters getInstance() {
+    return instance;
+  }
+
+  public void setConfiguration(Configuration conf) {
+    enabled = conf.getBoolean(DFSConfigKeys.DFS_ROW_COUNTERS_ENABLED_KEY,
+        DFSConfigKeys.DFS_ROW_COUNTERS_ENABLED_DEFAULT);
+    reset();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Called when a transaction attempt starts on this thread, the rows of a
+   * failed attempt are not counted.
+   */
+  public void transactionStarted() {
+    if (enabled) {
+      clearPending();
+    }
+  }
+
+  /**
+   * Called when a transaction finished on this thread.
+   *
+   * @param committed whether the rows it prepared were written
+   */
+  public void transactionFinished(boolean committed) {
+    if (!enabled) {
+      return;
+    }
+    if (committed) {
+      long[] deltas = pending.get();
+      for (int i = 0; i < deltas.length; i++) {
+        if (deltas[i] != 0) {
+          add(i, deltas[i]);
+        }
+      }
+    }
+    clearPending();
+  }
+
+  /**
+   * @return the count, or null if it is not known yet
+   */
+  public Long get(Counter counter) {
+    if (!enabled) {
+      return null;
+    }
+    long count = counts.get(counter.ordinal());
+    return count == UNKNOWN ? null : count;
+  }
+
+  /**
+   * Replaces a count with the result of a COUNT query. The transactions
+   * which commit while the query runs may be counted twice or not at all,
+   * until the next reconciliation.
+   */
+  public void reconcile(Counter counter, long count) {
+    long previous = counts.getAndSet(counter.ordinal(), count);
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null && previous != UNKNOWN) {
+      metrics.incrRowCounterDrift(Math.abs(count - previous));
+    }
+  }
+
+  void prepared(Counter counter, int added, int removed) {
+    if (enabled) {
+      pending.get()[counter.ordinal()] += added - removed;
+    }
+  }
+
+  private void add(int counter, long delta) {
+    while (true) {
+      long count = counts.get(counter);
+      if (count == UNKNOWN || counts.compareAndSet(counter, count,
+          count + delta)) {
+        return;
+      }
+    }
+  }
+
+  private void clearPending() {
+    long[] deltas = pending.get();
+    for (int i = 0; i < deltas.length; i++) {
+      deltas[i] = 0;
+    }
+  }
+
+  private void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, UNKNOWN);
+    }
+  }
+}
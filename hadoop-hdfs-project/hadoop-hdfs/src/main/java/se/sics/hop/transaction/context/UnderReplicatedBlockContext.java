@@ -23,6 +23,7 @@
 import se.sics.hop.metadata.hdfs.dal.UnderReplicatedBlockDataAccess;
 import se.sics.hop.metadata.hdfs.entity.FinderType;
 import se.sics.hop.metadata.hdfs.entity.hop.HopUnderReplicatedBlock;
+import se.sics.hop.transaction.handler.TransactionStats;
 import se.sics.hop.transaction.lock.TransactionLocks;
 
 import java.util.Arrays;
@@ -93,6 +94,8 @@ public Collection<HopUnderReplicatedBlock> findList(
   public void prepare(TransactionLocks tlm)
       throws TransactionContextException, StorageException {
     dataAccess.prepare(getRemoved(), getAdded(), getModified());
+    RowCounters.getInstance().prepared(RowCounters.Counter.UNDER_REPLICATED_BLOCKS,
+        getAdded().size(), getRemoved().size());
   }
 
   @Override
@@ -121,6 +124,7 @@ private HopUnderReplicatedBlock findByBlockId(Object[] params)
     final int inodeId = (Integer) params[1];
     HopUnderReplicatedBlock result = null;
     if (containsByBlock(blockId) || containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-urblock-by-bid", CacheHitState.HIT,
           new String[]{"bid", Long.toString(blockId), "inode_id",
               Integer.toString(inodeId)});
@@ -135,6 +139,7 @@ private HopUnderReplicatedBlock findByBlockId(Object[] params)
         }
       }
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-urblock-by-bid", CacheHitState.LOSS,
           new String[]{"bid", Long.toString(blockId), "inode_id",
               Integer.toString(inodeId)});
@@ -150,10 +155,12 @@ private List<HopUnderReplicatedBlock> findByINodeId(Object[] params)
     final int inodeId = (Integer) params[0];
     List<HopUnderReplicatedBlock> result = null;
     if (containsByINode(inodeId)) {
+      TransactionStats.countLookup(this, CacheHitState.HIT);
       log("find-urblocks-by-inode-id", CacheHitState.HIT,
           new String[]{"inode_id", Integer.toString(inodeId)});
       result = getByINode(inodeId);
     } else {
+      TransactionStats.countLookup(this, CacheHitState.LOSS);
       log("find-urblocks-by-inode-id", CacheHitState.LOSS,
           new String[]{"inode_id", Integer.toString(inodeId)});
       aboutToAccessStorage();
@@ -167,6 +174,7 @@ private List<HopUnderReplicatedBlock> findByINodeIds(Object[] params)
       throws StorageCallPreventedException, StorageException {
     final int[] inodeIds = (int[]) params[0];
     List<HopUnderReplicatedBlock> result = null;
+    TransactionStats.countLookup(this, CacheHitState.LOSS);
     log("find-urblocks-by-inode-ids", CacheHitState.LOSS,
         new String[]{"inode_ids", Arrays
             .toString(inodeIds)});
@@ -24,11 +24,11 @@ public enum HDFSOperationType implements OperationType {
   BLOCK_RECEIVED_AND_DELETED_INC_BLK_REPORT, RESCAN_MISREPLICATED_BLOCKS,
   PROCESS_MIS_REPLICATED_BLOCKS, GET_ALL_MACHINE_BLOCKS,GET_ALL_MACHINE_BLOCKS_IDS, REMOVE_STORED_BLOCK,
   CHECK_REPLICATION_IN_PROGRESS, PROCESS_OVER_REPLICATED_BLOCKS_ON_RECOMMISSION, GET_ALL_BLOCKS, GET_ALL_BLOCKS_SIZE,
-  REPLICATION_MONITOR, COMPUTE_REPLICATION_WORK_FOR_BLOCK, PROCESS_QUEUED_REPORT, PROCESS_TIMEDOUT_PENDING_BLOCK, GET_VALID_BLK_LOCS,
+  REPLICATION_MONITOR, COMPUTE_REPLICATION_WORK_FOR_BLOCK, CHOOSE_REPLICATION_WORK, SCHEDULE_REPLICATION_WORK, PROCESS_QUEUED_REPORT, PROCESS_TIMEDOUT_PENDING_BLOCK, GET_VALID_BLK_LOCS,
   COUNT_CORRUPT_REPLICAS, GET_ALL_CORRUPT_REPLICAS,
   GET_NUM_INVALIDATED_BLKS, GET_INV_BLKS_BY_STORAGEID, RM_INV_BLKS, GET_ALL_INV_BLKS, DEL_ALL_INV_BLKS, DEL_ALL_EXCESS_BLKS, DEL_ALL_UNDER_REPLICATED_BLKS,
   COUNT_ALL_UNDER_REPLICATED_BLKS, COUNT_UNDER_REPLICATED_BLKS_LESS_THAN_LVL4, COUNT_UNDER_REPLICATED_BLKS_AT_LVL, GET_ALL_UNDER_REPLICATED_BLKS, GET_UNDER_REPLICATED_BLKS_By_LEVEL_LIMITED,
-  DEL_ALL_PENDING_REPL_BLKS, COUNT_ALL_VALID_PENDING_REPL_BLKS, GET_TIMED_OUT_PENDING_BLKS, GET_BLOCK, GET_EXCESS_RELPLICAS_BY_STORAGEID, CHOOSE_UNDER_REPLICATED_BLKS,
+  DEL_ALL_PENDING_REPL_BLKS, COUNT_ALL_VALID_PENDING_REPL_BLKS, GET_TIMED_OUT_PENDING_BLKS, GET_BLOCK, GET_EXCESS_RELPLICAS_BY_STORAGEID, CHOOSE_UNDER_REPLICATED_BLKS, DECREMENT_REPLICATION_INDEX,
   ADD_INV_BLOCKS, AFTER_PROCESS_REPORT_ADD_BLK, AFTER_PROCESS_REPORT_ADD_BLK_IMMEDIATE, AFTER_PROCESS_REPORT_ADD_UC_BLK, AFTER_PROCESS_REPORT_ADD_UC_BLK_IMMEDIATE, AFTER_PROCESS_REPORT_ADD_CORRUPT_BLK, GET_INODE_IDS, RESOLVE_INODE_FROM_BLOCKID, GET_BLOCKS, REMOVE_UNDER_REPLICATED_BLOCK,
   // DatanodeManager
   REMOVE_DATANODE, REFRESH_NODES,GET_EXPECTED_BLK_LOCATIONS,
@@ -122,12 +122,16 @@ public enum HDFSOperationType implements OperationType {
   PROCESS_MIS_REPLICATED_BLOCKS_PER_INODE,
   // QuotaUpdateMonitor
   ADD_QUOTA_UPDATE, GET_NEXT_QUOTA_BATCH, APPLY_QUOTA_UPDATE, RESOLVE_INODE_FROM_ID, GET_UPDATES_FOR_ID,
+  RESOLVE_INODES_FROM_IDS,
+  // AccessTimeUpdater
+  APPLY_ACCESS_TIMES,
   SET_SUBTREE_LOCK,
   RESET_SUBTREE_LOCK,
   GET_SUBTREE_ROOT,
   GET_CHILD_INODES,
   SUBTREE_PERMISSION_CHECK,
   SUBTREE_RENAME,
+  SUBTREE_BATCHED_DELETE,
   GET_SUBTREE_ATTRIBUTES,
   IS_DIR,
   ADD_BLOCK_CHECKSUM,
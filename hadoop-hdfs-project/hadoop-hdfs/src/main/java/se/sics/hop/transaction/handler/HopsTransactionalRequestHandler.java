@@ -21,6 +21,8 @@
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import se.sics.hop.memcache.PathMemcache;
 import se.sics.hop.transaction.TransactionInfo;
+import se.sics.hop.transaction.context.INodeSnapshotCache;
+import se.sics.hop.transaction.context.RowCounters;
 import se.sics.hop.transaction.lock.HopsTransactionalLockAcquirer;
 import se.sics.hop.transaction.lock.TransactionLockAcquirer;
 
@@ -30,6 +32,7 @@
  */
 public abstract class HopsTransactionalRequestHandler extends TransactionalRequestHandler {
 
+  private final HDFSOperationType opType;
   private final String path;
   
   public HopsTransactionalRequestHandler(HDFSOperationType opType) {
@@ -38,6 +41,7 @@ public HopsTransactionalRequestHandler(HDFSOperationType opType) {
   
   public HopsTransactionalRequestHandler(HDFSOperationType opType, String path) {
     super(opType);
+    this.opType = opType;
     this.path = path;
   }
 
@@ -49,7 +53,21 @@ protected TransactionLockAcquirer newLockAcquirer() {
   
   @Override
   protected Object execute(final Object namesystem) throws IOException {
+    TransactionStats.Transaction tx =
+        TransactionStats.getInstance().begin(opType);
+    boolean succeeded = false;
+    try {
+      Object result = executeTransaction(namesystem);
+      succeeded = true;
+      return result;
+    } finally {
+      INodeSnapshotCache.getInstance().transactionFinished();
+      RowCounters.getInstance().transactionFinished(succeeded);
+      TransactionStats.getInstance().end(tx, succeeded);
+    }
+  }
 
+  private Object executeTransaction(final Object namesystem) throws IOException {
     return super.execute(new TransactionInfo() {
       @Override
       public String getContextName(OperationType opType) {
@@ -72,10 +90,17 @@ public void performPostTransactionAction() throws IOException {
 
   @Override
   protected final void preTransactionSetup() throws IOException {
+    long start = System.currentTimeMillis();
+    INodeSnapshotCache.getInstance().transactionStarted();
+    RowCounters.getInstance().transactionStarted();
     if(path != null){
       PathMemcache.getInstance().get(path);
     }
     setUp();
+    TransactionStats.Transaction tx = TransactionStats.current();
+    if (tx != null) {
+      tx.addSetUp(System.currentTimeMillis() - start);
+    }
   }
 
   public void setUp() throws IOException {
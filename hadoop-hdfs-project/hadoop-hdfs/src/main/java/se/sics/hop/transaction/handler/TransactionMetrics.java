@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.handler;
+
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableRates;
+
+/**
+ * Publishes the transaction statistics of every operation type through
+ * metrics2, one rate per operation type and phase, e.g. MKDIRSLockAcquisition.
+ */
+@Metrics(about="Per operation type transaction metrics", context="dfs")
+class TransactionMetrics {
+
+  @Metric MutableRates rates;
+
+  final MetricsRegistry registry = new MetricsRegistry("transactions");
+
+  static TransactionMetrics create() {
+    return DefaultMetricsSystem.instance().register("TransactionActivity",
+        null, new TransactionMetrics());
+  }
+
+  void add(HDFSOperationType opType, String phase, long value) {
+    rates.add(opType.name() + phase, value);
+  }
+}
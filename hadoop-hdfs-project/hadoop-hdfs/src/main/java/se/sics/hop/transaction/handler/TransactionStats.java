@@ -0,0 +1,410 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.handler;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.metrics2.util.MBeans;
+import org.mortbay.util.ajax.JSON;
+import se.sics.hop.transaction.context.EntityContext;
+import se.sics.hop.transaction.lock.HopsLock;
+
+/**
+ * Per operation type statistics of the transactions run by
+ * {@link HopsTransactionalRequestHandler}: the latency of the setup, the
+ * lock acquisition and the rest of the transaction, i.e. performTask, the
+ * preparation of the entity contexts and the commit, the number of
+ * database round trips, the rows read and written, the lookups served by
+ * the entity contexts or not, and the retries and aborts. Round trips and
+ * rows are counted by wrapping the data access objects handed out by the
+ * StorageFactory, the entity contexts report their lookups through
+ * {@link #countLookup}.
+ * <p>
+ * A sample of the transactions slower than the configured threshold is
+ * logged together with their lock set and the lookups of each context.
+ */
+public class TransactionStats implements TransactionStatsMXBean {
+
+  private static final Log LOG = LogFactory.getLog(TransactionStats.class);
+  private static TransactionStats instance = null;
+
+  static final String[] PHASES = {"SetUp", "LockAcquisition", "Execution", "Total"};
+  private static final int SETUP = 0;
+  private static final int LOCK_ACQUISITION = 1;
+  private static final int EXECUTION = 2;
+  private static final int TOTAL = 3;
+  /** Latency buckets of 0-1, 1-2, 2-4, ..., 2^(n-2) ms and above. */
+  private static final int BUCKETS = 18;
+
+  private final ThreadLocal<Transaction> current = new ThreadLocal<Transaction>();
+  private final ConcurrentMap<HDFSOperationType, OperationStats> stats =
+      new ConcurrentHashMap<HDFSOperationType, OperationStats>();
+  private final Random random = new Random();
+  private volatile boolean enabled = false;
+  private long slowThreshold;
+  private float slowLogSampleRatio;
+  private TransactionMetrics metrics;
+
+  private TransactionStats() {
+  }
+
+  public static TransactionStats getInstance() {
+    if (instance == null) {
+      instance = new TransactionStats();
+    }
+    return instance;
+  }
+
+  public synchronized void setConfiguration(Configuration conf) {
+    enabled = conf.getBoolean(DFSConfigKeys.DFS_TRANSACTION_STATS_ENABLED_KEY,
+        DFSConfigKeys.DFS_TRANSACTION_STATS_ENABLED_DEFAULT);
+    slowThreshold = conf.getLong(DFSConfigKeys.DFS_TRANSACTION_STATS_SLOW_THRESHOLD_KEY,
+        DFSConfigKeys.DFS_TRANSACTION_STATS_SLOW_THRESHOLD_DEFAULT);
+    slowLogSampleRatio = conf.getFloat(DFSConfigKeys.DFS_TRANSACTION_STATS_SLOW_LOG_SAMPLE_RATIO_KEY,
+        DFSConfigKeys.DFS_TRANSACTION_STATS_SLOW_LOG_SAMPLE_RATIO_DEFAULT);
+    if (enabled && metrics == null) {
+      metrics = TransactionMetrics.create();
+      MBeans.register("NameNode", "TransactionStats", this);
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the transaction running on the calling thread, or null if
+   * there is none or the statistics are disabled
+   */
+  public static Transaction current() {
+    TransactionStats ts = getInstance();
+    return ts.enabled ? ts.current.get() : null;
+  }
+
+  Transaction begin(HDFSOperationType opType) {
+    if (!enabled) {
+      return null;
+    }
+    Transaction tx = new Transaction(opType, current.get());
+    current.set(tx);
+    return tx;
+  }
+
+  void end(Transaction tx, boolean succeeded) {
+    if (tx == null) {
+      return;
+    }
+    current.set(tx.outer);
+    tx.phases[TOTAL] = System.currentTimeMillis() - tx.startTime;
+    tx.phases[EXECUTION] = Math.max(0,
+        tx.phases[TOTAL] - tx.phases[SETUP] - tx.phases[LOCK_ACQUISITION]);
+
+    OperationStats os = stats.get(tx.opType);
+    if (os == null) {
+      stats.putIfAbsent(tx.opType, new OperationStats());
+      os = stats.get(tx.opType);
+    }
+    os.add(tx, succeeded);
+    if (metrics != null) {
+      for (int i = 0; i < PHASES.length; i++) {
+        metrics.add(tx.opType, PHASES[i], tx.phases[i]);
+      }
+      metrics.add(tx.opType, "RoundTrips", tx.roundTrips);
+      metrics.add(tx.opType, "RowsRead", tx.rowsRead);
+      metrics.add(tx.opType, "RowsWritten", tx.rowsWritten);
+      metrics.add(tx.opType, "ContextHits", tx.contextHits);
+      metrics.add(tx.opType, "ContextMisses", tx.contextMisses);
+      metrics.add(tx.opType, "Retries", Math.max(0, tx.attempts - 1));
+      if (!succeeded) {
+        metrics.add(tx.opType, "Aborted", 1);
+      }
+    }
+
+    if (tx.phases[TOTAL] >= slowThreshold &&
+        random.nextFloat() < slowLogSampleRatio) {
+      LOG.info("Slow transaction " + tx);
+    }
+  }
+
+  /**
+   * Counts a lookup of an entity context of the running transaction, which
+   * was either served by the context or had to read the database.
+   */
+  public static void countLookup(Object context,
+      EntityContext.CacheHitState state) {
+    Transaction tx = current();
+    if (tx == null || state == EntityContext.CacheHitState.NA) {
+      return;
+    }
+    tx.countLookup(context.getClass().getSimpleName(),
+        state == EntityContext.CacheHitState.HIT);
+  }
+
+  /**
+   * Wraps the given data access object so that the calls made by a running
+   * transaction are counted, or returns it as it is if the statistics are
+   * disabled.
+   */
+  public Object wrap(Object dataAccess) {
+    if (!enabled || dataAccess == null || Proxy.isProxyClass(dataAccess.getClass())) {
+      return dataAccess;
+    }
+    Set<Class> interfaces = new LinkedHashSet<Class>();
+    for (Class c = dataAccess.getClass(); c != null; c = c.getSuperclass()) {
+      for (Class i : c.getInterfaces()) {
+        interfaces.add(i);
+      }
+    }
+    return Proxy.newProxyInstance(
+        dataAccess.getClass().getClassLoader(),
+        interfaces.toArray(new Class[interfaces.size()]),
+        new CountingInvocationHandler(dataAccess));
+  }
+
+  @Override
+  public String getTransactionStats() {
+    Map<String, Object> info = new TreeMap<String, Object>();
+    for (Map.Entry<HDFSOperationType, OperationStats> e : stats.entrySet()) {
+      info.put(e.getKey().name(), e.getValue().toMap());
+    }
+    return JSON.toString(info);
+  }
+
+  @Override
+  public void reset() {
+    stats.clear();
+  }
+
+  /**
+   * The statistics of one transaction, only accessed by the thread running
+   * it.
+   */
+  public static class Transaction {
+    private final HDFSOperationType opType;
+    private final Transaction outer;
+    private final long startTime = System.currentTimeMillis();
+    private final long[] phases = new long[PHASES.length];
+    private long lockAcquisitionStart;
+    private int attempts;
+    private long roundTrips;
+    private long rowsRead;
+    private long rowsWritten;
+    private long contextHits;
+    private long contextMisses;
+    /** The hits and misses of each context. */
+    private Map<String, long[]> contextLookups;
+    private List<HopsLock> locks;
+
+    private Transaction(HDFSOperationType opType, Transaction outer) {
+      this.opType = opType;
+      this.outer = outer;
+    }
+
+    void addSetUp(long time) {
+      phases[SETUP] += time;
+    }
+
+    private void countLookup(String context, boolean hit) {
+      if (contextLookups == null) {
+        contextLookups = new TreeMap<String, long[]>();
+      }
+      long[] lookups = contextLookups.get(context);
+      if (lookups == null) {
+        lookups = new long[2];
+        contextLookups.put(context, lookups);
+      }
+      if (hit) {
+        contextHits++;
+        lookups[0]++;
+      } else {
+        contextMisses++;
+        lookups[1]++;
+      }
+    }
+
+    public void lockAcquisitionStarted() {
+      attempts++;
+      lockAcquisitionStart = System.currentTimeMillis();
+    }
+
+    public void lockAcquisitionFinished(List<HopsLock> locks) {
+      phases[LOCK_ACQUISITION] += System.currentTimeMillis() - lockAcquisitionStart;
+      this.locks = locks;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder lockSet = new StringBuilder();
+      if (locks != null) {
+        for (HopsLock lock : locks) {
+          if (lockSet.length() > 0) {
+            lockSet.append(", ");
+          }
+          lockSet.append(lock.getType()).append(":")
+              .append(lock.getClass().getSimpleName());
+        }
+      }
+      StringBuilder lookups = new StringBuilder();
+      if (contextLookups != null) {
+        for (Map.Entry<String, long[]> e : contextLookups.entrySet()) {
+          if (lookups.length() > 0) {
+            lookups.append(", ");
+          }
+          lookups.append(e.getKey()).append(":hits=").append(e.getValue()[0])
+              .append("/misses=").append(e.getValue()[1]);
+        }
+      }
+      return opType + " took " + phases[TOTAL] + " ms (setUp=" + phases[SETUP]
+          + ", lockAcquisition=" + phases[LOCK_ACQUISITION] + ", execution="
+          + phases[EXECUTION] + ") attempts=" + attempts + " roundTrips="
+          + roundTrips + " rowsRead=" + rowsRead + " rowsWritten="
+          + rowsWritten + " locks=[" + lockSet + "] contextLookups=["
+          + lookups + "]";
+    }
+  }
+
+  private static class OperationStats {
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong aborts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong contextHits = new AtomicLong();
+    private final AtomicLong contextMisses = new AtomicLong();
+    private final AtomicLong[] phaseTotals = new AtomicLong[PHASES.length];
+    private final AtomicLongArray[] histograms = new AtomicLongArray[PHASES.length];
+
+    private OperationStats() {
+      for (int i = 0; i < PHASES.length; i++) {
+        phaseTotals[i] = new AtomicLong();
+        histograms[i] = new AtomicLongArray(BUCKETS);
+      }
+    }
+
+    void add(Transaction tx, boolean succeeded) {
+      transactions.incrementAndGet();
+      if (!succeeded) {
+        aborts.incrementAndGet();
+      }
+      retries.addAndGet(Math.max(0, tx.attempts - 1));
+      roundTrips.addAndGet(tx.roundTrips);
+      rowsRead.addAndGet(tx.rowsRead);
+      rowsWritten.addAndGet(tx.rowsWritten);
+      contextHits.addAndGet(tx.contextHits);
+      contextMisses.addAndGet(tx.contextMisses);
+      for (int i = 0; i < PHASES.length; i++) {
+        phaseTotals[i].addAndGet(tx.phases[i]);
+        histograms[i].incrementAndGet(bucket(tx.phases[i]));
+      }
+    }
+
+    private static int bucket(long ms) {
+      int bucket = 0;
+      while (ms > 0 && bucket < BUCKETS - 1) {
+        ms >>= 1;
+        bucket++;
+      }
+      return bucket;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new TreeMap<String, Object>();
+      long count = transactions.get();
+      map.put("transactions", count);
+      map.put("aborts", aborts.get());
+      map.put("retries", retries.get());
+      map.put("roundTrips", roundTrips.get());
+      map.put("rowsRead", rowsRead.get());
+      map.put("rowsWritten", rowsWritten.get());
+      map.put("contextHits", contextHits.get());
+      map.put("contextMisses", contextMisses.get());
+      for (int i = 0; i < PHASES.length; i++) {
+        Map<String, Object> phase = new TreeMap<String, Object>();
+        phase.put("avgTime", count == 0 ? 0 : phaseTotals[i].get() / count);
+        long[] buckets = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+          buckets[b] = histograms[i].get(b);
+        }
+        phase.put("histogram", buckets);
+        map.put(PHASES[i], phase);
+      }
+      return map;
+    }
+  }
+
+  private class CountingInvocationHandler implements InvocationHandler {
+    private final Object target;
+
+    private CountingInvocationHandler(Object target) {
+      this.target = target;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      Object result;
+      try {
+        result = method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+      Transaction tx = current();
+      if (tx != null && method.getDeclaringClass() != Object.class) {
+        tx.roundTrips++;
+        if (method.getName().equals("prepare") && args != null) {
+          for (Object arg : args) {
+            tx.rowsWritten += rows(arg);
+          }
+        } else {
+          tx.rowsRead += rows(result);
+        }
+      }
+      return result;
+    }
+
+    private long rows(Object o) {
+      if (o == null || o instanceof Number || o instanceof Boolean) {
+        return 0;
+      } else if (o instanceof Collection) {
+        return ((Collection) o).size();
+      } else if (o instanceof Map) {
+        return ((Map) o).size();
+      } else if (o.getClass().isArray()) {
+        return Array.getLength(o);
+      }
+      return 1;
+    }
+  }
+}
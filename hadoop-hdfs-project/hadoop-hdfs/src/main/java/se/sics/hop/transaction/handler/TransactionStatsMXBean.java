@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.handler;
+
+/**
+ * JMX interface of the per operation type transaction statistics.
+ */
+public interface TransactionStatsMXBean {
+
+  /**
+   * @return a JSON map from operation type to its transaction count,
+   * aborts, retries, database round trips, rows read and written, and the
+   * latency histogram of every phase
+   */
+  public String getTransactionStats();
+
+  /**
+   * Drops all collected statistics.
+   */
+  public void reset();
+}
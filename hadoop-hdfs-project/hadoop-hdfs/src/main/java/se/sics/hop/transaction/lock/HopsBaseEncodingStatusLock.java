@@ -61,6 +61,30 @@ protected void acquire(TransactionLocks locks) throws IOException {
     }
   }
 
+  final static class HopsBatchedEncodingStatusLock extends
+      HopsBaseEncodingStatusLock {
+
+    HopsBatchedEncodingStatusLock(TransactionLockTypes.LockType lockType) {
+      super(lockType);
+    }
+
+    @Override
+    protected void acquire(TransactionLocks locks) throws IOException {
+      HopsLock inodeLock = locks.getLock(Type.INode);
+      if (inodeLock instanceof HopsBatchedINodeLock) {
+        int[] inodeIds = ((HopsBatchedINodeLock) inodeLock).getINodeIds();
+        int[] sortedIds = Arrays.copyOf(inodeIds, inodeIds.length);
+        Arrays.sort(sortedIds);
+        for (int inodeId : sortedIds) {
+          acquireLock(getLockType(), EncodingStatus.Finder.ByInodeId, inodeId);
+        }
+      } else {
+        throw new TransactionLocks.LockNotAddedException(
+            "Batched Inode Lock wasn't added");
+      }
+    }
+  }
+
   final static class HopsIndividualEncodingStatusLock extends
       HopsBaseEncodingStatusLock {
     private final int inodeId;
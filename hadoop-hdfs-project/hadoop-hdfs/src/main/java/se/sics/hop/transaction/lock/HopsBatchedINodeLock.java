@@ -30,10 +30,17 @@
  */
 public class HopsBatchedINodeLock extends HopsBaseINodeLock {
 
+  private final TransactionLockTypes.INodeLockType lockType;
   private final List<INodeIdentifier> inodeIdentifiers;
   private int[] inodeIds;
 
   public HopsBatchedINodeLock(List<INodeIdentifier> inodeIdentifiers) {
+    this(DEFAULT_INODE_LOCK_TYPE, inodeIdentifiers);
+  }
+
+  public HopsBatchedINodeLock(TransactionLockTypes.INodeLockType lockType,
+      List<INodeIdentifier> inodeIdentifiers) {
+    this.lockType = lockType;
     this.inodeIdentifiers = inodeIdentifiers;
     inodeIds = new int[inodeIdentifiers.size()];
   }
@@ -50,7 +57,13 @@ protected void acquire(TransactionLocks locks) throws IOException {
         inodeIds[i] = inodeIdentifier.getInodeId();
       }
 
-      find(DEFAULT_INODE_LOCK_TYPE, names, parentIds);
+      Collection<INode> inodes = find(lockType, names, parentIds);
+      for (INode inode : inodes) {
+        addIndividualINode(inode);
+      }
+      if (isWriteLock()) {
+        acquireINodeAttributes();
+      }
     } else {
       throw new StorageException("INodeIdentifier object is not properly initialized ");
     }
@@ -69,6 +82,11 @@ private Collection<INode> find(
     return inodes;
   }
 
+  private boolean isWriteLock() {
+    return lockType == TransactionLockTypes.INodeLockType.WRITE ||
+        lockType == TransactionLockTypes.INodeLockType.WRITE_ON_TARGET_AND_PARENT;
+  }
+
   int[] getINodeIds() {
     return inodeIds;
   }
@@ -19,17 +19,25 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import se.sics.hop.common.INodeResolver;
 import se.sics.hop.exception.StorageException;
 import se.sics.hop.exception.TransactionContextException;
 import se.sics.hop.leaderElection.node.ActiveNode;
+import se.sics.hop.memcache.PathMemcache;
+import se.sics.hop.metadata.StorageFactory;
+import se.sics.hop.metadata.hdfs.dal.INodeDataAccess;
+import se.sics.hop.transaction.context.INodeSnapshotCache;
 import se.sics.hop.transaction.lock.TransactionLockTypes.INodeLockType;
 import se.sics.hop.transaction.lock.TransactionLockTypes.INodeResolveType;
 
@@ -38,8 +46,14 @@
  * @author Steffen Grohsschmiedt <steffeng@sics.se>
  */
 class HopsINodeLock extends HopsBaseINodeLock {
+
+  private static boolean batchedPathResolutionEnabled = false;
+
+  static void setBatchedPathResolutionEnabled(boolean enabled) {
+    batchedPathResolutionEnabled = enabled;
+  }
   
-  private final INodeLockType lockType;
+  protected final INodeLockType lockType;
   private final INodeResolveType resolveType;
   private final boolean resolveLink;
   protected final String[] paths;
@@ -134,9 +148,13 @@ private List<INode> acquireINodeLockByPath(String path)
 
     INodeResolver resolver = new INodeResolver(components, currentINode,
         resolveLink, true);
+    if (batchedPathResolutionEnabled) {
+      resolvedINodes.addAll(acquireLockOnAncestorsBatched(resolver,
+          components));
+    }
+    INodeLockType currentINodeLock = DEFAULT_INODE_LOCK_TYPE;
     while (resolver.hasNext()) {
-      INodeLockType currentINodeLock =
-          identifyLockType(resolver.getCount() + 1, components);
+      currentINodeLock = identifyLockType(resolver.getCount() + 1, components);
       setINodeLockType(currentINodeLock);
       currentINode = resolver.next();
       if (currentINode != null) {
@@ -145,11 +163,59 @@ private List<INode> acquireINodeLockByPath(String path)
         resolvedINodes.add(currentINode);
       }
     }
+    checkSubtreeLocksOfCachedINodes(currentINodeLock);
 
     handleLockUpgrade(resolvedINodes, components, path);
+    PathMemcache.getInstance().cache(components, resolvedINodes);
     return resolvedINodes;
   }
 
+  /**
+   * Reads all ancestors which are locked with the default lock type in one
+   * batched primary key read, using the parent ids of the longest cached
+   * prefix of the path as a hint. The parent and the target are left to the
+   * step by step resolution, as well as any ancestor not covered by the hint
+   * or following a stale part of it.
+   */
+  private List<INode> acquireLockOnAncestorsBatched(INodeResolver resolver,
+      byte[][] components)
+      throws StorageException, SubtreeLockedException,
+      TransactionContextException {
+    int lastAncestor = TransactionLockTypes.impliesParentWriteLock(lockType) ?
+        components.length - 3 : components.length - 2;
+    if (lastAncestor - resolver.getCount() < 2) {
+      return new ArrayList<INode>();
+    }
+
+    int[] hint = PathMemcache.getInstance().getParentIdsHint(components);
+    if (hint == null) {
+      recordPathResolutionHint(false, 0);
+      return new ArrayList<INode>();
+    }
+
+    lastAncestor = Math.min(lastAncestor, hint.length);
+    setINodeLockType(DEFAULT_INODE_LOCK_TYPE);
+    List<INode> ancestors = resolver.nextBatch(hint, lastAncestor);
+    for (INode ancestor : ancestors) {
+      addLockedINodes(ancestor, DEFAULT_INODE_LOCK_TYPE);
+      checkSubtreeLock(ancestor);
+    }
+    boolean verified = resolver.getCount() == lastAncestor;
+    if (!verified) {
+      PathMemcache.getInstance().staleHint(components, resolver.getCount() + 1);
+    }
+    recordPathResolutionHint(verified, ancestors.size() - 1);
+    return ancestors;
+  }
+
+  private void recordPathResolutionHint(boolean hit, int roundTripsSaved) {
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrPathResolutionHint(hit);
+      metrics.addPathResolutionRoundTripsSaved(Math.max(0, roundTripsSaved));
+    }
+  }
+
   private boolean isRootTarget(byte[][] components) {
     return isTarget(0, components);
   }
@@ -180,6 +246,56 @@ private boolean isParent(int count, byte[][] components) {
     return count == components.length - 2;
   }
 
+  /**
+   * The rows served from the {@link INodeSnapshotCache} do not show the
+   * subtree locks set by other namenodes since they were cached. They are
+   * read again in one batch, their lock flags are checked and the stale ones
+   * are dropped from the cache.
+   *
+   * @param lastLockType the lock type to restore after the read
+   */
+  private void checkSubtreeLocksOfCachedINodes(INodeLockType lastLockType)
+      throws StorageException, SubtreeLockedException {
+    List<INode> cached = INodeSnapshotCache.getInstance().takeServed();
+    if (cached.isEmpty()) {
+      return;
+    }
+    String[] names = new String[cached.size()];
+    int[] parentIds = new int[cached.size()];
+    Map<Integer, INode> cachedById = new HashMap<Integer, INode>();
+    for (int i = 0; i < cached.size(); i++) {
+      INode inode = cached.get(i);
+      names[i] = inode.getLocalName();
+      parentIds[i] = inode.getParentId();
+      cachedById.put(inode.getId(), inode);
+    }
+
+    INodeDataAccess<INode> dataAccess = (INodeDataAccess) StorageFactory
+        .getDataAccess(INodeDataAccess.class);
+    setINodeLockType(DEFAULT_INODE_LOCK_TYPE);
+    List<INode> fresh = dataAccess.getINodesPkBatched(names, parentIds);
+    setINodeLockType(lastLockType);
+
+    for (INode inode : fresh) {
+      INode stale = inode == null ? null : cachedById.remove(inode.getId());
+      if (stale == null) {
+        continue;
+      }
+      if (stale.isSubtreeLocked() != inode.isSubtreeLocked()
+          || stale.getSubtreeLockOwner() != inode.getSubtreeLockOwner()) {
+        INodeSnapshotCache.getInstance().invalidate(stale);
+      }
+      // the root is never checked, as in the step by step resolution
+      if (inode.getId() != INodeDirectory.ROOT_ID) {
+        checkSubtreeLock(inode);
+      }
+    }
+    // moved or deleted by another namenode
+    for (INode stale : cachedById.values()) {
+      INodeSnapshotCache.getInstance().invalidate(stale);
+    }
+  }
+
   private void checkSubtreeLock(INode iNode) throws SubtreeLockedException {
     if (SubtreeLockHelper.isSubtreeLocked(iNode.isSubtreeLocked(),
         iNode.getSubtreeLockOwner(), activeNamenodes)) {
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.lock;
+
+import com.google.common.primitives.SignedBytes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import se.sics.hop.exception.StorageException;
+import se.sics.hop.exception.TransactionContextException;
+import se.sics.hop.leaderElection.node.ActiveNode;
+import se.sics.hop.metadata.StorageFactory;
+import se.sics.hop.metadata.hdfs.dal.INodeDataAccess;
+import se.sics.hop.metadata.hdfs.entity.hdfs.ProjectedINode;
+import se.sics.hop.transaction.EntityManager;
+import se.sics.hop.transaction.lock.TransactionLockTypes.INodeLockType;
+import se.sics.hop.transaction.lock.TransactionLockTypes.INodeResolveType;
+
+/**
+ * Resolves a path and, if it is a directory, only the page of its children
+ * which follows startAfter. The names of all children are read through the
+ * projected index scan, but the full rows are only read for the children of
+ * the page, so that the block locks following this lock only load the
+ * blocks of those children.
+ */
+public final class HopsListingINodeLock extends HopsINodeLock {
+
+  private static final Comparator<ProjectedINode> BY_NAME =
+      new Comparator<ProjectedINode>() {
+        @Override
+        public int compare(ProjectedINode o1, ProjectedINode o2) {
+          return SignedBytes.lexicographicalComparator().compare(
+              DFSUtil.string2Bytes(o1.getName()),
+              DFSUtil.string2Bytes(o2.getName()));
+        }
+      };
+
+  private final byte[] startAfter;
+  private final int limit;
+  private List<INode> children;
+  private int remainingEntries;
+
+  HopsListingINodeLock(INodeLockType lockType,
+      Collection<ActiveNode> activeNamenodes, String path, byte[] startAfter,
+      int limit) {
+    super(lockType, INodeResolveType.PATH, activeNamenodes, path);
+    this.startAfter = startAfter;
+    this.limit = limit;
+  }
+
+  @Override
+  protected void acquireINodeLocks()
+      throws UnresolvedPathException, StorageException,
+      SubtreeLockedException, TransactionContextException {
+    super.acquireINodeLocks();
+    children = Collections.emptyList();
+    remainingEntries = 0;
+    List<INode> pathINodes = getPathINodes(paths[0]);
+    if (pathINodes == null || pathINodes.isEmpty()) {
+      return;
+    }
+    INode target = pathINodes.get(pathINodes.size() - 1);
+    if (!(target instanceof INodeDirectory)) {
+      return;
+    }
+
+    INodeDataAccess<INode> dataAccess = (INodeDataAccess) StorageFactory
+        .getDataAccess(INodeDataAccess.class);
+    List<ProjectedINode> all = new ArrayList<ProjectedINode>(
+        dataAccess.findInodesForSubtreeOperationsWithReadLock(target.getId()));
+    Collections.sort(all, BY_NAME);
+
+    int first = nextChild(all);
+    int pageSize = Math.min(all.size() - first, limit);
+    remainingEntries = all.size() - first - pageSize;
+    if (pageSize > 0) {
+      String[] names = new String[pageSize];
+      int[] parentIds = new int[pageSize];
+      for (int i = 0; i < pageSize; i++) {
+        names[i] = all.get(first + i).getName();
+        parentIds[i] = target.getId();
+      }
+      setINodeLockType(lockType);
+      List<INode> page = new ArrayList<INode>(
+          (Collection<INode>) EntityManager.findList(INode.Finder.ByPKS,
+              names, parentIds));
+      Collections.sort(page, INode.Order.ByName);
+      for (INode child : page) {
+        addLockedINodes(child, lockType);
+      }
+      children = page;
+    }
+    addChildINodes(paths[0], children);
+  }
+
+  private int nextChild(List<ProjectedINode> sorted) {
+    if (startAfter == null || startAfter.length == 0) {
+      return 0;
+    }
+    int low = 0;
+    int high = sorted.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      byte[] name = DFSUtil.string2Bytes(sorted.get(mid).getName());
+      if (SignedBytes.lexicographicalComparator().compare(name, startAfter)
+          <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the children of the page, sorted by name, or an empty list if
+   * the path is not a directory
+   */
+  public List<INode> getChildren() {
+    return children;
+  }
+
+  /**
+   * @return the number of children following the page
+   */
+  public int getRemainingEntries() {
+    return remainingEntries;
+  }
+}
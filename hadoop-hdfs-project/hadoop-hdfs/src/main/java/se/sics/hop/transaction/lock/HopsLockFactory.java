@@ -149,6 +149,12 @@ public HopsLock getBatchedINodesLock(List<INodeIdentifier> inodeIdentifiers) {
     return new HopsBatchedINodeLock(inodeIdentifiers);
   }
 
+  public HopsLock getBatchedINodesLock(
+          TransactionLockTypes.INodeLockType lockType,
+          List<INodeIdentifier> inodeIdentifiers) {
+    return new HopsBatchedINodeLock(lockType, inodeIdentifiers);
+  }
+
   public HopsLock getIndividualINodeLock(
           TransactionLockTypes.INodeLockType lockType,
           INodeIdentifier inodeIdentifier, boolean readUpPathInodes) {
@@ -186,6 +192,14 @@ public HopsLock getINodeLock(NameNode nameNode,
         nameNode.getActiveNamenodes().getActiveNodes(), paths);
   }
 
+  public HopsListingINodeLock getListingINodeLock(NameNode nameNode,
+      TransactionLockTypes.INodeLockType lockType, String path,
+      byte[] startAfter, int limit) {
+    return new HopsListingINodeLock(lockType,
+        nameNode.getActiveNamenodes().getActiveNodes(), path, startAfter,
+        limit);
+  }
+
   public HopsLock getRenameINodeLock(NameNode nameNode,
       TransactionLockTypes.INodeLockType lockType,
       TransactionLockTypes.INodeResolveType resolveType,
@@ -280,6 +294,10 @@ public HopsLock getEncodingStatusLock(TransactionLockTypes.LockType lockType, St
     return new HopsBaseEncodingStatusLock.HopsEncodingStatusLock(lockType, targets);
   }
 
+  public HopsLock getBatchedEncodingStatusLock(TransactionLockTypes.LockType lockType) {
+    return new HopsBaseEncodingStatusLock.HopsBatchedEncodingStatusLock(lockType);
+  }
+
   public HopsLock getIndivdualEncodingStatusLock(TransactionLockTypes.LockType lockType, int inodeId) {
     return new HopsBaseEncodingStatusLock.HopsIndividualEncodingStatusLock(lockType, inodeId);
   }
@@ -328,7 +346,7 @@ public Collection<HopsLock> getSqlBatchedBlocksRelated(BLK... relatedBlks) {
           list.add(getSqlBatchedInvalidatedBlocksLock());
           break;
         case PE:
-          list.add(getSqlBatchedInvalidatedBlocksLock());
+          list.add(getSqlBatchedPendingBlocksLock());
           break;
         case UC:
           list.add(getSqlBatchedReplicasUnderConstructionLock());
@@ -348,6 +366,9 @@ public Collection<HopsLock> getSqlBatchedBlocksRelated(BLK... relatedBlks) {
   public void setConfiguration(Configuration conf) {
     HopsLock.enableSetPartitionKey(conf.getBoolean(DFSConfigKeys.DFS_SET_PARTITION_KEY_ENABLED, DFSConfigKeys.DFS_SET_PARTITION_KEY_ENABLED_DEFAULT));
     HopsBaseINodeLock.setDefaultLockType(getPrecedingPathLockType(conf));
+    HopsINodeLock.setBatchedPathResolutionEnabled(conf.getBoolean(
+        DFSConfigKeys.DFS_BATCHED_PATH_RESOLUTION_ENABLED_KEY,
+        DFSConfigKeys.DFS_BATCHED_PATH_RESOLUTION_ENABLED_DEFAULT));
   }
   
   private TransactionLockTypes.INodeLockType getPrecedingPathLockType(Configuration conf) {
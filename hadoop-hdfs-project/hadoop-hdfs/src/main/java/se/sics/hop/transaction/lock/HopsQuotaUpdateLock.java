@@ -40,7 +40,14 @@ final class HopsQuotaUpdateLock extends HopsLock {
 
   @Override
   protected void acquire(TransactionLocks locks) throws IOException {
-    HopsINodeLock inodeLock = (HopsINodeLock) locks.getLock(Type.INode);
+    HopsLock lock = locks.getLock(Type.INode);
+    if (lock instanceof HopsBatchedINodeLock) {
+      for (int inodeId : ((HopsBatchedINodeLock) lock).getINodeIds()) {
+        acquireQuotaUpdate(inodeId);
+      }
+      return;
+    }
+    HopsINodeLock inodeLock = (HopsINodeLock) lock;
     for (String target : targets) {
       acquireQuotaUpdate(inodeLock.getTargetINode(target));
       if (includeChildren) {
@@ -58,8 +65,12 @@ private void acquireQuotaUpdate(List<INode> iNodes) throws
 
   private void acquireQuotaUpdate(INode iNode)
       throws StorageException, TransactionContextException {
-    acquireLockList(DEFAULT_LOCK_TYPE, QuotaUpdate.Finder.ByInodeId,
-        iNode.getId());
+    acquireQuotaUpdate(iNode.getId());
+  }
+
+  private void acquireQuotaUpdate(int inodeId)
+      throws StorageException, TransactionContextException {
+    acquireLockList(DEFAULT_LOCK_TYPE, QuotaUpdate.Finder.ByInodeId, inodeId);
   }
 
   @Override
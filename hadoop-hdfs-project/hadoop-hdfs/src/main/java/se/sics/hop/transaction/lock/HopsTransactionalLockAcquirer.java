@@ -16,6 +16,8 @@
 package se.sics.hop.transaction.lock;
 
 import java.io.IOException;
+import java.util.List;
+import se.sics.hop.transaction.handler.TransactionStats;
 
 /**
  *
@@ -32,9 +34,17 @@ public HopsTransactionalLockAcquirer() {
 
   @Override
   public void acquire() throws IOException {
-    for (HopsLock lock : locks.getSortedLocks()) {
+    TransactionStats.Transaction tx = TransactionStats.current();
+    if (tx != null) {
+      tx.lockAcquisitionStarted();
+    }
+    List<HopsLock> sortedLocks = locks.getSortedLocks();
+    for (HopsLock lock : sortedLocks) {
       lock.acquire(locks);
     }
+    if (tx != null) {
+      tx.lockAcquisitionFinished(sortedLocks);
+    }
   }
 
   @Override
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient.DFSDataInputStream;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
+
+/**
+ * Benchmarks the short circuit reads of {@link BlockReaderLocal} from
+ * streams against the reads from memory mapped blocks, with sequential reads
+ * of a whole file and with random preads, on a single datanode cluster.
+ * <br>
+ * Run this using the following command:
+ * bin/hadoop --config confdir \
+ * org.apache.hadoop.hdfs.BenchmarkMappedLocalRead \
+ * [file size in MB] [pread size] [number of preads] [checksum on?]
+ */
+public class BenchmarkMappedLocalRead {
+
+  private static final long SEED = 0xDEADBEEFL;
+  private static final int BLOCK_SIZE = 64 * 1024 * 1024;
+  private static final int SEQUENTIAL_BUFFER_SIZE = 64 * 1024;
+  private static final int ITERATIONS = 3;
+
+  private final FileSystem fs;
+  private final Path file;
+  private final long fileSize;
+  private final int preadSize;
+  private final int preads;
+
+  private BenchmarkMappedLocalRead(FileSystem fs, Path file, long fileSize,
+      int preadSize, int preads) {
+    this.fs = fs;
+    this.file = file;
+    this.fileSize = fileSize;
+    this.preadSize = preadSize;
+    this.preads = preads;
+  }
+
+  private long readSequential() throws IOException {
+    DFSDataInputStream in = (DFSDataInputStream) fs.open(file);
+    ByteBuffer buf = ByteBuffer.allocateDirect(SEQUENTIAL_BUFFER_SIZE);
+    long start = Time.now();
+    try {
+      long read = 0;
+      while (read < fileSize) {
+        buf.clear();
+        int n = in.read(buf);
+        if (n < 0) {
+          throw new IOException("Premature EOF after " + read + " bytes");
+        }
+        read += n;
+      }
+    } finally {
+      in.close();
+    }
+    return Time.now() - start;
+  }
+
+  private long readRandom() throws IOException {
+    Random rand = new Random(SEED);
+    FSDataInputStream in = fs.open(file);
+    byte[] buf = new byte[preadSize];
+    long start = Time.now();
+    try {
+      for (int i = 0; i < preads; i++) {
+        long position = (long) (rand.nextDouble() * (fileSize - preadSize));
+        in.readFully(position, buf);
+      }
+    } finally {
+      in.close();
+    }
+    return Time.now() - start;
+  }
+
+  private void run(String name) throws IOException {
+    // the first runs warm up the page cache and the jit
+    readSequential();
+    readRandom();
+    long sequential = Long.MAX_VALUE;
+    long random = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      sequential = Math.min(sequential, readSequential());
+      random = Math.min(random, readRandom());
+    }
+    System.out.println(name + ": sequential read of " + fileSize
+        + " bytes took " + sequential + " ms ("
+        + (fileSize * 1000 / 1024 / 1024 / Math.max(1, sequential))
+        + " MB/s), " + preads + " preads of " + preadSize + " bytes took "
+        + random + " ms (" + (preads * 1000L / Math.max(1, random))
+        + " ops/s)");
+  }
+
+  private static void writeFile(FileSystem fs, Path file, long fileSize)
+      throws IOException {
+    FSDataOutputStream out = fs.create(file, true, SEQUENTIAL_BUFFER_SIZE,
+        (short) 1, BLOCK_SIZE);
+    try {
+      Random rand = new Random(SEED);
+      byte[] buf = new byte[SEQUENTIAL_BUFFER_SIZE];
+      for (long written = 0; written < fileSize; written += buf.length) {
+        rand.nextBytes(buf);
+        out.write(buf, 0, (int) Math.min(buf.length, fileSize - written));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    long fileSize = (args.length > 0 ? Long.parseLong(args[0]) : 256)
+        * 1024 * 1024;
+    int preadSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+    int preads = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+    boolean checksum = args.length > 3 ? Boolean.valueOf(args[3]) : true;
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_KEY, true);
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY,
+        !checksum);
+    conf.set(DFSConfigKeys.DFS_BLOCK_LOCAL_PATH_ACCESS_USER_KEY,
+        UserGroupInformation.getCurrentUser().getShortUserName());
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .format(true).build();
+    try {
+      cluster.waitActive();
+      Path file = new Path("/benchmark.dat");
+      writeFile(cluster.getFileSystem(), file, fileSize);
+
+      for (boolean mmap : new boolean[] { false, true }) {
+        Configuration clientConf = new Configuration(conf);
+        clientConf.setBoolean(
+            DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_ENABLED_KEY, mmap);
+        FileSystem fs = FileSystem.newInstance(cluster.getURI(), clientConf);
+        try {
+          new BenchmarkMappedLocalRead(fs, file, fileSize, preadSize, preads)
+              .run(mmap ? "mmap" : "stream");
+        } finally {
+          fs.close();
+        }
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -17,13 +17,18 @@
  */
 package org.apache.hadoop.hdfs;
 
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_ACCESS_TOKEN_ENABLE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_MAX_BLOCK_ACQUIRE_FAILURES_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_XCEIVER_SELECTOR_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ENCRYPT_DATA_TRANSFER_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 
 import java.io.InputStream;
 import java.io.PrintWriter;
@@ -39,6 +44,7 @@
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.junit.After;
@@ -187,6 +193,81 @@ public void testManyClosedSocketsInCache() throws Exception {
     DFSTestUtil.readFile(fs, TEST_FILE);
   }
 
+  /**
+   * The connections kept alive wait for their next op in the selector of
+   * the datanode, and are not counted as xceivers while they wait.
+   */
+  @Test(timeout=30000)
+  public void testIdleConnectionsInSelector() throws Exception {
+    DataNodeProperties props = cluster.stopDataNode(0);
+    props.conf.setBoolean(DFS_DATANODE_XCEIVER_SELECTOR_ENABLED_KEY, true);
+    props.conf.setInt(DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY, 120000);
+    assertTrue(cluster.restartDataNode(props, true));
+    cluster.triggerHeartbeats();
+    dn = cluster.getDataNodes().get(0);
+
+    DFSTestUtil.createFile(fs, TEST_FILE, 1L, (short)1, 0L);
+    InputStream[] stms = new InputStream[5];
+    try {
+      for (int i = 0; i < stms.length; i++) {
+        stms[i] = fs.open(TEST_FILE);
+      }
+      for (InputStream stm : stms) {
+        IOUtils.copyBytes(stm, new NullOutputStream(), 1024);
+      }
+    } finally {
+      IOUtils.cleanup(null, stms);
+    }
+    Thread.sleep(500);
+
+    assertXceiverCount(0);
+    MetricsRecordBuilder rb = getMetrics(
+        DataNodeTestUtils.getMetricsName(dn));
+    assertGauge("XceiverConnections", 5, rb);
+    assertGauge("IdleXceiverConnections", 5, rb);
+
+    // The idle connections are reused
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    Thread.sleep(500);
+    assertXceiverCount(0);
+    rb = getMetrics(DataNodeTestUtils.getMetricsName(dn));
+    assertGauge("IdleXceiverConnections", 5, rb);
+  }
+
+  /**
+   * An encrypted connection can buffer its next op where the selector does
+   * not see it, so it waits for its ops on its thread instead of being
+   * parked. The reads reusing it must not wait for the keepalive timeout.
+   */
+  @Test(timeout=30000)
+  public void testEncryptedConnectionsNotParked() throws Exception {
+    cluster.shutdown();
+    Configuration encryptedConf = new Configuration(conf);
+    encryptedConf.setBoolean(DFS_ENCRYPT_DATA_TRANSFER_KEY, true);
+    encryptedConf.setBoolean(DFS_BLOCK_ACCESS_TOKEN_ENABLE_KEY, true);
+    encryptedConf.setBoolean(DFS_DATANODE_XCEIVER_SELECTOR_ENABLED_KEY, true);
+    encryptedConf.setInt(DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY, 120000);
+    cluster = new MiniDFSCluster.Builder(encryptedConf)
+      .numDataNodes(1).build();
+    fs = cluster.getFileSystem();
+    dfsClient = ((DistributedFileSystem)fs).dfs;
+    dn = cluster.getDataNodes().get(0);
+
+    DFSTestUtil.createFile(fs, TEST_FILE, 1L, (short)1, 0L);
+    for (int i = 0; i < 10; i++) {
+      DFSTestUtil.readFile(fs, TEST_FILE);
+    }
+    assertEquals(1, dfsClient.socketCache.size());
+    Thread.sleep(500);
+
+    // the connection is kept alive on its thread
+    assertXceiverCount(1);
+    MetricsRecordBuilder rb = getMetrics(
+        DataNodeTestUtils.getMetricsName(dn));
+    assertGauge("XceiverConnections", 1, rb);
+    assertGauge("IdleXceiverConnections", 0, rb);
+  }
+
   private void assertXceiverCount(int expected) {
     // Subtract 1, since the DataXceiverServer
     // counts as one
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.junit.Test;
+
+public class TestNamenodeSelector {
+
+  @Test
+  public void testPrefix() {
+    assertEquals("/a", NamenodeSelector.getPrefix("/a/b/c", 1));
+    assertEquals("/a/b", NamenodeSelector.getPrefix("/a/b/c", 2));
+    assertEquals("/a/b/c", NamenodeSelector.getPrefix("/a/b/c", 3));
+    assertEquals("/a/b/c", NamenodeSelector.getPrefix("/a/b/c", 5));
+    assertEquals("/a", NamenodeSelector.getPrefix("/a", 2));
+    assertEquals("/", NamenodeSelector.getPrefix("/", 1));
+  }
+
+  @Test
+  public void testHandleStatistics() {
+    NamenodeSelector.NamenodeHandle handle =
+        new NamenodeSelector.NamenodeHandle(null, null);
+    handle.callStarted();
+    handle.callStarted();
+    assertEquals(2, handle.getInFlight());
+
+    handle.callFinished(10000000, false);
+    assertEquals(10.0, handle.getLatencyEwmaMillis(), 0.001);
+    handle.callFinished(20000000, false);
+    assertEquals(12.0, handle.getLatencyEwmaMillis(), 0.001);
+    assertEquals(0, handle.getInFlight());
+    assertEquals(2, handle.getCalls());
+
+    // an unreachable namenode does not change the latency
+    handle.callStarted();
+    handle.callFinished(1000000000, true);
+    assertEquals(12.0, handle.getLatencyEwmaMillis(), 0.001);
+    assertEquals(1, handle.getFailures());
+
+    // waiting calls make the namenode look busier
+    double idle = handle.getLoad();
+    handle.callStarted();
+    assertTrue(handle.getLoad() > idle);
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    NamenodeSelectorMetrics metrics = new NamenodeSelectorMetrics();
+    NamenodeSelector first = new NamenodeSelector(new Configuration(), null);
+    NamenodeSelector second = new NamenodeSelector(new Configuration(), null);
+    metrics.add(first);
+    metrics.add(second);
+
+    NamenodeSelector.NamenodeHandle handle = first.getNamenodes().get(0);
+    handle.callStarted();
+    handle.callFinished(10000000, false);
+    handle.callStarted();
+    handle = second.getNamenodes().get(0);
+    handle.callStarted();
+    handle.callFinished(30000000, false);
+    handle.callStarted();
+    handle.callFinished(0, true);
+
+    // both selectors are connected to the same dummy namenode
+    MetricsRecordBuilder rb = getMetrics(metrics);
+    assertGauge("Clients", 2, rb);
+    assertGauge("LatencyEwmaMillis", 20.0, rb);
+    assertGauge("InFlight", 1, rb);
+    assertGauge("Calls", 3L, rb);
+    assertGauge("Failures", 1L, rb);
+
+    metrics.remove(second);
+    rb = getMetrics(metrics);
+    assertGauge("Clients", 1, rb);
+    assertGauge("LatencyEwmaMillis", 10.0, rb);
+  }
+}
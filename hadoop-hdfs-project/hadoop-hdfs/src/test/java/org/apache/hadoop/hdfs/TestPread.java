@@ -22,6 +22,9 @@
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import org.apache.commons.logging.impl.Log4JLogger;
@@ -239,6 +242,111 @@ private void dfsPreadTest(boolean disableTransferTo, boolean verifyChecksum)
     }
   }
   
+  /**
+   * Tests positional read with hedged reads, which are issued for every
+   * read as the threshold is 0.
+   */
+  @Test
+  public void testHedgedPreadDFS() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY, 5);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY, 0);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    DistributedFileSystem fileSys =
+        (DistributedFileSystem) cluster.getFileSystem();
+    try {
+      Path file1 = new Path("hedgedpreadtest.dat");
+      int fileLength = 12 * blockSize;
+      DFSTestUtil.createFile(fileSys, file1, fileLength, (short) 3, seed);
+      byte[] expected = new byte[fileLength];
+      FSDataInputStream stm = fileSys.open(file1);
+      try {
+        stm.readFully(expected);
+        Random rand = new Random(seed);
+        for (int i = 0; i < 20; i++) {
+          int position = rand.nextInt(fileLength);
+          int length = 1 + rand.nextInt(Math.min(fileLength - position,
+              3 * blockSize));
+          byte[] actual = new byte[length];
+          stm.readFully(position, actual);
+          checkAndEraseData(actual, position, expected, "Hedged pread");
+        }
+      } finally {
+        stm.close();
+      }
+      DFSHedgedReadMetrics metrics = fileSys.getClient().getHedgedReadMetrics();
+      assertTrue(metrics.getHedgedReadOps() > 0);
+      assertTrue(metrics.getHedgedReadWins() <= metrics.getHedgedReadOps());
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests hedged positional reads from more threads than the hedged read
+   * pool has. The reads the pool rejects are read without hedging.
+   */
+  @Test
+  public void testHedgedPreadPoolSaturated() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY, 1);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY, 0);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    DistributedFileSystem fileSys =
+        (DistributedFileSystem) cluster.getFileSystem();
+    try {
+      Path file1 = new Path("hedgedpreadsaturated.dat");
+      final int fileLength = 12 * blockSize;
+      DFSTestUtil.createFile(fileSys, file1, fileLength, (short) 3, seed);
+      final byte[] expected = new byte[fileLength];
+      final FSDataInputStream stm = fileSys.open(file1);
+      try {
+        stm.readFully(expected);
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[10];
+        for (int t = 0; t < readers.length; t++) {
+          final Random rand = new Random(seed + t);
+          readers[t] = new Thread() {
+            @Override
+            public void run() {
+              try {
+                for (int i = 0; i < 20; i++) {
+                  int position = rand.nextInt(fileLength);
+                  int length = 1 + rand.nextInt(Math.min(
+                      fileLength - position, 3 * blockSize));
+                  byte[] actual = new byte[length];
+                  stm.readFully(position, actual);
+                  checkAndEraseData(actual, position, expected,
+                      "Saturated hedged pread");
+                }
+              } catch (Throwable e) {
+                errors.add(e);
+              }
+            }
+          };
+          readers[t].start();
+        }
+        for (Thread reader : readers) {
+          reader.join();
+        }
+        if (!errors.isEmpty()) {
+          throw new AssertionError(errors.get(0));
+        }
+      } finally {
+        stm.close();
+      }
+      DFSHedgedReadMetrics metrics = fileSys.getClient().getHedgedReadMetrics();
+      assertTrue(metrics.getHedgedReadWins() <= metrics.getHedgedReadOps());
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
   @Test
   public void testPreadDFSSimulated() throws IOException {
     simulatedStorage = true;
@@ -403,6 +403,38 @@ public void testPendingReplicationRetry() throws IOException {
     }  
   }
   
+  /**
+   * Replicates files with more blocks than the replication work batch size,
+   * on several replication work threads, so that the blocks of a file are
+   * chosen in the same round but must not be split over several batches.
+   */
+  @Test
+  public void testReplicationWorkBatches() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE, 2);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS, 4);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      Path[] files = new Path[3];
+      for (int i = 0; i < files.length; i++) {
+        files[i] = new Path("/testReplicationWorkBatches/file" + i);
+        DFSTestUtil.createFile(fs, files[i], 5 * blockSize, (short) 1, i);
+      }
+      for (Path file : files) {
+        fs.setReplication(file, (short) 3);
+      }
+      for (Path file : files) {
+        DFSTestUtil.waitReplication(fs, file, (short) 3);
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   /**
    * Test if replication can detect mismatched length on-disk blocks
    * @throws Exception
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.hdfs;
 
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -274,6 +276,90 @@ public void testTimesAtClose() throws IOException {
     }
   }
 
+  /**
+   * Tests that the access times recorded by reads are written in the
+   * background, once per precision interval.
+   */
+  @Test
+  public void testDeferredAccessTime() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    final long precision = 1000;
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY, precision);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_FLUSH_INTERVAL_KEY, 100);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+                                               .numDataNodes(numDatanodes)
+                                               .build();
+    cluster.waitActive();
+    FileSystem fileSys = cluster.getFileSystem();
+
+    try {
+      Path file1 = new Path("/deferred.dat");
+      writeFile(fileSys, file1, 1).close();
+      long atime1 = fileSys.getFileStatus(file1).getAccessTime();
+
+      Thread.sleep(precision + 100);
+      fileSys.open(file1).close();
+      long atime2 = atime1;
+      for (int i = 0; i < 50 && atime2 == atime1; i++) {
+        Thread.sleep(100);
+        atime2 = fileSys.getFileStatus(file1).getAccessTime();
+      }
+      assertTrue("access time was not written", atime2 > atime1);
+
+      // reads within the precision interval are not written
+      fileSys.open(file1).close();
+      fileSys.open(file1).close();
+      Thread.sleep(500);
+      assertEquals(atime2, fileSys.getFileStatus(file1).getAccessTime());
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests that the access times of files are dropped while the backlog of
+   * access times waiting to be written is full.
+   */
+  @Test
+  public void testAccessTimeBacklogBound() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    final long precision = 1000;
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY, precision);
+    // nothing is written during the test
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_FLUSH_INTERVAL_KEY,
+        3600 * 1000);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_MAX_PENDING_KEY, 1);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+                                               .numDataNodes(numDatanodes)
+                                               .build();
+    cluster.waitActive();
+    FileSystem fileSys = cluster.getFileSystem();
+
+    try {
+      Path[] files = new Path[3];
+      for (int i = 0; i < files.length; i++) {
+        files[i] = new Path("/backlog" + i + ".dat");
+        writeFile(fileSys, files[i], 1).close();
+      }
+      Thread.sleep(precision + 100);
+
+      long dropped = getLongCounter("AccessTimeUpdatesDropped",
+          getMetrics("NameNodeActivity"));
+      for (Path file : files) {
+        fileSys.open(file).close();
+      }
+      // a second read of the queued file is merged into its entry
+      fileSys.open(files[0]).close();
+      assertEquals(dropped + files.length - 1,
+          getLongCounter("AccessTimeUpdatesDropped",
+              getMetrics("NameNodeActivity")));
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     new TestSetTimes().testTimes();
   }
@@ -61,6 +61,7 @@ public class TestShortCircuitLocalRead {
   static final long seed = 0xDEADBEEFL;
   static final int blockSize = 5120;
   boolean simulatedStorage = false;
+  boolean mmap = false;
   
   // creates a file but does not close it
   static FSDataOutputStream createFile(FileSystem fileSys, Path name, int repl)
@@ -170,6 +171,8 @@ public void doTestShortCircuitRead(boolean ignoreChecksum, int size,
     conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_KEY, true);
     conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY,
         ignoreChecksum);
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_ENABLED_KEY,
+        mmap);
     conf.set(DFSConfigKeys.DFS_BLOCK_LOCAL_PATH_ACCESS_USER_KEY,
         UserGroupInformation.getCurrentUser().getShortUserName());
     if (simulatedStorage) {
@@ -230,6 +233,22 @@ public void testLongFile() throws IOException {
     doTestShortCircuitRead(true, 10*blockSize+100, 777);
   }
    
+  @Test
+  public void testMappedLocalRead() throws IOException {
+    mmap = true;
+    doTestShortCircuitRead(false, 3*blockSize+100, 0);
+    doTestShortCircuitRead(true, 3*blockSize+100, 0);
+    doTestShortCircuitRead(false, 13, 5);
+    doTestShortCircuitRead(false, 10*blockSize+100, 777);
+    doTestShortCircuitRead(true, 10*blockSize+100, 777);
+  }
+
+  @Test
+  public void testMappedSkipWithVerifyChecksum() throws IOException {
+    mmap = true;
+    testSkipWithVerifyChecksum();
+  }
+
   @Test
   public void testGetBlockLocalPathInfo() throws IOException, InterruptedException {
     final Configuration conf = new Configuration();
@@ -315,6 +334,8 @@ public void testSkipWithVerifyChecksum() throws IOException {
     Configuration conf = new Configuration();
     conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_KEY, true);
     conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY, false);
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_MMAP_ENABLED_KEY,
+        mmap);
     conf.set(DFSConfigKeys.DFS_BLOCK_LOCAL_PATH_ACCESS_USER_KEY,
         UserGroupInformation.getCurrentUser().getShortUserName());
     if (simulatedStorage) {
@@ -25,9 +25,11 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -582,6 +584,29 @@ private LinkedListMultimap<DatanodeDescriptor, BlockTargetPair> getAllPendingRep
     return repls;
   }
 
+  /**
+   * Test that the blocks of a file are never split over several replication
+   * work batches, and that only the batch of a single file gets larger than
+   * the batch size.
+   */
+  @Test
+  public void testBatchByINode() {
+    // the blocks of inode 1 are between the blocks of other files
+    int[] inodeIds = new int[] {1, 2, 1, 3, 3, 3, 4, 1, 5, 5, 5, 5, 5};
+    List<List<Integer>> batches = BlockManager.batchByINode(inodeIds, 4);
+
+    assertEquals(3, batches.size());
+    assertEquals(ImmutableList.of(0, 2, 7, 1), batches.get(0));
+    assertEquals(ImmutableList.of(3, 4, 5, 6), batches.get(1));
+    assertEquals(ImmutableList.of(8, 9, 10, 11, 12), batches.get(2));
+
+    Set<Integer> batched = new HashSet<Integer>();
+    for (List<Integer> batch : batches) {
+      batched.addAll(batch);
+    }
+    assertEquals(inodeIds.length, batched.size());
+  }
+
   /**
    * Test that a source node for a highest-priority replication is chosen even if all available
    * source nodes have reached their replication limits.
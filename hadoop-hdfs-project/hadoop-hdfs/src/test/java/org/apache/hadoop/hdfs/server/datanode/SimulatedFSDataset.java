@@ -509,6 +509,12 @@ public Replica getReplica(String bpid, long blockId) {
     return null;
   }
 
+  @Override // FsDatasetSpi
+  public Object getBlockLock(long blockId) {
+    // the replicas only change under the dataset lock
+    return this;
+  }
+
   @Override 
   public synchronized String getReplicaString(String bpid, long blockId) {
     Replica r = null;
@@ -293,6 +293,67 @@ public void blockReport_03() throws IOException {
         cluster.getNamesystem().getPendingDeletionBlocks());
   }
 
+  /**
+   * Test forces a block report, which misses some blocks and has an unknown
+   * one, in small slices and action batches. With the system level lock
+   * the slices and batches are processed by the thread holding the
+   * namesystem lock, without it they are processed by the worker pool.
+   *
+   * @throws IOException in case of an error
+   */
+  @Test
+  public void blockReportInSlices() throws IOException {
+    testBlockReportInSlices(true);
+    testBlockReportInSlices(false);
+  }
+
+  private void testBlockReportInSlices(boolean systemLevelLock)
+      throws IOException {
+    final String METHOD_NAME = GenericTestUtils.getMethodName();
+    shutDownCluster();
+    Configuration sliceConf = new Configuration(conf);
+    sliceConf.setBoolean(DFSConfigKeys.DFS_SYSTEM_LEVEL_LOCK_ENABLED_KEY,
+        systemLevelLock);
+    sliceConf.setInt(DFSConfigKeys.DFS_NAMENODE_PROCESS_REPORT_BATCH_SIZE, 2);
+    sliceConf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_PROCESS_REPORT_ACTIONS_BATCH_SIZE, 1);
+    sliceConf.setInt(DFSConfigKeys.DFS_NAMENODE_PROCESS_REPORT_THREADS, 4);
+    cluster = new MiniDFSCluster.Builder(sliceConf).numDataNodes(REPL_FACTOR)
+        .build();
+    fs = (DistributedFileSystem) cluster.getFileSystem();
+    bpid = cluster.getNamesystem().getBlockPoolId();
+    assertEquals(systemLevelLock, FSNamesystem.isSystemLevelLockEnabled());
+
+    // The first block of every other file is not reported
+    List<Block> blocks = new ArrayList<Block>();
+    int removed = 0;
+    for (int i = 0; i < 4; i++) {
+      ArrayList<Block> fileBlocks = prepareForRide(
+          new Path("/" + METHOD_NAME + i + ".dat"), METHOD_NAME, FILE_SIZE);
+      if (i % 2 == 0) {
+        fileBlocks.remove(0);
+        removed++;
+      }
+      blocks.addAll(fileBlocks);
+    }
+    // This new block is unknown to NN and will be mark for deletion.
+    blocks.add(new Block());
+
+    DataNode dn = cluster.getDataNodes().get(DN_N0);
+    String poolId = cluster.getNamesystem().getBlockPoolId();
+    DatanodeRegistration dnR = dn.getDNRegistrationForBP(poolId);
+    StorageBlockReport[] report = { new StorageBlockReport(
+        new DatanodeStorage(dnR.getStorageID()),
+        new BlockListAsLongs(blocks, null).getBlockListAsLongs()) };
+    cluster.getNameNodeRpc().blockReport(dnR, poolId, report);
+    printStats();
+
+    assertEquals("Wrong number of MissingBlocks is found",
+        removed, cluster.getNamesystem().getMissingBlocksCount());
+    assertEquals("Wrong number of PendingDeletion blocks is found",
+        1, cluster.getNamesystem().getPendingDeletionBlocks());
+  }
+
   /**
    * This test isn't a representative case for BlockReport
    * The empty method is going to be left here to keep the naming
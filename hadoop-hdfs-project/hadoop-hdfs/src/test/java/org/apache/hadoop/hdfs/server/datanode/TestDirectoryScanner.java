@@ -45,6 +45,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetTestUtil;
+import org.apache.hadoop.util.Time;
 import org.junit.Test;
 
 /**
@@ -227,19 +228,27 @@ private void scan(long totalBlocks, int diffsize, long missingMetaFile, long mis
   public void testDirectoryScanner() throws Exception {
     // Run the test with and without parallel scanning
     for (int parallelism = 1; parallelism < 3; parallelism++) {
-      runTest(parallelism);
+      runTest(parallelism, false);
     }
   }
+
+  @Test
+  public void testIncrementalDirectoryScanner() throws Exception {
+    runTest(2, true);
+  }
   
-  public void runTest(int parallelism) throws Exception {
+  public void runTest(int parallelism, boolean incremental) throws Exception {
     cluster = new MiniDFSCluster.Builder(CONF).build();
     try {
       cluster.waitActive();
       bpid = cluster.getNamesystem().getBlockPoolId();
       fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
-      CONF.setInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
+      Configuration conf = new Configuration(CONF);
+      conf.setInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                   parallelism);
-      scanner = new DirectoryScanner(fds, CONF);
+      conf.setBoolean(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+                      incremental);
+      scanner = new DirectoryScanner(fds, conf);
       scanner.setRetainDiffs(true);
 
       // Add files with 100 blocks
@@ -352,6 +361,100 @@ public void runTest(int parallelism) throws Exception {
     }
   }
 
+  /**
+   * Tests that the incremental scan only lists the changed directories and
+   * still finds the differences in the unchanged ones.
+   */
+  @Test
+  public void testIncrementalScanSkipsUnchangedDirs() throws Exception {
+    cluster = new MiniDFSCluster.Builder(CONF).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      Configuration conf = new Configuration(CONF);
+      conf.setBoolean(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+                      true);
+      conf.setInt(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY, 1);
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+
+      createFile("/tmp/t1", 10000);
+      long totalBlocks = 100;
+
+      // the listings of the directories modified this recently are not kept
+      ageFinalizedDirs();
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      long dirs = getDirsListed();
+      assertTrue(dirs > 0);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      assertEquals(0, getDirsListed());
+      assertEquals(dirs, getDirsSkipped());
+
+      // the directory of a deleted block file is listed again
+      long blockId = deleteBlockFile();
+      scan(totalBlocks, 1, 0, 1, 0, 0);
+      assertTrue(getDirsListed() > 0);
+      totalBlocks--;
+      verifyDeletion(blockId);
+
+      // a truncated block file does not change its directory
+      ageFinalizedDirs();
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      truncateBlockFile();
+      scan(totalBlocks, 1, 0, 0, 0, 1);
+      assertEquals(0, getDirsListed());
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      for (DirectoryScanner.VolumeStats stats :
+          scanner.getVolumeStats().values()) {
+        LOG.info(stats);
+        assertEquals(0, stats.diffs);
+      }
+    } finally {
+      scanner.shutdown();
+      cluster.shutdown();
+    }
+  }
+
+  private void ageFinalizedDirs() throws IOException {
+    long past = Time.now() - 60 * 1000L;
+    for (FsVolumeSpi volume : fds.getVolumes()) {
+      setLastModified(volume.getFinalizedDir(bpid), past);
+    }
+  }
+
+  private static void setLastModified(File dir, long time) {
+    File[] subDirs = dir.listFiles();
+    if (subDirs != null) {
+      for (File subDir : subDirs) {
+        if (subDir.isDirectory()) {
+          setLastModified(subDir, time);
+        }
+      }
+    }
+    assertTrue(dir.setLastModified(time));
+  }
+
+  private long getDirsListed() {
+    long dirs = 0;
+    for (DirectoryScanner.VolumeStats stats :
+        scanner.getVolumeStats().values()) {
+      dirs += stats.dirsListed;
+    }
+    return dirs;
+  }
+
+  private long getDirsSkipped() {
+    long dirs = 0;
+    for (DirectoryScanner.VolumeStats stats :
+        scanner.getVolumeStats().values()) {
+      dirs += stats.dirsSkipped;
+    }
+    return dirs;
+  }
+
   private void verifyAddition(long blockId, long genStamp, long size) {
     final ReplicaInfo replicainfo;
     replicainfo = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInPipeline;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.Time;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Writes and finalizes replicas of distinct blocks from several threads while
+ * block reports are taken, to check that the striped block locks of
+ * {@link FsDatasetImpl} keep the replica map consistent, and that the
+ * blocks of different stripes do not wait for each other.
+ */
+public class TestFsDatasetImplConcurrency {
+  private static final long GEN_STAMP = 1000L;
+  private static final int BYTES_PER_CHECKSUM = 512;
+  private static final int BLOCK_LENGTH = 64 * 1024;
+  private static final int BLOCKS_PER_WRITER = 50;
+  /** Far from the ids the namenode hands out. */
+  private static final long FIRST_BLOCK_ID = 1L << 40;
+  private static final long WAIT_MILLIS = 30 * 1000;
+
+  @Test
+  public void testConcurrentWritesAndBlockReports() throws Exception {
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(new HdfsConfiguration()).build();
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      final FsDatasetImpl dataSet =
+          (FsDatasetImpl) DataNodeTestUtils.getFSDataset(dn);
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+
+      final AtomicBoolean done = new AtomicBoolean(false);
+      final AtomicReference<Throwable> error =
+          new AtomicReference<Throwable>();
+      Thread reporter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (!done.get()) {
+              BlockListAsLongs report = dataSet.getBlockReport(bpid);
+              for (Block b : report) {
+                Assert.assertNotNull(b);
+              }
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+      reporter.start();
+
+      int writers = 8;
+      List<ExtendedBlock> blocks;
+      try {
+        blocks = writeBlocks(dataSet, bpid, FIRST_BLOCK_ID, writers, error);
+      } finally {
+        done.set(true);
+        reporter.join();
+      }
+      if (error.get() != null) {
+        throw new AssertionError(error.get());
+      }
+
+      Assert.assertEquals(writers * BLOCKS_PER_WRITER, blocks.size());
+      Set<Long> reported = new HashSet<Long>();
+      for (Block b : dataSet.getBlockReport(bpid)) {
+        reported.add(b.getBlockId());
+      }
+      for (ExtendedBlock b : blocks) {
+        Assert.assertTrue("Block " + b + " is not finalized",
+            dataSet.isValidBlock(b));
+        Assert.assertTrue("Block " + b + " is not reported",
+            reported.contains(b.getBlockId()));
+        Assert.assertEquals(BLOCK_LENGTH,
+            dataSet.getReplicaVisibleLength(b));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Holds the lock of a block and checks that a block of another stripe is
+   * still written and finalized, while a write of the locked block waits.
+   */
+  @Test
+  public void testStripesDoNotBlockEachOther() throws Exception {
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(new HdfsConfiguration()).build();
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      final FsDatasetImpl dataSet =
+          (FsDatasetImpl) DataNodeTestUtils.getFSDataset(dn);
+      String bpid = cluster.getNamesystem().getBlockPoolId();
+
+      long lockedId = FIRST_BLOCK_ID;
+      Object lock = dataSet.getBlockLock(lockedId);
+      long otherId = lockedId + 1;
+      while (dataSet.getBlockLock(otherId) == lock) {
+        otherId++;
+      }
+      final AtomicReference<Throwable> error =
+          new AtomicReference<Throwable>();
+      Thread lockedWriter = newWriter(dataSet,
+          new ExtendedBlock(bpid, lockedId, 0, GEN_STAMP), error);
+      Thread otherWriter = newWriter(dataSet,
+          new ExtendedBlock(bpid, otherId, 0, GEN_STAMP), error);
+
+      synchronized (lock) {
+        lockedWriter.start();
+        otherWriter.start();
+        otherWriter.join(WAIT_MILLIS);
+        Assert.assertFalse("The write of another stripe is blocked",
+            otherWriter.isAlive());
+        long deadline = Time.now() + WAIT_MILLIS;
+        while (lockedWriter.getState() != Thread.State.BLOCKED
+            && Time.now() < deadline) {
+          Thread.sleep(10);
+        }
+        Assert.assertEquals(Thread.State.BLOCKED, lockedWriter.getState());
+      }
+      lockedWriter.join(WAIT_MILLIS);
+      Assert.assertFalse(lockedWriter.isAlive());
+      if (error.get() != null) {
+        throw new AssertionError(error.get());
+      }
+      Assert.assertTrue(dataSet.isValidBlock(
+          new ExtendedBlock(bpid, lockedId, BLOCK_LENGTH, GEN_STAMP)));
+      Assert.assertTrue(dataSet.isValidBlock(
+          new ExtendedBlock(bpid, otherId, BLOCK_LENGTH, GEN_STAMP)));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static Thread newWriter(final FsDatasetImpl dataSet,
+      final ExtendedBlock b, final AtomicReference<Throwable> error) {
+    return new Thread() {
+      @Override
+      public void run() {
+        try {
+          writeBlock(dataSet, b, new Random(b.getBlockId()));
+        } catch (Throwable e) {
+          error.compareAndSet(null, e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Writes {@link #BLOCKS_PER_WRITER} blocks from each writer thread and
+   * waits for them to finish, the first failure is kept in error.
+   */
+  private static List<ExtendedBlock> writeBlocks(final FsDatasetImpl dataSet,
+      final String bpid, long firstBlockId, int writers,
+      final AtomicReference<Throwable> error) throws InterruptedException {
+    final List<ExtendedBlock> blocks = new ArrayList<ExtendedBlock>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int w = 0; w < writers; w++) {
+      final long first = firstBlockId + w * BLOCKS_PER_WRITER;
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random rand = new Random(first);
+            for (long id = first; id < first + BLOCKS_PER_WRITER; id++) {
+              ExtendedBlock b = new ExtendedBlock(bpid, id, 0, GEN_STAMP);
+              writeBlock(dataSet, b, rand);
+              synchronized (blocks) {
+                blocks.add(b);
+              }
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    return blocks;
+  }
+
+  /**
+   * Writes a replica being written with its checksums and finalizes it, as
+   * the BlockReceiver of a single node pipeline does.
+   */
+  private static void writeBlock(FsDatasetImpl dataSet, ExtendedBlock b,
+      Random rand) throws IOException {
+    DataChecksum checksum = DataChecksum.newDataChecksum(
+        DataChecksum.Type.CRC32, BYTES_PER_CHECKSUM);
+    byte[] data = new byte[BLOCK_LENGTH];
+    rand.nextBytes(data);
+    ByteBuffer sums = ByteBuffer.allocate(
+        checksum.getChecksumSize() * (BLOCK_LENGTH / BYTES_PER_CHECKSUM));
+    checksum.calculateChunkedSums(ByteBuffer.wrap(data), sums);
+
+    ReplicaInPipeline replica = dataSet.createRbw(b);
+    ReplicaOutputStreams streams = replica.createStreams(true, checksum);
+    try {
+      DataOutputStream checksumOut =
+          new DataOutputStream(streams.getChecksumOut());
+      checksumOut.writeShort(BlockMetadataHeader.VERSION);
+      checksum.writeHeader(checksumOut);
+      checksumOut.write(sums.array());
+      checksumOut.flush();
+      streams.getDataOut().write(data);
+      streams.getDataOut().flush();
+    } finally {
+      streams.close();
+    }
+    byte[] lastChecksum = new byte[checksum.getChecksumSize()];
+    System.arraycopy(sums.array(), sums.capacity() - lastChecksum.length,
+        lastChecksum, 0, lastChecksum.length);
+    replica.setLastChecksumAndDataLen(BLOCK_LENGTH, lastChecksum);
+    replica.setBytesAcked(BLOCK_LENGTH);
+    replica.setNumBytesNoPersistance(BLOCK_LENGTH);
+
+    b.setNumBytes(BLOCK_LENGTH);
+    dataSet.finalizeBlock(b);
+  }
+}
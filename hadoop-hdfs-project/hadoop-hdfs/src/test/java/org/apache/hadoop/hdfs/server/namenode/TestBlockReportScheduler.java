@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSlot;
+import org.junit.Test;
+import se.sics.hop.leaderElection.node.ActiveNode;
+import se.sics.hop.leaderElection.node.ActiveNodePBImpl;
+
+public class TestBlockReportScheduler {
+
+  private static List<ActiveNode> namenodes(int count) {
+    List<ActiveNode> namenodes = new ArrayList<ActiveNode>();
+    for (int i = 0; i < count; i++) {
+      namenodes.add(new ActiveNodePBImpl(i, "nn" + i, "127.0.0." + (i + 1),
+          8020, "127.0.0." + (i + 1) + ":50070"));
+    }
+    return namenodes;
+  }
+
+  private static BlockReportScheduler scheduler(int maxPerNamenode) {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_MAX_CONCURRENT_KEY,
+        maxPerNamenode);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_LEASE_KEY, 1000);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_QUEUE_TIMEOUT_KEY,
+        1000);
+    return new BlockReportScheduler(conf);
+  }
+
+  @Test
+  public void testReportsAreSpreadAndCapped() {
+    List<ActiveNode> namenodes = namenodes(2);
+    BlockReportScheduler scheduler = scheduler(1);
+
+    BlockReportSlot first = scheduler.requestSlot("dn1", 100, namenodes, 0);
+    BlockReportSlot second = scheduler.requestSlot("dn2", 100, namenodes, 0);
+    assertTrue(first.isGranted());
+    assertTrue(second.isGranted());
+    assertTrue(first.getNamenode().getId() != second.getNamenode().getId());
+
+    BlockReportSlot third = scheduler.requestSlot("dn3", 100, namenodes, 0);
+    BlockReportSlot fourth = scheduler.requestSlot("dn4", 100, namenodes, 0);
+    assertFalse(third.isGranted());
+    assertEquals(0, third.getQueuePosition());
+    assertEquals(1, fourth.getQueuePosition());
+    assertEquals(2, scheduler.getReportsInProgress());
+    assertEquals(2, scheduler.getQueueLength());
+
+    // the head of the queue gets the freed slot, not a later datanode
+    scheduler.reportCompleted("dn1", 100, 500);
+    assertFalse(scheduler.requestSlot("dn4", 100, namenodes, 10).isGranted());
+    BlockReportSlot retry = scheduler.requestSlot("dn3", 100, namenodes, 10);
+    assertTrue(retry.isGranted());
+    assertEquals(first.getNamenode().getId(), retry.getNamenode().getId());
+  }
+
+  @Test
+  public void testWaitEstimateAndLeaseExpiry() {
+    List<ActiveNode> namenodes = namenodes(1);
+    BlockReportScheduler scheduler = scheduler(1);
+
+    assertTrue(scheduler.requestSlot("dn1", 10, namenodes, 0).isGranted());
+    scheduler.reportCompleted("dn1", 10, 400);
+    assertTrue(scheduler.requestSlot("dn1", 10, namenodes, 0).isGranted());
+    BlockReportSlot waiting = scheduler.requestSlot("dn2", 10, namenodes, 0);
+    assertFalse(waiting.isGranted());
+    assertEquals(400, waiting.getRetryAfter());
+
+    // dn1 died without finishing its report, its lease expires
+    assertTrue(scheduler.requestSlot("dn2", 10, namenodes, 5000).isGranted());
+  }
+
+  @Test
+  public void testQueueOutlivesWait() {
+    List<ActiveNode> namenodes = namenodes(1);
+    BlockReportScheduler scheduler = scheduler(1);
+
+    // reports take longer than the queue timeout
+    assertTrue(scheduler.requestSlot("dn1", 10, namenodes, 0).isGranted());
+    scheduler.reportCompleted("dn1", 10, 5000);
+    assertTrue(scheduler.requestSlot("dn1", 10, namenodes, 0).isGranted());
+    BlockReportSlot waiting = scheduler.requestSlot("dn2", 10, namenodes, 0);
+    assertEquals(5000, waiting.getRetryAfter());
+    assertFalse(scheduler.requestSlot("dn3", 10, namenodes, 0).isGranted());
+
+    // dn2 asks again once told to, and keeps its place ahead of dn3
+    scheduler.reportCompleted("dn1", 10, 5000);
+    assertFalse(scheduler.requestSlot("dn3", 10, namenodes, 5000)
+        .isGranted());
+    assertTrue(scheduler.requestSlot("dn2", 10, namenodes, 5000)
+        .isGranted());
+
+    // a datanode which never asks again loses its place
+    assertEquals(1, scheduler.getQueueLength());
+    assertTrue(scheduler.requestSlot("dn4", 10, namenodes, 20000)
+        .isGranted());
+    assertEquals(0, scheduler.getQueueLength());
+  }
+
+  /**
+   * All the reports go to the leader during startup safe mode, a cap would
+   * let the datanodes report one or two at a time and slow down the restart.
+   */
+  @Test
+  public void testNoLimitInSafeMode() {
+    List<ActiveNode> leader = namenodes(1);
+    BlockReportScheduler scheduler = scheduler(1);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(scheduler.requestSlot("dn" + i, 10, leader, 0, true)
+          .isGranted());
+    }
+    assertEquals(10, scheduler.getReportsInProgress());
+    assertEquals(0, scheduler.getQueueLength());
+
+    // once out of safe mode the cap applies again
+    assertFalse(scheduler.requestSlot("dn10", 10, leader, 0).isGranted());
+    for (int i = 0; i < 10; i++) {
+      scheduler.reportCompleted("dn" + i, 10, 100);
+    }
+    assertTrue(scheduler.requestSlot("dn10", 10, leader, 0).isGranted());
+  }
+
+  @Test
+  public void testNoLimit() {
+    List<ActiveNode> namenodes = namenodes(1);
+    BlockReportScheduler scheduler = scheduler(0);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(scheduler.requestSlot("dn" + i, 10, namenodes, 0).isGranted());
+    }
+    assertEquals(0, scheduler.getQueueLength());
+  }
+}
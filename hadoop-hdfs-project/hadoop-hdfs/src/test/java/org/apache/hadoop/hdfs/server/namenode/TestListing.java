@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.junit.Test;
+
+/**
+ * Tests the paging of directory listings, with the listing lock which only
+ * reads the page of children and with the legacy listing.
+ */
+public class TestListing {
+  private static final int LS_LIMIT = 4;
+  private static final int NUM_FILES = 7;
+  private static final int NUM_DIRS = 3;
+  private static final long FILE_LEN = 1024;
+
+  @Test
+  public void testListing() throws IOException {
+    testListing(false);
+  }
+
+  @Test
+  public void testLegacyListing() throws IOException {
+    testListing(true);
+  }
+
+  private void testListing(boolean legacyListing) throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, LS_LIMIT);
+    conf.setBoolean(DFSConfigKeys.DFS_LEGACY_LISTING_ENABLE_KEY,
+        legacyListing);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      NamenodeProtocols nn = cluster.getNameNodeRpc();
+
+      // children whose names sort files and directories together
+      String dir = "/listing";
+      List<String> names = new ArrayList<String>();
+      for (int i = 0; i < NUM_FILES + NUM_DIRS; i++) {
+        String name = "c" + i;
+        names.add(name);
+        if (i % 3 == 1) {
+          assertTrue(dfs.mkdirs(new Path(dir, name)));
+        } else {
+          DFSTestUtil.createFile(dfs, new Path(dir, name), FILE_LEN,
+              (short) 1, i);
+        }
+      }
+
+      checkPages(nn, dir, names, false);
+      checkPages(nn, dir, names, true);
+
+      // start after a name which is not a child
+      DirectoryListing listing =
+          nn.getListing(dir, DFSUtil.string2Bytes("c4a"), false);
+      assertEquals("c5", listing.getPartialListing()[0].getLocalName());
+      assertEquals(names.size() - 5 - LS_LIMIT, listing.getRemainingEntries());
+
+      // start after the last child
+      listing = nn.getListing(dir, DFSUtil.string2Bytes("c9"), false);
+      assertEquals(0, listing.getPartialListing().length);
+      assertEquals(0, listing.getRemainingEntries());
+      assertFalse(listing.hasMore());
+
+      // a file lists itself
+      listing = nn.getListing(dir + "/c0", HdfsFileStatus.EMPTY_NAME, true);
+      assertEquals(1, listing.getPartialListing().length);
+      assertEquals(FILE_LEN, listing.getPartialListing()[0].getLen());
+
+      // an empty directory
+      listing = nn.getListing(dir + "/c1", HdfsFileStatus.EMPTY_NAME, false);
+      assertEquals(0, listing.getPartialListing().length);
+      assertEquals(0, listing.getRemainingEntries());
+
+      assertNull(nn.getListing("/nothing", HdfsFileStatus.EMPTY_NAME,
+          false));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Lists the directory page by page, and checks the names, the remaining
+   * entries of each page and the block locations of the files.
+   */
+  private void checkPages(NamenodeProtocols nn, String dir,
+      List<String> names, boolean needLocation) throws IOException {
+    List<String> listed = new ArrayList<String>();
+    byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+    DirectoryListing listing;
+    do {
+      listing = nn.getListing(dir, startAfter, needLocation);
+      assertNotNull(listing);
+      HdfsFileStatus[] page = listing.getPartialListing();
+      assertEquals(Math.min(LS_LIMIT, names.size() - listed.size()),
+          page.length);
+      for (HdfsFileStatus status : page) {
+        listed.add(status.getLocalName());
+        if (needLocation && !status.isDir()) {
+          HdfsLocatedFileStatus located = (HdfsLocatedFileStatus) status;
+          assertNotNull(located.getBlockLocations());
+          assertEquals(1, located.getBlockLocations().locatedBlockCount());
+          assertEquals(1, located.getBlockLocations().get(0)
+              .getLocations().length);
+        } else if (!needLocation) {
+          assertFalse(status instanceof HdfsLocatedFileStatus);
+        }
+        if (!status.isDir()) {
+          assertEquals(FILE_LEN, status.getLen());
+        }
+      }
+      assertEquals(names.size() - listed.size(),
+          listing.getRemainingEntries());
+      startAfter = listing.getLastName();
+    } while (listing.hasMore());
+    assertEquals(names, listed);
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.Test;
+import se.sics.hop.common.INodeUtil;
+import se.sics.hop.metadata.StorageFactory;
+import se.sics.hop.metadata.hdfs.dal.INodeAttributesDataAccess;
+import se.sics.hop.transaction.handler.HDFSOperationType;
+import se.sics.hop.transaction.handler.LightWeightRequestHandler;
+
+/**
+ * Applies the quota updates of concurrent clients with the update pool on
+ * and a fetch limit well below the number of updates, so that every round
+ * is split over several workers and several full fetches.
+ */
+public class TestQuotaUpdateManager {
+  private static final int NUM_CLIENTS = 4;
+  private static final int DIRS_PER_CLIENT = 10;
+  private static final int FILES_PER_CLIENT = 10;
+  private static final long FILE_LEN = 1024;
+  private static final short REPLICATION = 1;
+  private static final long TIMEOUT = 120 * 1000;
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_INTERVAL_KEY, 1000);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_LIMIT_KEY, 7);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_THREADS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_INODES_PER_TX_KEY, 2);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final DistributedFileSystem dfs = cluster.getFileSystem();
+      final Path quotaDir = new Path("/q");
+      dfs.mkdirs(quotaDir);
+      dfs.setQuota(quotaDir, Long.MAX_VALUE - 1, Long.MAX_VALUE - 1);
+
+      final List<IOException> errors = new ArrayList<IOException>();
+      Thread[] clients = new Thread[NUM_CLIENTS];
+      for (int c = 0; c < NUM_CLIENTS; c++) {
+        final int client = c;
+        clients[c] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < DIRS_PER_CLIENT; i++) {
+                dfs.mkdirs(new Path(quotaDir, "d" + client + "_" + i));
+              }
+              for (int i = 0; i < FILES_PER_CLIENT; i++) {
+                Path dir = new Path(quotaDir, "d" + client + "_" + i);
+                DFSTestUtil.createFile(dfs, new Path(dir, "f"), FILE_LEN,
+                    REPLICATION, i);
+              }
+            } catch (IOException e) {
+              synchronized (errors) {
+                errors.add(e);
+              }
+            }
+          }
+        };
+        clients[c].start();
+      }
+      for (Thread client : clients) {
+        client.join();
+      }
+      if (!errors.isEmpty()) {
+        throw errors.get(0);
+      }
+
+      final int quotaDirId = INodeUtil.getNode(DFSUtil.string2Bytes("q"),
+          INodeDirectory.ROOT_ID, false).getId();
+      long expectedNsCount =
+          1 + NUM_CLIENTS * (DIRS_PER_CLIENT + FILES_PER_CLIENT);
+      long expectedDiskspace =
+          NUM_CLIENTS * FILES_PER_CLIENT * FILE_LEN * REPLICATION;
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      INodeAttributes attributes;
+      while (true) {
+        attributes = findAttributes(quotaDirId);
+        if (attributes.getNsCount() == expectedNsCount
+            && attributes.getDiskspace() == expectedDiskspace) {
+          break;
+        }
+        if (System.currentTimeMillis() > deadline) {
+          fail("Timed out waiting for the quota updates, nsCount "
+              + attributes.getNsCount() + " diskspace "
+              + attributes.getDiskspace());
+        }
+        Thread.sleep(500);
+      }
+
+      // the updates are applied exactly once, nothing is left to overshoot
+      Thread.sleep(3000);
+      attributes = findAttributes(quotaDirId);
+      assertEquals(expectedNsCount, (long) attributes.getNsCount());
+      assertEquals(expectedDiskspace, (long) attributes.getDiskspace());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static INodeAttributes findAttributes(final int inodeId)
+      throws IOException {
+    return (INodeAttributes) new LightWeightRequestHandler(
+        HDFSOperationType.TEST) {
+      @Override
+      public Object performTask() throws IOException {
+        INodeAttributesDataAccess da = (INodeAttributesDataAccess)
+            StorageFactory.getDataAccess(INodeAttributesDataAccess.class);
+        return da.findAttributesByPk(inodeId);
+      }
+    }.handle();
+  }
+}
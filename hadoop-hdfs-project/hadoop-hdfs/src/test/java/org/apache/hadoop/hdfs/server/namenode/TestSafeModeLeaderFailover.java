@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSCluster.DataNodeProperties;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.junit.Test;
+
+/**
+ * Fails the leader over while the cluster is in startup safe mode. The safe
+ * blocks counted by the old leader are lost with it, so the new leader has
+ * to count the blocks of the datanodes which reported before the failover
+ * again.
+ */
+public class TestSafeModeLeaderFailover {
+  private static final int NUM_FILES = 3;
+  private static final long FILE_LEN = 1024;
+  private static final long TIMEOUT = 60 * 1000;
+
+  @Test
+  public void testFailoverInSafeMode() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_SAFEMODE_EXTENSION_KEY, 0);
+    conf.setInt(DFSConfigKeys.DFS_REPLICATION_KEY, 1);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHOPSTopology(2)).format(true)
+        .numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+
+      // the first files are on the first datanode only
+      createFiles(cluster.getFileSystem(0), "a");
+      cluster.startDataNodes(conf, 1, true, null, null);
+      cluster.waitActive();
+      DataNodeProperties first = cluster.stopDataNode(0);
+      // and the others on the second datanode only
+      createFiles(cluster.getFileSystem(0), "b");
+      DataNodeProperties second = cluster.stopDataNode(0);
+
+      // restart the cluster, the namenodes come up in startup safe mode
+      cluster.shutdownNameNode(0);
+      cluster.shutdownNameNode(1);
+      cluster.restartNameNode(0, false);
+      cluster.restartNameNode(1, false);
+      int leader = waitForLeader(cluster);
+      int other = 1 - leader;
+
+      cluster.restartDataNode(first);
+      FSNamesystem fsn = cluster.getNamesystem(leader);
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (fsn.getSafeModeInfoForTests().blockSafe() < NUM_FILES) {
+        checkTimeout(deadline, "the first datanode to report");
+      }
+      assertEquals(NUM_FILES, fsn.getSafeModeInfoForTests().blockSafe());
+      assertTrue(fsn.isInSafeMode());
+
+      // the new leader only leaves safe mode once it counted the blocks of
+      // the first datanode again
+      cluster.shutdownNameNode(leader);
+      TestHABasicFailover.waitLeaderElection(cluster.getDataNodes(),
+          cluster.getNameNode(other), TIMEOUT);
+      cluster.restartDataNode(second);
+      fsn = cluster.getNamesystem(other);
+      deadline = System.currentTimeMillis() + TIMEOUT;
+      while (fsn.isInSafeMode()) {
+        checkTimeout(deadline, "the new leader to leave safe mode");
+      }
+
+      FileSystem fs = cluster.getFileSystem(other);
+      for (int i = 0; i < NUM_FILES; i++) {
+        assertEquals(FILE_LEN, DFSTestUtil.readFile(fs, new Path("/a" + i))
+            .length());
+        assertEquals(FILE_LEN, DFSTestUtil.readFile(fs, new Path("/b" + i))
+            .length());
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static void createFiles(FileSystem fs, String prefix)
+      throws IOException {
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path("/" + prefix + i), FILE_LEN,
+          (short) 1, i);
+    }
+  }
+
+  private static int waitForLeader(MiniDFSCluster cluster)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (true) {
+      for (int i = 0; i < 2; i++) {
+        if (cluster.getNameNode(i).isLeader()) {
+          return i;
+        }
+      }
+      checkTimeout(deadline, "a leader");
+    }
+  }
+
+  private static void checkTimeout(long deadline, String waitingFor)
+      throws InterruptedException {
+    if (System.currentTimeMillis() > deadline) {
+      fail("Timed out waiting for " + waitingFor);
+    }
+    Thread.sleep(500);
+  }
+}
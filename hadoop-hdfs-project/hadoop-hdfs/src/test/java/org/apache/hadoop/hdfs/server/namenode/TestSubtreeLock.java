@@ -2,6 +2,7 @@
 
 import junit.framework.TestCase;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileContext;
 import org.apache.hadoop.fs.Options;
@@ -10,6 +11,7 @@
 import org.apache.hadoop.hdfs.*;
 import org.apache.hadoop.ipc.RemoteException;
 import org.junit.Test;
+import se.sics.hop.memcache.PathMemcache;
 import se.sics.hop.transaction.handler.RequestHandler;
 import se.sics.hop.transaction.lock.SubtreeLockedException;
 
@@ -66,6 +68,53 @@ public void testSubtreeLocking() throws IOException {
     }
   }
 
+  @Test
+  public void testSubtreeLockOfOtherNamenodeWithINodeCache()
+      throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_KEY, 0);
+      conf.setBoolean(DFSConfigKeys.DFS_INODE_CACHE_ENABLED_KEY, true);
+      conf.setLong(DFSConfigKeys.DFS_INODE_CACHE_MAX_AGE_KEY, 10 * 60 * 1000);
+      cluster = new MiniDFSCluster.Builder(conf)
+          .nnTopology(MiniDFSNNTopology.simpleHOPSTopology(2))
+          .format(true)
+          .numDataNodes(1).build();
+      cluster.waitActive();
+
+      Path path0 = new Path("/folder0");
+      Path path1 = new Path(path0, "folder1");
+      Path path2 = new Path(path1, "folder2");
+      DistributedFileSystem dfs1 = cluster.getFileSystem(1);
+      dfs1.mkdirs(path2);
+      // the second namenode caches the ancestors of folder2
+      for (int i = 0; i < 3; i++) {
+        dfs1.getFileStatus(path2);
+      }
+
+      FSNamesystem namesystem0 = cluster.getNamesystem(0);
+      FSNamesystem namesystem1 = cluster.getNamesystem(1);
+      namesystem0.lockSubtree(path1.toUri().getPath());
+      boolean exception = false;
+      try {
+        namesystem1.lockSubtree(path2.toUri().getPath());
+      } catch (SubtreeLockedException e) {
+        exception = true;
+      }
+      assertTrue("Did not see the subtree lock of the other namenode",
+          exception);
+
+      namesystem0.unlockSubtree(path1.toUri().getPath());
+      namesystem1.lockSubtree(path2.toUri().getPath());
+      namesystem1.unlockSubtree(path2.toUri().getPath());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   @Test
   public void testFileTree() throws IOException {
     MiniDFSCluster cluster = null;
@@ -153,6 +202,208 @@ public void testCountingFileTree() throws IOException {
     }
   }
 
+  @Test
+  public void testWideCountingFileTree() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_KEY, 0);
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_MAX_INFLIGHT_QUERIES_KEY, 2);
+      cluster = new MiniDFSCluster.Builder(conf)
+          .numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      Path path0 = new Path("/folder0");
+      dfs.mkdir(path0, FsPermission.getDefault());
+      final int width = 10;
+      for (int i = 0; i < width; i++) {
+        Path dir = new Path(path0, "dir" + i);
+        dfs.mkdir(dir, FsPermission.getDefault());
+        for (int j = 0; j < 2; j++) {
+          Path subDir = new Path(dir, "subdir" + j);
+          dfs.mkdir(subDir, FsPermission.getDefault());
+          dfs.create(new Path(subDir, "file")).close();
+        }
+      }
+
+      FSNamesystem.CountingFileTree fileTree = cluster.getNamesystem().createCountingFileTreeFromPath(path0.toUri().getPath());
+      fileTree.buildUp();
+      assertEquals(1 + width + 2 * width, fileTree.getDirectoryCount());
+      assertEquals(2 * width, fileTree.getFileCount());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testDeepFileTree() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_KEY, 0);
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_MAX_INFLIGHT_QUERIES_KEY, 1);
+      cluster = new MiniDFSCluster.Builder(conf)
+          .numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      Path path0 = new Path("/folder0");
+      dfs.mkdir(path0, FsPermission.getDefault());
+      final int depth = 20;
+      Path dir = path0;
+      for (int i = 0; i < depth; i++) {
+        dir = new Path(dir, "dir" + i);
+        dfs.mkdir(dir, FsPermission.getDefault());
+        dfs.create(new Path(dir, "file")).close();
+      }
+
+      FSNamesystem.FileTree fileTree = cluster.getNamesystem().createFileTreeFromPath(path0.toUri().getPath());
+      fileTree.buildUp();
+      assertEquals(1 + 2 * depth, fileTree.getAll().size());
+      assertEquals(depth + 2, fileTree.getHeight());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testFileTreeWithLockedSubtree() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_KEY, 0);
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_MAX_INFLIGHT_QUERIES_KEY, 2);
+      cluster = new MiniDFSCluster.Builder(conf)
+          .numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      Path path0 = new Path("/folder0");
+      dfs.mkdir(path0, FsPermission.getDefault());
+      Path locked = null;
+      for (int i = 0; i < 5; i++) {
+        Path dir = new Path(path0, "dir" + i);
+        dfs.mkdir(dir, FsPermission.getDefault());
+        Path subDir = new Path(dir, "subdir");
+        dfs.mkdir(subDir, FsPermission.getDefault());
+        if (i == 3) {
+          locked = subDir;
+        }
+      }
+
+      FSNamesystem namesystem = cluster.getNamesystem();
+      namesystem.lockSubtree(locked.toUri().getPath());
+      FSNamesystem.FileTree fileTree = namesystem.createFileTreeFromPath(path0.toUri().getPath());
+      boolean exception = false;
+      try {
+        fileTree.buildUp();
+      } catch (SubtreeLockedException e) {
+        exception = true;
+      }
+      assertTrue("Built up a tree with a locked subtree", exception);
+
+      namesystem.unlockSubtree(locked.toUri().getPath());
+      fileTree = namesystem.createFileTreeFromPath(path0.toUri().getPath());
+      fileTree.buildUp();
+      assertEquals(11, fileTree.getAll().size());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testContentSummaryAfterChanges() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_KEY, 0);
+      cluster = new MiniDFSCluster.Builder(conf)
+          .numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      Path path0 = new Path("/folder0");
+      Path path1 = new Path(path0, "folder1");
+      dfs.mkdirs(path1);
+      dfs.setQuota(path0, 100, 1024 * 1024 * 1024);
+      dfs.create(new Path(path1, "file0")).close();
+
+      ContentSummary first = dfs.getContentSummary(path0);
+      assertEquals(1, first.getFileCount());
+      assertEquals(2, first.getDirectoryCount());
+      ContentSummary second = dfs.getContentSummary(path0);
+      assertEquals(first.toString(), second.toString());
+
+      dfs.mkdirs(new Path(path1, "folder2"));
+      dfs.create(new Path(path1, "file1")).close();
+      ContentSummary third = dfs.getContentSummary(path0);
+      assertEquals(2, third.getFileCount());
+      assertEquals(3, third.getDirectoryCount());
+      assertEquals(100, third.getQuota());
+
+      // the same namespace and diskspace counts
+      dfs.delete(new Path(path1, "file1"), false);
+      dfs.mkdirs(new Path(path1, "folder3"));
+      ContentSummary fourth = dfs.getContentSummary(path0);
+      assertEquals(1, fourth.getFileCount());
+      assertEquals(4, fourth.getDirectoryCount());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testContentSummaryOtherNamenode() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_KEY, 0);
+      cluster = new MiniDFSCluster.Builder(conf)
+          .nnTopology(MiniDFSNNTopology.simpleHOPSTopology(2))
+          .format(true)
+          .numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs0 = cluster.getFileSystem(0);
+      DistributedFileSystem dfs1 = cluster.getFileSystem(1);
+      Path path0 = new Path("/folder0");
+      Path path1 = new Path(path0, "folder1");
+      dfs0.mkdirs(path1);
+      dfs0.setQuota(path0, 100, 1024 * 1024 * 1024);
+      dfs0.create(new Path(path1, "file0")).close();
+
+      ContentSummary first = dfs0.getContentSummary(path0);
+      assertEquals(1, first.getFileCount());
+      assertEquals(2, first.getDirectoryCount());
+      assertEquals(first.toString(), dfs0.getContentSummary(path0).toString());
+
+      dfs1.create(new Path(path1, "file1")).close();
+      ContentSummary second = dfs0.getContentSummary(path0);
+      assertEquals(2, second.getFileCount());
+      assertEquals(2, second.getDirectoryCount());
+
+      // the same namespace and diskspace counts
+      dfs1.delete(new Path(path1, "file1"), false);
+      dfs1.mkdirs(new Path(path1, "folder2"));
+      ContentSummary third = dfs0.getContentSummary(path0);
+      assertEquals(1, third.getFileCount());
+      assertEquals(3, third.getDirectoryCount());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   @Test
   public void testNameNodeFailureLockAcquisition() throws IOException, InterruptedException {
     MiniDFSCluster cluster = null;
@@ -313,6 +564,48 @@ public void testDelete() throws IOException, InterruptedException {
     }
   }
 
+  @Test
+  public void testBatchedDelete() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRIES_ON_FAILURE_KEY, 0);
+      conf.setBoolean(DFSConfigKeys.DFS_SUBTREE_BATCHED_DELETE_ENABLE_KEY, true);
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_DELETE_BATCH_SIZE_KEY, 3);
+      conf.setBoolean(DFSConfigKeys.DFS_BATCHED_PATH_RESOLUTION_ENABLED_KEY,
+          true);
+      conf.setBoolean(DFSConfigKeys.DFS_PATH_CACHE_ENABLED_KEY, true);
+      cluster = new MiniDFSCluster.Builder(conf)
+          .numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+
+      Path root = new Path("/foo");
+      assertTrue(fs.mkdir(root, FsPermission.getDefault()));
+      for (int i = 0; i < 4; i++) {
+        Path dir = new Path(root, "dir" + i);
+        assertTrue(fs.mkdir(dir, FsPermission.getDefault()));
+        for (int j = 0; j < 7; j++) {
+          TestFileCreation.createFile(fs, new Path(dir, "file" + j), 1).close();
+        }
+      }
+      // caches the path of a file and of a directory
+      assertTrue(fs.exists(new Path(root, "dir0/file0")));
+      assertTrue(fs.exists(new Path(root, "dir3")));
+
+      assertTrue(fs.delete(root, true));
+      assertNull(PathMemcache.getInstance().getPartitionKey("/foo/dir0/file0"));
+      assertNull(PathMemcache.getInstance().getPartitionKey("/foo/dir3"));
+      assertFalse(fs.exists(new Path(root, "dir0/file0")));
+      assertFalse(fs.exists(new Path(root, "dir3")));
+      assertFalse(fs.exists(root));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   @Test
   public void testDeleteUnclosed() throws IOException, InterruptedException {
     MiniDFSCluster cluster = null;
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares the stored-vs-reported block diff of a full block report done
+ * with boxed {@link HashSet}s against the one done with {@link LongHashSet}s.
+ * <p>
+ * The stored set of the datanode is diffed against a report which misses
+ * 1% of the stored blocks and contains 1% new ones, the same way
+ * BlockManager#reportDiff does: copy the stored set into the safe set, then
+ * remove every reported block found on the datanode from the stored set.
+ * <p>
+ * Usage: BlockReportDiffBenchmark [-iterations n] [blocks ...]
+ * The default sizes are 100000, 1000000 and 5000000 blocks. Run with a
+ * large enough heap, e.g. -Xmx4g, for the 5M case of the boxed sets.
+ */
+public class BlockReportDiffBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 2;
+
+  private final long[] stored;
+  private final long[] reported;
+
+  BlockReportDiffBenchmark(int numBlocks, long seed) {
+    Random rand = new Random(seed);
+    stored = new long[numBlocks];
+    for (int i = 0; i < numBlocks; i++) {
+      stored[i] = rand.nextLong();
+    }
+    reported = new long[numBlocks];
+    int missing = numBlocks / 100;
+    for (int i = 0; i < numBlocks; i++) {
+      reported[i] = i < missing ? rand.nextLong() : stored[i];
+    }
+  }
+
+  /** The diff as done before, with boxed sets. */
+  long boxedDiff() {
+    Set<Long> allMachineBlocks = new HashSet<Long>();
+    for (long b : stored) {
+      allMachineBlocks.add(b);
+    }
+    Set<Long> safeBlocks = new HashSet<Long>(allMachineBlocks);
+    for (long b : reported) {
+      if (!allMachineBlocks.remove(b)) {
+        safeBlocks.remove(b);
+      }
+    }
+    safeBlocks.removeAll(allMachineBlocks);
+    return allMachineBlocks.size() + safeBlocks.size();
+  }
+
+  /** The diff as done now, with primitive sets. */
+  long primitiveDiff() {
+    LongHashSet allMachineBlocks = new LongHashSet(stored.length);
+    allMachineBlocks.addAll(stored);
+    LongHashSet safeBlocks = new LongHashSet(allMachineBlocks);
+    LongHashSet storedOnNode = new LongHashSet(reported.length);
+    LongHashSet notSafe = new LongHashSet();
+    for (long b : reported) {
+      if (allMachineBlocks.contains(b)) {
+        storedOnNode.add(b);
+      } else {
+        notSafe.add(b);
+      }
+    }
+    allMachineBlocks.removeAll(storedOnNode);
+    safeBlocks.removeAll(notSafe);
+    safeBlocks.removeAll(allMachineBlocks);
+    return allMachineBlocks.size() + safeBlocks.size();
+  }
+
+  private static long[] gcStats() {
+    long count = 0;
+    long time = 0;
+    for (GarbageCollectorMXBean gc :
+        ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return new long[]{count, time};
+  }
+
+  private void run(String name, boolean boxed, int iterations) {
+    long result = 0;
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      result += boxed ? boxedDiff() : primitiveDiff();
+    }
+    System.gc();
+    long[] gcBefore = gcStats();
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      result += boxed ? boxedDiff() : primitiveDiff();
+    }
+    long elapsed = System.nanoTime() - start;
+    long[] gcAfter = gcStats();
+    System.out.println(String.format(
+        "%-10s blocks=%-8d avg=%8.1f ms  gc count=%-4d gc time=%-6d ms (%d)",
+        name, stored.length, elapsed / 1e6 / iterations,
+        gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1], result));
+  }
+
+  public static void main(String[] args) {
+    int iterations = 5;
+    int first = 0;
+    if (args.length >= 2 && args[0].equals("-iterations")) {
+      iterations = Integer.parseInt(args[1]);
+      first = 2;
+    }
+    int[] sizes;
+    if (args.length > first) {
+      sizes = new int[args.length - first];
+      for (int i = first; i < args.length; i++) {
+        sizes[i - first] = Integer.parseInt(args[i]);
+      }
+    } else {
+      sizes = new int[]{100000, 1000000, 5000000};
+    }
+
+    for (int numBlocks : sizes) {
+      BlockReportDiffBenchmark benchmark =
+          new BlockReportDiffBenchmark(numBlocks, numBlocks);
+      benchmark.run("HashSet", true, iterations);
+      benchmark.run("LongHashSet", false, iterations);
+    }
+  }
+}
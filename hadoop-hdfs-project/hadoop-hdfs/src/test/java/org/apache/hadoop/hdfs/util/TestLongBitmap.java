@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.util.Time;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLongBitmap {
+
+  private final int NUM = 100000;
+  private Random rand;
+
+  @Before
+  public void setUp() {
+    rand = new Random(Time.now());
+  }
+
+  @Test
+  public void testAddContainsRemove() {
+    LongBitmap set = new LongBitmap();
+    assertTrue(set.isEmpty());
+    assertTrue(set.add(1L));
+    assertFalse(set.add(1L));
+    assertTrue(set.add(0L));
+    assertTrue(set.add(-1L));
+    assertTrue(set.add(Long.MIN_VALUE));
+    assertTrue(set.add(Long.MAX_VALUE));
+    assertEquals(5, set.size());
+    assertTrue(set.contains(0L));
+    assertTrue(set.contains(-1L));
+    assertTrue(set.contains(Long.MIN_VALUE));
+    assertFalse(set.contains(2L));
+    assertFalse(set.contains(-2L));
+
+    assertTrue(set.remove(0L));
+    assertFalse(set.remove(0L));
+    assertFalse(set.contains(0L));
+    assertEquals(4, set.size());
+
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(1L));
+  }
+
+  @Test
+  public void testDenseChunks() {
+    LongBitmap set = new LongBitmap();
+    long base = 1L << 40;
+    // fills the first chunk past the array limit
+    for (long i = 0; i < LongBitmap.CHUNK_SIZE; i += 2) {
+      assertTrue(set.add(base + i));
+    }
+    assertEquals(LongBitmap.CHUNK_SIZE / 2, set.size());
+    for (long i = 0; i < LongBitmap.CHUNK_SIZE; i++) {
+      assertEquals(i % 2 == 0, set.contains(base + i));
+    }
+    // removes enough for the chunk to go back to an array
+    for (long i = 0; i < LongBitmap.CHUNK_SIZE - 1000; i += 2) {
+      assertTrue(set.remove(base + i));
+    }
+    assertEquals(500, set.size());
+    for (long i = 0; i < LongBitmap.CHUNK_SIZE; i++) {
+      assertEquals(i % 2 == 0 && i >= LongBitmap.CHUNK_SIZE - 1000,
+          set.contains(base + i));
+    }
+  }
+
+  @Test
+  public void testRandom() {
+    LongBitmap set = new LongBitmap();
+    Set<Long> expected = new HashSet<Long>();
+    // a range of a few chunks, so they are both sparse and dense
+    long range = 8L * LongBitmap.CHUNK_SIZE;
+    for (int i = 0; i < NUM; i++) {
+      long e = (long) (rand.nextDouble() * range) - range / 2;
+      if (rand.nextInt(4) == 0) {
+        assertEquals(expected.remove(e), set.remove(e));
+      } else {
+        assertEquals(expected.add(e), set.add(e));
+      }
+    }
+    assertEquals(expected.size(), set.size());
+    for (long e = -range / 2; e < range / 2; e++) {
+      assertEquals(expected.contains(e), set.contains(e));
+    }
+  }
+}
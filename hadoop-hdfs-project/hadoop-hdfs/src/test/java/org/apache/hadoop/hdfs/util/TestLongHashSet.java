@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.util.Time;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLongHashSet {
+
+  private final int NUM = 10000;
+  private Random rand;
+
+  @Before
+  public void setUp() {
+    rand = new Random(Time.now());
+  }
+
+  @Test
+  public void testAddContainsRemove() {
+    LongHashSet set = new LongHashSet();
+    assertTrue(set.isEmpty());
+    assertTrue(set.add(1L));
+    assertFalse(set.add(1L));
+    assertTrue(set.add(0L));
+    assertTrue(set.add(-1L));
+    assertTrue(set.add(Long.MIN_VALUE));
+    assertEquals(4, set.size());
+    assertTrue(set.contains(0L));
+    assertTrue(set.contains(Long.MIN_VALUE));
+    assertFalse(set.contains(2L));
+
+    assertTrue(set.remove(0L));
+    assertFalse(set.remove(0L));
+    assertFalse(set.contains(0L));
+    assertEquals(3, set.size());
+
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(1L));
+  }
+
+  @Test
+  public void testAgainstHashSet() {
+    LongHashSet set = new LongHashSet();
+    Set<Long> expected = new HashSet<Long>();
+    for (int i = 0; i < NUM * 10; i++) {
+      // a small range, so that there are many collisions and removals
+      long e = rand.nextInt(NUM) - NUM / 2;
+      switch (rand.nextInt(3)) {
+        case 0:
+          assertEquals(expected.add(e), set.add(e));
+          break;
+        case 1:
+          assertEquals(expected.remove(e), set.remove(e));
+          break;
+        default:
+          assertEquals(expected.contains(e), set.contains(e));
+      }
+      assertEquals(expected.size(), set.size());
+    }
+    assertEquals(expected, set.toSet());
+    assertEquals(expected, new LongHashSet(set).toSet());
+  }
+
+  @Test
+  public void testBulkOperations() {
+    Set<Long> stored = new HashSet<Long>();
+    for (long i = 0; i < NUM; i++) {
+      stored.add(i);
+    }
+    LongHashSet set = new LongHashSet(stored);
+    assertEquals(NUM, set.size());
+
+    LongHashSet reported = new LongHashSet();
+    for (long i = 0; i < NUM; i += 2) {
+      reported.add(i);
+    }
+    set.removeAll(reported);
+    assertEquals(NUM / 2, set.size());
+
+    long[] remaining = set.toArray();
+    Arrays.sort(remaining);
+    for (int i = 0; i < remaining.length; i++) {
+      assertEquals(2 * i + 1, remaining[i]);
+    }
+
+    set.addAll(reported);
+    assertEquals(NUM, set.size());
+    assertEquals(stored, set.toSet());
+  }
+}
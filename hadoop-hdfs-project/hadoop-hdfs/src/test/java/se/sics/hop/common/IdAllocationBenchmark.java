@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.common;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the id allocation throughput of {@link CountersQueue} against
+ * the former queue, which served every id under the monitor of the queue.
+ * Every thread allocates the same number of ids from a queue holding
+ * enough ranges for all of them, so no refill is involved.
+ * <p>
+ * Usage: IdAllocationBenchmark [-ids n] [-chunk n] [threads ...]
+ * The default thread counts are 1, 8, 64 and 128.
+ */
+public class IdAllocationBenchmark {
+
+  private interface IdSource {
+    long next();
+  }
+
+  /** The allocation as done before. */
+  private static class SynchronizedQueue implements IdSource {
+    private final Queue<long[]> queue = new ArrayDeque<long[]>();
+
+    synchronized void addCounter(long start, long end) {
+      queue.offer(new long[]{start, end});
+    }
+
+    @Override
+    public synchronized long next() {
+      long[] c = queue.peek();
+      while (c != null) {
+        if (c[0] < c[1]) {
+          return c[0]++;
+        }
+        queue.remove();
+        c = queue.peek();
+      }
+      throw new IllegalStateException("out of ids");
+    }
+  }
+
+  private static final int RANGE = 1000;
+
+  /** Keeps the allocations from being optimized away. */
+  private static volatile long sink;
+
+  private static IdSource synchronizedSource(long ids) {
+    SynchronizedQueue queue = new SynchronizedQueue();
+    for (long start = 0; start < ids; start += RANGE) {
+      queue.addCounter(start, start + RANGE);
+    }
+    return queue;
+  }
+
+  private static IdSource stripedSource(long ids, int chunk) {
+    final CountersQueue queue = new CountersQueue(chunk, 0);
+    // leave room for the chunks which are claimed but not used up
+    for (long start = 0; start < ids * 2; start += RANGE) {
+      queue.addCounter(start, start + RANGE);
+    }
+    return new IdSource() {
+      @Override
+      public long next() {
+        return queue.next();
+      }
+    };
+  }
+
+  private static double run(final IdSource source, int threads,
+      final int idsPerThread) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            long sum = 0;
+            for (int j = 0; j < idsPerThread; j++) {
+              sum += source.next();
+            }
+            sink += sum;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      };
+      t.setDaemon(true);
+      t.start();
+    }
+    long startTime = System.nanoTime();
+    start.countDown();
+    done.await();
+    long elapsed = System.nanoTime() - startTime;
+    return (double) threads * idsPerThread / (elapsed / 1e9);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int idsPerThread = 200000;
+    int chunk = 8;
+    int first = 0;
+    while (first + 1 < args.length && args[first].startsWith("-")) {
+      if (args[first].equals("-ids")) {
+        idsPerThread = Integer.parseInt(args[first + 1]);
+      } else if (args[first].equals("-chunk")) {
+        chunk = Integer.parseInt(args[first + 1]);
+      } else {
+        throw new IllegalArgumentException("Unknown option " + args[first]);
+      }
+      first += 2;
+    }
+    int[] threadCounts;
+    if (args.length > first) {
+      threadCounts = new int[args.length - first];
+      for (int i = first; i < args.length; i++) {
+        threadCounts[i - first] = Integer.parseInt(args[i]);
+      }
+    } else {
+      threadCounts = new int[]{1, 8, 64, 128};
+    }
+
+    for (int threads : threadCounts) {
+      long ids = (long) threads * idsPerThread;
+      // warm up
+      run(synchronizedSource(ids), threads, idsPerThread);
+      run(stripedSource(ids, chunk), threads, idsPerThread);
+
+      double before = run(synchronizedSource(ids), threads, idsPerThread);
+      double after = run(stripedSource(ids, chunk), threads, idsPerThread);
+      System.out.println(String.format(
+          "threads=%-4d synchronized=%12.0f ids/s  striped(chunk=%d)=%12.0f ids/s",
+          threads, before, chunk, after));
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class TestCountersQueue {
+
+  @Test
+  public void testSingleThread() {
+    CountersQueue cq = new CountersQueue(3, 0);
+    cq.addCounter(0, 5);
+    cq.addCounter(10, 12);
+    assertTrue(cq.has(7));
+    assertFalse(cq.has(8));
+    long[] expected = {0, 1, 2, 3, 4, 10, 11};
+    for (long id : expected) {
+      assertEquals(id, cq.next());
+    }
+    assertFalse(cq.has(1));
+    try {
+      cq.next();
+      fail("the queue should be empty");
+    } catch (CountersQueue.EmptyCountersQueueException e) {
+    }
+    assertEquals(7, cq.sampleDemand());
+    assertEquals(0, cq.sampleDemand());
+  }
+
+  @Test
+  public void testConcurrentIdsAreUnique() throws Exception {
+    final int threads = 16;
+    final int idsPerThread = 10000;
+    final CountersQueue cq = new CountersQueue(8, 0);
+    for (int i = 0; i < threads; i++) {
+      cq.addCounter(i * 2L * idsPerThread, (i + 1) * 2L * idsPerThread);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Callable<long[]>() {
+          @Override
+          public long[] call() {
+            long[] ids = new long[idsPerThread];
+            for (int j = 0; j < idsPerThread; j++) {
+              ids[j] = cq.next();
+            }
+            return ids;
+          }
+        }));
+      }
+      Set<Long> allIds = new HashSet<Long>();
+      for (Future<long[]> future : futures) {
+        for (long id : future.get()) {
+          assertTrue("duplicate id " + id, allIds.add(id));
+        }
+      }
+      assertEquals(threads * idsPerThread, allIds.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWaitForRefill() throws Exception {
+    final CountersQueue cq = new CountersQueue(1, 10000);
+    Thread refiller = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          return;
+        }
+        cq.addCounter(42, 43);
+      }
+    };
+    refiller.start();
+    assertEquals(42, cq.next());
+    refiller.join();
+  }
+
+  @Test
+  public void testStrandedChunkIsReturned() throws Exception {
+    final CountersQueue cq = new CountersQueue(10, 0);
+    cq.addCounter(0, 10);
+    final long[] taken = new long[1];
+    Thread worker = new Thread() {
+      @Override
+      public void run() {
+        taken[0] = cq.next();
+      }
+    };
+    worker.start();
+    worker.join();
+    assertEquals(0, taken[0]);
+    assertFalse(cq.has(1));
+
+    // the nine ids the worker claimed but never used are served again
+    Set<Long> ids = new HashSet<Long>();
+    for (int i = 0; i < 9; i++) {
+      ids.add(cq.next());
+    }
+    assertEquals(9, ids.size());
+    assertFalse(ids.contains(0L));
+    assertEquals(10, cq.sampleDemand());
+    try {
+      cq.next();
+      fail("the queue should be empty");
+    } catch (CountersQueue.EmptyCountersQueueException e) {
+    }
+  }
+
+  @Test
+  public void testWaitersShareRefill() throws Exception {
+    final int threads = 8;
+    final CountersQueue cq = new CountersQueue(1, 10000);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Long>> futures = new ArrayList<Future<Long>>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Callable<Long>() {
+          @Override
+          public Long call() {
+            return cq.next();
+          }
+        }));
+      }
+      Thread.sleep(100);
+      for (int i = 0; i < threads; i++) {
+        cq.addCounter(100 + i, 101 + i);
+      }
+      Set<Long> ids = new HashSet<Long>();
+      for (Future<Long> future : futures) {
+        assertTrue(ids.add(future.get()));
+      }
+      assertEquals(threads, ids.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
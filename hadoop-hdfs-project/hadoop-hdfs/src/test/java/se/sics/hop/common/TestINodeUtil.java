@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.junit.Test;
+import se.sics.hop.metadata.INodeIdentifier;
+
+public class TestINodeUtil {
+
+  @Test
+  public void testResolveINodesFromIds() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+
+      // files with close ids, and one far away from them
+      int numFiles = 5;
+      for (int i = 0; i < numFiles; i++) {
+        DFSTestUtil.createFile(fs, new Path("/dir/f" + i), 1024, (short) 1, i);
+      }
+      for (int i = 0; i < 40; i++) {
+        fs.mkdirs(new Path("/gap/d" + i));
+      }
+      DFSTestUtil.createFile(fs, new Path("/dir/far"), 1024, (short) 1, 0);
+
+      int dirId = INodeUtil.getNode(DFSUtil.string2Bytes("dir"),
+          INodeDirectory.ROOT_ID, false).getId();
+      int[] fileIds = new int[numFiles + 1];
+      for (int i = 0; i < numFiles; i++) {
+        fileIds[i] = INodeUtil.getNode(DFSUtil.string2Bytes("f" + i), dirId,
+            false).getId();
+      }
+      fileIds[numFiles] = INodeUtil.getNode(DFSUtil.string2Bytes("far"), dirId,
+          false).getId();
+
+      // in no particular order, with a directory and a missing inode
+      int[] ids = new int[numFiles + 3];
+      String[] names = new String[numFiles + 3];
+      ids[0] = dirId;
+      names[0] = "dir";
+      ids[1] = fileIds[numFiles];
+      names[1] = "far";
+      ids[2] = Integer.MAX_VALUE;
+      names[2] = null;
+      for (int i = 0; i < numFiles; i++) {
+        ids[3 + i] = fileIds[numFiles - 1 - i];
+        names[3 + i] = "f" + (numFiles - 1 - i);
+      }
+
+      INodeIdentifier[] resolved = INodeUtil.resolveINodesFromIds(ids);
+      assertEquals(ids.length, resolved.length);
+      for (int i = 0; i < ids.length; i++) {
+        assertEquals(ids[i], resolved[i].getInodeId());
+        if (names[i] == null) {
+          assertNull(resolved[i].getName());
+        } else {
+          assertEquals(names[i], resolved[i].getName());
+          assertEquals(i == 0 ? INodeDirectory.ROOT_ID : dirId,
+              (int) resolved[i].getPid());
+        }
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sics.hop.erasure_coding;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Measures the encode and decode throughput of {@link ReedSolomonCode} for
+ * the usual stripe layouts, with heap and direct buffers. The user should
+ * invoke the main of this class, optionally with the buffer size in KB and
+ * the number of seconds to run each case.
+ */
+public class BenchmarkReedSolomonCode {
+
+  private static final int[][] LAYOUTS = {{6, 3}, {10, 4}, {12, 4}};
+
+  private final int bufferSize;
+  private final long durationNs;
+
+  BenchmarkReedSolomonCode(int bufferSize, long durationNs) {
+    this.bufferSize = bufferSize;
+    this.durationNs = durationNs;
+  }
+
+  private interface Operation {
+    void run();
+  }
+
+  /**
+   * @return GB/s of message data processed
+   */
+  private double measure(Operation operation, int stripeSize) {
+    // warm up, so the loops are compiled before they are timed
+    long end = System.nanoTime() + durationNs / 2;
+    while (System.nanoTime() < end) {
+      operation.run();
+    }
+    long runs = 0;
+    long start = System.nanoTime();
+    end = start + durationNs;
+    long now;
+    do {
+      operation.run();
+      runs++;
+      now = System.nanoTime();
+    } while (now < end);
+    double bytes = (double) runs * stripeSize * bufferSize;
+    return bytes / (now - start);
+  }
+
+  private static ByteBuffer[] direct(byte[][] arrays) {
+    ByteBuffer[] buffers = new ByteBuffer[arrays.length];
+    for (int i = 0; i < arrays.length; i++) {
+      if (arrays[i] != null) {
+        buffers[i] = ByteBuffer.allocateDirect(arrays[i].length);
+        buffers[i].put(arrays[i]).flip();
+      }
+    }
+    return buffers;
+  }
+
+  void run(final int stripeSize, final int paritySize) {
+    final ReedSolomonCode code = new ReedSolomonCode(stripeSize, paritySize);
+    Random random = new Random(0);
+    final byte[][] message = new byte[stripeSize][bufferSize];
+    for (byte[] buffer : message) {
+      random.nextBytes(buffer);
+    }
+    final byte[][] parity = new byte[paritySize][bufferSize];
+    code.encodeBulk(message, parity);
+
+    // lose the first paritySize message blocks
+    final int[] erased = new int[paritySize];
+    final byte[][] readBufs = new byte[stripeSize + paritySize][];
+    for (int i = 0; i < paritySize; i++) {
+      erased[i] = paritySize + i;
+      readBufs[i] = parity[i];
+    }
+    for (int j = paritySize; j < stripeSize; j++) {
+      readBufs[paritySize + j] = message[j];
+    }
+    final byte[][] writeBufs = new byte[paritySize][bufferSize];
+
+    final ByteBuffer[] directMessage = direct(message);
+    final ByteBuffer[] directParity = direct(parity);
+    final ByteBuffer[] directRead = direct(readBufs);
+    final ByteBuffer[] directWrite = direct(writeBufs);
+
+    double encode = measure(new Operation() {
+      @Override
+      public void run() {
+        code.encodeBulk(message, parity);
+      }
+    }, stripeSize);
+    double decode = measure(new Operation() {
+      @Override
+      public void run() {
+        code.decodeBulk(readBufs, writeBufs, erased, null, null);
+      }
+    }, stripeSize);
+    double encodeDirect = measure(new Operation() {
+      @Override
+      public void run() {
+        code.encodeBulk(directMessage, directParity);
+      }
+    }, stripeSize);
+    double decodeDirect = measure(new Operation() {
+      @Override
+      public void run() {
+        code.decodeBulk(directRead, directWrite, erased, null, null);
+      }
+    }, stripeSize);
+    System.out.println(String.format(
+        "RS(%d,%d) encode %.2f GB/s, decode %d erasures %.2f GB/s," +
+        " direct encode %.2f GB/s, direct decode %.2f GB/s",
+        stripeSize, paritySize, encode, paritySize, decode, encodeDirect,
+        decodeDirect));
+  }
+
+  public static void main(String[] args) {
+    int bufferSize = 64 * 1024;
+    long seconds = 2;
+    if (args.length > 0) {
+      bufferSize = Integer.parseInt(args[0]) * 1024;
+    }
+    if (args.length > 1) {
+      seconds = Long.parseLong(args[1]);
+    }
+    BenchmarkReedSolomonCode benchmark =
+        new BenchmarkReedSolomonCode(bufferSize, seconds * 1000000000L);
+    for (int[] layout : LAYOUTS) {
+      benchmark.run(layout[0], layout[1]);
+    }
+  }
+}
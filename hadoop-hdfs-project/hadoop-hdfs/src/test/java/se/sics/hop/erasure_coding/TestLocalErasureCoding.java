@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.erasure_coding;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManagerTestUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TestLocalErasureCoding extends BasicClusterTestCase {
+
+  private static final int STRIPE_SIZE = 10;
+  private static final int PARITY_SIZE = 4;
+  private static final long TIMEOUT = 60000;
+
+  private final Path testFile = new Path("/test_file");
+  private final EncodingPolicy policy = new EncodingPolicy("rs", (short) 1);
+
+  public TestLocalErasureCoding() {
+    getConf().set(DFSConfigKeys.ENCODING_MANAGER_CLASSNAME_KEY,
+        LocalEncodingManager.class.getName());
+    getConf().set(DFSConfigKeys.BLOCK_REPAIR_MANAGER_CLASSNAME_KEY,
+        LocalBlockRepairManager.class.getName());
+    getConf().setInt(DFSConfigKeys.RECHECK_INTERVAL_KEY, 1000);
+    getConf().setInt(DFSConfigKeys.REPAIR_DELAY_KEY, 0);
+    getConf().setInt(DFSConfigKeys.PARITY_REPAIR_DELAY_KEY, 0);
+    // several chunks per block
+    getConf().setInt(DFSConfigKeys.LOCAL_CHUNK_SIZE_KEY,
+        DFS_TEST_BLOCK_SIZE / 4);
+    // enough datanodes to not lose more blocks of a stripe than the parity
+    getConf().setInt(DFSConfigKeys.DFS_REPLICATION_KEY, 6);
+  }
+
+  @Test
+  public void testEncodeFile() throws Exception {
+    int blocks = STRIPE_SIZE + 2;
+    byte[] data = createFile(blocks);
+    EncodingStatus status = waitForStatus(EncodingStatus.Status.ENCODED);
+
+    Path parityFile = new Path(DFSConfigKeys.DEFAULT_PARITY_FOLDER + "/"
+        + status.getParityFileName());
+    int stripes = 2;
+    byte[] parity = readFile(parityFile);
+    assertEquals(stripes * PARITY_SIZE * DFS_TEST_BLOCK_SIZE, parity.length);
+
+    ReedSolomonCode code = new ReedSolomonCode(STRIPE_SIZE, PARITY_SIZE);
+    for (int stripe = 0; stripe < stripes; stripe++) {
+      byte[][] message = new byte[STRIPE_SIZE][DFS_TEST_BLOCK_SIZE];
+      for (int i = 0; i < STRIPE_SIZE; i++) {
+        int start = (stripe * STRIPE_SIZE + i) * DFS_TEST_BLOCK_SIZE;
+        if (start < data.length) {
+          System.arraycopy(data, start, message[i], 0, DFS_TEST_BLOCK_SIZE);
+        }
+      }
+      byte[][] expected = new byte[PARITY_SIZE][DFS_TEST_BLOCK_SIZE];
+      code.encodeBulk(message, expected);
+      for (int i = 0; i < PARITY_SIZE; i++) {
+        int start = (stripe * PARITY_SIZE + i) * DFS_TEST_BLOCK_SIZE;
+        assertTrue("Parity block " + i + " of stripe " + stripe,
+            Arrays.equals(expected[i], Arrays.copyOfRange(parity, start,
+                start + DFS_TEST_BLOCK_SIZE)));
+      }
+    }
+  }
+
+  @Test
+  public void testRepairLostBlock() throws Exception {
+    byte[] data = createFile(STRIPE_SIZE);
+    waitForStatus(EncodingStatus.Status.ENCODED);
+
+    LocatedBlock lost = getDfs().getClient().getLocatedBlocks(
+        testFile.toUri().getPath(), 0, data.length).get(0);
+    DatanodeInfo datanode = lost.getLocations()[0];
+    getCluster().stopDataNode(datanode.getXferAddr());
+    BlockManagerTestUtil.noticeDeadDatanode(getCluster().getNameNode(),
+        datanode.getXferAddr());
+
+    // the replicas of the file are not replicated, only the repair brings
+    // the lost blocks back
+    long start = System.currentTimeMillis();
+    while (!allBlocksAvailable(data.length)) {
+      if (System.currentTimeMillis() - start > TIMEOUT) {
+        fail("The lost blocks were not repaired");
+      }
+      Thread.sleep(500);
+    }
+    waitForStatus(EncodingStatus.Status.ENCODED);
+    assertTrue(Arrays.equals(data, readFile(testFile)));
+  }
+
+  private byte[] createFile(int blocks) throws IOException {
+    byte[] data = TestUtil.randomBytes(System.currentTimeMillis(), blocks,
+        DFS_TEST_BLOCK_SIZE);
+    FSDataOutputStream out = getDfs().create(testFile, (short) 1, policy);
+    out.write(data);
+    out.close();
+    return data;
+  }
+
+  private boolean allBlocksAvailable(long length) throws IOException {
+    for (LocatedBlock block : getDfs().getClient().getLocatedBlocks(
+        testFile.toUri().getPath(), 0, length).getLocatedBlocks()) {
+      if (block.getLocations().length == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private byte[] readFile(Path path) throws IOException {
+    byte[] data = new byte[(int) getDfs().getFileStatus(path).getLen()];
+    FSDataInputStream in = getDfs().open(path);
+    try {
+      in.readFully(0, data);
+    } finally {
+      in.close();
+    }
+    return data;
+  }
+
+  private EncodingStatus waitForStatus(EncodingStatus.Status expected)
+      throws IOException, InterruptedException {
+    long start = System.currentTimeMillis();
+    while (true) {
+      EncodingStatus status =
+          getDfs().getEncodingStatus(testFile.toUri().getPath());
+      if (expected.equals(status.getStatus())) {
+        return status;
+      }
+      if (System.currentTimeMillis() - start > TIMEOUT) {
+        fail("Status " + status.getStatus() + " instead of " + expected);
+      }
+      Thread.sleep(500);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sics.hop.erasure_coding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+public class TestReedSolomonCode {
+
+  private final Random random = new Random(0xC0DE);
+
+  private byte[][] randomBuffers(int count, int length) {
+    byte[][] buffers = new byte[count][length];
+    for (byte[] buffer : buffers) {
+      random.nextBytes(buffer);
+    }
+    return buffers;
+  }
+
+  /** Parity first, as the locations of the code are numbered */
+  private static byte[][] stripe(byte[][] parity, byte[][] message) {
+    byte[][] all = new byte[parity.length + message.length][];
+    System.arraycopy(parity, 0, all, 0, parity.length);
+    System.arraycopy(message, 0, all, parity.length, message.length);
+    return all;
+  }
+
+  @Test
+  public void testGeneratorRoots() {
+    // every codeword is a multiple of the generating polynomial, so it has
+    // the same roots 2^0 ... 2^(paritySize - 1)
+    ReedSolomonCode code = new ReedSolomonCode(10, 4);
+    int[] message = new int[10];
+    int[] parity = new int[4];
+    for (int i = 0; i < message.length; i++) {
+      message[i] = random.nextInt(256);
+    }
+    code.encode(message, parity);
+    for (int r = 0; r < 4; r++) {
+      int root = GaloisField.power(2, r);
+      int value = 0;
+      for (int l = 0; l < 14; l++) {
+        int symbol = l < 4 ? parity[l] : message[l - 4];
+        value ^= GaloisField.multiply(symbol, GaloisField.power(root, l));
+      }
+      assertEquals(0, value);
+    }
+  }
+
+  @Test
+  public void testBulkMatchesSymbols() {
+    ReedSolomonCode code = new ReedSolomonCode(6, 3);
+    byte[][] message = randomBuffers(6, 10000);
+    byte[][] parity = new byte[3][10000];
+    code.encodeBulk(message, parity);
+
+    int[] symbols = new int[6];
+    int[] expected = new int[3];
+    for (int pos = 0; pos < 10000; pos += 997) {
+      for (int j = 0; j < 6; j++) {
+        symbols[j] = message[j][pos] & 0xFF;
+      }
+      code.encode(symbols, expected);
+      for (int i = 0; i < 3; i++) {
+        assertEquals(expected[i], parity[i][pos] & 0xFF);
+      }
+    }
+  }
+
+  @Test
+  public void testDecodeErasures() {
+    int[][] layouts = {{6, 3}, {10, 4}, {12, 4}};
+    for (int[] layout : layouts) {
+      int stripeSize = layout[0];
+      int paritySize = layout[1];
+      ReedSolomonCode code = new ReedSolomonCode(stripeSize, paritySize);
+      byte[][] message = randomBuffers(stripeSize, 5000);
+      byte[][] parity = new byte[paritySize][5000];
+      code.encodeBulk(message, parity);
+      byte[][] data = stripe(parity, message);
+
+      for (int trial = 0; trial < 20; trial++) {
+        int[] erased = new int[1 + random.nextInt(paritySize)];
+        for (int e = 0; e < erased.length; e++) {
+          int loc;
+          do {
+            loc = random.nextInt(stripeSize + paritySize);
+          } while (contains(erased, e, loc));
+          erased[e] = loc;
+        }
+        byte[][] readBufs = data.clone();
+        for (int loc : erased) {
+          readBufs[loc] = null;
+        }
+        byte[][] writeBufs = new byte[erased.length][5000];
+        code.decodeBulk(readBufs, writeBufs, erased, null, null);
+        for (int e = 0; e < erased.length; e++) {
+          assertArrayEquals(data[erased[e]], writeBufs[e]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDecodeReadsOnlyGivenLocations() {
+    ReedSolomonCode code = new ReedSolomonCode(10, 4);
+    byte[][] message = randomBuffers(10, 3000);
+    byte[][] parity = new byte[4][3000];
+    code.encodeBulk(message, parity);
+    byte[][] data = stripe(parity, message);
+
+    // recover message 0 from the parity and the message 4 ... 9
+    int[] erased = {4};
+    int[] toRead = {0, 1, 2, 3, 8, 9, 10, 11, 12, 13};
+    byte[][] readBufs = new byte[14][];
+    for (int loc : toRead) {
+      readBufs[loc] = data[loc];
+    }
+    byte[][] writeBufs = new byte[1][3000];
+    code.decodeBulk(readBufs, writeBufs, erased, toRead, null);
+    assertArrayEquals(data[4], writeBufs[0]);
+  }
+
+  @Test
+  public void testDirectBuffers() {
+    ReedSolomonCode code = new ReedSolomonCode(6, 3);
+    byte[][] message = randomBuffers(6, 8192);
+    byte[][] parity = new byte[3][8192];
+    code.encodeBulk(message, parity);
+
+    ByteBuffer[] inputs = new ByteBuffer[6];
+    for (int j = 0; j < 6; j++) {
+      inputs[j] = ByteBuffer.allocateDirect(8192);
+      inputs[j].put(message[j]).flip();
+    }
+    ByteBuffer[] outputs = new ByteBuffer[3];
+    for (int i = 0; i < 3; i++) {
+      outputs[i] = ByteBuffer.allocateDirect(8192);
+    }
+    code.encodeBulk(inputs, outputs);
+    for (int i = 0; i < 3; i++) {
+      byte[] out = new byte[8192];
+      outputs[i].get(out);
+      assertArrayEquals(parity[i], out);
+    }
+
+    ByteBuffer[] readBufs = new ByteBuffer[9];
+    for (int i = 1; i < 3; i++) {
+      outputs[i].flip();
+      readBufs[i] = outputs[i];
+    }
+    for (int j = 1; j < 6; j++) {
+      readBufs[3 + j] = inputs[j];
+    }
+    ByteBuffer[] writeBufs = {ByteBuffer.allocateDirect(8192),
+        ByteBuffer.allocateDirect(8192)};
+    code.decodeBulk(readBufs, writeBufs, new int[]{0, 3}, null, null);
+    byte[] out = new byte[8192];
+    writeBufs[0].get(out);
+    assertArrayEquals(parity[0], out);
+    writeBufs[1].get(out);
+    assertArrayEquals(message[0], out);
+  }
+
+  private static boolean contains(int[] locations, int count, int loc) {
+    for (int i = 0; i < count; i++) {
+      if (locations[i] == loc) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
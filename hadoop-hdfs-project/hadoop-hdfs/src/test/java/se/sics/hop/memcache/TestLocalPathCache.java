@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.memcache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.junit.Test;
+
+public class TestLocalPathCache {
+
+  private static byte[][] components(String path) {
+    return INode.getPathComponents(path);
+  }
+
+  @Test
+  public void testPrefixes() {
+    LocalPathCache cache = new LocalPathCache(100);
+    cache.put(components("/a/b/c"), new int[]{0, 1, 2, 3});
+
+    assertArrayEquals(new int[]{0, 1, 2, 3}, cache.get(components("/a/b/c")));
+    assertArrayEquals(new int[]{0, 1, 2}, cache.get(components("/a/b")));
+    assertArrayEquals(new int[]{0, 1}, cache.get(components("/a")));
+    assertNull(cache.get(components("/a/x")));
+    assertEquals(3, cache.size());
+
+    // idempotent
+    cache.put(components("/a/b/c"), new int[]{0, 1, 2, 3});
+    assertEquals(3, cache.size());
+
+    // mismatched lengths are ignored
+    cache.put(components("/a/y"), new int[]{0, 1});
+    assertNull(cache.get(components("/a/y")));
+  }
+
+  @Test
+  public void testPartialPrefix() {
+    LocalPathCache cache = new LocalPathCache(100);
+    cache.put(components("/a/b"), new int[]{0, 1, 2});
+
+    assertArrayEquals(new int[]{0, 1, 2},
+        cache.getLongestPrefix(components("/a/b/c/d")));
+    assertArrayEquals(new int[]{0, 1},
+        cache.getLongestPrefix(components("/a/x")));
+    assertArrayEquals(new int[]{0, 1, 2},
+        cache.getLongestPrefix(components("/a/b")));
+    assertNull(cache.getLongestPrefix(components("/x/b")));
+    assertNull(cache.getLongestPrefix(components("/")));
+  }
+
+  @Test
+  public void testInvalidation() {
+    LocalPathCache cache = new LocalPathCache(100);
+    byte[][] path = components("/a/b/c/d");
+    cache.put(path, new int[]{0, 1, 2, 3, 4});
+
+    cache.invalidate(path, path.length);
+    assertNull(cache.get(path));
+    assertArrayEquals(new int[]{0, 1, 2, 3}, cache.getLongestPrefix(path));
+
+    cache.put(path, new int[]{0, 1, 2, 3, 4});
+    cache.invalidatePrefixesLongerThan(path, 2);
+    assertNull(cache.get(components("/a/b/c/d")));
+    assertNull(cache.get(components("/a/b")));
+    assertArrayEquals(new int[]{0, 1}, cache.get(components("/a")));
+    assertArrayEquals(new int[]{0, 1}, cache.getLongestPrefix(path));
+
+    cache.clear();
+    assertNull(cache.getLongestPrefix(path));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testUnverified() {
+    LocalPathCache cache = new LocalPathCache(100);
+    byte[][] path = components("/a/b/c");
+    cache.putUnverified(path, new int[]{0, 1, 2, 3});
+
+    // a hint for resolution, but not a verified entry
+    assertTrue(cache.contains(path));
+    assertNull(cache.get(path));
+    assertArrayEquals(new int[]{0, 1, 2, 3}, cache.getLongestPrefix(path));
+    assertNull(cache.getLongestPrefix(components("/a/b")));
+    assertEquals(1, cache.size());
+
+    // verified once resolved
+    cache.put(path, new int[]{0, 1, 2, 5});
+    assertArrayEquals(new int[]{0, 1, 2, 5}, cache.get(path));
+    assertArrayEquals(new int[]{0, 1, 2}, cache.get(components("/a/b")));
+
+    // does not replace a verified entry
+    cache.putUnverified(path, new int[]{0, 1, 2, 6});
+    assertArrayEquals(new int[]{0, 1, 2, 5}, cache.get(path));
+  }
+
+  @Test
+  public void testEviction() {
+    int maxSize = 64;
+    LocalPathCache cache = new LocalPathCache(maxSize);
+    for (int i = 0; i < 10 * maxSize; i++) {
+      cache.put(components("/d" + i), new int[]{0, i + 1});
+      assertTrue(cache.size() <= maxSize);
+    }
+    // the most recent entry has not been evicted
+    int last = 10 * maxSize - 1;
+    assertArrayEquals(new int[]{0, last + 1},
+        cache.get(components("/d" + last)));
+
+    int cached = 0;
+    for (int i = 0; i < 10 * maxSize; i++) {
+      if (cache.get(components("/d" + i)) != null) {
+        cached++;
+      }
+    }
+    assertTrue(cached <= maxSize);
+  }
+}
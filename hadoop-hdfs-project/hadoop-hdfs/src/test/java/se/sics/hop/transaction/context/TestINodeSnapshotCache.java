@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.context;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.Test;
+
+public class TestINodeSnapshotCache {
+
+  @Test
+  public void testLocalWritesInvalidate() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setBoolean(DFSConfigKeys.DFS_INODE_CACHE_ENABLED_KEY, true);
+      conf.setLong(DFSConfigKeys.DFS_INODE_CACHE_MAX_AGE_KEY, 60000);
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      Path dir0 = new Path("/dir0");
+      Path dir1 = new Path(dir0, "dir1");
+      dfs.mkdirs(dir1);
+      for (int i = 0; i < 10; i++) {
+        dfs.create(new Path(dir1, "file" + i)).close();
+      }
+      assertTrue(getLongCounter("InodeCacheHits",
+          getMetrics("NameNodeActivity")) > 0);
+
+      dfs.setPermission(dir0, new FsPermission((short) 0700));
+      assertEquals(new FsPermission((short) 0700),
+          dfs.getFileStatus(dir0).getPermission());
+
+      Path renamed = new Path(dir0, "dir2");
+      assertTrue(dfs.rename(dir1, renamed));
+      assertFalse(dfs.exists(new Path(dir1, "file0")));
+      assertTrue(dfs.exists(new Path(renamed, "file0")));
+      assertEquals(10, dfs.listStatus(renamed).length);
+
+      dfs.mkdirs(dir1);
+      assertEquals(0, dfs.listStatus(dir1).length);
+      assertTrue(getLongCounter("InodeCacheInvalidations",
+          getMetrics("NameNodeActivity")) > 0);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRowCounters {
+
+  private final RowCounters counters = RowCounters.getInstance();
+
+  @Before
+  public void enable() {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_ROW_COUNTERS_ENABLED_KEY, true);
+    counters.setConfiguration(conf);
+  }
+
+  @After
+  public void disable() {
+    counters.setConfiguration(new HdfsConfiguration());
+  }
+
+  @Test
+  public void testUnknownUntilReconciled() {
+    counters.transactionStarted();
+    counters.prepared(RowCounters.Counter.INVALIDATED_BLOCKS, 3, 0);
+    counters.transactionFinished(true);
+    assertNull(counters.get(RowCounters.Counter.INVALIDATED_BLOCKS));
+
+    counters.reconcile(RowCounters.Counter.INVALIDATED_BLOCKS, 10);
+    assertEquals(10L, (long) counters.get(RowCounters.Counter.INVALIDATED_BLOCKS));
+  }
+
+  @Test
+  public void testOnlyCommittedDeltasCount() {
+    counters.reconcile(RowCounters.Counter.BLOCKS, 100);
+
+    counters.transactionStarted();
+    counters.prepared(RowCounters.Counter.BLOCKS, 5, 2);
+    counters.transactionFinished(true);
+    assertEquals(103L, (long) counters.get(RowCounters.Counter.BLOCKS));
+
+    counters.transactionStarted();
+    counters.prepared(RowCounters.Counter.BLOCKS, 7, 0);
+    counters.transactionFinished(false);
+    assertEquals(103L, (long) counters.get(RowCounters.Counter.BLOCKS));
+
+    // a retried transaction only counts the rows of its last attempt
+    counters.transactionStarted();
+    counters.prepared(RowCounters.Counter.BLOCKS, 4, 0);
+    counters.transactionStarted();
+    counters.prepared(RowCounters.Counter.BLOCKS, 1, 0);
+    counters.transactionFinished(true);
+    assertEquals(104L, (long) counters.get(RowCounters.Counter.BLOCKS));
+  }
+
+  @Test
+  public void testDisabled() {
+    counters.setConfiguration(new HdfsConfiguration());
+    counters.reconcile(RowCounters.Counter.BLOCKS, 100);
+    assertNull(counters.get(RowCounters.Counter.BLOCKS));
+  }
+}
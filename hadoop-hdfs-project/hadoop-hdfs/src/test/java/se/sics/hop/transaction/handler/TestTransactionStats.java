@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.handler;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.Test;
+import org.mortbay.util.ajax.JSON;
+
+public class TestTransactionStats {
+
+  @Test
+  public void testStatsAreCollected() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setBoolean(DFSConfigKeys.DFS_TRANSACTION_STATS_ENABLED_KEY, true);
+      conf.setLong(DFSConfigKeys.DFS_TRANSACTION_STATS_SLOW_THRESHOLD_KEY, 0);
+      conf.setFloat(DFSConfigKeys.DFS_TRANSACTION_STATS_SLOW_LOG_SAMPLE_RATIO_KEY, 1.0f);
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      TransactionStats.getInstance().reset();
+      dfs.mkdirs(new Path("/dir0/dir1"));
+      dfs.getFileStatus(new Path("/dir0/dir1"));
+
+      Map<String, Object> stats = (Map<String, Object>) JSON.parse(
+          TransactionStats.getInstance().getTransactionStats());
+      Map<String, Object> mkdirs = (Map<String, Object>) stats.get("MKDIRS");
+      assertNotNull(mkdirs);
+      assertTrue((Long) mkdirs.get("transactions") >= 1);
+      assertTrue((Long) mkdirs.get("roundTrips") >= 1);
+      assertTrue((Long) mkdirs.get("rowsWritten") >= 2);
+      // the path is read by the locks and then found in the contexts
+      assertTrue((Long) mkdirs.get("contextMisses") >= 1);
+      assertTrue((Long) mkdirs.get("contextHits") >= 1);
+      assertNotNull(stats.get("GET_FILE_INFO"));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.sics.hop.transaction.lock;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.ipc.RemoteException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the resolution of paths whose ancestors are read with one batched
+ * primary key read, using the parent ids cached for the path as a hint.
+ */
+public class TestBatchedPathResolution {
+  private static final int DEPTH = 20;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem dfs;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_BATCHED_PATH_RESOLUTION_ENABLED_KEY,
+        true);
+    conf.setBoolean(DFSConfigKeys.DFS_PATH_CACHE_ENABLED_KEY, true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testDeepPath() throws IOException {
+    Path dir = deepDir(new Path("/deep"));
+    Path file = new Path(dir, "file");
+    createFile(file, 10);
+
+    long hits = getHintHits();
+    for (int i = 0; i < 5; i++) {
+      assertEquals(10, dfs.getFileStatus(file).getLen());
+    }
+    assertTrue(getHintHits() > hits);
+  }
+
+  @Test
+  public void testMissingComponents() throws IOException {
+    Path top = new Path("/missing");
+    Path dir = deepDir(top);
+    Path file = new Path(dir, "file");
+    createFile(file, 10);
+    assertTrue(dfs.exists(file));
+
+    // never existed, below a cached prefix
+    assertFalse(dfs.exists(new Path(dir, "nothing/file")));
+
+    // an ancestor of the cached path is gone
+    Path middle = new Path(top, "d0/d1/d2/d3/d4");
+    assertTrue(dfs.delete(middle, true));
+    assertFalse(dfs.exists(file));
+    assertFalse(dfs.exists(dir));
+
+    // the same names with new ids, the cached hint is stale
+    assertTrue(dfs.mkdirs(dir));
+    createFile(file, 20);
+    assertEquals(20, dfs.getFileStatus(file).getLen());
+    assertEquals(20, dfs.getFileStatus(file).getLen());
+  }
+
+  @Test
+  public void testConcurrentRename() throws Exception {
+    final Path src = new Path("/rename/src");
+    final Path dst = new Path("/rename/dst");
+    Path dir = deepDir(src);
+    final String relativeFile =
+        dir.toUri().getPath().substring(src.toUri().getPath().length() + 1)
+            + "/file";
+    createFile(new Path(src, relativeFile), 10);
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    List<Thread> readers = new ArrayList<Thread>();
+    for (int i = 0; i < 4; i++) {
+      Thread reader = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (!done.get()) {
+              for (Path parent : new Path[]{src, dst}) {
+                checkFileWhileRenamed(new Path(parent, relativeFile), 10);
+              }
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+      readers.add(reader);
+      reader.start();
+    }
+
+    try {
+      for (int i = 0; i < 20; i++) {
+        assertTrue(dfs.rename(src, dst));
+        assertTrue(dfs.rename(dst, src));
+      }
+      assertTrue(dfs.rename(src, dst));
+    } finally {
+      done.set(true);
+      for (Thread reader : readers) {
+        reader.join();
+      }
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+    assertFalse(dfs.exists(new Path(src, relativeFile)));
+    assertEquals(10, dfs.getFileStatus(new Path(dst, relativeFile)).getLen());
+  }
+
+  /**
+   * Checks the length of the file if it is found, the path may be renamed or
+   * subtree locked by the rename meanwhile.
+   */
+  private void checkFileWhileRenamed(Path file, long length)
+      throws IOException {
+    try {
+      assertEquals(length, dfs.getFileStatus(file).getLen());
+    } catch (FileNotFoundException e) {
+      // renamed
+    } catch (RemoteException e) {
+      if (!SubtreeLockedException.class.getName().equals(e.getClassName())) {
+        throw e;
+      }
+    }
+  }
+
+  private Path deepDir(Path top) throws IOException {
+    Path dir = top;
+    for (int i = 0; i < DEPTH; i++) {
+      dir = new Path(dir, "d" + i);
+    }
+    assertTrue(dfs.mkdirs(dir));
+    return dir;
+  }
+
+  private void createFile(Path file, int length) throws IOException {
+    FSDataOutputStream out = dfs.create(file);
+    out.write(new byte[length]);
+    out.close();
+  }
+
+  private static long getHintHits() {
+    return getLongCounter("PathResolutionHintHits",
+        getMetrics("NameNodeActivity"));
+  }
+}